@@ -0,0 +1,68 @@
+#import "Common/ShaderLib/GLSLCompat.glsllib"
+#import "Common/ShaderLib/BlinnPhongLighting.glsllib"
+#import "Common/ShaderLib/Lighting.glsllib"
+
+uniform mat4 g_WorldViewProjectionMatrix;
+uniform mat4 g_WorldViewMatrix;
+uniform mat4 g_WorldMatrix;
+uniform mat3 g_NormalMatrix;
+uniform vec3 g_CameraPosition;
+uniform vec4 g_LightData[NB_LIGHTS];
+uniform vec4 g_AmbientLightColor;
+
+uniform vec4 m_BaseColor;
+uniform vec4 m_TipColor;
+uniform float m_ColorVariation;
+uniform float m_FadeStart;
+uniform float m_FadeEnd;
+
+attribute vec3 inPosition;
+attribute vec2 inTexCoord;
+// Position of the tuft and its scale
+attribute vec4 inInstanceData;
+
+varying vec3 color;
+
+float hash(vec2 p) {
+    return fract(sin(dot(p, vec2(12.9898, 78.233))) * 43758.5453);
+}
+
+void main(){
+    vec3 origin = inInstanceData.xyz;
+    float random = hash(origin.xz);
+    float turn = hash(origin.zx + 17.0) * 6.2831853;
+
+    // Thinned out with distance, each tuft sinking into the ground in turn
+    float cameraDistance = length((g_WorldMatrix * vec4(origin, 1.0)).xyz - g_CameraPosition);
+    float fade = 1.0 - smoothstep(m_FadeStart, m_FadeEnd, cameraDistance);
+    float scale = inInstanceData.w * clamp((fade - random * 0.75) * 4.0, 0.0, 1.0);
+
+    float c = cos(turn);
+    float s = sin(turn);
+    vec3 position = vec3(c * inPosition.x - s * inPosition.z, inPosition.y, s * inPosition.x + c * inPosition.z);
+    vec4 pos = vec4(origin + position * scale, 1.0);
+    gl_Position = g_WorldViewProjectionMatrix * pos;
+
+    // Lit as the ground under it, so the cover does not stand out from the terrain
+    vec3 vPos = (g_WorldViewMatrix * pos).xyz;
+    vec3 normal = normalize(g_NormalMatrix * vec3(0.0, 1.0, 0.0));
+    vec3 albedo = mix(m_BaseColor.rgb, m_TipColor.rgb, inTexCoord.y)
+            * (1.0 + (hash(origin.xz + 5.0) - 0.5) * m_ColorVariation);
+
+    color = g_AmbientLightColor.rgb * albedo;
+    for (int i = 0; i < NB_LIGHTS; i += 3) {
+        vec4 lightColor = g_LightData[i];
+        vec4 lightData1 = g_LightData[i + 1];
+        vec4 lightDir;
+        vec3 lightVec;
+        lightComputeDir(vPos, lightColor.w, lightData1, lightDir, lightVec);
+
+        float spotFallOff = 1.0;
+        if (lightColor.w > 1.0) {
+            spotFallOff = computeSpotFalloff(g_LightData[i + 2], lightVec);
+        }
+        lightDir.xyz = normalize(lightDir.xyz);
+        float diffuse = lightComputeDiffuse(normal, lightDir.xyz) * lightDir.w * spotFallOff;
+        color += lightColor.rgb * albedo * diffuse;
+    }
+}
@@ -0,0 +1,107 @@
+#extension GL_EXT_texture_array : enable
+#import "Common/ShaderLib/GLSLCompat.glsllib"
+#import "Common/ShaderLib/BlinnPhongLighting.glsllib"
+#import "Common/ShaderLib/Lighting.glsllib"
+
+uniform vec4 g_LightData[NB_LIGHTS];
+uniform vec4 g_AmbientLightColor;
+
+uniform sampler2DArray m_DiffuseArray;
+uniform sampler2D m_AlphaMap;
+uniform vec4 m_LayerScales;
+uniform float m_DetailDistance;
+uniform float m_DetailFade;
+
+varying vec2 texCoord;
+varying vec3 vPos;
+varying vec3 vNormal;
+
+#ifdef NORMALMAP
+  uniform sampler2DArray m_NormalArray;
+
+  varying vec3 vTangent;
+  varying vec3 vBinormal;
+#endif
+
+#ifdef SLOPE_RULES
+  uniform vec4 m_SlopeRules;
+  uniform float m_RuleBlend;
+
+  varying vec2 slopeHeight;
+#endif
+
+// Smallest weight a layer is still sampled at, close up and far away
+const float NEAR_CUTOFF = 0.004;
+const float FAR_CUTOFF = 0.25;
+
+/*
+ * Weights of the layers from the alpha map, and beyond its edge from the
+ * slope and height of the terrain.
+ */
+vec4 layerWeights() {
+    vec4 weights = texture2D(m_AlphaMap, texCoord);
+    #ifdef SLOPE_RULES
+      vec2 outside = max(-texCoord, texCoord - 1.0);
+      float rule = smoothstep(0.0, m_RuleBlend, max(outside.x, outside.y));
+      if (rule > 0.0) {
+          float rock = smoothstep(m_SlopeRules.x, m_SlopeRules.y, slopeHeight.x);
+          float dirt = (1.0 - rock) * (1.0 - smoothstep(m_SlopeRules.z, m_SlopeRules.w, slopeHeight.y));
+          weights = mix(weights, vec4(dirt, 1.0 - rock - dirt, 0.0, rock), rule);
+      }
+    #endif
+    return weights;
+}
+
+void main(){
+    float detail = 1.0 - smoothstep(m_DetailDistance, m_DetailDistance + m_DetailFade, length(vPos));
+
+    // Layers below the cutoff are skipped, far away only the ones that show
+    vec4 weights = layerWeights();
+    float strongest = max(max(weights.r, weights.g), max(weights.b, weights.a));
+    weights *= step(min(mix(FAR_CUTOFF, NEAR_CUTOFF, detail), strongest), weights);
+    weights /= max(dot(weights, vec4(1.0)), 0.0001);
+
+    // Gradients are taken once, the layers are sampled in branches
+    vec2 dx = dFdx(texCoord);
+    vec2 dy = dFdy(texCoord);
+    vec4 diffuseColor = vec4(0.0);
+    vec3 normal = vec3(0.0);
+    for (int i = 0; i < 4; i++) {
+        if (weights[i] > 0.0) {
+            float scale = m_LayerScales[i];
+            vec3 coord = vec3(texCoord * scale, float(i));
+            diffuseColor += textureGrad(m_DiffuseArray, coord, dx * scale, dy * scale) * weights[i];
+            #ifdef NORMALMAP
+              if (detail > 0.0) {
+                  normal += (textureGrad(m_NormalArray, coord, dx * scale, dy * scale).xyz * 2.0 - 1.0) * weights[i];
+              }
+            #endif
+        }
+    }
+
+    vec3 n = normalize(vNormal);
+    #ifdef NORMALMAP
+      if (detail > 0.0) {
+          mat3 tbnMat = mat3(normalize(vTangent), normalize(vBinormal), n);
+          n = normalize(mix(n, tbnMat * normalize(normal), detail));
+      }
+    #endif
+
+    // Diffuse only, terrain has no highlights
+    gl_FragColor = vec4(g_AmbientLightColor.rgb * diffuseColor.rgb, 1.0);
+    for (int i = 0; i < NB_LIGHTS; i += 3) {
+        vec4 lightColor = g_LightData[i];
+        vec4 lightData1 = g_LightData[i + 1];
+        vec4 lightDir;
+        vec3 lightVec;
+        lightComputeDir(vPos, lightColor.w, lightData1, lightDir, lightVec);
+
+        float spotFallOff = 1.0;
+        if (lightColor.w > 1.0) {
+            spotFallOff = computeSpotFalloff(g_LightData[i + 2], lightVec);
+        }
+        lightDir.xyz = normalize(lightDir.xyz);
+        float diffuse = lightComputeDiffuse(n, lightDir.xyz) * lightDir.w * spotFallOff;
+        gl_FragColor.rgb += lightColor.rgb * diffuseColor.rgb * diffuse;
+    }
+}
@@ -0,0 +1,45 @@
+#import "Common/ShaderLib/GLSLCompat.glsllib"
+
+uniform mat4 g_WorldViewProjectionMatrix;
+uniform mat4 g_WorldViewMatrix;
+uniform mat3 g_NormalMatrix;
+
+attribute vec3 inPosition;
+attribute vec3 inNormal;
+attribute vec2 inTexCoord;
+
+varying vec2 texCoord;
+varying vec3 vPos;
+varying vec3 vNormal;
+
+#ifdef NORMALMAP
+  attribute vec4 inTangent;
+
+  varying vec3 vTangent;
+  varying vec3 vBinormal;
+#endif
+
+#ifdef SLOPE_RULES
+  // Slope, as height change per unit, and height of the terrain
+  varying vec2 slopeHeight;
+#endif
+
+void main(){
+    vec4 pos = vec4(inPosition, 1.0);
+    gl_Position = g_WorldViewProjectionMatrix * pos;
+    texCoord = inTexCoord;
+
+    // Lit in view space
+    vPos = (g_WorldViewMatrix * pos).xyz;
+    vNormal = normalize(g_NormalMatrix * inNormal);
+
+    #ifdef NORMALMAP
+      vTangent = g_NormalMatrix * inTangent.xyz;
+      vBinormal = cross(vNormal, vTangent) * inTangent.w;
+    #endif
+
+    #ifdef SLOPE_RULES
+      float up = max(normalize(inNormal).y, 0.01);
+      slopeHeight = vec2(sqrt(1.0 - up * up) / up, inPosition.y);
+    #endif
+}
@@ -0,0 +1,321 @@
+package mygame;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Build step that writes the baked copy of the assets folder into one
+ * uncompressed, deduplicated pack file, which AssetPackLocator serves from a
+ * memory-mapped buffer.
+ * Only needs the JDK, so the build can run it right after compiling.
+ *
+ * Layout (little endian):
+ *   header: magic, version, entry count, index offset
+ *   blobs:  each unique file content once, 16-byte aligned
+ *   index:  per asset path, its blob offset and length
+ *
+ * Files with identical content are stored once, keyed by their SHA-256.
+ * Assets named in the prune list written by AssetReachability are left out.
+ * So are the sources of the textures in the TextureBaker manifest whose DDS
+ * is packed: their names are indexed as aliases of the DDS blob, so loading a
+ * source name reads the baked texture and no source bytes are shipped.
+ * The pack is written again when a file is newer than it, or when the paths
+ * it indexes are not the ones that belong in it any more, such as after an
+ * asset is deleted or renamed or the excludes change.
+ *
+ * Usage: AssetPackBuilder assetsDir packFile [comma separated excludes] [pruneFile]
+ */
+public class AssetPackBuilder {
+
+    public static final long MAGIC = 0x4B43415041544F42L; // "BOTAPACK"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 24;
+    public static final int ALIGNMENT = 16;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: AssetPackBuilder assetsDir packFile [excludes] [pruneFile]");
+            System.exit(1);
+        }
+        Path assetsDir = new File(args[0]).toPath();
+        File packFile = new File(args[1]);
+        String excludes = args.length > 2 ? args[2] : "";
+        File pruneFile = args.length > 3 ? new File(args[3]) : null;
+
+        List<Path> files = listAssets(assetsDir, excludes);
+        if (pruneFile != null && pruneFile.exists()) {
+            Set<Path> pruned = new HashSet<>();
+            for (String line : Files.readAllLines(pruneFile.toPath(), StandardCharsets.UTF_8)) {
+                if (!line.trim().isEmpty()) {
+                    pruned.add(assetsDir.resolve(line.trim()).normalize());
+                }
+            }
+            int before = files.size();
+            files.removeIf(file -> pruned.contains(file.normalize()));
+            System.out.println("Left " + (before - files.size()) + " unreachable assets out of the pack");
+        }
+        Map<String, String> aliases = bakedAliases(assetsDir, files);
+        if (!aliases.isEmpty()) {
+            Set<String> sources = aliases.keySet();
+            files.removeIf(file -> sources.contains(toName(assetsDir, file)));
+            System.out.println("Left " + aliases.size() + " baked texture sources out of the pack, aliased to their DDS");
+        }
+        if (isUpToDate(assetsDir, packFile, files, aliases)) {
+            System.out.println("Asset pack is up to date: " + packFile);
+            return;
+        }
+        write(assetsDir, files, aliases, packFile);
+    }
+
+    /**
+     * Lists every asset file that belongs in the pack, sorted by path.
+     *
+     * @param assetsDir The assets folder.
+     * @param excludes  Comma separated ant-style patterns of files to leave out.
+     * @return The asset files.
+     */
+    public static List<Path> listAssets(Path assetsDir, String excludes) throws IOException {
+        List<PathMatcher> matchers = matchers(excludes);
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(assetsDir)) {
+            walk.filter(Files::isRegularFile).sorted().forEach(file -> {
+                Path relative = assetsDir.relativize(file);
+                if (relative.getFileName().toString().startsWith(".")) {
+                    return; // .DS_Store and friends
+                }
+                if (!matches(matchers, relative)) {
+                    files.add(file);
+                }
+            });
+        }
+        return files;
+    }
+
+    /**
+     * Parses comma separated ant-style patterns, as used in project.properties.
+     *
+     * @param patterns The patterns.
+     * @return One matcher per pattern, matching paths relative to the assets folder.
+     */
+    public static List<PathMatcher> matchers(String patterns) {
+        List<PathMatcher> matchers = new ArrayList<>();
+        for (String pattern : patterns.split(",")) {
+            pattern = pattern.trim();
+            if (pattern.isEmpty()) {
+                continue;
+            }
+            matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+            if (pattern.startsWith("**/")) {
+                // Ant's **/ also matches files at the top level
+                matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern.substring(3)));
+            }
+        }
+        return matchers;
+    }
+
+    public static boolean matches(List<PathMatcher> matchers, Path relative) {
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(relative)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the TextureBaker manifest, if it is packed, and maps the source of
+     * every baked texture whose DDS is packed to that DDS.
+     */
+    private static Map<String, String> bakedAliases(Path assetsDir, List<Path> files) throws IOException {
+        Map<String, String> aliases = new TreeMap<>();
+        Path manifestFile = assetsDir.resolve(TextureBaker.MANIFEST);
+        if (!files.contains(manifestFile)) {
+            return aliases;
+        }
+        Properties manifest = new Properties();
+        try (InputStream in = Files.newInputStream(manifestFile)) {
+            manifest.load(in);
+        }
+        Set<String> names = new HashSet<>();
+        for (Path file : files) {
+            names.add(toName(assetsDir, file));
+        }
+        for (String source : manifest.stringPropertyNames()) {
+            String baked = manifest.getProperty(source);
+            if (names.contains(baked)) {
+                aliases.put(source, baked);
+            }
+        }
+        return aliases;
+    }
+
+    private static String toName(Path assetsDir, Path file) {
+        return assetsDir.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    private static boolean isUpToDate(Path assetsDir, File packFile, List<Path> files,
+                                      Map<String, String> aliases) throws IOException {
+        if (!packFile.exists()) {
+            return false;
+        }
+        long packTime = packFile.lastModified();
+        Set<String> names = new HashSet<>();
+        for (Path file : files) {
+            if (Files.getLastModifiedTime(file).toMillis() > packTime) {
+                return false;
+            }
+            names.add(toName(assetsDir, file));
+        }
+        names.addAll(aliases.keySet());
+        Map<String, Long> offsets = readIndex(packFile);
+        if (offsets == null || !names.equals(offsets.keySet())) {
+            return false;
+        }
+        // Packs written before aliasing hold the source bytes under the source name
+        for (Map.Entry<String, String> alias : aliases.entrySet()) {
+            if (!offsets.get(alias.getKey()).equals(offsets.get(alias.getValue()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the asset paths indexed by a pack, with the offsets of their blobs.
+     *
+     * @return The offset of each path, or null if the file is not a pack of this version.
+     */
+    private static Map<String, Long> readIndex(File packFile) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(packFile, "r")) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            raf.readFully(header.array());
+            if (header.getLong(0) != MAGIC || header.getInt(8) != VERSION) {
+                return null;
+            }
+            int count = header.getInt(12);
+            long indexOffset = header.getLong(16);
+            ByteBuffer index = ByteBuffer.allocate((int) (raf.length() - indexOffset)).order(ByteOrder.LITTLE_ENDIAN);
+            raf.seek(indexOffset);
+            raf.readFully(index.array());
+
+            Map<String, Long> offsets = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                byte[] name = new byte[index.getShort() & 0xFFFF];
+                index.get(name);
+                offsets.put(new String(name, StandardCharsets.UTF_8), index.getLong());
+                index.getInt(); // length
+            }
+            return offsets;
+        }
+    }
+
+    private static void write(Path assetsDir, List<Path> files, Map<String, String> aliases,
+                              File packFile) throws IOException {
+        MessageDigest sha;
+        try {
+            sha = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        File parent = packFile.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+
+        Map<String, long[]> blobs = new HashMap<>(); // content hash -> offset, length
+        Map<String, long[]> index = new TreeMap<>(); // asset path -> offset, length
+        long totalBytes = 0;
+        long offset = HEADER_SIZE;
+
+        File tmp = new File(packFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            // Header is rewritten once the index offset is known
+            out.write(new byte[HEADER_SIZE]);
+
+            for (Path file : files) {
+                byte[] data = Files.readAllBytes(file);
+                totalBytes += data.length;
+                String hash = toHex(sha.digest(data));
+                String name = toName(assetsDir, file);
+
+                long[] blob = blobs.get(hash);
+                if (blob == null) {
+                    int padding = (int) ((ALIGNMENT - offset % ALIGNMENT) % ALIGNMENT);
+                    out.write(new byte[padding]);
+                    offset += padding;
+                    blob = new long[] {offset, data.length};
+                    blobs.put(hash, blob);
+                    out.write(data);
+                    offset += data.length;
+                }
+                index.put(name, blob);
+            }
+            for (Map.Entry<String, String> alias : aliases.entrySet()) {
+                index.put(alias.getKey(), index.get(alias.getValue()));
+            }
+
+            long indexOffset = offset;
+            for (Map.Entry<String, long[]> entry : index.entrySet()) {
+                byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                ByteBuffer record = ByteBuffer.allocate(2 + name.length + 12).order(ByteOrder.LITTLE_ENDIAN);
+                record.putShort((short) name.length);
+                record.put(name);
+                record.putLong(entry.getValue()[0]);
+                record.putInt((int) entry.getValue()[1]);
+                out.write(record.array());
+            }
+            out.flush();
+
+            try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putLong(MAGIC);
+                header.putInt(VERSION);
+                header.putInt(index.size());
+                header.putLong(indexOffset);
+                raf.write(header.array());
+            }
+        }
+        Files.move(tmp.toPath(), packFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        long packed = 0;
+        for (long[] blob : blobs.values()) {
+            packed += blob[1];
+        }
+        System.out.println("Wrote " + packFile + ": " + index.size() + " assets, "
+                + aliases.size() + " aliases, " + blobs.size() + " unique blobs, " + (totalBytes - packed) / 1024 + " KB deduplicated, "
+                + packed / 1024 + " KB packed");
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,222 @@
+package mygame;
+
+import com.jme3.asset.AssetInfo;
+import com.jme3.asset.AssetKey;
+import com.jme3.asset.AssetLoadException;
+import com.jme3.asset.AssetLocator;
+import com.jme3.asset.AssetManager;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Serves assets out of a pack written by AssetPackBuilder. The pack is memory-mapped
+ * once, and every asset stream reads straight from its slice of the mapping, so a
+ * load costs page-ins instead of a file open and zip inflate.
+ *
+ * Register it with the pack file as root path:
+ *   assetManager.registerLocator("lib/assets.pack", AssetPackLocator.class);
+ */
+public class AssetPackLocator implements AssetLocator {
+
+    // jME creates one locator per registration, the mapping is shared between them
+    private static final Map<String, Pack> packs = new HashMap<>();
+
+    private Pack pack;
+
+    /**
+     * A mapped pack file and its index.
+     */
+    static class Pack {
+        private final MappedByteBuffer data;
+        private final Map<String, long[]> index; // asset path -> offset, length
+
+        Pack(File file) throws IOException {
+            data = map(file);
+            data.order(ByteOrder.LITTLE_ENDIAN);
+            if (data.getLong(0) != AssetPackBuilder.MAGIC || data.getInt(8) != AssetPackBuilder.VERSION) {
+                throw new IOException("Not an asset pack: " + file);
+            }
+            int count = data.getInt(12);
+            ByteBuffer reader = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            reader.position((int) data.getLong(16));
+
+            index = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                byte[] name = new byte[reader.getShort() & 0xFFFF];
+                reader.get(name);
+                long offset = reader.getLong();
+                int length = reader.getInt();
+                index.put(new String(name, StandardCharsets.UTF_8), new long[] {offset, length});
+            }
+        }
+
+        /**
+         * Gets a view of an asset's bytes, or null if it is not packed.
+         */
+        ByteBuffer slice(String name) {
+            long[] entry = index.get(name);
+            if (entry == null) {
+                return null;
+            }
+            ByteBuffer view = data.duplicate();
+            view.position((int) entry[0]);
+            view.limit((int) (entry[0] + entry[1]));
+            return view.slice();
+        }
+
+        int size() {
+            return index.size();
+        }
+    }
+
+    /**
+     * Maps a whole file. The mapping is copy-on-write when the file may be opened
+     * for writing, so its slices can back vertex buffers, which jME requires to be
+     * writable; writes only ever touch private copies of the pages. Otherwise the
+     * mapping is read-only.
+     *
+     * @param file The file to map.
+     * @return The mapping.
+     */
+    static MappedByteBuffer map(File file) throws IOException {
+        if (file.canWrite()) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                 FileChannel channel = raf.getChannel()) {
+                return channel.map(FileChannel.MapMode.PRIVATE, 0, channel.size());
+            } catch (IOException e) {
+                // Fall back to a read-only mapping
+            }
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    @Override
+    public void setRootPath(String rootPath) {
+        synchronized (packs) {
+            pack = packs.get(rootPath);
+            if (pack == null) {
+                try {
+                    pack = new Pack(new File(rootPath));
+                } catch (IOException e) {
+                    throw new AssetLoadException("Could not map asset pack " + rootPath, e);
+                }
+                packs.put(rootPath, pack);
+                System.out.println("Mapped asset pack " + rootPath + " (" + pack.size() + " assets)");
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes") // AssetLocator declares the key raw
+    public AssetInfo locate(AssetManager manager, AssetKey key) {
+        String name = key.getName();
+        if (name.startsWith("/")) {
+            name = name.substring(1);
+        }
+        ByteBuffer slice = pack.slice(name);
+        if (slice == null) {
+            return null;
+        }
+        return new MappedAssetInfo(manager, key, slice);
+    }
+
+    /**
+     * AssetInfo of a packed asset. Loaders that can work on buffers, such as
+     * MappedMeshFormat, take the mapped bytes directly instead of a stream.
+     */
+    public static class MappedAssetInfo extends AssetInfo {
+        private final ByteBuffer slice;
+
+        MappedAssetInfo(AssetManager manager, AssetKey<?> key, ByteBuffer slice) {
+            super(manager, key);
+            this.slice = slice;
+        }
+
+        @Override
+        public InputStream openStream() {
+            return new MappedInputStream(slice.duplicate());
+        }
+
+        /**
+         * Gets a view of the asset's bytes in the mapping. The view is read-only
+         * if the pack could not be mapped copy-on-write.
+         *
+         * @return A new view positioned at the start of the asset.
+         */
+        public ByteBuffer getBuffer() {
+            return slice.duplicate();
+        }
+    }
+
+    /**
+     * Finds the pack next to the game jar (dist/lib/assets.pack), or the file given
+     * by the assets.pack system property.
+     *
+     * @return The pack file, or null when running from the assets folder.
+     */
+    public static File findPack() {
+        String override = System.getProperty("assets.pack");
+        if (override != null) {
+            File file = new File(override);
+            return file.isFile() ? file : null;
+        }
+        try {
+            File codeSource = new File(AssetPackLocator.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            File file = new File(codeSource.getParentFile(), "lib/assets.pack");
+            return file.isFile() ? file : null;
+        } catch (URISyntaxException | SecurityException | NullPointerException e) {
+            return null;
+        }
+    }
+
+    /**
+     * InputStream over a slice of the mapped pack.
+     */
+    private static class MappedInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        MappedInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(bytes, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package mygame;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Build step that finds the assets no code path of the game loads, so the
+ * asset pack can leave them out.
+ *
+ * The roots are the asset paths written as string literals in the game
+ * sources; the standalone test apps are excluded. From there it follows:
+ *   - paths inside j3o models, which are read as raw bytes
+ *   - paths inside j3m materials, j3md definitions, fonts and level descriptors
+ *   - the mapped variants of j3o models (X.mapped.j3o, X.jmm)
+ *   - the baked DDS of textures listed in the TextureBaker manifest
+ *
+ * Paths built at runtime cannot be seen, list them as keep patterns.
+ *
+ * Writes a report with every reachable asset and what first referenced it,
+ * and a prune list with the unreachable ones for AssetPackBuilder.
+ *
+ * Usage: AssetReachability assetsDir sourcesDir reportFile pruneFile
+ *        [pack excludes] [source excludes] [keep patterns]
+ */
+public class AssetReachability {
+
+    private static final String EXTENSIONS =
+            "j3o|j3m|j3md|j3f|json|properties|fnt|png|jpg|jpeg|dds|tga|bmp|hdr|wav|ogg|glsl|vert|frag";
+    // Path-like runs of characters ending in an asset extension
+    private static final Pattern ASSET_PATH =
+            Pattern.compile("[A-Za-z0-9_\\-./]+\\.(?:" + EXTENSIONS + ")(?![A-Za-z0-9])", Pattern.CASE_INSENSITIVE);
+    private static final String[] TEXT_EXTENSIONS = {".j3m", ".j3md", ".j3f", ".json", ".fnt"};
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            System.err.println("Usage: AssetReachability assetsDir sourcesDir reportFile pruneFile"
+                    + " [excludes] [sourceExcludes] [keep]");
+            System.exit(1);
+        }
+        Path assetsDir = new File(args[0]).toPath();
+        Path sourcesDir = new File(args[1]).toPath();
+        File reportFile = new File(args[2]);
+        File pruneFile = new File(args[3]);
+        String excludes = args.length > 4 ? args[4] : "";
+        List<PathMatcher> sourceExcludes = AssetPackBuilder.matchers(args.length > 5 ? args[5] : "");
+        List<PathMatcher> keep = AssetPackBuilder.matchers(args.length > 6 ? args[6] : "");
+
+        // Every file that would go into the pack, keyed by asset path
+        TreeMap<String, Path> assets = new TreeMap<>();
+        for (Path file : AssetPackBuilder.listAssets(assetsDir, excludes)) {
+            assets.put(toAssetPath(assetsDir.relativize(file)), file);
+        }
+        Properties manifest = new Properties();
+        Path manifestFile = assetsDir.resolve(TextureBaker.MANIFEST);
+        if (Files.exists(manifestFile)) {
+            try (InputStream in = Files.newInputStream(manifestFile)) {
+                manifest.load(in);
+            }
+        }
+
+        // Asset path -> what referenced it first
+        Map<String, String> reached = new LinkedHashMap<>();
+        // Paths named by assets that are not in the assets folder -> who named them
+        Map<String, String> missing = new TreeMap<>();
+        Deque<String> queue = new ArrayDeque<>();
+        List<Path> sources = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(sourcesDir)) {
+            walk.filter(file -> file.toString().endsWith(".java")).sorted()
+                    .filter(file -> !AssetPackBuilder.matches(sourceExcludes, sourcesDir.relativize(file)))
+                    .forEach(sources::add);
+        }
+        for (Path source : sources) {
+            String referrer = toAssetPath(sourcesDir.relativize(source));
+            for (String path : findPaths(Files.readAllBytes(source), "", assets, null)) {
+                reach(path, referrer, reached, queue);
+            }
+        }
+        for (String path : assets.keySet()) {
+            if (AssetPackBuilder.matches(keep, new File(path).toPath())) {
+                reach(path, "keep pattern", reached, queue);
+            }
+        }
+
+        while (!queue.isEmpty()) {
+            String path = queue.poll();
+            String lower = path.toLowerCase();
+            if (lower.endsWith(".j3o") || isText(lower)) {
+                int slash = path.lastIndexOf('/');
+                String folder = slash >= 0 ? path.substring(0, slash + 1) : "";
+                Map<String, String> unresolved = new TreeMap<>();
+                for (String found : findPaths(Files.readAllBytes(assets.get(path)), folder, assets, unresolved)) {
+                    reach(found, path, reached, queue);
+                }
+                for (String name : unresolved.keySet()) {
+                    missing.putIfAbsent(name, path);
+                }
+            }
+            if (lower.endsWith(".j3o") && !lower.endsWith(MappedMeshLoader.MODEL_SUFFIX)) {
+                String base = path.substring(0, path.length() - 4);
+                for (String mapped : new String[] {base + MappedMeshLoader.MODEL_SUFFIX, base + MappedMeshLoader.DATA_EXTENSION}) {
+                    if (assets.containsKey(mapped)) {
+                        reach(mapped, path, reached, queue);
+                    }
+                }
+            }
+            String baked = manifest.getProperty(path);
+            if (baked != null && assets.containsKey(baked)) {
+                reach(baked, path, reached, queue);
+            }
+        }
+
+        long reachableBytes = 0;
+        long unreachableBytes = 0;
+        List<String> unreachable = new ArrayList<>();
+        for (Map.Entry<String, Path> asset : assets.entrySet()) {
+            if (reached.containsKey(asset.getKey())) {
+                reachableBytes += Files.size(asset.getValue());
+            } else {
+                unreachable.add(asset.getKey());
+                unreachableBytes += Files.size(asset.getValue());
+            }
+        }
+        unreachable.sort(Comparator.comparingLong((String path) -> size(assets.get(path))).reversed()
+                .thenComparing(Comparator.naturalOrder()));
+
+        File parent = reportFile.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        try (PrintWriter report = new PrintWriter(reportFile, "UTF-8")) {
+            report.println("Asset reachability report");
+            report.println("Reachable:   " + reached.size() + " assets, " + reachableBytes / 1024 + " KB");
+            report.println("Unreachable: " + unreachable.size() + " assets, " + unreachableBytes / 1024 + " KB");
+            report.println();
+            report.println("Unreachable, left out of the pack:");
+            for (String path : unreachable) {
+                report.printf("  %10d KB  %s%n", size(assets.get(path)) / 1024, path);
+            }
+            report.println();
+            report.println("Referenced but not in the assets folder (engine assets left out):");
+            for (Map.Entry<String, String> entry : missing.entrySet()) {
+                report.println("  " + entry.getKey() + "  <-  " + entry.getValue());
+            }
+            report.println();
+            report.println("Reachable, with what first referenced them:");
+            for (String path : new TreeSet<>(reached.keySet())) {
+                report.println("  " + path + "  <-  " + reached.get(path));
+            }
+        }
+        parent = pruneFile.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        List<String> pruneList = new ArrayList<>(new TreeSet<>(unreachable));
+        if (!pruneFile.exists() || !Files.readAllLines(pruneFile.toPath(), StandardCharsets.UTF_8).equals(pruneList)) {
+            // Only rewritten on change, AssetPackBuilder checks its date
+            Files.write(pruneFile.toPath(), pruneList, StandardCharsets.UTF_8);
+        }
+
+        System.out.println("Asset reachability: " + reached.size() + " reachable, " + unreachable.size()
+                + " unreachable assets (" + unreachableBytes / 1024 + " KB pruned), see " + reportFile);
+    }
+
+    /*
+    * Helper functions
+    */
+
+    private static void reach(String path, String referrer, Map<String, String> reached, Deque<String> queue) {
+        if (!reached.containsKey(path)) {
+            reached.put(path, referrer);
+            queue.add(path);
+        }
+    }
+
+    /**
+     * Finds the asset paths mentioned in a file. Binary files store strings
+     * behind a length prefix, which may itself look like a path character, so
+     * each match is also tried without its first characters. Paths that do
+     * not exist as absolute asset paths are tried relative to the folder of
+     * the file, as fonts name their pages. Paths into the asset folders that
+     * match nothing are added to unresolved, when given.
+     */
+    private static List<String> findPaths(byte[] data, String folder, TreeMap<String, Path> assets,
+                                          Map<String, String> unresolved) {
+        List<String> found = new ArrayList<>();
+        Matcher matcher = ASSET_PATH.matcher(new String(data, StandardCharsets.ISO_8859_1));
+        while (matcher.find()) {
+            String match = matcher.group();
+            int count = found.size();
+            for (int skip = 0; skip < Math.min(3, match.length()); skip++) {
+                String path = match.substring(skip);
+                while (path.startsWith("/")) {
+                    path = path.substring(1);
+                }
+                if (assets.containsKey(path)) {
+                    found.add(path);
+                    break;
+                }
+                if (assets.containsKey(folder + path)) {
+                    found.add(folder + path);
+                    break;
+                }
+            }
+            if (unresolved != null && found.size() == count) {
+                // Report it from the first character that starts a known top folder
+                for (int skip = 0; skip < Math.min(3, match.length()); skip++) {
+                    String name = match.substring(skip);
+                    int slash = name.indexOf('/');
+                    String top = slash > 0 ? name.substring(0, slash + 1) : null;
+                    String next = top != null ? assets.ceilingKey(top) : null;
+                    if (next != null && next.startsWith(top)) {
+                        unresolved.put(name, "");
+                        break;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private static boolean isText(String path) {
+        for (String extension : TEXT_EXTENSIONS) {
+            if (path.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String toAssetPath(Path relative) {
+        return relative.toString().replace(File.separatorChar, '/');
+    }
+
+    private static long size(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
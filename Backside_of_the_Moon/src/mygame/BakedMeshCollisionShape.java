@@ -0,0 +1,234 @@
+package mygame;
+
+import com.bulletphysics.collision.shapes.BvhSubtreeInfo;
+import com.bulletphysics.collision.shapes.BvhTriangleMeshShape;
+import com.bulletphysics.collision.shapes.IndexedMesh;
+import com.bulletphysics.collision.shapes.OptimizedBvh;
+import com.bulletphysics.collision.shapes.OptimizedBvhNode;
+import com.bulletphysics.collision.shapes.QuantizedBvhNodes;
+import com.bulletphysics.collision.shapes.TraversalMode;
+import com.bulletphysics.collision.shapes.TriangleIndexVertexArray;
+import com.bulletphysics.util.ObjectArrayList;
+import com.jme3.bullet.collision.shapes.CollisionShape;
+import com.jme3.bullet.collision.shapes.CompoundCollisionShape;
+import com.jme3.bullet.collision.shapes.MeshCollisionShape;
+import com.jme3.bullet.collision.shapes.infos.ChildCollisionShape;
+import com.jme3.bullet.control.RigidBodyControl;
+import com.jme3.bullet.util.Converter;
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+import javax.vecmath.Tuple3f;
+import javax.vecmath.Vector3f;
+
+/**
+ * A mesh collision shape that saves its bounding volume hierarchy along with
+ * its triangles. A plain MeshCollisionShape rebuilds the hierarchy every time
+ * it is read, which is most of the time it takes to restore a room snapshot.
+ *
+ * jbullet only offers Java serialization for the hierarchy, its nodes are
+ * private. Snapshots live in a folder the user can write to, so the hierarchy
+ * is read through a filter that only lets the jbullet hierarchy classes in,
+ * and a hierarchy that can't be read is built again from the triangles.
+ * Snapshots are stamped with the serialized form of those classes, see
+ * getBvhVersion, so another jbullet version rebuilds them.
+ */
+public class BakedMeshCollisionShape extends MeshCollisionShape {
+
+    // Everything a serialized OptimizedBvh is made of, quantized or not
+    private static final Set<Class<?>> BVH_CLASSES = new HashSet<>(Arrays.asList(
+            OptimizedBvh.class, OptimizedBvhNode.class, QuantizedBvhNodes.class, BvhSubtreeInfo.class,
+            TraversalMode.class, ObjectArrayList.class, Vector3f.class, Tuple3f.class, Enum.class,
+            int[].class, short[].class));
+    private static final int BVH_MAX_DEPTH = 8;
+
+    private OptimizedBvh bvh;
+
+    /**
+     * For the importer.
+     */
+    public BakedMeshCollisionShape() {
+    }
+
+    /**
+     * Constructs a shape that shares the triangles and the hierarchy of a
+     * mesh shape that is already built.
+     *
+     * @param source The shape to copy.
+     */
+    public BakedMeshCollisionShape(MeshCollisionShape source) {
+        BvhTriangleMeshShape shape = (BvhTriangleMeshShape) source.getCShape();
+        IndexedMesh mesh = ((TriangleIndexVertexArray) shape.getMeshInterface()).getIndexedMeshArray().getQuick(0);
+        numVertices = mesh.numVertices;
+        numTriangles = mesh.numTriangles;
+        vertexStride = mesh.vertexStride;
+        triangleIndexStride = mesh.triangleIndexStride;
+        vertexBase = mesh.vertexBase;
+        triangleIndexBase = mesh.triangleIndexBase;
+        bvh = shape.getOptimizedBvh();
+        scale.set(source.getScale());
+        margin = source.getMargin();
+        createShape();
+    }
+
+    /**
+     * Replaces the mesh shapes of the static rigid bodies under a spatial with
+     * baked ones, compound shapes included. Must be called before the bodies
+     * are added to a physics space.
+     *
+     * @param spatial The root of the subtree.
+     */
+    public static void bakeShapes(Spatial spatial) {
+        RigidBodyControl control = spatial.getControl(RigidBodyControl.class);
+        if (control != null && control.getMass() == 0) {
+            CollisionShape baked = bake(control.getCollisionShape());
+            if (baked != control.getCollisionShape()) {
+                control.setCollisionShape(baked);
+            }
+        }
+        if (spatial instanceof Node) {
+            for (Spatial child : ((Node) spatial).getChildren()) {
+                bakeShapes(child);
+            }
+        }
+    }
+
+    @Override
+    public void write(JmeExporter ex) throws IOException {
+        super.write(ex);
+        // Setting the scale rebuilds the hierarchy, so save the current one
+        OptimizedBvh current = ((BvhTriangleMeshShape) cShape).getOptimizedBvh();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(current);
+        }
+        OutputCapsule capsule = ex.getCapsule(this);
+        capsule.write(bytes.toByteArray(), "bvh", null);
+    }
+
+    @Override
+    public void read(JmeImporter im) throws IOException {
+        // Read before the triangles, MeshCollisionShape.read creates the shape
+        InputCapsule capsule = im.getCapsule(this);
+        byte[] bytes = capsule.readByteArray("bvh", null);
+        if (bytes != null) {
+            bvh = readBvh(bytes);
+        }
+        super.read(im);
+    }
+
+    /**
+     * Gets a fingerprint of the serialized form of the hierarchy, the fields
+     * of every class in it. jbullet pins the serial version UIDs, so this is
+     * what changes with a jbullet version that saves it differently. Room
+     * snapshots are stamped with it.
+     *
+     * @return A checksum of the hierarchy class descriptors.
+     */
+    public static long getBvhVersion() {
+        CRC32 crc = new CRC32();
+        BVH_CLASSES.stream().sorted(Comparator.comparing(Class::getName)).forEach(type -> {
+            ObjectStreamClass descriptor = ObjectStreamClass.lookupAny(type);
+            StringBuilder form = new StringBuilder(type.getName()).append(descriptor.getSerialVersionUID());
+            for (ObjectStreamField field : descriptor.getFields()) {
+                form.append(field.getName()).append(field.getTypeCode()).append(field.getTypeString());
+            }
+            crc.update(form.toString().getBytes(StandardCharsets.UTF_8));
+        });
+        return crc.getValue();
+    }
+
+    @Override
+    protected void createShape() {
+        if (bvh == null) {
+            super.createShape();
+            return;
+        }
+        bulletMesh = new IndexedMesh();
+        bulletMesh.numVertices = numVertices;
+        bulletMesh.numTriangles = numTriangles;
+        bulletMesh.vertexStride = vertexStride;
+        bulletMesh.triangleIndexStride = triangleIndexStride;
+        bulletMesh.triangleIndexBase = triangleIndexBase;
+        bulletMesh.vertexBase = vertexBase;
+        TriangleIndexVertexArray triangles = new TriangleIndexVertexArray();
+        triangles.addIndexedMesh(bulletMesh);
+        BvhTriangleMeshShape shape = new BvhTriangleMeshShape(triangles, true, false);
+        // Sets the scale the hierarchy was built for without building it again
+        shape.setOptimizedBvh(bvh, Converter.convert(getScale()));
+        shape.setMargin(margin);
+        cShape = shape;
+    }
+
+    /*
+    * Helper functions
+    */
+
+    /**
+     * Reads a saved hierarchy, or returns null if it has to be built again.
+     */
+    private static OptimizedBvh readBvh(byte[] bytes) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            in.setObjectInputFilter(BakedMeshCollisionShape::filterBvh);
+            Object bvh = in.readObject();
+            if (bvh instanceof OptimizedBvh) {
+                return (OptimizedBvh) bvh;
+            }
+            System.err.println("Saved collision hierarchy is not an OptimizedBvh, building it again");
+        } catch (IOException | ClassNotFoundException e) {
+            System.err.println("Could not read saved collision hierarchy, building it again: " + e);
+        }
+        return null;
+    }
+
+    private static ObjectInputFilter.Status filterBvh(ObjectInputFilter.FilterInfo info) {
+        if (info.depth() > BVH_MAX_DEPTH) {
+            return ObjectInputFilter.Status.REJECTED;
+        }
+        Class<?> type = info.serialClass();
+        if (type == null || BVH_CLASSES.contains(type)) {
+            return ObjectInputFilter.Status.ALLOWED;
+        }
+        return ObjectInputFilter.Status.REJECTED;
+    }
+
+    private static CollisionShape bake(CollisionShape shape) {
+        if (shape instanceof BakedMeshCollisionShape) {
+            return shape;
+        }
+        if (shape instanceof MeshCollisionShape) {
+            return new BakedMeshCollisionShape((MeshCollisionShape) shape);
+        }
+        if (shape instanceof CompoundCollisionShape) {
+            boolean changed = false;
+            CompoundCollisionShape compound = new CompoundCollisionShape();
+            for (ChildCollisionShape child : ((CompoundCollisionShape) shape).getChildren()) {
+                CollisionShape baked = bake(child.shape);
+                changed |= baked != child.shape;
+                compound.addChildShape(baked, child.location, child.rotation);
+            }
+            if (changed) {
+                compound.setMargin(shape.getMargin());
+                return compound;
+            }
+        }
+        return shape;
+    }
+}
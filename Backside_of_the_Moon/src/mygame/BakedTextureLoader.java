@@ -0,0 +1,106 @@
+package mygame;
+
+import com.jme3.asset.AssetInfo;
+import com.jme3.asset.AssetKey;
+import com.jme3.asset.AssetLoader;
+import com.jme3.asset.AssetManager;
+import com.jme3.texture.plugins.AWTLoader;
+import com.jme3.texture.plugins.DDSLoader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.WeakHashMap;
+
+/**
+ * Loads PNG and JPEG textures from the DDS files TextureBaker wrote for them.
+ *
+ * The game keeps asking for the source names. The asset pack indexes the
+ * source name of a baked texture as an alias of its DDS and ships no source
+ * bytes, so what is located under that name is already the DDS. Run from the
+ * assets folders, the source is located instead, and this loader looks it up
+ * in the bake manifest and reads the baked DDS, with its compressed mip chain,
+ * in its place. Textures without a baked variant are decoded as usual.
+ *
+ * Registered for png, jpg and jpeg in Main.simpleInitApp.
+ */
+public class BakedTextureLoader implements AssetLoader {
+
+    private static final byte[] DDS_MAGIC = {'D', 'D', 'S', ' '};
+
+    // Bake manifest of each asset manager, read the first time it loads a texture
+    private static final Map<AssetManager, Properties> manifests = new WeakHashMap<>();
+
+    private final DDSLoader ddsLoader = new DDSLoader();
+    private final AWTLoader imageLoader = new AWTLoader();
+
+    @Override
+    public Object load(AssetInfo assetInfo) throws IOException {
+        AssetManager assetManager = assetInfo.getManager();
+        if (isDds(assetInfo)) {
+            return ddsLoader.load(assetInfo);
+        }
+        String baked = getBakedName(assetManager, assetInfo.getKey().getName());
+        if (baked != null) {
+            AssetInfo bakedInfo = assetManager.locateAsset(new AssetKey<>(baked));
+            if (bakedInfo != null) {
+                // Keep the original key, DDSLoader reads flipY from it
+                return ddsLoader.load(new AssetInfo(assetManager, assetInfo.getKey()) {
+                    @Override
+                    public InputStream openStream() {
+                        return bakedInfo.openStream();
+                    }
+                });
+            }
+        }
+        return imageLoader.load(assetInfo);
+    }
+
+    /**
+     * Gets the baked DDS of a texture.
+     *
+     * @param assetManager The asset manager to read the manifest with.
+     * @param name         Path of the source texture.
+     * @return Path of the baked DDS, or null if the texture was not baked.
+     */
+    public static String getBakedName(AssetManager assetManager, String name) throws IOException {
+        return manifest(assetManager).getProperty(name);
+    }
+
+    /*
+    * Helper functions
+    */
+
+    /**
+     * Reads the manifest of an asset manager the first time it loads a texture.
+     * Without one, the game was started without baking and every texture is
+     * decoded from its source.
+     */
+    private static Properties manifest(AssetManager assetManager) throws IOException {
+        synchronized (manifests) {
+            Properties manifest = manifests.get(assetManager);
+            if (manifest == null) {
+                manifest = new Properties();
+                AssetInfo info = assetManager.locateAsset(new AssetKey<>(TextureBaker.MANIFEST));
+                if (info != null) {
+                    try (InputStream in = info.openStream()) {
+                        manifest.load(in);
+                    }
+                }
+                manifests.put(assetManager, manifest);
+            }
+            return manifest;
+        }
+    }
+
+    /**
+     * Checks whether the located bytes are a DDS, as they are for a source
+     * name the asset pack aliases to its baked variant.
+     */
+    private static boolean isDds(AssetInfo assetInfo) throws IOException {
+        try (InputStream in = assetInfo.openStream()) {
+            return Arrays.equals(in.readNBytes(DDS_MAGIC.length), DDS_MAGIC);
+        }
+    }
+}
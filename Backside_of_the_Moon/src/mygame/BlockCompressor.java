@@ -0,0 +1,239 @@
+package mygame;
+
+/**
+ * Encodes RGBA8 pixels into BC1 (DXT1) and BC3 (DXT5) blocks for TextureBaker.
+ *
+ * Each 4x4 block gets its color endpoints from the principal axis of its colors,
+ * pulled in slightly so rounding does not waste the palette on outliers, and every
+ * pixel takes the closest palette entry. That is far from the best encoders, but
+ * it is fast and good enough for the textures of this game.
+ */
+public class BlockCompressor {
+
+    public static final int BC1_BLOCK_BYTES = 8;
+    public static final int BC3_BLOCK_BYTES = 16;
+
+    /**
+     * Gets the size of a compressed image.
+     *
+     * @param width      Width in pixels.
+     * @param height     Height in pixels.
+     * @param blockBytes Bytes per 4x4 block.
+     * @return The size in bytes.
+     */
+    public static int compressedSize(int width, int height, int blockBytes) {
+        return Math.max(1, (width + 3) / 4) * Math.max(1, (height + 3) / 4) * blockBytes;
+    }
+
+    /**
+     * Compresses an image to BC1. Alpha is ignored.
+     *
+     * @param rgba   Pixels as 0xAARRGGBB, row by row from the top.
+     * @param width  Width in pixels.
+     * @param height Height in pixels.
+     * @return The blocks, row by row from the top.
+     */
+    public static byte[] compressBC1(int[] rgba, int width, int height) {
+        return compress(rgba, width, height, false);
+    }
+
+    /**
+     * Compresses an image to BC3, with interpolated alpha.
+     *
+     * @param rgba   Pixels as 0xAARRGGBB, row by row from the top.
+     * @param width  Width in pixels.
+     * @param height Height in pixels.
+     * @return The blocks, row by row from the top.
+     */
+    public static byte[] compressBC3(int[] rgba, int width, int height) {
+        return compress(rgba, width, height, true);
+    }
+
+    /*
+    * Helper functions
+    */
+
+    private static byte[] compress(int[] rgba, int width, int height, boolean alpha) {
+        int blockBytes = alpha ? BC3_BLOCK_BYTES : BC1_BLOCK_BYTES;
+        byte[] out = new byte[compressedSize(width, height, blockBytes)];
+        int[] block = new int[16];
+        int offset = 0;
+        for (int by = 0; by < height; by += 4) {
+            for (int bx = 0; bx < width; bx += 4) {
+                // Blocks past the edge repeat the last row and column
+                for (int i = 0; i < 16; i++) {
+                    int x = Math.min(bx + (i & 3), width - 1);
+                    int y = Math.min(by + (i >> 2), height - 1);
+                    block[i] = rgba[y * width + x];
+                }
+                if (alpha) {
+                    encodeAlpha(block, out, offset);
+                    offset += 8;
+                }
+                encodeColor(block, out, offset);
+                offset += 8;
+            }
+        }
+        return out;
+    }
+
+    private static void encodeColor(int[] block, byte[] out, int offset) {
+        // Mean and covariance of the block's colors
+        float meanR = 0, meanG = 0, meanB = 0;
+        for (int c : block) {
+            meanR += (c >> 16) & 0xFF;
+            meanG += (c >> 8) & 0xFF;
+            meanB += c & 0xFF;
+        }
+        meanR /= 16;
+        meanG /= 16;
+        meanB /= 16;
+        float rr = 0, rg = 0, rb = 0, gg = 0, gb = 0, bb = 0;
+        for (int c : block) {
+            float r = ((c >> 16) & 0xFF) - meanR;
+            float g = ((c >> 8) & 0xFF) - meanG;
+            float b = (c & 0xFF) - meanB;
+            rr += r * r;
+            rg += r * g;
+            rb += r * b;
+            gg += g * g;
+            gb += g * b;
+            bb += b * b;
+        }
+
+        // Principal axis by power iteration
+        float axisR = 1, axisG = 1, axisB = 1;
+        for (int i = 0; i < 4; i++) {
+            float r = rr * axisR + rg * axisG + rb * axisB;
+            float g = rg * axisR + gg * axisG + gb * axisB;
+            float b = rb * axisR + gb * axisG + bb * axisB;
+            float length = Math.max(Math.abs(r), Math.max(Math.abs(g), Math.abs(b)));
+            if (length < 1e-6f) {
+                break; // flat block
+            }
+            axisR = r / length;
+            axisG = g / length;
+            axisB = b / length;
+        }
+
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        for (int c : block) {
+            float t = (((c >> 16) & 0xFF) - meanR) * axisR + (((c >> 8) & 0xFF) - meanG) * axisG + ((c & 0xFF) - meanB) * axisB;
+            min = Math.min(min, t);
+            max = Math.max(max, t);
+        }
+        float lengthSquared = axisR * axisR + axisG * axisG + axisB * axisB;
+        float inset = (max - min) / 16;
+        min = (min + inset) / Math.max(lengthSquared, 1e-6f);
+        max = (max - inset) / Math.max(lengthSquared, 1e-6f);
+
+        int color0 = to565(meanR + axisR * max, meanG + axisG * max, meanB + axisB * max);
+        int color1 = to565(meanR + axisR * min, meanG + axisG * min, meanB + axisB * min);
+        if (color0 < color1) {
+            int swap = color0;
+            color0 = color1;
+            color1 = swap;
+        }
+
+        int indices = 0;
+        if (color0 != color1) {
+            // Four color mode, color0 > color1
+            int[] palette = new int[12];
+            expand565(color0, palette, 0);
+            expand565(color1, palette, 3);
+            for (int k = 0; k < 3; k++) {
+                palette[6 + k] = (2 * palette[k] + palette[3 + k] + 1) / 3;
+                palette[9 + k] = (palette[k] + 2 * palette[3 + k] + 1) / 3;
+            }
+            // Palette order on disk is color0, color1, 2/3, 1/3
+            for (int i = 0; i < 16; i++) {
+                int c = block[i];
+                int r = (c >> 16) & 0xFF;
+                int g = (c >> 8) & 0xFF;
+                int b = c & 0xFF;
+                int best = 0;
+                int bestDistance = Integer.MAX_VALUE;
+                for (int p = 0; p < 4; p++) {
+                    int dr = r - palette[p * 3];
+                    int dg = g - palette[p * 3 + 1];
+                    int db = b - palette[p * 3 + 2];
+                    int distance = dr * dr + dg * dg + db * db;
+                    if (distance < bestDistance) {
+                        bestDistance = distance;
+                        best = p;
+                    }
+                }
+                indices |= best << (i * 2);
+            }
+        }
+
+        out[offset] = (byte) color0;
+        out[offset + 1] = (byte) (color0 >> 8);
+        out[offset + 2] = (byte) color1;
+        out[offset + 3] = (byte) (color1 >> 8);
+        out[offset + 4] = (byte) indices;
+        out[offset + 5] = (byte) (indices >> 8);
+        out[offset + 6] = (byte) (indices >> 16);
+        out[offset + 7] = (byte) (indices >> 24);
+    }
+
+    private static void encodeAlpha(int[] block, byte[] out, int offset) {
+        int min = 255;
+        int max = 0;
+        for (int c : block) {
+            int a = c >>> 24;
+            min = Math.min(min, a);
+            max = Math.max(max, a);
+        }
+        out[offset] = (byte) max;
+        out[offset + 1] = (byte) min;
+
+        long indices = 0;
+        if (max > min) {
+            // Eight alpha mode, alpha0 > alpha1: 0 = max, 1 = min, 2..7 in between
+            int[] palette = new int[8];
+            palette[0] = max;
+            palette[1] = min;
+            for (int i = 1; i < 7; i++) {
+                palette[i + 1] = ((7 - i) * max + i * min + 3) / 7;
+            }
+            for (int i = 0; i < 16; i++) {
+                int a = block[i] >>> 24;
+                int best = 0;
+                int bestDistance = Integer.MAX_VALUE;
+                for (int p = 0; p < 8; p++) {
+                    int distance = Math.abs(a - palette[p]);
+                    if (distance < bestDistance) {
+                        bestDistance = distance;
+                        best = p;
+                    }
+                }
+                indices |= (long) best << (i * 3);
+            }
+        }
+        for (int i = 0; i < 6; i++) {
+            out[offset + 2 + i] = (byte) (indices >> (i * 8));
+        }
+    }
+
+    private static int to565(float r, float g, float b) {
+        int r5 = Math.round(clamp(r) * 31 / 255f);
+        int g6 = Math.round(clamp(g) * 63 / 255f);
+        int b5 = Math.round(clamp(b) * 31 / 255f);
+        return (r5 << 11) | (g6 << 5) | b5;
+    }
+
+    private static void expand565(int color, int[] rgb, int offset) {
+        int r = (color >> 11) & 31;
+        int g = (color >> 5) & 63;
+        int b = color & 31;
+        rgb[offset] = (r << 3) | (r >> 2);
+        rgb[offset + 1] = (g << 2) | (g >> 4);
+        rgb[offset + 2] = (b << 3) | (b >> 2);
+    }
+
+    private static float clamp(float value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
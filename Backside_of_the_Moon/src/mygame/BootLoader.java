@@ -0,0 +1,255 @@
+package mygame;
+
+import com.jme3.app.Application;
+import com.jme3.app.SimpleApplication;
+import com.jme3.app.state.AbstractAppState;
+import com.jme3.app.state.AppStateManager;
+import com.jme3.asset.TextureKey;
+import com.jme3.font.BitmapFont;
+import com.jme3.font.BitmapText;
+import com.jme3.math.ColorRGBA;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Warms up assets on a bounded thread pool while the start screen and the
+ * intro text are shown, displays the warm-up progress, and reports the
+ * time-to-first-frame and time-to-playable of the boot.
+ * Loaded results are held on to, so later loads of the same asset are cache hits.
+ */
+public class BootLoader extends AbstractAppState {
+
+    private final SimpleApplication app;
+    private final long launchTime;
+    private final ExecutorService pool;
+    private final List<BootTask<?>> tasks = new ArrayList<>();
+    private int finishedTasks;
+
+    // UI
+    private BitmapText progressText;
+
+    // Timing
+    private boolean firstFrameReported = false;
+    private boolean warmupReported = false;
+    private long warmupStart;
+
+    /**
+     * A single warm-up job. The callback runs on the render thread once the
+     * job has finished on the pool.
+     */
+    private static class BootTask<T> {
+        private final String name;
+        private final boolean required;
+        private final Consumer<T> onLoaded;
+        private Future<T> future;
+        private volatile long loadNanos;
+        private boolean finished;
+
+        BootTask(String name, boolean required, Consumer<T> onLoaded) {
+            this.name = name;
+            this.required = required;
+            this.onLoaded = onLoaded;
+        }
+    }
+
+    /**
+     * Constructs a new BootLoader.
+     *
+     * @param app        The application being booted.
+     * @param launchTime System.nanoTime() when the application was launched.
+     * @param threads    Number of warm-up threads.
+     */
+    public BootLoader(SimpleApplication app, long launchTime, int threads) {
+        this.app = app;
+        this.launchTime = launchTime;
+        this.pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "Boot Loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void initialize(AppStateManager stateManager, Application app) {
+        super.initialize(stateManager, app);
+        BitmapFont defaultFont = app.getAssetManager().loadFont("Interface/Fonts/Default.fnt");
+        progressText = new BitmapText(defaultFont, false);
+        progressText.setSize(defaultFont.getCharSet().getRenderedSize());
+        progressText.setColor(ColorRGBA.LightGray);
+        progressText.setLocalTranslation(10, progressText.getLineHeight() + 10, 1);
+        this.app.getGuiNode().attachChild(progressText);
+    }
+
+    /**
+     * Runs callbacks of finished jobs and refreshes the progress indicator.
+     *
+     * @param tpf Time per frame.
+     */
+    @Override
+    public void update(float tpf) {
+        if (!firstFrameReported) {
+            firstFrameReported = true;
+            report("time-to-first-frame", System.nanoTime() - launchTime);
+        }
+        // Index loop, callbacks may queue further jobs
+        for (int i = 0; i < tasks.size(); i++) {
+            BootTask<?> task = tasks.get(i);
+            if (!task.finished && task.future.isDone()) {
+                finish(task);
+            }
+        }
+        updateProgress();
+    }
+
+    @Override
+    public void cleanup() {
+        super.cleanup();
+        pool.shutdownNow();
+        if (progressText != null) {
+            progressText.removeFromParent();
+        }
+    }
+
+    /**
+     * Queues a warm-up job.
+     *
+     * @param name     Name shown in the boot report, usually the asset path.
+     * @param required Whether play has to wait for this job.
+     * @param loader   Loads the asset on a warm-up thread.
+     * @param onLoaded Receives the result on the render thread, may be null.
+     * @return The future of the job.
+     */
+    public <T> Future<T> submit(String name, boolean required, Callable<T> loader, Consumer<T> onLoaded) {
+        if (tasks.isEmpty()) {
+            warmupStart = System.nanoTime();
+        }
+        BootTask<T> task = new BootTask<>(name, required, onLoaded);
+        task.future = pool.submit(() -> {
+            long start = System.nanoTime();
+            try {
+                return loader.call();
+            } finally {
+                task.loadNanos = System.nanoTime() - start;
+            }
+        });
+        tasks.add(task);
+        warmupReported = false;
+        return task.future;
+    }
+
+    /**
+     * Warms a model into the asset cache.
+     *
+     * @param path     Path of the model.
+     * @param required Whether play has to wait for it.
+     */
+    public void warmModel(String path, boolean required) {
+        submit(path, required, () -> app.getAssetManager().loadModel(path), null);
+    }
+
+    /**
+     * Warms a texture into the asset cache. The key must match the one used
+     * by the later load, including flipping, to be a cache hit.
+     *
+     * @param key      Key of the texture.
+     * @param required Whether play has to wait for it.
+     */
+    public void warmTexture(TextureKey key, boolean required) {
+        submit(key.getName(), required, () -> app.getAssetManager().loadTexture(key), null);
+    }
+
+    /**
+     * Warms a bitmap font into the asset cache.
+     *
+     * @param path Path of the font.
+     */
+    public void warmFont(String path) {
+        submit(path, false, () -> app.getAssetManager().loadFont(path), null);
+    }
+
+    /**
+     * Blocks until every required job has finished. Must be called on the
+     * render thread, so that their callbacks can run.
+     */
+    public void awaitRequired() {
+        for (int i = 0; i < tasks.size(); i++) {
+            BootTask<?> task = tasks.get(i);
+            if (task.required && !task.finished) {
+                finish(task);
+            }
+        }
+    }
+
+    /**
+     * Reports the time from launch until the player can move.
+     *
+     * @param blockingNanos Time the render thread spent loading before play.
+     */
+    public void markPlayable(long blockingNanos) {
+        report("time-to-playable", System.nanoTime() - launchTime);
+        report("blocking load before play", blockingNanos);
+    }
+
+    /**
+     * Gets the fraction of finished warm-up jobs.
+     *
+     * @return A value between 0 and 1.
+     */
+    public float getProgress() {
+        return tasks.isEmpty() ? 1f : (float) finishedTasks / tasks.size();
+    }
+
+    /*
+    * Helper functions
+    */
+
+    private <T> void finish(BootTask<T> task) {
+        task.finished = true;
+        finishedTasks++;
+        T result;
+        try {
+            result = task.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            System.err.println("Warm-up of '" + task.name + "' failed: " + e.getCause());
+            return;
+        }
+        if (task.onLoaded != null) {
+            task.onLoaded.accept(result);
+        }
+    }
+
+    private void updateProgress() {
+        if (progressText == null) {
+            return;
+        }
+        if (finishedTasks < tasks.size()) {
+            progressText.setText("Loading... " + (int) (getProgress() * 100) + "%");
+            return;
+        }
+        progressText.setText("");
+        if (!warmupReported && !tasks.isEmpty()) {
+            warmupReported = true;
+            report("asset warm-up (" + tasks.size() + " jobs)", System.nanoTime() - warmupStart);
+            BootTask<?> slowest = null;
+            for (BootTask<?> task : tasks) {
+                if (slowest == null || task.loadNanos > slowest.loadNanos) {
+                    slowest = task;
+                }
+            }
+            report("slowest warm-up job " + slowest.name, slowest.loadNanos);
+        }
+    }
+
+    private static void report(String what, long nanos) {
+        System.out.println("[Boot] " + what + ": " + (nanos / 1_000_000) + " ms");
+    }
+}
@@ -0,0 +1,123 @@
+package mygame;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.material.Material;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.shape.Box;
+import com.jme3.system.JmeSystem;
+import com.jme3.system.NullRenderer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the cost of frustum culling a flat node of static objects with an
+ * OctreeNode holding the same objects, as the number of objects grows. The
+ * objects are small boxes scattered over a square the size of a terrain room,
+ * seen from a few cameras at head height. Reports the median time of queueing
+ * a view and the mean number of geometries queued, which is the same for both.
+ * Runs headless, no window or GL context is created.
+ *
+ * Run with the assets folder on the classpath, like the game in the IDE:
+ *   java -cp "dist/lib/*:build/classes:assets" mygame.CullingBenchmark [runs]
+ */
+public class CullingBenchmark {
+
+    private static final int[] COUNTS = {100, 1000, 10000, 50000};
+    private static final float AREA = 512f;
+    private static final int VIEWS = 16;
+
+    public static void main(String[] args) {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        AssetManager assetManager = JmeSystem.newAssetManager(JmeSystem.getPlatformAssetConfigURL());
+        Material material = new Material(assetManager, "Common/MatDefs/Misc/Unshaded.j3md");
+
+        RenderManager renderManager = new RenderManager(new NullRenderer());
+        Camera cam = new Camera(1280, 720);
+        cam.setFrustumPerspective(45f, 1280f / 720f, 1f, 1000f);
+        ViewPort viewPort = new ViewPort("Benchmark", cam);
+
+        for (int count : COUNTS) {
+            Node flat = new Node("Flat");
+            OctreeNode octree = new OctreeNode("Octree");
+            scatter(flat, count, material);
+            scatter(octree, count, material);
+            flat.updateGeometricState();
+            octree.partition();
+            octree.updateGeometricState();
+
+            System.out.println(count + " objects");
+            measure("  Node      ", flat, renderManager, viewPort, runs);
+            measure("  OctreeNode", octree, renderManager, viewPort, runs);
+        }
+    }
+
+    private static void measure(String label, Node scene, RenderManager renderManager,
+                                ViewPort viewPort, int runs) {
+        long[] times = new long[runs * VIEWS];
+        int queued = 0;
+        for (int view = 0; view < VIEWS; view++) {
+            Camera cam = viewPort.getCamera();
+            float angle = FastMath.TWO_PI * view / VIEWS;
+            Vector3f location = new Vector3f(FastMath.cos(angle), 0, FastMath.sin(angle)).multLocal(AREA / 4);
+            location.y = 2f;
+            cam.setLocation(location);
+            cam.lookAtDirection(new Vector3f(FastMath.sin(angle * 3), 0, -FastMath.cos(angle * 3)), Vector3f.UNIT_Y);
+            cam.update();
+
+            // Warm-up run, so the timed runs are compiled code
+            renderManager.renderScene(scene, viewPort);
+            viewPort.getQueue().clear();
+            queued += queued(scene);
+            for (int i = 0; i < runs; i++) {
+                long start = System.nanoTime();
+                renderManager.renderScene(scene, viewPort);
+                viewPort.getQueue().clear();
+                times[view * runs + i] = System.nanoTime() - start;
+            }
+        }
+        Arrays.sort(times);
+        System.out.printf("%s %8.3f ms per view, %d queued%n", label, times[times.length / 2] / 1e6, queued / VIEWS);
+    }
+
+    /*
+    * Helper functions
+    */
+
+    /**
+     * Counts the geometries the last culling pass kept, skipping the subtrees
+     * it rejected.
+     */
+    private static int queued(Spatial spatial) {
+        if (spatial.getLastFrustumIntersection() == Camera.FrustumIntersect.Outside) {
+            return 0;
+        }
+        if (spatial instanceof Geometry) {
+            return 1;
+        }
+        int queued = 0;
+        for (Spatial child : ((Node) spatial).getChildren()) {
+            queued += queued(child);
+        }
+        return queued;
+    }
+
+    private static void scatter(Node node, int count, Material material) {
+        Random random = new Random(count);
+        Box box = new Box(0.5f, 0.5f, 0.5f);
+        for (int i = 0; i < count; i++) {
+            Geometry geometry = new Geometry("Box " + i, box);
+            geometry.setMaterial(material);
+            geometry.setLocalTranslation((random.nextFloat() - 0.5f) * AREA,
+                    random.nextFloat() * 4f, (random.nextFloat() - 0.5f) * AREA);
+            geometry.setLocalScale(0.5f + random.nextFloat() * 2f);
+            node.attachChild(geometry);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package mygame;
 
 import com.jme3.app.SimpleApplication;
+import com.jme3.asset.TextureKey;
 import com.jme3.font.BitmapFont;
 import com.jme3.font.BitmapText;
 import com.jme3.scene.Node;
@@ -19,6 +20,7 @@ public class Ending {
     private final Node endingNode;
     private final Picture endingImage;
     private final SoundManager soundManager;
+    private final TextureStreamer textureStreamer;
 
     private List<String> currentTextSequence;
     private int currentTextIndex = 0;
@@ -27,9 +29,10 @@ public class Ending {
     
     private int endingCallCounter = 0;
 
-    public Ending(SimpleApplication app, SoundManager soundManager) {
+    public Ending(SimpleApplication app, SoundManager soundManager, TextureStreamer textureStreamer) {
         this.app = app;
         this.soundManager = soundManager;
+        this.textureStreamer = textureStreamer;
 
         // Initialize textDisplay with the default font
         BitmapFont defaultFont = app.getAssetManager().loadFont("Interface/Fonts/Default.fnt");
@@ -67,8 +70,8 @@ public class Ending {
 
         this.currentTextSequence = textSequence;
 
-        // Configure the ending image
-        endingImage.setImage(app.getAssetManager(), imagePath, true);
+        // Configure the ending image, streamed in while the text is shown
+        endingImage.setTexture(app.getAssetManager(), textureStreamer.request(new TextureKey(imagePath, true)), true);
         endingImage.setWidth(app.getCamera().getWidth());
         endingImage.setHeight(app.getCamera().getHeight());
         endingImage.setPosition(0, 0);
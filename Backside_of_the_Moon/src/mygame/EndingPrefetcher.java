@@ -0,0 +1,115 @@
+package mygame;
+
+import com.jme3.app.state.AbstractAppState;
+import com.jme3.asset.TextureKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Warms the image and music of an ending before it is triggered, so the
+ * moment the player is caught does not wait on a texture or WAV decode.
+ *
+ * Each ending is watched through a threat distance, usually the distance
+ * between the player and the monster that triggers it. Once it drops below
+ * the warm distance, the ending image is streamed in and its BGM decoded in
+ * the background. Once it stays above the release distance for a few seconds,
+ * the BGM is dropped and the image is left to the streamer, which evicts it.
+ */
+public class EndingPrefetcher extends AbstractAppState {
+
+    private static final float CHECK_INTERVAL = 0.25f;
+    // Seconds the threat has to stay past the release distance before dropping
+    private static final float RELEASE_DELAY = 5f;
+
+    private final TextureStreamer textureStreamer;
+    private final SoundManager soundManager;
+    private final List<WatchedEnding> endings = new ArrayList<>();
+    private float checkTimer;
+
+    /**
+     * An ending and the threat that leads to it.
+     */
+    private static class WatchedEnding {
+        private final TextureKey imageKey;
+        private final String bgmName;
+        private final DoubleSupplier threat;
+        private final float warmDistance;
+        private final float releaseDistance;
+        private boolean warm;
+        private float recededTime;
+
+        WatchedEnding(TextureKey imageKey, String bgmName, DoubleSupplier threat, float warmDistance, float releaseDistance) {
+            this.imageKey = imageKey;
+            this.bgmName = bgmName;
+            this.threat = threat;
+            this.warmDistance = warmDistance;
+            this.releaseDistance = releaseDistance;
+        }
+    }
+
+    /**
+     * Constructs a new EndingPrefetcher.
+     *
+     * @param textureStreamer Streams the ending images.
+     * @param soundManager    Decodes the ending BGMs.
+     */
+    public EndingPrefetcher(TextureStreamer textureStreamer, SoundManager soundManager) {
+        this.textureStreamer = textureStreamer;
+        this.soundManager = soundManager;
+    }
+
+    /**
+     * Watches an ending.
+     *
+     * @param imagePath       Path of the image the ending shows, as passed to Ending.setEnding.
+     * @param bgmName         SoundManager name of the ending BGM.
+     * @param threat          Distance from the ending, infinite when it cannot happen.
+     * @param warmDistance    Distance at which the ending is warmed.
+     * @param releaseDistance Distance past which a warmed ending is dropped again.
+     */
+    public void watch(String imagePath, String bgmName, DoubleSupplier threat, float warmDistance, float releaseDistance) {
+        endings.add(new WatchedEnding(new TextureKey(imagePath, true), bgmName, threat, warmDistance, releaseDistance));
+    }
+
+    /**
+     * Warms and drops the watched endings as their threats change.
+     *
+     * @param tpf Time per frame.
+     */
+    @Override
+    public void update(float tpf) {
+        checkTimer += tpf;
+        if (checkTimer < CHECK_INTERVAL) {
+            return;
+        }
+        float elapsed = checkTimer;
+        checkTimer = 0;
+
+        for (WatchedEnding ending : endings) {
+            double distance = ending.threat.getAsDouble();
+            if (!ending.warm) {
+                if (distance <= ending.warmDistance) {
+                    ending.warm = true;
+                    ending.recededTime = 0;
+                    System.out.println("Prefetching ending: " + ending.imageKey.getName() + ", " + ending.bgmName);
+                    textureStreamer.request(ending.imageKey);
+                    soundManager.prefetchBGM(ending.bgmName);
+                }
+                continue;
+            }
+            if (distance <= ending.releaseDistance) {
+                ending.recededTime = 0;
+                // Requesting again keeps the streamer from evicting the image
+                textureStreamer.request(ending.imageKey);
+            } else {
+                ending.recededTime += elapsed;
+                if (ending.recededTime >= RELEASE_DELAY) {
+                    ending.warm = false;
+                    System.out.println("Dropped prefetched ending: " + ending.imageKey.getName() + ", " + ending.bgmName);
+                    soundManager.releaseBGM(ending.bgmName);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package mygame;
+
+import com.jme3.bounding.BoundingVolume;
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.Vector3f;
+import com.jme3.post.SceneProcessor;
+import com.jme3.post.filters.FogFilter;
+import com.jme3.profile.AppProfiler;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.renderer.queue.RenderQueue;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.texture.FrameBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stops drawing what the fog of a scene hides. While a scene is fogged the
+ * far plane of the camera is pulled in to where the fog turns opaque, the
+ * background is cleared to the fog color in place of the sky, and objects
+ * with a cull distance of their own are left out beyond it.
+ *
+ * The FogFilter from createFilter is tuned to match: its distance is the
+ * far plane and its density makes it opaque there, so nothing that is culled
+ * could have shown through. The filter assumes a near plane of 1, as the
+ * default camera has.
+ *
+ * Runs as a processor of the main viewport, so the sky and the distance
+ * culled objects are only left out of it, the water reflection still sees
+ * them. It must be added after the FilterPostProcessor holding the water,
+ * whose reflection is rendered while the processors start the frame.
+ */
+public class FogCuller implements SceneProcessor {
+
+    // User data of the room with the fog color and the distance at which it turns opaque
+    public static final String FOG_COLOR_KEY = "FogColor";
+    public static final String FOG_DISTANCE_KEY = "FogDistance";
+    // User data of an object beyond which it is culled, measured to its bound
+    public static final String CULL_DISTANCE_KEY = "CullDistance";
+    // FogFilter density at which the fog is opaque at its distance, to within one 8 bit step
+    private static final float OPAQUE_DENSITY = (float) Math.sqrt(Math.log(256));
+
+    private final ViewPort viewPort;
+    private boolean initialized;
+    private boolean fogged;
+    private float clearFar;
+    private ColorRGBA clearBackground;
+    private final List<Spatial> skies = new ArrayList<>();
+    private final List<Spatial> distanced = new ArrayList<>();
+    private final List<Float> cullDistances = new ArrayList<>();
+
+    // Spatials culled this frame and the cull hints they had
+    private final List<Spatial> culled = new ArrayList<>();
+    private final List<Spatial.CullHint> culledHints = new ArrayList<>();
+
+    /**
+     * Constructs a new FogCuller. Add it to the viewport as a processor.
+     *
+     * @param viewPort The viewport to cull.
+     */
+    public FogCuller(ViewPort viewPort) {
+        this.viewPort = viewPort;
+    }
+
+    /**
+     * Creates the FogFilter that draws a fog culled by a FogCuller.
+     *
+     * @param color    Color of the fog.
+     * @param distance Distance at which the fog turns opaque.
+     * @return The filter, to add to the post processor.
+     */
+    public static FogFilter createFilter(ColorRGBA color, float distance) {
+        return new FogFilter(color, OPAQUE_DENSITY, distance);
+    }
+
+    /**
+     * Starts culling a fogged scene. Must run on the render thread, with the
+     * scene attached or about to be. The fog itself is drawn by a filter from
+     * createFilter.
+     *
+     * @param scene    The scene, searched for its sky and cull distances.
+     * @param color    Color of the fog.
+     * @param distance Distance at which the fog turns opaque.
+     */
+    public void setFog(Node scene, ColorRGBA color, float distance) {
+        clearFog();
+        Camera cam = viewPort.getCamera();
+        clearFar = cam.getFrustumFar();
+        clearBackground = viewPort.getBackgroundColor().clone();
+        cam.setFrustumFar(distance);
+        viewPort.setBackgroundColor(color);
+
+        scene.depthFirstTraversal(spatial -> {
+            if (spatial.getLocalQueueBucket() == RenderQueue.Bucket.Sky) {
+                skies.add(spatial);
+            }
+            Float cullDistance = spatial.getUserData(CULL_DISTANCE_KEY);
+            if (cullDistance != null) {
+                distanced.add(spatial);
+                cullDistances.add(cullDistance);
+            }
+        });
+        fogged = true;
+        System.out.println("Fog culling: " + scene.getName() + ", far plane at " + distance + ", "
+                + skies.size() + " skies, " + distanced.size() + " objects with cull distances");
+    }
+
+    /**
+     * Stops culling, giving the camera back its far plane and the viewport
+     * its background.
+     */
+    public void clearFog() {
+        if (!fogged) {
+            return;
+        }
+        restore();
+        viewPort.getCamera().setFrustumFar(clearFar);
+        viewPort.setBackgroundColor(clearBackground);
+        skies.clear();
+        distanced.clear();
+        cullDistances.clear();
+        fogged = false;
+    }
+
+    @Override
+    public void initialize(RenderManager rm, ViewPort vp) {
+        initialized = true;
+    }
+
+    @Override
+    public void reshape(ViewPort vp, int w, int h) {
+    }
+
+    @Override
+    public boolean isInitialized() {
+        return initialized;
+    }
+
+    /**
+     * Culls the sky and the objects beyond their cull distance.
+     *
+     * @param tpf Time per frame.
+     */
+    @Override
+    public void preFrame(float tpf) {
+        if (!fogged) {
+            return;
+        }
+        for (Spatial sky : skies) {
+            cull(sky);
+        }
+        Vector3f eye = viewPort.getCamera().getLocation();
+        for (int i = 0; i < distanced.size(); i++) {
+            BoundingVolume bound = distanced.get(i).getWorldBound();
+            if (bound != null && bound.distanceToEdge(eye) > cullDistances.get(i)) {
+                cull(distanced.get(i));
+            }
+        }
+    }
+
+    @Override
+    public void postQueue(RenderQueue rq) {
+    }
+
+    /**
+     * Gives back the cull hints of what was culled this frame.
+     *
+     * @param out The frame buffer rendered to.
+     */
+    @Override
+    public void postFrame(FrameBuffer out) {
+        restore();
+    }
+
+    @Override
+    public void cleanup() {
+        clearFog();
+        initialized = false;
+    }
+
+    @Override
+    public void setProfiler(AppProfiler profiler) {
+    }
+
+    /*
+    * Helper functions
+    */
+
+    private void cull(Spatial spatial) {
+        Spatial.CullHint hint = spatial.getLocalCullHint();
+        if (hint != Spatial.CullHint.Always) {
+            culled.add(spatial);
+            culledHints.add(hint);
+            spatial.setCullHint(Spatial.CullHint.Always);
+        }
+    }
+
+    private void restore() {
+        for (int i = 0; i < culled.size(); i++) {
+            culled.get(i).setCullHint(culledHints.get(i));
+        }
+        culled.clear();
+        culledHints.clear();
+    }
+}
@@ -9,6 +9,7 @@ import com.jme3.app.state.AbstractAppState;
 import com.jme3.app.state.AppStateManager;
 import com.jme3.math.Vector3f;
 import com.jme3.renderer.Camera;
+import com.jme3.scene.Node;
 import com.jme3.scene.Spatial;
 import com.jme3.collision.CollisionResults;
 import com.jme3.math.Ray;
@@ -72,13 +73,26 @@ public class GameState extends AbstractAppState {
         pickableItems.add(item);
     }
     
+    /**
+     * Removes every pickable item that belongs to the given scene, 
+     * used when the scene is evicted from memory.
+     * 
+     * @param scene The scene whose items should no longer be pickable.
+     */
+    public void removePickableItems(Node scene) {
+        pickableItems.removeIf(item -> item == null || item.hasAncestor(scene));
+        if (aimedItem != null && aimedItem.hasAncestor(scene)) {
+            aimedItem = null;
+        }
+    }
+    
     /**
      * Method to detect and pick up an item. 
      * @return 
      */
     public boolean pickUpItem() {
         if (aimedItem != null) {
-            aimedItem.removeFromParent(); // Remove the item from the scene
+            aimedItem.removeFromParent(); // Remove the item from the scene, or from its instance buffer if instanced
             pickableItems.remove(aimedItem); // Remove the item from the list of pickable items
             System.out.println("Picked up: " + aimedItem.getName()); // Log the pick-up event
             if ("Key".equals(aimedItem.getName())) {
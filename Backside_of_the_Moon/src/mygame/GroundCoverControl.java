@@ -0,0 +1,406 @@
+package mygame;
+
+import com.jme3.bounding.BoundingBox;
+import com.jme3.material.Material;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector2f;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.renderer.queue.RenderQueue;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.control.AbstractControl;
+import com.jme3.scene.instancing.InstancedGeometry;
+import com.jme3.terrain.geomipmap.TerrainGridListener;
+import com.jme3.terrain.geomipmap.TerrainQuad;
+import com.jme3.util.BufferUtils;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scatters tufts of grass or other ground cover over the tiles of a paged
+ * terrain, where one layer of its SplatTerrain material shows.
+ *
+ * Each tile the TerrainGrid attaches is scattered on a worker thread: tufts
+ * sit on a jittered grid of the given density and are kept with the chance of
+ * their layer's weight there. The tufts of a tile are split into square
+ * chunks, each drawn with hardware instancing as one draw call of a shared
+ * tuft mesh. Only chunks within the fade distance of the camera are attached,
+ * so however dense the cover the draw calls stay bounded. The shader of
+ * MatDefs/Terrain/GroundCover.j3md thins the tufts out and sinks them into the
+ * ground towards the fade distance, so chunks come and go unseen.
+ *
+ * The node this controls is never culled so it always sees the camera, the
+ * first one that renders it, while its chunks are culled on their own.
+ */
+public class GroundCoverControl extends AbstractControl implements TerrainGridListener {
+
+    private static final float CHECK_INTERVAL = 0.25f;
+
+    // Shared by every ground cover, idle workers stop
+    private static final ExecutorService POOL;
+
+    static {
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 5, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "Ground Cover");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        POOL = executor;
+    }
+
+    private final TerrainTileLoader loader;
+    private final SplatLayer layer;
+    private final float density;
+    private final float minHeight;
+    private final float[] scale;
+    private final float chunkSize;
+    private final float fadeDistance;
+    private final long seed;
+    private final Mesh tuft;
+    private final Material material;
+    private final Map<TerrainQuad, Tile> tiles = new HashMap<>();
+    private Camera camera;
+    private float checkTimer = CHECK_INTERVAL;
+
+    /**
+     * The scattered chunks of one attached tile.
+     */
+    private static class Tile {
+        private final Vector3f cell;
+        private final Future<List<Chunk>> future;
+        private List<Chunk> chunks;
+
+        private Tile(Vector3f cell, Future<List<Chunk>> future) {
+            this.cell = cell;
+            this.future = future;
+        }
+    }
+
+    /**
+     * The tufts of one chunk, drawn as instances of the tuft mesh. Instances
+     * are a position in the space of the ground cover node and a scale.
+     */
+    private static class Chunk extends InstancedGeometry {
+        private final BoundingBox bound;
+        private final int count;
+
+        private Chunk(String name, Mesh tuft, Material material, FloatBuffer instances, BoundingBox bound) {
+            super(name);
+            this.bound = bound;
+            this.count = instances.limit() / 4;
+            // Drawn in the space of the ground cover node and culled by its own bound
+            setIgnoreTransform(false);
+            setCullHint(CullHint.Dynamic);
+            setMesh(tuft);
+            setMaterial(material);
+            VertexBuffer data = new VertexBuffer(VertexBuffer.Type.InstanceData);
+            data.setInstanced(true);
+            data.setupData(VertexBuffer.Usage.Static, 4, VertexBuffer.Format.Float, instances);
+            setTransformUserInstanceData(data);
+        }
+
+        @Override
+        public int getNumVisibleInstances() {
+            return count;
+        }
+
+        @Override
+        protected void updateWorldBound() {
+            refreshFlags &= ~RF_BOUND;
+            worldBound = bound.transform(getWorldTransform(), worldBound);
+        }
+    }
+
+    /**
+     * Constructs a new GroundCoverControl.
+     *
+     * @param loader       The tile loader of the terrain, for its heights and texture coordinates.
+     * @param layer        The layer of the terrain material the cover grows on.
+     * @param density      Tufts per square unit where the layer weighs 1.
+     * @param minHeight    Tufts whose ground is lower are left out, in the space of the terrain.
+     * @param scale        Smallest and largest scale of a tuft, its height in units.
+     * @param chunkSize    Side of a chunk, one draw call.
+     * @param fadeDistance Distance at which the tufts are gone and their chunks detached.
+     * @param seed         Seed of the scatter, each tile gets its own from it.
+     * @param tuft         Mesh of one tuft, a unit high.
+     * @param material     Material of MatDefs/Terrain/GroundCover.j3md.
+     */
+    public GroundCoverControl(TerrainTileLoader loader, SplatLayer layer, float density,
+                              float minHeight, float[] scale, float chunkSize, float fadeDistance, long seed,
+                              Mesh tuft, Material material) {
+        this.loader = loader;
+        this.layer = layer;
+        this.density = density;
+        this.minHeight = minHeight;
+        this.scale = scale;
+        this.chunkSize = chunkSize;
+        this.fadeDistance = fadeDistance;
+        this.seed = seed;
+        this.tuft = tuft;
+        this.material = material;
+    }
+
+    /**
+     * Builds the mesh of a tuft: blades leaning out from around its middle,
+     * a unit high. The y texture coordinate runs from 0 at the root of a
+     * blade to 1 at its tip.
+     *
+     * @param blades     Number of blades.
+     * @param bladeWidth Width of a blade at its root.
+     * @param spread     Radius the roots are spread over.
+     * @param seed       Seed of the blade layout.
+     * @return The mesh.
+     */
+    public static Mesh tuftMesh(int blades, float bladeWidth, float spread, long seed) {
+        Random random = new Random(seed);
+        FloatBuffer positions = BufferUtils.createFloatBuffer(blades * 5 * 3);
+        FloatBuffer texCoords = BufferUtils.createFloatBuffer(blades * 5 * 2);
+        short[] indices = new short[blades * 9];
+        for (int blade = 0; blade < blades; blade++) {
+            float around = random.nextFloat() * FastMath.TWO_PI;
+            float distance = FastMath.sqrt(random.nextFloat()) * spread;
+            float rootX = FastMath.cos(around) * distance;
+            float rootZ = FastMath.sin(around) * distance;
+            // Blades face a random way and lean outwards
+            float facing = random.nextFloat() * FastMath.TWO_PI;
+            float sideX = FastMath.cos(facing) * bladeWidth * 0.5f;
+            float sideZ = FastMath.sin(facing) * bladeWidth * 0.5f;
+            float lean = (0.1f + random.nextFloat() * 0.25f) * (1 - distance / (spread * 2));
+            float leanX = FastMath.cos(around) * lean;
+            float leanZ = FastMath.sin(around) * lean;
+            float height = 0.7f + random.nextFloat() * 0.3f;
+
+            // Root, middle and tip, narrowing to a point
+            float middle = height * 0.5f;
+            positions.put(rootX - sideX).put(0).put(rootZ - sideZ);
+            positions.put(rootX + sideX).put(0).put(rootZ + sideZ);
+            positions.put(rootX + leanX * 0.3f - sideX * 0.6f).put(middle).put(rootZ + leanZ * 0.3f - sideZ * 0.6f);
+            positions.put(rootX + leanX * 0.3f + sideX * 0.6f).put(middle).put(rootZ + leanZ * 0.3f + sideZ * 0.6f);
+            positions.put(rootX + leanX).put(height).put(rootZ + leanZ);
+            texCoords.put(0).put(0).put(1).put(0).put(0).put(0.5f).put(1).put(0.5f).put(0.5f).put(1);
+
+            int vertex = blade * 5;
+            short[] triangles = {0, 1, 3, 0, 3, 2, 2, 3, 4};
+            for (int i = 0; i < triangles.length; i++) {
+                indices[blade * 9 + i] = (short) (vertex + triangles[i]);
+            }
+        }
+        positions.flip();
+        texCoords.flip();
+        Mesh mesh = new Mesh();
+        mesh.setBuffer(VertexBuffer.Type.Position, 3, positions);
+        mesh.setBuffer(VertexBuffer.Type.TexCoord, 2, texCoords);
+        mesh.setBuffer(VertexBuffer.Type.Index, 3, indices);
+        mesh.updateCounts();
+        mesh.updateBound();
+        mesh.setStatic();
+        return mesh;
+    }
+
+    /**
+     * Never culls the controlled node, so it always gets the camera.
+     *
+     * @param spatial The ground cover node.
+     */
+    @Override
+    public void setSpatial(Spatial spatial) {
+        super.setSpatial(spatial);
+        if (spatial != null) {
+            spatial.setCullHint(Spatial.CullHint.Never);
+            spatial.setShadowMode(RenderQueue.ShadowMode.Off);
+        }
+    }
+
+    /**
+     * Picks up scattered tiles and attaches the chunks near the camera.
+     *
+     * @param tpf Time per frame.
+     */
+    @Override
+    protected void controlUpdate(float tpf) {
+        for (Tile tile : tiles.values()) {
+            if (tile.chunks == null && tile.future.isDone()) {
+                try {
+                    tile.chunks = tile.future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    System.err.println("Failed to scatter " + spatial.getName() + " over terrain tile "
+                            + tile.cell + ": " + e.getCause());
+                    tile.chunks = Collections.emptyList();
+                }
+                // Shown right away rather than at the next check
+                checkTimer = CHECK_INTERVAL;
+            }
+        }
+
+        checkTimer += tpf;
+        if (camera == null || checkTimer < CHECK_INTERVAL) {
+            return;
+        }
+        checkTimer = 0;
+
+        Vector3f eye = spatial.worldToLocal(camera.getLocation(), new Vector3f());
+        for (Tile tile : tiles.values()) {
+            if (tile.chunks == null) {
+                continue;
+            }
+            for (Chunk chunk : tile.chunks) {
+                boolean near = chunk.bound.distanceToEdge(eye) < fadeDistance;
+                if (near && chunk.getParent() == null) {
+                    ((Node) spatial).attachChild(chunk);
+                } else if (!near && chunk.getParent() != null) {
+                    chunk.removeFromParent();
+                }
+            }
+        }
+    }
+
+    /**
+     * Remembers the camera the ground cover is drawn for.
+     *
+     * @param rm The render manager.
+     * @param vp The viewport rendering the ground cover.
+     */
+    @Override
+    protected void controlRender(RenderManager rm, ViewPort vp) {
+        if (camera == null) {
+            camera = vp.getCamera();
+        }
+    }
+
+    @Override
+    public void gridMoved(Vector3f newCenter) {
+        // Tiles the grid lost in a jump, see PagedTerrainControl
+        List<TerrainQuad> behind = new ArrayList<>();
+        tiles.forEach((quad, tile) -> {
+            if (tile.cell.x < newCenter.x - 1 || tile.cell.x > newCenter.x + 2
+                    || tile.cell.z < newCenter.z - 1 || tile.cell.z > newCenter.z + 2) {
+                behind.add(quad);
+            }
+        });
+        for (TerrainQuad quad : behind) {
+            tileDetached(tiles.get(quad).cell, quad);
+        }
+    }
+
+    @Override
+    public void tileAttached(Vector3f cell, TerrainQuad quad) {
+        int x = (int) cell.x;
+        int z = (int) cell.z;
+        int size = quad.getTotalSize() - 1;
+        String name = spatial.getName() + " " + x + "," + z;
+        tiles.put(quad, new Tile(cell.clone(), POOL.submit(() -> scatter(name, x, z, size))));
+    }
+
+    @Override
+    public void tileDetached(Vector3f cell, TerrainQuad quad) {
+        Tile tile = tiles.remove(quad);
+        if (tile == null) {
+            return;
+        }
+        tile.future.cancel(false);
+        if (tile.chunks != null) {
+            for (Chunk chunk : tile.chunks) {
+                chunk.removeFromParent();
+            }
+        }
+    }
+
+    /*
+    * Helper functions
+    */
+
+    /**
+     * Scatters the tufts of one tile and splits them into chunks. Runs on a
+     * worker thread.
+     */
+    private List<Chunk> scatter(String name, int x, int z, int size) {
+        Random random = new Random(seed * 31 + (((long) x << 32) | (z & 0xFFFFFFFFL)));
+        float left = (x - 1) * size;
+        float top = (z - 1) * size;
+        float spacing = 1 / FastMath.sqrt(density);
+        int cells = (int) (size / spacing);
+        int chunks = Math.max(1, Math.round(size / chunkSize));
+        float chunkSide = size / (float) chunks;
+
+        // Per chunk, x, y, z and scale of each tuft
+        float[][] placed = new float[chunks * chunks][16];
+        int[] counts = new int[chunks * chunks];
+        for (int row = 0; row < cells; row++) {
+            for (int column = 0; column < cells; column++) {
+                float px = left + (column + random.nextFloat()) * spacing;
+                float pz = top + (row + random.nextFloat()) * spacing;
+                float keep = random.nextFloat();
+                float tuftScale = scale[0] + random.nextFloat() * (scale[1] - scale[0]);
+                float height = loader.getHeight(px, pz);
+                if (height < minHeight) {
+                    continue;
+                }
+                float slope = FastMath.sqrt(FastMath.sqr(loader.getHeight(px + 0.5f, pz) - height)
+                        + FastMath.sqr(loader.getHeight(px, pz + 0.5f) - height)) * 2;
+                Vector2f texCoord = loader.getTexCoord(px, pz);
+                if (keep >= layer.getWeight(texCoord.x, texCoord.y, slope, height)) {
+                    continue;
+                }
+                int chunk = Math.min((int) ((pz - top) / chunkSide), chunks - 1) * chunks
+                        + Math.min((int) ((px - left) / chunkSide), chunks - 1);
+                if (counts[chunk] * 4 == placed[chunk].length) {
+                    placed[chunk] = Arrays.copyOf(placed[chunk], placed[chunk].length * 2);
+                }
+                int index = counts[chunk]++ * 4;
+                placed[chunk][index] = px;
+                placed[chunk][index + 1] = height;
+                placed[chunk][index + 2] = pz;
+                placed[chunk][index + 3] = tuftScale;
+            }
+        }
+
+        // Tufts turn any way, so the bounds reach as far as the widest can
+        BoundingBox tuftBound = (BoundingBox) tuft.getBound();
+        float reach = (tuftBound.getExtent(null).length() + tuftBound.getCenter().length()) * scale[1];
+        float tallest = tuftBound.getMax(null).y * scale[1];
+        List<Chunk> result = new ArrayList<>();
+        for (int chunk = 0; chunk < placed.length; chunk++) {
+            if (counts[chunk] == 0) {
+                continue;
+            }
+            float[] tufts = placed[chunk];
+            float minY = Float.POSITIVE_INFINITY;
+            float maxY = Float.NEGATIVE_INFINITY;
+            for (int i = 0; i < counts[chunk]; i++) {
+                minY = Math.min(minY, tufts[i * 4 + 1]);
+                maxY = Math.max(maxY, tufts[i * 4 + 1]);
+            }
+            float minX = left + (chunk % chunks) * chunkSide;
+            float minZ = top + (chunk / chunks) * chunkSide;
+            BoundingBox bound = new BoundingBox(new Vector3f(minX - reach, minY, minZ - reach),
+                    new Vector3f(minX + chunkSide + reach, maxY + tallest, minZ + chunkSide + reach));
+            FloatBuffer instances = BufferUtils.createFloatBuffer(Arrays.copyOf(tufts, counts[chunk] * 4));
+            result.add(new Chunk(name + " " + chunk, tuft, material, instances, bound));
+        }
+        return result;
+    }
+}
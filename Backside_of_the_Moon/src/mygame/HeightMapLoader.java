@@ -0,0 +1,171 @@
+package mygame;
+
+import com.jme3.asset.AssetInfo;
+import com.jme3.asset.AssetKey;
+import com.jme3.asset.AssetManager;
+import com.jme3.asset.AssetNotFoundException;
+import com.jme3.asset.plugins.FileLocator;
+import com.jme3.math.FastMath;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.system.JmeSystem;
+import com.jme3.terrain.geomipmap.TerrainQuad;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.imageio.ImageIO;
+
+/**
+ * Loads terrain heights stored as a 16-bit grayscale PNG, the compact form of
+ * a terrain that LevelLoader builds a TerrainQuad from.
+ *
+ * Black and white are the lowest and highest heights of the terrain, given by
+ * the level. Rows of the image run along z and columns along x, as in a
+ * TerrainQuad height array, and a square image of 2^n + 1 pixels is one
+ * terrain. jME's texture loaders reduce 16-bit images to 8 bits, so the image
+ * is read with ImageIO.
+ *
+ * Run as a program, it converts a terrain saved in a j3o, such as one made in
+ * the SDK terrain editor, to a heightmap and a splat alpha map for
+ * TerrainLighting: dirt in the red channel below the water line, grass in
+ * green, the road layer in blue left empty, and rock in alpha on steep slopes.
+ *
+ * Usage: HeightMapLoader assetsDir terrain.j3o heightmap.png alphamap.png
+ */
+public class HeightMapLoader {
+
+    private static final int MAX_VALUE = 0xFFFF;
+    // Slopes, as height change per unit, over which grass turns to rock
+    private static final float ROCK_START = 0.6f;
+    private static final float ROCK_FULL = 1.2f;
+    // Heights over which dirt turns to grass, the water is at about 2 above the terrain origin
+    private static final float DIRT_FULL = -4f;
+    private static final float DIRT_END = 0f;
+
+    /**
+     * Reads a heightmap.
+     *
+     * @param assetManager The asset manager to locate it with.
+     * @param path         Asset path of the PNG.
+     * @param heights      Heights of black and white.
+     * @return The heights, row by row.
+     */
+    public static float[] load(AssetManager assetManager, String path, float[] heights) throws IOException {
+        AssetInfo info = assetManager.locateAsset(new AssetKey<>(path));
+        if (info == null) {
+            throw new AssetNotFoundException(path);
+        }
+        BufferedImage image;
+        try (InputStream in = info.openStream()) {
+            image = ImageIO.read(in);
+        }
+        if (image == null || image.getWidth() != image.getHeight()
+                || Integer.bitCount(image.getWidth() - 1) != 1) {
+            throw new IOException(path + " is not a square image of 2^n + 1 pixels");
+        }
+        int size = image.getWidth();
+        float scale = (heights[1] - heights[0]) / MAX_VALUE;
+        float[] heightMap = new float[size * size];
+        int[] row = new int[size];
+        for (int z = 0; z < size; z++) {
+            image.getRaster().getSamples(0, z, size, 1, 0, row);
+            for (int x = 0; x < size; x++) {
+                heightMap[z * size + x] = heights[0] + row[x] * scale;
+            }
+        }
+        return heightMap;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 4) {
+            System.err.println("Usage: HeightMapLoader assetsDir terrain.j3o heightmap.png alphamap.png");
+            System.exit(1);
+        }
+        File assetsDir = new File(args[0]);
+        AssetManager assetManager = JmeSystem.newAssetManager(JmeSystem.getPlatformAssetConfigURL());
+        assetManager.registerLocator(assetsDir.getPath(), FileLocator.class);
+
+        TerrainQuad terrain = findTerrain(assetManager.loadModel(args[1]));
+        if (terrain == null) {
+            System.err.println("No TerrainQuad in " + args[1]);
+            System.exit(1);
+        }
+        int size = terrain.getTotalSize();
+        float[] heightMap = terrain.getHeightMap();
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for (float height : heightMap) {
+            min = Math.min(min, height);
+            max = Math.max(max, height);
+        }
+
+        BufferedImage heights = new BufferedImage(size, size, BufferedImage.TYPE_USHORT_GRAY);
+        float scale = max > min ? MAX_VALUE / (max - min) : 0;
+        for (int z = 0; z < size; z++) {
+            for (int x = 0; x < size; x++) {
+                heights.getRaster().setSample(x, z, 0, Math.round((heightMap[z * size + x] - min) * scale));
+            }
+        }
+        File heightFile = new File(assetsDir, args[2]);
+        ImageIO.write(heights, "png", heightFile);
+        File alphaFile = new File(assetsDir, args[3]);
+        ImageIO.write(splat(heightMap, size), "png", alphaFile);
+
+        System.out.println("Converted " + args[1] + ": " + size + "x" + size + ", patch size " + terrain.getPatchSize()
+                + ", heights [" + min + ", " + max + "], " + heightFile.length() / 1024 + " KB heightmap, "
+                + alphaFile.length() / 1024 + " KB alpha map");
+    }
+
+    /*
+    * Helper functions
+    */
+
+    /**
+     * Paints the alpha map, one texel short of the terrain in each direction
+     * so it stays a power of two.
+     */
+    private static BufferedImage splat(float[] heightMap, int size) {
+        int mapSize = size - 1;
+        BufferedImage alpha = new BufferedImage(mapSize, mapSize, BufferedImage.TYPE_INT_ARGB);
+        WritableRaster raster = alpha.getRaster();
+        for (int z = 0; z < mapSize; z++) {
+            for (int x = 0; x < mapSize; x++) {
+                float height = heightMap[z * size + x];
+                float dx = heightMap[z * size + x + 1] - height;
+                float dz = heightMap[(z + 1) * size + x] - height;
+                float slope = FastMath.sqrt(dx * dx + dz * dz);
+
+                float rock = smoothStep(ROCK_START, ROCK_FULL, slope);
+                float dirt = (1 - rock) * (1 - smoothStep(DIRT_FULL, DIRT_END, height));
+                float grass = 1 - rock - dirt;
+                // Red, green, blue and alpha are DiffuseMap, DiffuseMap_1, DiffuseMap_2 and DiffuseMap_3
+                raster.setPixel(x, z, new int[] {
+                    Math.round(dirt * 255), Math.round(grass * 255), 0, Math.round(rock * 255)
+                });
+            }
+        }
+        return alpha;
+    }
+
+    private static float smoothStep(float edge0, float edge1, float value) {
+        float t = FastMath.clamp((value - edge0) / (edge1 - edge0), 0, 1);
+        return t * t * (3 - 2 * t);
+    }
+
+    private static TerrainQuad findTerrain(Spatial spatial) {
+        if (spatial instanceof TerrainQuad) {
+            return (TerrainQuad) spatial;
+        }
+        if (spatial instanceof Node) {
+            for (Spatial child : ((Node) spatial).getChildren()) {
+                TerrainQuad terrain = findTerrain(child);
+                if (terrain != null) {
+                    return terrain;
+                }
+            }
+        }
+        return null;
+    }
+}
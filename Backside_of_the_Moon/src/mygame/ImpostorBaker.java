@@ -0,0 +1,447 @@
+package mygame;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.asset.plugins.FileLocator;
+import com.jme3.material.MatParam;
+import com.jme3.material.Material;
+import com.jme3.material.RenderState;
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.queue.RenderQueue;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.mesh.IndexBuffer;
+import com.jme3.system.JmeSystem;
+import com.jme3.texture.Texture;
+import com.jme3.texture.image.ImageRaster;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.imageio.ImageIO;
+
+/**
+ * Build step that renders the impostor atlases of vegetation models.
+ *
+ * Each model is drawn from a number of directions around its vertical axis
+ * into one texture, a square tile per view side by side. VegetationControl
+ * puts each view on a vertical quad, the quads crossing at the model center,
+ * and draws the model that way past its impostor distance.
+ *
+ * The views are rasterized on the CPU, so the build needs no graphics
+ * context: an orthographic projection, the diffuse texture and color of each
+ * material, its alpha discard and a fixed sun. Views are supersampled, and
+ * the colors of the covered texels bleed into the empty ones so mipmaps do
+ * not darken the edges.
+ *
+ * The atlas of X.j3o is written to X.impostor.png, and is only rendered
+ * again when it is older than the model or its size changed.
+ *
+ * Usage: ImpostorBaker assetsDir size views model...
+ */
+public class ImpostorBaker {
+
+    public static final String IMPOSTOR_SUFFIX = ".impostor.png";
+
+    private static final int SUPERSAMPLE = 4;
+    // Pixels the covered colors are spread into the empty ones
+    private static final int BLEED = 8;
+    // Same direction as the terrain sun, with enough ambient to read at a distance
+    private static final Vector3f LIGHT = new Vector3f(-0.39f, -0.32f, -0.74f).normalizeLocal();
+    private static final float AMBIENT = 0.45f;
+
+    /**
+     * The surface of one geometry, ready to rasterize.
+     */
+    private static class Surface {
+        private float[] positions;
+        private float[] normals;
+        private float[] texCoords;
+        private int[] indices;
+        private ImageRaster texture;
+        private ColorRGBA color = ColorRGBA.White;
+        private float alphaDiscard;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            System.err.println("Usage: ImpostorBaker assetsDir size views model...");
+            System.exit(1);
+        }
+        File assetsDir = new File(args[0]);
+        int size = Integer.parseInt(args[1]);
+        int views = Integer.parseInt(args[2]);
+
+        AssetManager assetManager = JmeSystem.newAssetManager(JmeSystem.getPlatformAssetConfigURL());
+        assetManager.registerLocator(assetsDir.getPath(), FileLocator.class);
+
+        int baked = 0;
+        for (int i = 3; i < args.length; i++) {
+            String model = args[i];
+            File modelFile = new File(assetsDir, model);
+            File atlasFile = new File(assetsDir, impostorPath(model));
+            if (upToDate(atlasFile, modelFile, size, views)) {
+                continue;
+            }
+            long start = System.nanoTime();
+            BufferedImage atlas = render(assetManager.loadModel(model), size, views);
+            ImageIO.write(atlas, "png", atlasFile);
+            System.out.println("Baked impostor: " + model + " -> " + impostorPath(model) + ", " + views + " views of "
+                    + size + "x" + size + " (" + (System.nanoTime() - start) / 1_000_000 + " ms)");
+            baked++;
+        }
+        System.out.println("Baked " + baked + " impostors, " + (args.length - 3 - baked) + " up to date");
+    }
+
+    /**
+     * Gets the asset path of the impostor atlas of a model.
+     *
+     * @param model Asset path of the model.
+     * @return Asset path of its atlas.
+     */
+    public static String impostorPath(String model) {
+        return model.substring(0, model.lastIndexOf('.')) + IMPOSTOR_SUFFIX;
+    }
+
+    /**
+     * Renders the impostor atlas of a model.
+     *
+     * @param model The model, as loaded.
+     * @param size  Width and height of each view.
+     * @param views Number of views around the vertical axis.
+     * @return The atlas, the views side by side.
+     */
+    public static BufferedImage render(Spatial model, int size, int views) {
+        VegetationControl.ImpostorFrame frame = VegetationControl.ImpostorFrame.of(model);
+        Surface[] surfaces = collect(model);
+        BufferedImage atlas = new BufferedImage(size * views, size, BufferedImage.TYPE_INT_ARGB);
+        int samples = size * SUPERSAMPLE;
+        for (int view = 0; view < views; view++) {
+            float angle = VegetationControl.viewAngle(view, views);
+            float[] color = new float[samples * samples * 3];
+            boolean[] covered = new boolean[samples * samples];
+            float[] depth = new float[samples * samples];
+            Arrays.fill(depth, Float.POSITIVE_INFINITY);
+            for (Surface surface : surfaces) {
+                rasterize(surface, frame, angle, samples, color, covered, depth);
+            }
+            writeView(atlas, view * size, size, color, covered);
+        }
+        return atlas;
+    }
+
+    /*
+    * Helper functions
+    */
+
+    private static boolean upToDate(File atlasFile, File modelFile, int size, int views) throws IOException {
+        if (!atlasFile.exists() || atlasFile.lastModified() < modelFile.lastModified()) {
+            return false;
+        }
+        BufferedImage atlas = ImageIO.read(atlasFile);
+        return atlas != null && atlas.getWidth() == size * views && atlas.getHeight() == size;
+    }
+
+    private static Surface[] collect(Spatial model) {
+        model.updateGeometricState();
+        List<Surface> surfaces = new ArrayList<>();
+        model.depthFirstTraversal(spatial -> {
+            if (!(spatial instanceof Geometry) || spatial.getCullHint() == Spatial.CullHint.Always) {
+                return;
+            }
+            Geometry geometry = (Geometry) spatial;
+            Mesh mesh = geometry.getMesh();
+            if (mesh.getMode() != Mesh.Mode.Triangles || mesh.getBuffer(VertexBuffer.Type.Position) == null) {
+                return;
+            }
+            Surface surface = new Surface();
+            surface.positions = floats(mesh, VertexBuffer.Type.Position);
+            surface.normals = floats(mesh, VertexBuffer.Type.Normal);
+            surface.texCoords = floats(mesh, VertexBuffer.Type.TexCoord);
+            surface.indices = indices(mesh);
+            // Into model space, the frame is measured there too
+            Vector3f store = new Vector3f();
+            for (int i = 0; i < surface.positions.length; i += 3) {
+                store.set(surface.positions[i], surface.positions[i + 1], surface.positions[i + 2]);
+                geometry.localToWorld(store, store);
+                surface.positions[i] = store.x;
+                surface.positions[i + 1] = store.y;
+                surface.positions[i + 2] = store.z;
+            }
+            if (surface.normals != null) {
+                for (int i = 0; i < surface.normals.length; i += 3) {
+                    store.set(surface.normals[i], surface.normals[i + 1], surface.normals[i + 2]);
+                    geometry.getWorldRotation().multLocal(store).normalizeLocal();
+                    surface.normals[i] = store.x;
+                    surface.normals[i + 1] = store.y;
+                    surface.normals[i + 2] = store.z;
+                }
+            }
+            readMaterial(geometry.getMaterial(), geometry.getQueueBucket(), surface);
+            surfaces.add(surface);
+        });
+        return surfaces.toArray(new Surface[0]);
+    }
+
+    private static void readMaterial(Material material, RenderQueue.Bucket bucket, Surface surface) {
+        for (String name : new String[] {"DiffuseMap", "ColorMap", "BaseColorMap"}) {
+            MatParam param = material.getParam(name);
+            if (param != null && param.getValue() instanceof Texture) {
+                surface.texture = ImageRaster.create(((Texture) param.getValue()).getImage());
+                break;
+            }
+        }
+        MatParam useColors = material.getParam("UseMaterialColors");
+        for (String name : new String[] {"Diffuse", "Color", "BaseColor"}) {
+            MatParam param = material.getParam(name);
+            if (param != null && param.getValue() instanceof ColorRGBA
+                    && (!name.equals("Diffuse") || useColors != null && Boolean.TRUE.equals(useColors.getValue()))) {
+                surface.color = (ColorRGBA) param.getValue();
+                break;
+            }
+        }
+        MatParam discard = material.getParam("AlphaDiscardThreshold");
+        if (discard != null) {
+            surface.alphaDiscard = (Float) discard.getValue();
+        } else if (bucket == RenderQueue.Bucket.Transparent
+                || material.getAdditionalRenderState().getBlendMode() != RenderState.BlendMode.Off) {
+            // Impostors are alpha tested, blended surfaces keep their solid part
+            surface.alphaDiscard = 0.5f;
+        }
+    }
+
+    /**
+     * Draws a surface seen from the given angle, orthographic along the
+     * view direction, into the supersampled buffers of a view.
+     */
+    private static void rasterize(Surface surface, VegetationControl.ImpostorFrame frame, float angle, int samples,
+                                  float[] color, boolean[] covered, float[] depth) {
+        float dirX = (float) Math.sin(angle);
+        float dirZ = (float) Math.cos(angle);
+        float rightX = dirZ;
+        float rightZ = -dirX;
+        float height = frame.top - frame.bottom;
+
+        int vertexCount = surface.positions.length / 3;
+        float[] sx = new float[vertexCount];
+        float[] sy = new float[vertexCount];
+        float[] sz = new float[vertexCount];
+        for (int i = 0; i < vertexCount; i++) {
+            float x = surface.positions[i * 3] - frame.centerX;
+            float y = surface.positions[i * 3 + 1];
+            float z = surface.positions[i * 3 + 2] - frame.centerZ;
+            sx[i] = (x * rightX + z * rightZ + frame.radius) / (2 * frame.radius) * samples;
+            sy[i] = (frame.top - y) / height * samples;
+            sz[i] = x * dirX + z * dirZ;
+        }
+
+        ColorRGBA texel = new ColorRGBA();
+        for (int t = 0; t + 2 < surface.indices.length; t += 3) {
+            int a = surface.indices[t];
+            int b = surface.indices[t + 1];
+            int c = surface.indices[t + 2];
+            float area = (sx[b] - sx[a]) * (sy[c] - sy[a]) - (sx[c] - sx[a]) * (sy[b] - sy[a]);
+            if (Math.abs(area) < 1e-9f) {
+                continue;
+            }
+            int minX = Math.max(0, (int) Math.floor(Math.min(sx[a], Math.min(sx[b], sx[c]))));
+            int maxX = Math.min(samples - 1, (int) Math.ceil(Math.max(sx[a], Math.max(sx[b], sx[c]))));
+            int minY = Math.max(0, (int) Math.floor(Math.min(sy[a], Math.min(sy[b], sy[c]))));
+            int maxY = Math.min(samples - 1, (int) Math.ceil(Math.max(sy[a], Math.max(sy[b], sy[c]))));
+            for (int py = minY; py <= maxY; py++) {
+                for (int px = minX; px <= maxX; px++) {
+                    float x = px + 0.5f;
+                    float y = py + 0.5f;
+                    // Barycentric weights, both windings are drawn
+                    float wa = ((sx[b] - x) * (sy[c] - y) - (sx[c] - x) * (sy[b] - y)) / area;
+                    float wb = ((sx[c] - x) * (sy[a] - y) - (sx[a] - x) * (sy[c] - y)) / area;
+                    float wc = 1 - wa - wb;
+                    if (wa < 0 || wb < 0 || wc < 0) {
+                        continue;
+                    }
+                    int pixel = py * samples + px;
+                    float z = wa * sz[a] + wb * sz[b] + wc * sz[c];
+                    if (z >= depth[pixel]) {
+                        continue;
+                    }
+                    shade(surface, a, b, c, wa, wb, wc, dirX, dirZ, texel);
+                    if (texel.a < surface.alphaDiscard || texel.a <= 0) {
+                        continue;
+                    }
+                    depth[pixel] = z;
+                    covered[pixel] = true;
+                    color[pixel * 3] = texel.r;
+                    color[pixel * 3 + 1] = texel.g;
+                    color[pixel * 3 + 2] = texel.b;
+                }
+            }
+        }
+    }
+
+    private static void shade(Surface surface, int a, int b, int c, float wa, float wb, float wc,
+                              float dirX, float dirZ, ColorRGBA store) {
+        store.set(surface.color);
+        if (surface.texture != null && surface.texCoords != null) {
+            float u = wa * surface.texCoords[a * 2] + wb * surface.texCoords[b * 2] + wc * surface.texCoords[c * 2];
+            float v = wa * surface.texCoords[a * 2 + 1] + wb * surface.texCoords[b * 2 + 1]
+                    + wc * surface.texCoords[c * 2 + 1];
+            int width = surface.texture.getWidth();
+            int height = surface.texture.getHeight();
+            // Wrapped like a repeating texture, rows in the order the GPU samples them
+            int tx = Math.floorMod((int) Math.floor(u * width), width);
+            int ty = Math.floorMod((int) Math.floor(v * height), height);
+            ColorRGBA sample = surface.texture.getPixel(tx, ty);
+            store.set(store.r * sample.r, store.g * sample.g, store.b * sample.b, store.a * sample.a);
+        }
+        float light = 1;
+        if (surface.normals != null) {
+            float nx = wa * surface.normals[a * 3] + wb * surface.normals[b * 3] + wc * surface.normals[c * 3];
+            float ny = wa * surface.normals[a * 3 + 1] + wb * surface.normals[b * 3 + 1] + wc * surface.normals[c * 3 + 1];
+            float nz = wa * surface.normals[a * 3 + 2] + wb * surface.normals[b * 3 + 2] + wc * surface.normals[c * 3 + 2];
+            float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+            if (length > 0) {
+                nx /= length;
+                ny /= length;
+                nz /= length;
+            }
+            // Two sided, the side facing the viewer is lit
+            if (nx * dirX + nz * dirZ > 0) {
+                nx = -nx;
+                ny = -ny;
+                nz = -nz;
+            }
+            float diffuse = Math.max(0, -(nx * LIGHT.x + ny * LIGHT.y + nz * LIGHT.z));
+            light = AMBIENT + (1 - AMBIENT) * diffuse;
+        }
+        store.r *= light;
+        store.g *= light;
+        store.b *= light;
+    }
+
+    /**
+     * Downsamples a view into its tile of the atlas. Alpha is the covered
+     * fraction of each texel, the empty texels take the color of their
+     * covered neighbours.
+     */
+    private static void writeView(BufferedImage atlas, int offsetX, int size, float[] color, boolean[] covered) {
+        int samples = size * SUPERSAMPLE;
+        float[] rgb = new float[size * size * 3];
+        float[] alpha = new float[size * size];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int count = 0;
+                float r = 0;
+                float g = 0;
+                float b = 0;
+                for (int sy = 0; sy < SUPERSAMPLE; sy++) {
+                    for (int sx = 0; sx < SUPERSAMPLE; sx++) {
+                        int sample = (y * SUPERSAMPLE + sy) * samples + x * SUPERSAMPLE + sx;
+                        if (covered[sample]) {
+                            r += color[sample * 3];
+                            g += color[sample * 3 + 1];
+                            b += color[sample * 3 + 2];
+                            count++;
+                        }
+                    }
+                }
+                int texel = y * size + x;
+                alpha[texel] = count / (float) (SUPERSAMPLE * SUPERSAMPLE);
+                if (count > 0) {
+                    rgb[texel * 3] = r / count;
+                    rgb[texel * 3 + 1] = g / count;
+                    rgb[texel * 3 + 2] = b / count;
+                }
+            }
+        }
+        bleed(rgb, alpha, size);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int texel = y * size + x;
+                atlas.setRGB(offsetX + x, y, argb(alpha[texel], rgb[texel * 3], rgb[texel * 3 + 1], rgb[texel * 3 + 2]));
+            }
+        }
+    }
+
+    private static void bleed(float[] rgb, float[] alpha, int size) {
+        boolean[] filled = new boolean[size * size];
+        for (int i = 0; i < filled.length; i++) {
+            filled[i] = alpha[i] > 0;
+        }
+        for (int pass = 0; pass < BLEED; pass++) {
+            boolean[] next = filled.clone();
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    int texel = y * size + x;
+                    if (filled[texel]) {
+                        continue;
+                    }
+                    int count = 0;
+                    float r = 0;
+                    float g = 0;
+                    float b = 0;
+                    for (int dy = -1; dy <= 1; dy++) {
+                        for (int dx = -1; dx <= 1; dx++) {
+                            int nx = x + dx;
+                            int ny = y + dy;
+                            if (nx >= 0 && ny >= 0 && nx < size && ny < size && filled[ny * size + nx]) {
+                                int neighbour = ny * size + nx;
+                                r += rgb[neighbour * 3];
+                                g += rgb[neighbour * 3 + 1];
+                                b += rgb[neighbour * 3 + 2];
+                                count++;
+                            }
+                        }
+                    }
+                    if (count > 0) {
+                        rgb[texel * 3] = r / count;
+                        rgb[texel * 3 + 1] = g / count;
+                        rgb[texel * 3 + 2] = b / count;
+                        next[texel] = true;
+                    }
+                }
+            }
+            filled = next;
+        }
+    }
+
+    private static int argb(float a, float r, float g, float b) {
+        return channel(a) << 24 | channel(r) << 16 | channel(g) << 8 | channel(b);
+    }
+
+    private static int channel(float value) {
+        return Math.max(0, Math.min(255, Math.round(value * 255)));
+    }
+
+    private static float[] floats(Mesh mesh, VertexBuffer.Type type) {
+        VertexBuffer buffer = mesh.getBuffer(type);
+        if (buffer == null) {
+            return null;
+        }
+        FloatBuffer data = (FloatBuffer) buffer.getData();
+        float[] values = new float[data.limit()];
+        data.duplicate().clear().get(values);
+        return values;
+    }
+
+    private static int[] indices(Mesh mesh) {
+        if (mesh.getBuffer(VertexBuffer.Type.Index) == null) {
+            int[] indices = new int[mesh.getVertexCount()];
+            for (int i = 0; i < indices.length; i++) {
+                indices[i] = i;
+            }
+            return indices;
+        }
+        // Level 0, the full detail mesh
+        IndexBuffer buffer = mesh.getIndicesAsList();
+        int[] indices = new int[buffer.size()];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = buffer.get(i);
+        }
+        return indices;
+    }
+}
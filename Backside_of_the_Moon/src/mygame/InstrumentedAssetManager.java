@@ -0,0 +1,313 @@
+package mygame;
+
+import com.google.gson.GsonBuilder;
+import com.jme3.asset.AssetInfo;
+import com.jme3.asset.AssetKey;
+import com.jme3.asset.AssetProcessor;
+import com.jme3.asset.DesktopAssetManager;
+import com.jme3.asset.cache.AssetCache;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An asset manager that records every asset load, to find the assets that
+ * dominate load time.
+ *
+ * Each request through loadAsset, and so every loadModel, loadTexture,
+ * loadAudio and AudioNode, is recorded with its wall time, the time spent
+ * reading and decoding it, the bytes read, whether it was a cache hit and the
+ * game code that asked for it. Assets loaded while another asset loads, such
+ * as the textures of a model, are recorded with that asset as their parent,
+ * and their time is not counted again in the parent's own time.
+ *
+ * Enabled with -Dasset.stats=true. The report is written when the game exits.
+ */
+public class InstrumentedAssetManager extends DesktopAssetManager {
+
+    // Events kept for the JSON dump, the summary counts every load
+    private static final int MAX_EVENTS = 100_000;
+
+    private final long startTime = System.nanoTime();
+    private final ThreadLocal<Deque<Frame>> frames = ThreadLocal.withInitial(ArrayDeque::new);
+    private final Map<String, AssetStats> stats = new LinkedHashMap<>();
+    private final List<LoadEvent> events = new ArrayList<>();
+
+    /**
+     * A load in progress on one thread.
+     */
+    private static class Frame {
+        private final String name;
+        private final long start = System.nanoTime();
+        private long childNanos;
+        private long decodeNanos;
+        private long bytes;
+        private boolean miss;
+
+        Frame(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * One request for an asset, as written to the JSON dump.
+     */
+    private static class LoadEvent {
+        String asset;
+        String type;
+        String thread;
+        String site;
+        String parent;
+        double startMs;
+        double wallMs;
+        double decodeMs;
+        long bytes;
+        boolean hit;
+    }
+
+    /**
+     * Totals of one asset.
+     */
+    private static class AssetStats {
+        String asset;
+        String type;
+        int requests;
+        int hits;
+        int misses;
+        double selfMs;
+        double wallMs;
+        double decodeMs;
+        long bytes;
+        Map<String, Integer> sites = new LinkedHashMap<>();
+    }
+
+    /**
+     * Constructs a new InstrumentedAssetManager.
+     *
+     * @param configFile The asset config, usually JmeSystem.getPlatformAssetConfigURL().
+     */
+    public InstrumentedAssetManager(URL configFile) {
+        super(configFile);
+    }
+
+    @Override
+    public <T> T loadAsset(AssetKey<T> key) {
+        Deque<Frame> stack = frames.get();
+        Frame parent = stack.peek();
+        Frame frame = new Frame(key.getName());
+        stack.push(frame);
+        try {
+            return super.loadAsset(key);
+        } finally {
+            stack.pop();
+            long wall = System.nanoTime() - frame.start;
+            if (parent != null) {
+                parent.childNanos += wall;
+            }
+            record(key, frame, wall, parent != null ? parent.name : null);
+        }
+    }
+
+    @Override
+    protected <T> T loadLocatedAsset(AssetKey<T> key, AssetInfo info, AssetProcessor proc, AssetCache cache) {
+        Frame frame = frames.get().peek();
+        if (frame == null) {
+            return super.loadLocatedAsset(key, info, proc, cache);
+        }
+        frame.miss = true;
+        AssetInfo counted = counted(info, frame);
+        long start = System.nanoTime();
+        long childrenBefore = frame.childNanos;
+        try {
+            return super.loadLocatedAsset(key, counted, proc, cache);
+        } finally {
+            frame.decodeNanos += System.nanoTime() - start - (frame.childNanos - childrenBefore);
+        }
+    }
+
+    /**
+     * Counts the bytes of files loaders open themselves, such as the baked
+     * DDS of a texture, into the asset being loaded.
+     */
+    @Override
+    public AssetInfo locateAsset(AssetKey<?> key) {
+        AssetInfo info = super.locateAsset(key);
+        Frame frame = frames.get().peek();
+        return info != null && frame != null ? counted(info, frame) : info;
+    }
+
+    /**
+     * Writes the report, sorted by the time each asset took itself.
+     *
+     * @param file The text file to write.
+     */
+    public void writeReport(File file) throws IOException {
+        List<AssetStats> sorted;
+        synchronized (this) {
+            sorted = new ArrayList<>(stats.values());
+        }
+        sorted.sort(Comparator.comparingDouble((AssetStats s) -> s.selfMs).reversed());
+
+        double selfMs = 0;
+        long bytes = 0;
+        int requests = 0;
+        int hits = 0;
+        for (AssetStats asset : sorted) {
+            selfMs += asset.selfMs;
+            bytes += asset.bytes;
+            requests += asset.requests;
+            hits += asset.hits;
+        }
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.printf("Asset loads: %d requests, %d cache hits (%.0f%%), %d assets, %.1f ms, %d KB read%n",
+                    requests, hits, requests > 0 ? 100.0 * hits / requests : 0, sorted.size(), selfMs, bytes / 1024);
+            out.println();
+            out.printf("%10s %10s %10s %10s %5s %5s  %s%n", "self ms", "wall ms", "decode ms", "KB", "miss", "hit", "asset <- call site");
+            for (AssetStats asset : sorted) {
+                out.printf("%10.1f %10.1f %10.1f %10d %5d %5d  %s <- %s%n", asset.selfMs, asset.wallMs, asset.decodeMs,
+                        asset.bytes / 1024, asset.misses, asset.hits, asset.asset, String.join(", ", asset.sites.keySet()));
+            }
+        }
+        System.out.println("Wrote asset load report: " + file.getAbsolutePath());
+    }
+
+    /**
+     * Writes the totals of every asset and each recorded request as JSON.
+     *
+     * @param file The JSON file to write.
+     */
+    public void writeJson(File file) throws IOException {
+        Map<String, Object> dump = new LinkedHashMap<>();
+        synchronized (this) {
+            dump.put("assets", new ArrayList<>(stats.values()));
+            dump.put("events", new ArrayList<>(events));
+        }
+        try (Writer out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            new GsonBuilder().setPrettyPrinting().create().toJson(dump, out);
+        }
+        System.out.println("Wrote asset load dump: " + file.getAbsolutePath());
+    }
+
+    /*
+    * Helper functions
+    */
+
+    private void record(AssetKey<?> key, Frame frame, long wallNanos, String parent) {
+        String site = callSite();
+        double wallMs = wallNanos / 1e6;
+        double selfMs = (wallNanos - frame.childNanos) / 1e6;
+        double decodeMs = frame.decodeNanos / 1e6;
+        String type = key.getClass().getSimpleName();
+
+        synchronized (this) {
+            AssetStats asset = stats.computeIfAbsent(key.getName(), name -> new AssetStats());
+            asset.asset = key.getName();
+            asset.type = type;
+            asset.requests++;
+            if (frame.miss) {
+                asset.misses++;
+            } else {
+                asset.hits++;
+            }
+            asset.selfMs += selfMs;
+            asset.wallMs += wallMs;
+            asset.decodeMs += decodeMs;
+            asset.bytes += frame.bytes;
+            asset.sites.merge(site, 1, Integer::sum);
+
+            if (events.size() < MAX_EVENTS) {
+                LoadEvent event = new LoadEvent();
+                event.asset = key.getName();
+                event.type = type;
+                event.thread = Thread.currentThread().getName();
+                event.site = site;
+                event.parent = parent;
+                event.startMs = (frame.start - startTime) / 1e6;
+                event.wallMs = wallMs;
+                event.decodeMs = decodeMs;
+                event.bytes = frame.bytes;
+                event.hit = !frame.miss;
+                events.add(event);
+            }
+        }
+    }
+
+    private static AssetInfo counted(AssetInfo info, Frame frame) {
+        if (info instanceof AssetPackLocator.MappedAssetInfo) {
+            // Mapped loaders read the buffer directly, keep the info as it is
+            frame.bytes += ((AssetPackLocator.MappedAssetInfo) info).getBuffer().remaining();
+            return info;
+        }
+        return new AssetInfo(info.getManager(), info.getKey()) {
+            @Override
+            public InputStream openStream() {
+                return new CountingInputStream(info.openStream(), frame);
+            }
+        };
+    }
+
+    /**
+     * Names the game code that asked for the asset: the first caller outside
+     * the engine and this class.
+     */
+    private static String callSite() {
+        return StackWalker.getInstance().walk(stack -> stack
+                .filter(f -> !f.getClassName().startsWith("com.jme3.")
+                        && !f.getClassName().startsWith("java.")
+                        && !f.getClassName().startsWith(InstrumentedAssetManager.class.getName()))
+                .map(f -> f.getClassName().substring(f.getClassName().lastIndexOf('.') + 1)
+                        + "." + f.getMethodName() + ":" + f.getLineNumber())
+                .findFirst()
+                .orElse("engine"));
+    }
+
+    /**
+     * Counts the bytes a loader reads into the frame of its asset.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private final Frame frame;
+
+        CountingInputStream(InputStream in, Frame frame) {
+            super(in);
+            this.frame = frame;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                frame.bytes++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                frame.bytes += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            frame.bytes += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package mygame;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.jme3.asset.AssetInfo;
+import com.jme3.asset.AssetKey;
+import com.jme3.asset.AssetManager;
+import com.jme3.asset.AssetNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Layout of one room, read from a JSON file under Levels/ in the assets folder.
+ * LevelLoader builds the room from it.
+ *
+ * Positions and directions are [x, y, z], rotations are [x, y, z] in degrees
+ * and colors are [r, g, b] or [r, g, b, a]. Fields left out keep the defaults
+ * below. A room is built in this order: objects, effects, lights, the static
+ * physics of everything built so far, vegetation, ground cover, pickables and
+ * characters.
+ */
+public class LevelDescriptor {
+
+    private static final Gson GSON = new Gson();
+
+    // Name of the room node
+    String name;
+    // Translation of the room node
+    float[] position;
+    // Whether a static rigid body is built over the objects and effects
+    boolean staticPhysics;
+    // Whether the static children of the room are sorted into an OctreeNode
+    boolean octree;
+    // Fog of the room, what it hides is culled by the FogCuller
+    FogDescriptor fog;
+    // Post processing of the room, drawn while it is the current scene
+    List<FilterDescriptor> filters = Collections.emptyList();
+    List<ObjectDescriptor> objects = Collections.emptyList();
+    // ParticleEffects to add to the room: dust, sparks, burst and fire
+    List<String> effects = Collections.emptyList();
+    List<LightDescriptor> lights = Collections.emptyList();
+    List<VegetationDescriptor> vegetation = Collections.emptyList();
+    List<GroundCoverDescriptor> groundCover = Collections.emptyList();
+    List<PickableDescriptor> pickables = Collections.emptyList();
+    List<CharacterDescriptor> characters = Collections.emptyList();
+
+    /**
+     * A model, a clone of an earlier object, a terrain, or an empty group when
+     * it has none of them. Objects may have children. A clone keeps the
+     * transform of the object it copies unless it sets its own.
+     */
+    static class ObjectDescriptor {
+        String name;
+        String model;
+        // Name of an earlier object to clone instead of loading a model
+        String cloneOf;
+        TerrainDescriptor terrain;
+        // Load through MappedMeshLoader
+        boolean mapped;
+        // Leave the object out with a warning if its model is missing
+        boolean optional;
+        // Hides what is behind it from the OcclusionCuller, a paged terrain by a coarse copy of its surface
+        boolean occluder;
+        float[] position;
+        float[] rotation;
+        Float scale;
+        // Culled beyond this distance from the camera while the room is fogged
+        Float cullDistance;
+        // RenderQueue.ShadowMode and RenderQueue.Bucket names
+        String shadowMode;
+        String bucket;
+        List<LightDescriptor> lights = Collections.emptyList();
+        List<ObjectDescriptor> children = Collections.emptyList();
+    }
+
+    /**
+     * A TerrainQuad built from a 16-bit heightmap read by HeightMapLoader,
+     * whose patches lower their detail with distance from the camera, or a
+     * TerrainGrid around it when paged.
+     */
+    static class TerrainDescriptor {
+        String heightmap;
+        // Heights of black and white in the heightmap
+        float[] heights = {0, 1};
+        // Vertices along a side of one patch, 2^n + 1
+        int patchSize = 65;
+        // Larger keeps the full detail further out
+        float lodMultiplier = 2.7f;
+        // Textures other than alpha maps repeat
+        MaterialDescriptor material;
+        // Pages tiles around the player, the heightmap is then the middle of an endless terrain
+        PagingDescriptor paging;
+    }
+
+    /**
+     * A terrain paged by a TerrainGrid, with tiles from a TerrainTileLoader.
+     * Beyond the heightmap the terrain is fractal noise from the seed.
+     */
+    static class PagingDescriptor {
+        // Vertices along a side of one tile, 2^n + 1, the grid shows 2 x 2 tiles
+        int tileSize = 257;
+        long seed;
+        // Largest height of the noise above or below zero, and size of its largest hills
+        float height = 30;
+        float wavelength = 400;
+        // Width of the band over which the heightmap edge turns into noise
+        float blend = 128;
+        // Tiles further than this from the player are dropped from memory
+        int cacheRadius = 3;
+    }
+
+    /**
+     * Fog over the whole room, thickening with distance until it is opaque.
+     * The far plane of the camera is pulled in to where it is.
+     */
+    static class FogDescriptor {
+        float[] color = {1, 1, 1, 1};
+        // Distance at which the fog is opaque
+        float distance = 250;
+    }
+
+    /**
+     * A filter of the room's RenderProfile: water, lightScattering, bloom or
+     * shadow. Water and light scattering take their direction from a
+     * directional light of the room, and shadows are cast by it. The fog
+     * filter is not listed, it comes with the fog.
+     */
+    static class FilterDescriptor {
+        String type;
+        // Name of a directional light of the room
+        String light;
+        // Water: height of its surface, and the object whose children it reflects
+        float height;
+        String reflect;
+        // Shadow: size of each shadow map and the number of splits
+        int mapSize = 1024;
+        int splits = 2;
+    }
+
+    /**
+     * A directional, ambient or point light.
+     */
+    static class LightDescriptor {
+        String type;
+        String name;
+        float[] direction;
+        float[] position;
+        float radius;
+        float[] color = {1, 1, 1, 1};
+        // Multiplies the whole color, alpha included
+        float intensity = 1;
+    }
+
+    /**
+     * Copies of a plant placed by hand or scattered over an area, drawn by a
+     * VegetationControl: meshes with LOD near the camera and impostors from
+     * the atlas ImpostorBaker renders for the model beyond the impostor
+     * distance. Plants get a random scale and rotation from the seed.
+     */
+    static class VegetationDescriptor {
+        String name;
+        String model;
+        // Impostor atlas of the model, X.impostor.png for X.j3o
+        String impostor;
+        float impostorDistance = 100;
+        // Object with the TerrainQuad the plants stand on, y is then above its surface
+        String ground;
+        // Plants whose ground is lower are left out, to keep them out of the water
+        float minHeight = Float.NEGATIVE_INFINITY;
+        // Hand placed plants, [x, y, z]
+        List<float[]> positions = Collections.emptyList();
+        // Plants scattered over [minX, minZ, maxX, maxZ], outside the clearing [x, z, radius]
+        int count;
+        float[] area;
+        float[] clearing;
+        long seed;
+        // Smallest and largest scale
+        float[] scale = {1, 1};
+        String shadowMode;
+    }
+
+    /**
+     * Tufts of grass or other ground cover scattered over a paged terrain by a
+     * GroundCoverControl, wherever one layer of its SplatTerrain material
+     * shows. Each tile is scattered when the grid attaches it, and drawn in
+     * instanced chunks that are left out beyond the fade distance.
+     */
+    static class GroundCoverDescriptor {
+        String name;
+        // Object with the paged terrain the cover grows on
+        String ground;
+        // Layer of the terrain material, 0 to 3 for the red to alpha of its alpha map
+        int layer;
+        // Tufts per square unit where the layer is all that shows
+        float density = 1;
+        // Tufts whose ground is lower are left out, as for vegetation
+        float minHeight = Float.NEGATIVE_INFINITY;
+        // Smallest and largest height of a tuft
+        float[] scale = {0.4f, 0.8f};
+        // Blades of a tuft, their width at the root and the radius they spread over, for a tuft a unit high
+        int blades = 6;
+        float bladeWidth = 0.08f;
+        float spread = 0.25f;
+        // Side of a square chunk, drawn with one draw call
+        float chunkSize = 32;
+        // Distances over which the tufts thin out, none are left at the second
+        float[] fade = {30, 50};
+        long seed;
+        // MatDefs/Terrain/GroundCover.j3md when left out, its fade distances are set from the ones above
+        MaterialDescriptor material;
+    }
+
+    /**
+     * Copies of one model laid out on a grid and registered as pickable items.
+     * Every copy is named after the group; with key set, one random copy is
+     * renamed "Key" when the room is activated. Instanced copies are drawn with
+     * one draw call per mesh of the model, however many there are.
+     */
+    static class PickableDescriptor {
+        String name;
+        String model;
+        boolean key;
+        int count;
+        // Position of the first copy, the grid fills rows along x first
+        float[] origin;
+        int columns = 1;
+        // Distance between columns along x and between rows along z
+        float[] spacing = {0, 0};
+        float scale = 1;
+        // Mass of the rigid body of each copy, none when left out
+        Float mass;
+        // Draw the copies with hardware instancing, they then share one material
+        boolean instanced;
+        MaterialDescriptor material;
+    }
+
+    /**
+     * A material shared by all objects using it. Parameters are set by JSON
+     * type: booleans with setBoolean, numbers with setFloat, arrays of numbers
+     * with setColor, strings as texture paths and arrays of strings as the
+     * layers of a texture array.
+     */
+    static class MaterialDescriptor {
+        String definition;
+        Map<String, JsonElement> params = Collections.emptyMap();
+    }
+
+    /**
+     * A character with a BetterCharacterControl. With a model offset the
+     * model is wrapped in a node of the character's name, otherwise the model
+     * itself is renamed and controlled.
+     */
+    static class CharacterDescriptor {
+        String name;
+        String model;
+        float[] position;
+        float[] rotation;
+        float scale = 1;
+        float[] modelOffset;
+        float radius;
+        float height;
+        float mass;
+        // Animation started when the room is activated
+        String animation;
+    }
+
+    /**
+     * Reads a level descriptor.
+     *
+     * @param assetManager The asset manager to read it with.
+     * @param path         Asset path of the JSON file.
+     * @return The descriptor.
+     */
+    public static LevelDescriptor load(AssetManager assetManager, String path) {
+        AssetInfo info = assetManager.locateAsset(new AssetKey<>(path));
+        if (info == null) {
+            throw new AssetNotFoundException(path);
+        }
+        try (InputStream in = info.openStream();
+             Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            LevelDescriptor level = GSON.fromJson(reader, LevelDescriptor.class);
+            if (level == null || level.name == null) {
+                throw new IOException("Level has no name");
+            }
+            return level;
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalStateException("Failed to read level " + path, e);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Lists every model the room loads, each once, in the order they appear.
+     *
+     * @return Asset paths of the models.
+     */
+    public List<String> getModels() {
+        Set<String> models = new LinkedHashSet<>();
+        collectModels(objects, models);
+        for (VegetationDescriptor plants : vegetation) {
+            models.add(plants.model);
+        }
+        for (PickableDescriptor pickable : pickables) {
+            models.add(pickable.model);
+        }
+        for (CharacterDescriptor character : characters) {
+            models.add(character.model);
+        }
+        return new ArrayList<>(models);
+    }
+
+    /*
+    * Helper functions
+    */
+
+    private static void collectModels(List<ObjectDescriptor> objects, Set<String> models) {
+        for (ObjectDescriptor object : objects) {
+            if (object.model != null) {
+                models.add(object.model);
+            }
+            collectModels(object.children, models);
+        }
+    }
+}
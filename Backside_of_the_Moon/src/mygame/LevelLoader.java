@@ -0,0 +1,804 @@
+package mygame;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+import com.jme3.animation.AnimChannel;
+import com.jme3.animation.AnimControl;
+import com.jme3.asset.AssetManager;
+import com.jme3.bullet.control.BetterCharacterControl;
+import com.jme3.bullet.control.RigidBodyControl;
+import com.jme3.light.AmbientLight;
+import com.jme3.light.DirectionalLight;
+import com.jme3.light.Light;
+import com.jme3.light.PointLight;
+import com.jme3.material.MatParam;
+import com.jme3.material.Material;
+import com.jme3.material.RenderState;
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.FastMath;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector2f;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.queue.RenderQueue;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.UserData;
+import com.jme3.scene.instancing.InstancedNode;
+import com.jme3.system.JmeSystem;
+import com.jme3.terrain.geomipmap.TerrainGrid;
+import com.jme3.terrain.geomipmap.TerrainGridLodControl;
+import com.jme3.terrain.geomipmap.TerrainLodControl;
+import com.jme3.terrain.geomipmap.TerrainQuad;
+import com.jme3.terrain.geomipmap.lodcalc.DistanceLodCalculator;
+import com.jme3.texture.Texture;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Builds rooms from their level descriptors.
+ *
+ * The models and textures a room needs do not depend on each other, so they
+ * are all handed to a pool at once and load on as many cores as there are.
+ * The room is then assembled in descriptor order, and each part waits only
+ * for what it is made from: an object for its model, a clone for the object
+ * it copies, a terrain for its heightmap and textures, vegetation for its
+ * model and impostor atlas, a pickable group for its model and the textures of
+ * its material.
+ *
+ * Meshes with baked LOD levels get a ScreenLodControl each.
+ *
+ * Building never touches the live scene graph, the physics space or the game
+ * state, so it can run on a scene loader thread and its result can go into a
+ * room snapshot. What depends on the session is done by activate.
+ */
+public class LevelLoader {
+
+    // User data naming the pickable group a spatial belongs to
+    private static final String PICKABLE_KEY = "PickableGroup";
+    // Suffix of the InstancedNode holding an instanced pickable group
+    private static final String INSTANCES_SUFFIX = "Instances";
+
+    private final AssetManager assetManager;
+    private final ExecutorService pool;
+    private final Map<String, LevelDescriptor> levels = new HashMap<>();
+
+    /**
+     * Constructs a new LevelLoader.
+     *
+     * @param assetManager The asset manager used to load models and textures.
+     * @param threads      Number of asset loading threads.
+     */
+    public LevelLoader(AssetManager assetManager, int threads) {
+        this.assetManager = assetManager;
+        this.pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "Level Loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Gets a level descriptor, reading it the first time.
+     *
+     * @param path Asset path of the JSON file.
+     * @return The descriptor.
+     */
+    public synchronized LevelDescriptor getLevel(String path) {
+        LevelDescriptor level = levels.get(path);
+        if (level == null) {
+            level = LevelDescriptor.load(assetManager, path);
+            levels.put(path, level);
+        }
+        return level;
+    }
+
+    /**
+     * Builds a room. Its models load concurrently, the calling thread
+     * assembles them.
+     *
+     * @param level The descriptor of the room.
+     * @return The detached node representing the room.
+     */
+    public Node build(LevelDescriptor level) {
+        long start = System.nanoTime();
+        Build build = new Build();
+        submitAll(level, build);
+
+        Node room = level.octree ? new OctreeNode(level.name) : new Node(level.name);
+        if (level.position != null) {
+            room.setLocalTranslation(vector(level.position));
+        }
+        if (level.fog != null) {
+            room.setUserData(FogCuller.FOG_COLOR_KEY, color(level.fog.color));
+            room.setUserData(FogCuller.FOG_DISTANCE_KEY, level.fog.distance);
+        }
+        for (LevelDescriptor.ObjectDescriptor object : level.objects) {
+            buildObject(object, room, build);
+        }
+        if (!level.effects.isEmpty()) {
+            ParticleEffects particle = new ParticleEffects(assetManager, room);
+            for (String effect : level.effects) {
+                addEffect(particle, effect);
+            }
+        }
+        for (LevelDescriptor.LightDescriptor light : level.lights) {
+            room.addLight(buildLight(light));
+        }
+        // Built before the pickables and characters so it only covers the room
+        if (level.staticPhysics) {
+            room.addControl(new RigidBodyControl(0f));
+        }
+        for (LevelDescriptor.VegetationDescriptor plants : level.vegetation) {
+            buildVegetation(plants, room, build);
+        }
+        for (LevelDescriptor.GroundCoverDescriptor cover : level.groundCover) {
+            buildGroundCover(cover, build);
+        }
+        // Pickables are looked up among the children of the room, so they stay out of the cells
+        if (room instanceof OctreeNode) {
+            ((OctreeNode) room).partition();
+        }
+        for (LevelDescriptor.PickableDescriptor pickable : level.pickables) {
+            buildPickables(pickable, room, build);
+        }
+        for (LevelDescriptor.CharacterDescriptor character : level.characters) {
+            buildCharacter(character, room, build);
+        }
+        ScreenLodControl.addTo(room);
+
+        System.out.println("Built level: " + level.name + ", " + build.assets.size() + " assets ("
+                + (System.nanoTime() - start) / 1_000_000 + " ms)");
+        return room;
+    }
+
+    /**
+     * Finishes a built or restored room: picks the key of each pickable group,
+     * registers the pickable items, groups instanced items into their instance
+     * buffers and starts the character animations. Physics is left to the
+     * caller. Must run on the render thread.
+     *
+     * @param room      The room.
+     * @param level     The descriptor the room was built from.
+     * @param gameState The game state to track pickable items.
+     */
+    public void activate(Node room, LevelDescriptor level, GameState gameState) {
+        for (LevelDescriptor.PickableDescriptor pickable : level.pickables) {
+            Spatial instances = room.getChild(pickable.name + INSTANCES_SUFFIX);
+            Node group = instances instanceof InstancedNode ? (InstancedNode) instances : room;
+            List<Spatial> items = new ArrayList<>();
+            for (Spatial child : group.getChildren()) {
+                if (pickable.name.equals(child.getUserData(PICKABLE_KEY))) {
+                    items.add(child);
+                }
+            }
+            if (items.isEmpty()) {
+                continue;
+            }
+            if (pickable.instanced && group == room) {
+                group = new InstancedNode(pickable.name + INSTANCES_SUFFIX);
+                for (Spatial item : items) {
+                    group.attachChild(item);
+                }
+                room.attachChild(group);
+            }
+            if (pickable.key) {
+                // Randomly select one item to be the "Key"
+                int keyInd = Math.min((int) (Math.random() * items.size()), items.size() - 1);
+                items.get(keyInd).setName("Key");
+            }
+            for (Spatial item : items) {
+                gameState.addPickableItem(item);
+            }
+            if (group instanceof InstancedNode) {
+                // Items stay in the scene graph so physics keeps moving them and
+                // picking one up only removes its instance
+                ((InstancedNode) group).instance();
+            }
+        }
+
+        for (LevelDescriptor.CharacterDescriptor character : level.characters) {
+            Spatial spatial = room.getChild(character.name);
+            AnimControl animControl = spatial != null ? findAnimControl(spatial) : null;
+            if (character.animation != null && animControl != null) {
+                AnimChannel animChannel = animControl.createChannel();
+                animChannel.setAnim(character.animation);
+            }
+        }
+    }
+
+    /**
+     * Stops the loading threads.
+     */
+    public void cleanup() {
+        pool.shutdownNow();
+    }
+
+    /*
+    * Helper functions
+    */
+
+    /**
+     * The assets of one build, keyed by path.
+     */
+    private static class Build {
+        private final Map<String, Future<Spatial>> models = new HashMap<>();
+        private final Map<String, Future<?>> assets = new HashMap<>();
+        private final Set<String> used = new HashSet<>();
+        private final Map<String, Spatial> objects = new HashMap<>();
+        private final Map<TerrainQuad, Material> terrainMaterials = new HashMap<>();
+    }
+
+    private void submitAll(LevelDescriptor level, Build build) {
+        submitObjects(level.objects, build);
+        for (LevelDescriptor.VegetationDescriptor plants : level.vegetation) {
+            submitModel(plants.model, false, build);
+            if (plants.impostor != null) {
+                submitTexture(plants.impostor, build);
+            }
+        }
+        for (LevelDescriptor.GroundCoverDescriptor cover : level.groundCover) {
+            submitMaterial(cover.material, build);
+        }
+        for (LevelDescriptor.PickableDescriptor pickable : level.pickables) {
+            submitModel(pickable.model, false, build);
+            submitMaterial(pickable.material, build);
+        }
+        for (LevelDescriptor.CharacterDescriptor character : level.characters) {
+            submitModel(character.model, false, build);
+        }
+    }
+
+    private void submitObjects(List<LevelDescriptor.ObjectDescriptor> objects, Build build) {
+        for (LevelDescriptor.ObjectDescriptor object : objects) {
+            if (object.model != null) {
+                submitModel(object.model, object.mapped, build);
+            }
+            if (object.terrain != null) {
+                LevelDescriptor.TerrainDescriptor terrain = object.terrain;
+                build.assets.computeIfAbsent(terrain.heightmap,
+                        path -> pool.submit(() -> HeightMapLoader.load(assetManager, path, terrain.heights)));
+                submitMaterial(terrain.material, build);
+            }
+            submitObjects(object.children, build);
+        }
+    }
+
+    private void submitModel(String path, boolean mapped, Build build) {
+        if (build.models.containsKey(path)) {
+            return;
+        }
+        Future<Spatial> model = pool.submit(() -> mapped
+                ? MappedMeshLoader.load(assetManager, path)
+                : assetManager.loadModel(path));
+        build.models.put(path, model);
+        build.assets.put(path, model);
+    }
+
+    private void submitMaterial(LevelDescriptor.MaterialDescriptor material, Build build) {
+        if (material == null) {
+            return;
+        }
+        for (JsonElement value : material.params.values()) {
+            List<String> layers = textureArrayLayers(value);
+            if (value.isJsonPrimitive() && ((JsonPrimitive) value).isString()) {
+                submitTexture(value.getAsString(), build);
+            } else if (layers != null) {
+                build.assets.computeIfAbsent(String.join(",", layers),
+                        key -> pool.submit(() -> TextureArrayLoader.load(assetManager, layers)));
+            }
+        }
+    }
+
+    private void submitTexture(String path, Build build) {
+        build.assets.computeIfAbsent(path, texture -> pool.submit(() -> assetManager.loadTexture(texture)));
+    }
+
+    /**
+     * Waits for a texture.
+     */
+    private Texture texture(String path, Build build) throws ExecutionException {
+        try {
+            return (Texture) build.assets.get(path).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading " + path, e);
+        }
+    }
+
+    /**
+     * Waits for a heightmap.
+     */
+    private float[] heightMap(String path, Build build) {
+        try {
+            return (float[]) build.assets.get(path).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading " + path, e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to load " + path, e.getCause());
+        }
+    }
+
+    /**
+     * Waits for a model. The first use gets the loaded spatial, later uses
+     * get clones of it.
+     */
+    private Spatial model(String path, Build build) throws ExecutionException {
+        try {
+            Spatial model = build.models.get(path).get();
+            return build.used.add(path) ? model : model.clone();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading " + path, e);
+        }
+    }
+
+    private Spatial requireModel(String path, Build build) {
+        try {
+            return model(path, build);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to load " + path, e.getCause());
+        }
+    }
+
+    private void buildObject(LevelDescriptor.ObjectDescriptor object, Node parent, Build build) {
+        Spatial spatial;
+        if (object.model != null) {
+            try {
+                spatial = model(object.model, build);
+            } catch (ExecutionException e) {
+                if (!object.optional) {
+                    throw new IllegalStateException("Failed to load " + object.model, e.getCause());
+                }
+                System.err.println("Skipped optional model '" + object.model + "': " + e.getCause());
+                return;
+            }
+        } else if (object.cloneOf != null) {
+            Spatial source = build.objects.get(object.cloneOf);
+            if (source == null) {
+                System.err.println("Cannot clone missing object '" + object.cloneOf + "'");
+                return;
+            }
+            spatial = source.clone();
+        } else if (object.terrain != null) {
+            spatial = buildTerrain(object.terrain, build);
+        } else {
+            spatial = new Node();
+        }
+
+        if (object.name != null) {
+            spatial.setName(object.name);
+            build.objects.put(object.name, spatial);
+        }
+        if (object.scale != null) {
+            spatial.setLocalScale(object.scale);
+        }
+        if (object.rotation != null) {
+            spatial.setLocalRotation(rotation(object.rotation));
+        }
+        if (object.position != null) {
+            spatial.setLocalTranslation(vector(object.position));
+        }
+        if (object.bucket != null) {
+            spatial.setQueueBucket(RenderQueue.Bucket.valueOf(object.bucket));
+        }
+        if (object.shadowMode != null) {
+            spatial.setShadowMode(RenderQueue.ShadowMode.valueOf(object.shadowMode));
+        }
+        if (object.occluder) {
+            spatial.setUserData(OcclusionCuller.OCCLUDER_KEY, true);
+        }
+        if (object.cullDistance != null) {
+            spatial.setUserData(FogCuller.CULL_DISTANCE_KEY, object.cullDistance);
+        }
+        for (LevelDescriptor.LightDescriptor light : object.lights) {
+            spatial.addLight(buildLight(light));
+        }
+        if (!object.children.isEmpty()) {
+            if (!(spatial instanceof Node)) {
+                throw new IllegalStateException("Object '" + object.name + "' cannot have children");
+            }
+            for (LevelDescriptor.ObjectDescriptor child : object.children) {
+                buildObject(child, (Node) spatial, build);
+            }
+        }
+        parent.attachChild(spatial);
+    }
+
+    private TerrainQuad buildTerrain(LevelDescriptor.TerrainDescriptor descriptor, Build build) {
+        float[] heightMap = heightMap(descriptor.heightmap, build);
+        TerrainQuad terrain;
+        TerrainLodControl lodControl;
+        if (descriptor.paging == null) {
+            int size = (int) FastMath.sqrt(heightMap.length);
+            terrain = new TerrainQuad("Terrain", descriptor.patchSize, size, heightMap);
+            // Patch detail is recomputed on the terrain executor thread, for the
+            // camera that renders the terrain
+            lodControl = new TerrainLodControl(terrain);
+            lodControl.setUseRenderCamera(true);
+        } else {
+            terrain = buildPagedTerrain(descriptor, heightMap);
+            // The grid only moves for cameras given to its control, by PagedTerrainControl
+            lodControl = new TerrainGridLodControl(terrain, null);
+        }
+        if (descriptor.material != null) {
+            Material material = buildMaterial(descriptor.material, build);
+            // Layers tile across the terrain, alpha maps stretch over it
+            for (MatParam param : material.getParams()) {
+                if (param.getValue() instanceof Texture && !param.getName().startsWith("AlphaMap")) {
+                    ((Texture) param.getValue()).setWrap(Texture.WrapMode.Repeat);
+                }
+            }
+            terrain.setMaterial(material);
+            build.terrainMaterials.put(terrain, material);
+        }
+        lodControl.setLodCalculator(new DistanceLodCalculator(descriptor.patchSize, descriptor.lodMultiplier));
+        terrain.addControl(lodControl);
+        return terrain;
+    }
+
+    private TerrainGrid buildPagedTerrain(LevelDescriptor.TerrainDescriptor descriptor, float[] heightMap) {
+        LevelDescriptor.PagingDescriptor paging = descriptor.paging;
+        String name = descriptor.heightmap.substring(descriptor.heightmap.lastIndexOf('/') + 1);
+        File cacheDir = new File(JmeSystem.getStorageFolder(), "terrain-tiles/" + name.substring(0, name.lastIndexOf('.')));
+        TerrainTileLoader loader = new TerrainTileLoader(heightMap, descriptor.patchSize, paging.tileSize, paging.seed,
+                paging.height, paging.wavelength, paging.blend, paging.cacheRadius, cacheDir);
+        // The tiles in the middle are built along with the rest of the room
+        int[] middle = loader.getTile(0, 0);
+        loader.setFocus(middle[0], middle[1]);
+
+        TerrainGrid grid = new TerrainGrid("Terrain", descriptor.patchSize, 2 * paging.tileSize - 1, loader);
+        PagedTerrainControl pager = new PagedTerrainControl(loader);
+        grid.addControl(pager);
+        grid.addListener(pager);
+        // Left out of the static physics of the room, tiles get their own bodies
+        grid.setUserData(UserData.JME_PHYSICSIGNORE, true);
+        return grid;
+    }
+
+    /**
+     * Adds the ground cover of a paged terrain, next to it and placed like it
+     * so the tufts are in its space.
+     */
+    private void buildGroundCover(LevelDescriptor.GroundCoverDescriptor cover, Build build) {
+        Spatial ground = build.objects.get(cover.ground);
+        TerrainQuad terrain = ground != null ? findTerrain(ground) : null;
+        Material terrainMaterial = build.terrainMaterials.get(terrain);
+        if (!(terrain instanceof TerrainGrid) || terrainMaterial == null
+                || terrainMaterial.getParam("AlphaMap") == null) {
+            System.err.println("No paged terrain with an alpha map named '" + cover.ground + "' for " + cover.name);
+            return;
+        }
+        TerrainGrid grid = (TerrainGrid) terrain;
+        Material material = cover.material != null
+                ? buildMaterial(cover.material, build)
+                : new Material(assetManager, "MatDefs/Terrain/GroundCover.j3md");
+        material.setFloat("FadeStart", cover.fade[0]);
+        material.setFloat("FadeEnd", cover.fade[1]);
+
+        Node node = new Node(cover.name);
+        node.setLocalTransform(grid.getLocalTransform());
+        grid.getParent().attachChild(node);
+        float minHeight = (cover.minHeight - grid.getLocalTranslation().y) / grid.getLocalScale().y;
+        GroundCoverControl control = new GroundCoverControl((TerrainTileLoader) grid.getGridTileLoader(),
+                new SplatLayer(terrainMaterial, cover.layer), cover.density, minHeight, cover.scale,
+                cover.chunkSize, cover.fade[1], cover.seed,
+                GroundCoverControl.tuftMesh(cover.blades, cover.bladeWidth, cover.spread, cover.seed), material);
+        node.addControl(control);
+        grid.addListener(control);
+        System.out.println("Placed ground cover: " + cover.name + ", " + cover.density + " tufts per square unit");
+    }
+
+    private void buildPickables(LevelDescriptor.PickableDescriptor pickable, Node room, Build build) {
+        Spatial model = requireModel(pickable.model, build);
+        Material material = pickable.material != null ? buildMaterial(pickable.material, build) : null;
+        Vector3f origin = pickable.origin != null ? vector(pickable.origin) : new Vector3f();
+        int columns = Math.max(1, pickable.columns);
+        if (material != null) {
+            model.setMaterial(material);
+            if (model instanceof Node) {
+                // Every part now shares one material, so the parts merge into one mesh
+                StaticBatcher.batch((Node) model);
+            }
+        }
+        if (pickable.instanced) {
+            // The items are grouped into their InstancedNode by activate, a room
+            // snapshot only holds the plain items, as the node cannot be saved
+            enableInstancing(model);
+        }
+
+        for (int i = 0; i < pickable.count; i++) {
+            // Clone the model to create a new instance for each item,
+            // instanced items share its meshes and materials
+            Spatial item = model.clone(!pickable.instanced);
+            item.setLocalScale(pickable.scale);
+
+            int row = i / columns;
+            int col = i % columns;
+            item.setLocalTranslation(origin.x + col * pickable.spacing[0], origin.y,
+                    origin.z + row * pickable.spacing[1]);
+            item.setName(pickable.name);
+            item.setUserData(PICKABLE_KEY, pickable.name);
+
+            if (pickable.mass != null) {
+                item.addControl(new RigidBodyControl(pickable.mass));
+            }
+            room.attachChild(item);
+        }
+    }
+
+    /**
+     * Turns on UseInstancing in the materials of a model. Materials without
+     * it are left alone, their geometries are drawn one by one.
+     */
+    private static void enableInstancing(Spatial model) {
+        model.depthFirstTraversal(spatial -> {
+            if (spatial instanceof Geometry) {
+                Material material = ((Geometry) spatial).getMaterial();
+                if (material.getMaterialDef().getMaterialParam("UseInstancing") != null) {
+                    material.setBoolean("UseInstancing", true);
+                } else {
+                    System.err.println("Material " + material.getMaterialDef().getName()
+                            + " of " + spatial.getName() + " does not support instancing");
+                }
+            }
+        });
+    }
+
+    private void buildVegetation(LevelDescriptor.VegetationDescriptor plants, Node room, Build build) {
+        Spatial model = requireModel(plants.model, build);
+        Material impostorMaterial = null;
+        int views = 0;
+        if (plants.impostor != null) {
+            try {
+                Texture atlas = texture(plants.impostor, build);
+                views = Math.max(1, atlas.getImage().getWidth() / atlas.getImage().getHeight());
+                impostorMaterial = new Material(assetManager, "Common/MatDefs/Misc/Unshaded.j3md");
+                impostorMaterial.setTexture("ColorMap", atlas);
+                impostorMaterial.setFloat("AlphaDiscardThreshold", 0.5f);
+                impostorMaterial.getAdditionalRenderState().setFaceCullMode(RenderState.FaceCullMode.Off);
+            } catch (ExecutionException e) {
+                // Not baked yet, the plants are still there up close
+                System.err.println("Drawing every plant of " + plants.name + " as a mesh, no impostors: " + e.getCause());
+            }
+        }
+
+        List<VegetationControl.Plant> placed = placePlants(plants, room, build);
+        Node node = new Node(plants.name);
+        if (plants.shadowMode != null) {
+            node.setShadowMode(RenderQueue.ShadowMode.valueOf(plants.shadowMode));
+        }
+        node.addControl(new VegetationControl(model, impostorMaterial, views, placed, plants.impostorDistance));
+        room.attachChild(node);
+        System.out.println("Placed vegetation: " + plants.name + ", " + placed.size() + " plants");
+    }
+
+    /**
+     * Places the hand placed plants, then scatters the others. Plants on the
+     * ground stand on its surface, those off the terrain or below the minimum
+     * height are left out.
+     */
+    private List<VegetationControl.Plant> placePlants(LevelDescriptor.VegetationDescriptor plants, Node room, Build build) {
+        Random random = new Random(plants.seed);
+        TerrainQuad terrain = null;
+        if (plants.ground != null) {
+            Spatial ground = build.objects.get(plants.ground);
+            terrain = ground != null ? findTerrain(ground) : null;
+            if (terrain == null) {
+                System.err.println("No terrain named '" + plants.ground + "' for " + plants.name);
+            }
+            room.updateGeometricState();
+        }
+
+        List<Vector3f> positions = new ArrayList<>();
+        for (float[] position : plants.positions) {
+            positions.add(vector(position));
+        }
+        for (int i = 0; i < plants.count; i++) {
+            float x = plants.area[0] + random.nextFloat() * (plants.area[2] - plants.area[0]);
+            float z = plants.area[1] + random.nextFloat() * (plants.area[3] - plants.area[1]);
+            if (plants.clearing != null && FastMath.sqr(x - plants.clearing[0]) + FastMath.sqr(z - plants.clearing[1])
+                    < FastMath.sqr(plants.clearing[2])) {
+                continue;
+            }
+            positions.add(new Vector3f(x, 0, z));
+        }
+
+        List<VegetationControl.Plant> placed = new ArrayList<>();
+        for (Vector3f position : positions) {
+            float scale = plants.scale[0] + random.nextFloat() * (plants.scale[1] - plants.scale[0]);
+            float yaw = random.nextFloat() * FastMath.TWO_PI;
+            if (terrain != null) {
+                Vector3f world = room.localToWorld(position, null);
+                float height = terrain instanceof TerrainGrid
+                        ? pagedHeight((TerrainGrid) terrain, world)
+                        : terrain.getHeight(new Vector2f(world.x, world.z));
+                if (Float.isNaN(height)) {
+                    continue;
+                }
+                world.y = terrain.getWorldTranslation().y + height;
+                if (world.y < plants.minHeight) {
+                    continue;
+                }
+                position = room.worldToLocal(world, null).addLocal(0, position.y, 0);
+            }
+            placed.add(new VegetationControl.Plant(position, scale, yaw));
+        }
+        return placed;
+    }
+
+    private void buildCharacter(LevelDescriptor.CharacterDescriptor character, Node room, Build build) {
+        Spatial model = requireModel(character.model, build);
+        Spatial body = model;
+        if (character.modelOffset != null) {
+            // A parent node to deal with the offset of the model
+            Node node = new Node(character.name);
+            model.setLocalTranslation(vector(character.modelOffset));
+            node.attachChild(model);
+            body = node;
+        } else {
+            model.setName(character.name);
+        }
+        if (character.rotation != null) {
+            body.setLocalRotation(rotation(character.rotation));
+        }
+        body.setLocalScale(character.scale);
+        if (character.position != null) {
+            body.setLocalTranslation(vector(character.position));
+        }
+        room.attachChild(body);
+
+        body.addControl(new BetterCharacterControl(character.radius, character.height, character.mass));
+    }
+
+    private Light buildLight(LevelDescriptor.LightDescriptor descriptor) {
+        ColorRGBA color = color(descriptor.color).multLocal(descriptor.intensity);
+        Light light;
+        switch (descriptor.type) {
+            case "ambient":
+                light = new AmbientLight();
+                break;
+            case "directional":
+                light = new DirectionalLight(vector(descriptor.direction));
+                break;
+            case "point":
+                light = new PointLight(vector(descriptor.position), descriptor.radius);
+                break;
+            default:
+                throw new IllegalStateException("Unknown light type: " + descriptor.type);
+        }
+        light.setColor(color);
+        light.setName(descriptor.name);
+        return light;
+    }
+
+    private Material buildMaterial(LevelDescriptor.MaterialDescriptor descriptor, Build build) {
+        Material material = new Material(assetManager, descriptor.definition);
+        for (Map.Entry<String, JsonElement> param : descriptor.params.entrySet()) {
+            String name = param.getKey();
+            JsonElement value = param.getValue();
+            List<String> layers = textureArrayLayers(value);
+            if (layers != null) {
+                try {
+                    material.setTexture(name, texture(String.join(",", layers), build));
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Failed to load the texture array " + layers, e.getCause());
+                }
+            } else if (value.isJsonArray()) {
+                float[] rgba = new float[value.getAsJsonArray().size()];
+                for (int i = 0; i < rgba.length; i++) {
+                    rgba[i] = value.getAsJsonArray().get(i).getAsFloat();
+                }
+                material.setColor(name, color(rgba));
+            } else if (((JsonPrimitive) value).isBoolean()) {
+                material.setBoolean(name, value.getAsBoolean());
+            } else if (((JsonPrimitive) value).isNumber()) {
+                material.setFloat(name, value.getAsFloat());
+            } else {
+                try {
+                    material.setTexture(name, texture(value.getAsString(), build));
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Failed to load " + value.getAsString(), e.getCause());
+                }
+            }
+        }
+        return material;
+    }
+
+    /**
+     * Gets the layer paths of a texture array parameter.
+     *
+     * @return The paths, or null if the value is not an array of strings.
+     */
+    private static List<String> textureArrayLayers(JsonElement value) {
+        if (!value.isJsonArray() || value.getAsJsonArray().size() == 0
+                || !value.getAsJsonArray().get(0).isJsonPrimitive()
+                || !value.getAsJsonArray().get(0).getAsJsonPrimitive().isString()) {
+            return null;
+        }
+        List<String> layers = new ArrayList<>();
+        value.getAsJsonArray().forEach(layer -> layers.add(layer.getAsString()));
+        return layers;
+    }
+
+    private static void addEffect(ParticleEffects particle, String effect) {
+        switch (effect) {
+            case "dust":
+                particle.dust();
+                break;
+            case "sparks":
+                particle.sparks();
+                break;
+            case "burst":
+                particle.burst();
+                break;
+            case "fire":
+                particle.fire();
+                break;
+            default:
+                System.err.println("Unknown particle effect: " + effect);
+        }
+    }
+
+    /**
+     * Gets the height of a paged terrain from its tile loader, its tiles are
+     * not loaded while the room is built.
+     */
+    private static float pagedHeight(TerrainGrid grid, Vector3f world) {
+        Vector3f local = grid.worldToLocal(world, null);
+        TerrainTileLoader loader = (TerrainTileLoader) grid.getGridTileLoader();
+        return loader.getHeight(local.x, local.z) * grid.getWorldScale().y;
+    }
+
+    private static TerrainQuad findTerrain(Spatial spatial) {
+        if (spatial instanceof TerrainQuad) {
+            return (TerrainQuad) spatial;
+        }
+        if (spatial instanceof Node) {
+            for (Spatial child : ((Node) spatial).getChildren()) {
+                TerrainQuad terrain = findTerrain(child);
+                if (terrain != null) {
+                    return terrain;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static AnimControl findAnimControl(Spatial spatial) {
+        AnimControl animControl = spatial.getControl(AnimControl.class);
+        if (animControl == null && spatial instanceof Node) {
+            for (Spatial child : ((Node) spatial).getChildren()) {
+                animControl = findAnimControl(child);
+                if (animControl != null) {
+                    break;
+                }
+            }
+        }
+        return animControl;
+    }
+
+    private static Vector3f vector(float[] xyz) {
+        return new Vector3f(xyz[0], xyz[1], xyz[2]);
+    }
+
+    private static Quaternion rotation(float[] degrees) {
+        return new Quaternion().fromAngles(degrees[0] * FastMath.DEG_TO_RAD,
+                degrees[1] * FastMath.DEG_TO_RAD, degrees[2] * FastMath.DEG_TO_RAD);
+    }
+
+    private static ColorRGBA color(float[] rgba) {
+        return new ColorRGBA(rgba[0], rgba[1], rgba[2], rgba.length > 3 ? rgba[3] : 1f);
+    }
+}
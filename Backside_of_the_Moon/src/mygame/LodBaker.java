@@ -0,0 +1,113 @@
+package mygame;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.asset.ModelKey;
+import com.jme3.asset.plugins.FileLocator;
+import com.jme3.export.binary.BinaryExporter;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Spatial;
+import com.jme3.system.JmeSystem;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import jme3tools.optimize.LodGenerator;
+
+/**
+ * Build step that adds LOD levels to the meshes of models, stored in their
+ * j3o so ScreenLodControl can switch between them at runtime.
+ *
+ * Each mesh with enough triangles gets one level per reduction, made by
+ * jME's LodGenerator collapsing the edges that change its shape least. Only
+ * the index buffers are added, so skinned and animated meshes keep working.
+ *
+ * The reductions are stamped on the model, which is only processed again
+ * when they change or the model was replaced, for example by ModelBaker.
+ *
+ * Usage: LodBaker assetsDir "reductions" model...
+ *        reductions are the fractions of triangles removed per level, e.g. "0.25 0.5 0.75"
+ */
+public class LodBaker {
+
+    // User data on the model root holding the reductions it was baked with
+    public static final String STAMP_KEY = "LodReductions";
+    // Meshes smaller than this are cheap enough at full detail
+    private static final int MIN_TRIANGLES = 500;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: LodBaker assetsDir \"reductions\" model...");
+            System.exit(1);
+        }
+        File assetsDir = new File(args[0]);
+        String[] values = args[1].trim().split("\\s+");
+        float[] reductions = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            reductions[i] = Float.parseFloat(values[i]);
+        }
+        String stamp = String.join(" ", values);
+
+        AssetManager assetManager = JmeSystem.newAssetManager(JmeSystem.getPlatformAssetConfigURL());
+        assetManager.registerLocator(assetsDir.getPath(), FileLocator.class);
+
+        int baked = 0;
+        for (int i = 2; i < args.length; i++) {
+            String path = args[i];
+            Spatial model = assetManager.loadModel(new ModelKey(path));
+            if (stamp.equals(model.getUserData(STAMP_KEY))) {
+                continue;
+            }
+            long start = System.nanoTime();
+            int[] triangles = new int[reductions.length + 1];
+            int meshes = bake(model, reductions, triangles);
+            model.setUserData(STAMP_KEY, stamp);
+            BinaryExporter.getInstance().save(model, new File(assetsDir, path));
+
+            StringBuilder levels = new StringBuilder();
+            for (int level = 0; level < triangles.length; level++) {
+                levels.append(level > 0 ? " / " : "").append(triangles[level]);
+            }
+            System.out.println("Baked LODs: " + path + ", " + meshes + " meshes, triangles per level " + levels
+                    + " (" + (System.nanoTime() - start) / 1_000_000 + " ms)");
+            baked++;
+        }
+        System.out.println("Baked LODs of " + baked + " models, " + (args.length - 2 - baked) + " up to date");
+    }
+
+    /*
+    * Helper functions
+    */
+
+    /**
+     * Generates the LOD levels of every large enough mesh of a model. Meshes
+     * too small keep their single level, counted at full detail on every level.
+     *
+     * @return The number of meshes that got LOD levels.
+     */
+    private static int bake(Spatial model, float[] reductions, int[] triangles) {
+        Set<Mesh> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        int[] meshes = {0};
+        model.depthFirstTraversal(spatial -> {
+            if (!(spatial instanceof Geometry)) {
+                return;
+            }
+            Mesh mesh = ((Geometry) spatial).getMesh();
+            // Shared meshes are reduced once
+            if (!seen.add(mesh)) {
+                return;
+            }
+            if (mesh.getMode() == Mesh.Mode.Triangles && mesh.getTriangleCount() >= MIN_TRIANGLES) {
+                new LodGenerator(mesh).bakeLods(LodGenerator.TriangleReductionMethod.PROPORTIONAL, reductions);
+                meshes[0]++;
+            }
+            for (int level = 0; level < triangles.length; level++) {
+                triangles[level] += level < mesh.getNumLodLevels()
+                        ? mesh.getLodLevel(level).getData().limit() / 3
+                        : mesh.getTriangleCount();
+            }
+        });
+        return meshes[0];
+    }
+}
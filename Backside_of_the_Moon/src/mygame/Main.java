@@ -1,6 +1,7 @@
 package mygame;
 
 import com.jme3.anim.AnimComposer;
+import com.jme3.asset.TextureKey;
 import com.jme3.app.SimpleApplication;
 import com.jme3.bullet.BulletAppState;
 import com.jme3.bullet.control.BetterCharacterControl;
@@ -8,24 +9,18 @@ import com.jme3.bullet.control.RigidBodyControl;
 import com.jme3.font.BitmapText;
 import com.jme3.input.controls.ActionListener;
 import com.jme3.input.controls.KeyTrigger;
-import com.jme3.light.DirectionalLight;
 import com.jme3.material.RenderState;
 import com.jme3.math.ColorRGBA;
 import com.jme3.math.Vector3f;
-import com.jme3.post.FilterPostProcessor;
-import com.jme3.post.filters.BloomFilter;
-import com.jme3.post.filters.DepthOfFieldFilter;
-import com.jme3.post.filters.FogFilter;
-import com.jme3.post.filters.LightScatteringFilter;
 import com.jme3.renderer.RenderManager;
-import com.jme3.renderer.queue.RenderQueue;
 import com.jme3.scene.CameraNode;
 import com.jme3.scene.Node;
 import com.jme3.scene.Spatial;
 import com.jme3.scene.control.CameraControl.ControlDirection;
-import com.jme3.shadow.DirectionalLightShadowFilter;
+import com.jme3.system.JmeSystem;
 import com.jme3.ui.Picture;
-import com.jme3.water.WaterFilter;
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
 
 public class Main extends SimpleApplication {
@@ -33,6 +28,9 @@ public class Main extends SimpleApplication {
     private GameState gameState;
 
     // Basic settings
+    private static long launchTime;
+    private BootLoader bootLoader;
+    private TextureStreamer textureStreamer;
     private BulletAppState bulletAppState;
     private UserInputHandler inputHandler;
     private ModelLoader modelLoader;
@@ -92,34 +90,77 @@ public class Main extends SimpleApplication {
     private int currentTextIndex = 0;
     
     //Terrain
-    private FilterPostProcessor fpp;
-    private FogFilter fogFilter;
-    private final Vector3f lightDir = new Vector3f(-0.39f, -0.32f, -0.74f);
-    private LightScatteringFilter sunLightFilter;
-    private Node reflectedScene;
-    private DepthOfFieldFilter dofFilter;
-    private BloomFilter bloom;
+    private FogCuller fogCuller;
+    private RenderProfileManager renderProfiles;
     private Node terrainScene;
     
     //Endings
     private boolean enteredEnding = false;
     private Ending ending;
+    private EndingPrefetcher endingPrefetcher;
     public static int keyCount;
     private boolean firstEndingComplete = false;
     private boolean beforeRoom2 = false;
+    
+    // Default residency budget for scene meshes and textures, override with -Dscene.budget.mb
+    private static final long SCENE_BUDGET_MB = 512;
+
+    // Ending prefetch: a monster's ending is warmed about three seconds of chasing
+    // before the catch distance, and dropped once the player got well away
+    private static final float MONKEY_WARM_DISTANCE = 15f;
+    private static final float MONKEY_RELEASE_DISTANCE = 25f;
+    private static final float OTO_WARM_DISTANCE = 75f;
+    private static final float OTO_RELEASE_DISTANCE = 100f;
 
     public static void main(String[] args) {
+        launchTime = System.nanoTime();
         Main app = new Main();
+        // Record every asset load, reported on exit: -Dasset.stats=true [-Dasset.stats.json=file]
+        if (Boolean.getBoolean("asset.stats")) {
+            app.assetManager = new InstrumentedAssetManager(JmeSystem.getPlatformAssetConfigURL());
+        }
         app.start();
     }
 
+    @Override
+    public void destroy() {
+        super.destroy();
+        if (assetManager instanceof InstrumentedAssetManager) {
+            InstrumentedAssetManager stats = (InstrumentedAssetManager) assetManager;
+            try {
+                stats.writeReport(new File(System.getProperty("asset.stats.report", "asset-load-report.txt")));
+                String json = System.getProperty("asset.stats.json");
+                if (json != null) {
+                    stats.writeJson(new File(json));
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to write the asset load report: " + e);
+            }
+        }
+    }
+
     @Override
     public void simpleInitApp() {
-        soundManager = new SoundManager(assetManager);
+        // Serve assets from the mapped asset pack when running from dist
+        File assetPack = AssetPackLocator.findPack();
+        if (assetPack != null) {
+            assetManager.registerLocator(assetPack.getPath(), AssetPackLocator.class);
+        }
+        // Serve the baked DDS variants of png and jpg textures
+        assetManager.registerLoader(BakedTextureLoader.class, "png", "jpg", "jpeg");
+        // Single pass materials, such as the terrain, take up to four lights per pass
+        renderManager.setSinglePassLightBatchSize(4);
+        
+        // Staged boot: assets decode on the boot loader while the start screen is shown
+        int bootThreads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        bootLoader = new BootLoader(this, launchTime, bootThreads);
+        stateManager.attach(bootLoader);
+        soundManager = new SoundManager(assetManager, bootLoader);
+        textureStreamer = new TextureStreamer(this, 2);
+        stateManager.attach(textureStreamer);
         
         flyCam.setEnabled(true); // Enable FlyCam
         flyCam.setMoveSpeed(50);
-        ending = new Ending(this, soundManager);
         // Settings
         this.setDisplayFps(false);
         this.setDisplayStatView(false);
@@ -128,6 +169,8 @@ public class Main extends SimpleApplication {
         
         // Show start screen
         showStartScreen();
+        ending = new Ending(this, soundManager, textureStreamer);
+        warmUpAssets();
 
         // Register input to proceed
         inputManager.addMapping("NextText", new KeyTrigger(com.jme3.input.KeyInput.KEY_SPACE));
@@ -172,6 +215,7 @@ public class Main extends SimpleApplication {
     
     @Override
     public void simpleUpdate(float tpf) {
+        soundManager.update();
         
         // Start screen before the game
         if (!startScreenActive && !textSequenceActive) {
@@ -213,8 +257,7 @@ public class Main extends SimpleApplication {
                     soundManager.playSFX("getkey");
                     isPlayed = true;
                 }
-                viewPort.removeProcessor(fpp);
-                fpp.cleanup();
+                removeTerrainFilters();
                 
                 ending.cleanupEnding(rootNode);
               
@@ -274,8 +317,7 @@ public class Main extends SimpleApplication {
             }
             
             if (checkMonsterPlayerCollision(monkeyNode) && enteredEnding == false && (sceneCount == 0)) {
-                viewPort.removeProcessor(fpp);
-                fpp.cleanup();
+                removeTerrainFilters();
                 ending.cleanupEnding(rootNode);
                 
                 List<String> textSequenceClassroom = List.of(
@@ -291,8 +333,7 @@ public class Main extends SimpleApplication {
             
             if (checkMonsterPlayerCollision(otoNode)) {
                 System.out.println("Entered oto Ending");
-                viewPort.removeProcessor(fpp);
-                fpp.cleanup();
+                removeTerrainFilters();
                 ending.cleanupEnding(rootNode);
                 
                 List<String> textSequenceClassroom = List.of(
@@ -322,8 +363,12 @@ public class Main extends SimpleApplication {
     */
     
     private void initializeGame() {
+        long loadStart = System.nanoTime();
         keyCount = 0;
         
+        // Only the classroom has to be ready before play
+        bootLoader.awaitRequired();
+        
         // Physics
         bulletAppState = new BulletAppState();
         stateManager.attach(bulletAppState);
@@ -356,6 +401,14 @@ public class Main extends SimpleApplication {
         sceneManager = new SceneSwitchingManager(this);
         stateManager.attach(sceneManager);
 
+        // Walls and hills hide what is behind them before it is queued
+        stateManager.attach(new OcclusionCuller(viewPort, 256, 128));
+        // Nothing is drawn beyond the fog of a room, the render profiles add it after their filters
+        fogCuller = new FogCuller(viewPort);
+        // Each room brings its own post processing, swapped in when it becomes current
+        renderProfiles = new RenderProfileManager(assetManager, viewPort, sceneManager, fogCuller);
+        stateManager.attach(renderProfiles);
+
         // Static UI
         setNotificationText();
         gameState = new GameState(cam, inputManager, notificationText);
@@ -369,23 +422,82 @@ public class Main extends SimpleApplication {
         inputHandler.enableSpaceSwitching(enableSpaceSwitching);
 
         // Load Model
-        modelLoader = new ModelLoader(assetManager, rootNode, bulletAppState, sceneManager);
+        modelLoader = new ModelLoader(assetManager, rootNode, bulletAppState, sceneManager, textureStreamer);
         classroomScene = modelLoader.loadClassroom();
-        modelLoader.loadCakes(9, classroomScene, gameState);
+        modelLoader.activateLevel(classroomScene, gameState);
+        renderProfiles.addProfile(modelLoader.buildRenderProfile(classroomScene));
         monkeyNode = modelLoader.loadMonkey(classroomScene);
         monkeyControl = monkeyNode.getControl(BetterCharacterControl.class);
         monkeyAnimComposer = monkeyNode.getControl(AnimComposer.class);
 
-        blackholeScene = modelLoader.loadBlackhole();
-        modelLoader.loadStars(9, blackholeScene, gameState);
-        terrainScene = loadTerrain();
-        otoNode = modelLoader.loadOto(terrainScene);
-        otoControl = otoNode.getControl(BetterCharacterControl.class);
-        otoAnimComposer = otoNode.getControl(AnimComposer.class);
-
+        // The blackhole and terrain rooms stream in while the classroom is played
+        sceneManager.addStreamedScene("BlackholeScene", modelLoader::buildBlackhole, scene -> {
+            blackholeScene = scene;
+            modelLoader.activatePhysics(scene);
+            modelLoader.activateLevel(scene, gameState);
+            modelLoader.loadBlackholeEffects();
+            renderProfiles.addProfile(modelLoader.buildRenderProfile(scene));
+        }, scene -> {
+            renderProfiles.removeProfile(scene);
+            gameState.removePickableItems(scene);
+            blackholeScene = null;
+        });
+        sceneManager.addStreamedScene("terrainNode", modelLoader::buildTerrain, scene -> {
+            attachTerrain(scene);
+            modelLoader.activateLevel(scene, gameState);
+            otoNode = (Node) scene.getChild("OtoNode");
+            otoControl = otoNode.getControl(BetterCharacterControl.class);
+            otoAnimComposer = otoNode.getControl(AnimComposer.class);
+        }, scene -> {
+            renderProfiles.removeProfile(scene);
+            otoNode = null;
+            otoControl = null;
+            otoAnimComposer = null;
+            terrainScene = null;
+        });
+
+        // Warm the endings while a monster closes in or the last key is near
+        endingPrefetcher = new EndingPrefetcher(textureStreamer, soundManager);
+        endingPrefetcher.watch("Textures/ending_classroom.jpg", "classroom_ending",
+                () -> sceneCount == 0 ? distanceToPlayer(monkeyNode) : Double.POSITIVE_INFINITY,
+                MONKEY_WARM_DISTANCE, MONKEY_RELEASE_DISTANCE);
+        endingPrefetcher.watch("Textures/ending_blackhole.jpg", "terrin_ending",
+                () -> distanceToPlayer(otoNode), OTO_WARM_DISTANCE, OTO_RELEASE_DISTANCE);
+        endingPrefetcher.watch("Textures/ending_moonbase.jpg", "moon_ending",
+                () -> sceneCount == 1 && keyCount >= 1 ? 0 : Double.POSITIVE_INFINITY, 0, 0);
+        stateManager.attach(endingPrefetcher);
+
+        // Evict rooms the player has left once their meshes and textures exceed the budget
+        long budgetBytes = Long.getLong("scene.budget.mb", SCENE_BUDGET_MB) * 1024L * 1024L;
+        sceneManager.setResidencyManager(new SceneResidencyManager(assetManager, budgetBytes));
+
+        // The classroom fills the first two slots, so look far enough ahead
+        // to have both streamed rooms ready before the player reaches them
+        sceneManager.setPreloadDepth(3);
 
         // Initialize the first scene
         sceneManager.switchToNextScene();
+        bootLoader.markPlayable(System.nanoTime() - loadStart);
+    }
+
+    /**
+    * Queues the fonts, menu images and first room models on the boot loader,
+    * so they decode in parallel while the start screen and intro text are shown.
+    */
+    private void warmUpAssets() {
+        bootLoader.warmFont("Interface/Fonts/Default.fnt");
+        
+        // Pictures load their images flipped
+        bootLoader.warmTexture(new TextureKey("Interface/save.png", true), false);
+        bootLoader.warmTexture(new TextureKey("Interface/load.png", true), false);
+        
+        // Room 1
+        bootLoader.warmModel("Models/NoDeskClassroom/noDeskClassroom.j3o", true);
+        bootLoader.warmModel("Models/Items/CAFETERIAcake.j3o", true);
+        bootLoader.warmModel("Models/Monkey/Jaime.j3o", true);
+        // The gate is loaded from its mapped variant when one was baked
+        bootLoader.submit("Models/TeleportGate/scene.j3o", false,
+                () -> MappedMeshLoader.load(assetManager, "Models/TeleportGate/scene.j3o"), null);
     }
     
     /**
@@ -635,6 +747,19 @@ public class Main extends SimpleApplication {
         return distance <= collisionThreshold;
     }
     
+    /**
+    * Gets the distance between the player and a monster.
+    *
+    * @param monsterNode The monster, may be null while its room is not loaded.
+    * @return The distance, or infinity if the monster or the player is missing.
+    */
+    private double distanceToPlayer(Node monsterNode) {
+        if (playerNode == null || monsterNode == null) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return playerNode.getWorldTranslation().distance(monsterNode.getWorldTranslation());
+    }
+    
     /*
     * Monster Logic
     */
@@ -683,111 +808,34 @@ public class Main extends SimpleApplication {
     }
     
     /**
-    * Loads and configures the terrain scene, including terrain, objects, lighting, and post-processing effects.
+    * Attaches a built terrain scene: render profile, root node and physics.
+    * Must run on the render thread.
     *
-    * @return The Node representing the terrain scene.
+    * @param scene The Node returned by ModelLoader.buildTerrain().
     */
-    public Node loadTerrain() {
+    private void attachTerrain(Node scene) {
+        terrainScene = scene;
         
-        terrainScene = new Node("terrainNode");
-
-        // Add Terrain
-        Spatial terrainGeo = assetManager.loadModel("Scenes/room_3.j3o");
-        terrainGeo.setLocalTranslation(0, 5, 0);
-        terrainGeo.setShadowMode(RenderQueue.ShadowMode.CastAndReceive);
-        terrainScene.attachChild(terrainGeo);
-
-        // Add Trees
+        // Fog, water, light scattering, bloom and shadows, only drawn while the terrain is current
+        renderProfiles.addProfile(modelLoader.buildRenderProfile(terrainScene));
         
-        Spatial tree1 = assetManager.loadModel("Models/Tree/Tree.j3o");
-        tree1.scale(10);
-        tree1.setQueueBucket(RenderQueue.Bucket.Transparent);
-        tree1.setLocalTranslation(0, 7f, 0);
-        tree1.setShadowMode(RenderQueue.ShadowMode.CastAndReceive);
-        terrainScene.attachChild(tree1);
-
-        Spatial tree2 = tree1.clone();
-        tree2.setLocalTranslation(-50, 7f, -50);
-        tree2.setShadowMode(RenderQueue.ShadowMode.CastAndReceive);
-        terrainScene.attachChild(tree2);
+        rootNode.attachChild(terrainScene);
         
-        // Add Sky
-        Spatial mySky = assetManager.loadModel("Scenes/mySky.j3o");
-        terrainScene.attachChild(mySky);
-
-        // Add Reflected Scene and Water
-        reflectedScene = new Node("Scene");
-
-        Spatial boat = assetManager.loadModel("Models/Swan_Boat/swanboat.j3o");
-        boat.scale(4);
-        boat.setLocalTranslation(200, 2, -100);
-
-        reflectedScene.attachChild(mySky);
-
-        reflectedScene.attachChild(boat);
+        modelLoader.activatePhysics(terrainScene);
 
-        terrainScene.attachChild(reflectedScene);
-
-        // Add Bonfire and Forest
-        Spatial bonfire = assetManager.loadModel("Models/bonfire/bonfire_pot.j3o");
-        bonfire.scale(8);
-        bonfire.setLocalTranslation(-20, 13, -20);
-        bonfire.setShadowMode(RenderQueue.ShadowMode.CastAndReceive);
-        terrainScene.attachChild(bonfire);
-
-        Spatial forest = assetManager.loadModel("Models/manyTrees/multiple_trees.j3o");
-        forest.scale(8);
-        forest.setLocalTranslation(-150, 5, -170);
-        terrainScene.attachChild(forest);
-
-        // Add Particle Effects
-        ParticleEffects particle = new ParticleEffects(assetManager, terrainScene);
-        particle.dust();
-        particle.sparks();
-        particle.burst();
-        particle.fire();
-        
-        // Initialize fpp and Add Filters
-        fpp = new FilterPostProcessor(assetManager);
-        viewPort.addProcessor(fpp);
-        
-        FogFilter fogFilter = new FogFilter();
-        fogFilter.setFogDistance(50);
-        fogFilter.setFogDensity(0.8f);
-        fogFilter.setFogColor(new ColorRGBA(0.9f, 0.9f, 0.9f, 1.0f));
-        fpp.addFilter(fogFilter);
-        
-        WaterFilter water = new WaterFilter(reflectedScene, lightDir);
-        water.setWaterHeight(2f);
-        fpp.addFilter(water);
+        // Paged terrain follows the camera, and gives collision to the tiles under the player and Oto
+        Spatial terrain = terrainScene.getChild("Terrain");
+        PagedTerrainControl pager = terrain != null ? terrain.getControl(PagedTerrainControl.class) : null;
+        if (pager != null) {
+            pager.activate(cam, bulletAppState.getPhysicsSpace(), playerNode, terrainScene.getChild("OtoNode"));
+        }
+    }
 
-        LightScatteringFilter sunLightFilter = new LightScatteringFilter(lightDir.mult(-3000));
-        fpp.addFilter(sunLightFilter);
-        
-        BloomFilter bloom = new BloomFilter();
-        fpp.addFilter(bloom);
-        
-        
-        DirectionalLight sun = new DirectionalLight();
-        sun.setDirection(lightDir);
-        sun.setColor(ColorRGBA.White.clone().multLocal(2));
-        terrainScene.addLight(sun);
-
-        DirectionalLightShadowFilter dlsf = new DirectionalLightShadowFilter(assetManager, 1024, 2);
-        dlsf.setLight(sun);
-        fpp.addFilter(dlsf);
-        
-        rootNode.attachChild(terrainScene);
-        
-        terrainScene.setLocalTranslation(0, 0, -20);
-        
-        RigidBodyControl terrainPhysics = new RigidBodyControl(0f); // Static terrain
-        terrainScene.addControl(terrainPhysics);
-        bulletAppState.getPhysicsSpace().add(terrainPhysics);
-        
-        sceneManager.addScene(terrainScene);
-        
-        return terrainScene;
+    /**
+    * Removes the post-processing of the room before an ending is shown.
+    */
+    private void removeTerrainFilters() {
+        renderProfiles.setEnabled(false);
     }
     
 }
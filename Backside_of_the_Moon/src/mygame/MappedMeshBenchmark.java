@@ -0,0 +1,139 @@
+package mygame;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.asset.ModelKey;
+import com.jme3.scene.Spatial;
+import com.jme3.system.JmeSystem;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiFunction;
+
+/**
+ * Compares loading the large scenes through assetManager.loadModel with loading
+ * their mapped variants through MappedMeshLoader. Reports the median load time
+ * and the peak growth of the direct and mapped buffer pools during a load.
+ * Textures stay cached between runs, so the numbers cover the scene graph and meshes.
+ * Runs headless, no window or GL context is created.
+ *
+ * Run with the baked and the source assets on the classpath, like the game in
+ * the IDE:
+ *   java -cp "dist/lib/*:build/classes:build/baked-assets:assets" mygame.MappedMeshBenchmark [runs]
+ */
+public class MappedMeshBenchmark {
+
+    private static final String[] MODELS = {
+        "Models/Blackhole/scene.j3o",
+        "Models/TeleportGate/scene.j3o"
+    };
+
+    private static final List<BufferPoolMXBean> pools =
+            ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class);
+    private static final List<Spatial> warmScenes = new ArrayList<>();
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        AssetManager assetManager = JmeSystem.newAssetManager(JmeSystem.getPlatformAssetConfigURL());
+
+        // Bake missing variants into the baked assets, the same as the bake-meshes build target
+        File assetsDir = new File("build/baked-assets");
+        for (String model : MODELS) {
+            String base = model.substring(0, model.lastIndexOf('.'));
+            if (!new File(assetsDir, base + MappedMeshLoader.MODEL_SUFFIX).exists()) {
+                MappedMeshLoader.bake(assetManager, model, assetsDir);
+            }
+        }
+
+        for (String model : MODELS) {
+            System.out.println(model);
+            measure("  loadModel       ", assetManager, model, runs, AssetManager::loadModel);
+            measure("  MappedMeshLoader", assetManager, model, runs, MappedMeshLoader::load);
+        }
+    }
+
+    private static void measure(String label, AssetManager assetManager, String model, int runs,
+                                BiFunction<AssetManager, String, Spatial> loader) throws InterruptedException {
+        long[] times = new long[runs];
+        long peakDirect = 0;
+        long peakMapped = 0;
+        // Warm-up run, so textures and materials are cached and only the meshes differ.
+        // The cache only holds them weakly, keep the warm-up scene alive.
+        warmScenes.add(loader.apply(assetManager, model));
+        for (int i = 0; i < runs; i++) {
+            evictModel(assetManager, model);
+            System.gc();
+            long direct = used("direct");
+            long mapped = used("mapped");
+
+            PeakSampler sampler = new PeakSampler();
+            sampler.start();
+            long start = System.nanoTime();
+            Spatial scene = loader.apply(assetManager, model);
+            times[i] = System.nanoTime() - start;
+            sampler.interrupt();
+            sampler.join();
+
+            peakDirect = Math.max(peakDirect, sampler.peakDirect - direct);
+            peakMapped = Math.max(peakMapped, sampler.peakMapped - mapped);
+            if (scene == null) {
+                throw new IllegalStateException("Failed to load " + model);
+            }
+        }
+        Arrays.sort(times);
+        System.out.println(label + ": median " + times[runs / 2] / 1_000_000 + " ms, peak native +"
+                + peakDirect / 1024 + " KB direct, +" + peakMapped / 1024 + " KB mapped");
+    }
+
+    /**
+     * Drops the model and its mapped variant from the cache, textures stay cached.
+     */
+    private static void evictModel(AssetManager assetManager, String model) {
+        String base = model.substring(0, model.lastIndexOf('.'));
+        assetManager.deleteFromCache(new ModelKey(model));
+        assetManager.deleteFromCache(new ModelKey(base + MappedMeshLoader.MODEL_SUFFIX));
+    }
+
+    private static long used(String pool) {
+        for (BufferPoolMXBean bean : pools) {
+            if (bean.getName().equals(pool)) {
+                return bean.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Polls the buffer pools while a load runs, so short-lived buffers count too.
+     */
+    private static class PeakSampler extends Thread {
+        private volatile long peakDirect;
+        private volatile long peakMapped;
+
+        PeakSampler() {
+            super("Peak Sampler");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                sample();
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            sample();
+        }
+
+        private void sample() {
+            peakDirect = Math.max(peakDirect, used("direct"));
+            peakMapped = Math.max(peakMapped, used("mapped"));
+        }
+    }
+}
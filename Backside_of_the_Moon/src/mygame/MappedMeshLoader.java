@@ -0,0 +1,475 @@
+package mygame;
+
+import com.jme3.asset.AssetInfo;
+import com.jme3.asset.AssetKey;
+import com.jme3.asset.AssetManager;
+import com.jme3.asset.ModelKey;
+import com.jme3.asset.plugins.FileLocator;
+import com.jme3.export.binary.BinaryExporter;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.system.JmeSystem;
+import com.jme3.terrain.geomipmap.TerrainPatch;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Loads models whose vertex and index buffers are slices of a memory-mapped file,
+ * so a large scene costs page-ins instead of a read and a copy into freshly
+ * allocated direct buffers.
+ *
+ * A model X.j3o is baked into two files next to it:
+ *   X.mapped.j3o  the scene graph, with placeholder meshes whose geometries
+ *                 are tagged by their index
+ *   X.jmm         the buffers of those meshes, ready to hand to the GPU
+ *
+ * Layout of the .jmm file (little endian):
+ *   header: magic, version, mesh count, bake stamp, data offset
+ *   table:  per mesh, its vertex buffers and LOD index buffers
+ *   data:   raw buffer contents, 16-byte aligned
+ *
+ * Models without a baked variant are loaded with assetManager.loadModel as before.
+ * Mapped buffers are copy-on-write views of the file: writes never reach the
+ * file, but every page written to becomes private memory, and a model served
+ * from the asset pack shares its mapping with every other load of it. Code
+ * that edits vertex data in place should load the model with loadModel instead.
+ *
+ * Usage: MappedMeshLoader assetsDir model.j3o [model.j3o ...]
+ */
+public class MappedMeshLoader {
+
+    public static final long MAGIC = 0x4853454D41544F42L; // "BOTAMESH"
+    public static final int VERSION = 2;
+    public static final int HEADER_SIZE = 32;
+    public static final int ALIGNMENT = 16;
+
+    public static final String DATA_EXTENSION = ".jmm";
+    public static final String MODEL_SUFFIX = ".mapped.j3o";
+
+    private static final String INDEX_KEY = "MappedMesh";
+    private static final String STAMP_KEY = "MappedMeshStamp";
+
+    // Meshes whose buffers live in a mapping, bound once even when shared by several geometries
+    private static final Map<Mesh, Boolean> mappedMeshes = Collections.synchronizedMap(new WeakHashMap<>());
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: MappedMeshLoader assetsDir model.j3o [model.j3o ...]");
+            System.exit(1);
+        }
+        File assetsDir = new File(args[0]);
+        AssetManager assetManager = JmeSystem.newAssetManager(JmeSystem.getPlatformAssetConfigURL());
+        assetManager.registerLocator(assetsDir.getPath(), FileLocator.class);
+        for (int i = 1; i < args.length; i++) {
+            if (isUpToDate(assetsDir, args[i])) {
+                System.out.println("Mapped meshes are up to date: " + args[i]);
+                continue;
+            }
+            bake(assetManager, args[i], assetsDir);
+        }
+    }
+
+    /**
+     * Loads a model, using its mapped variant when one has been baked.
+     * Safe to call from loader threads.
+     *
+     * @param assetManager The asset manager.
+     * @param modelPath    Path of the original .j3o model.
+     * @return The model.
+     */
+    public static Spatial load(AssetManager assetManager, String modelPath) {
+        String base = baseName(modelPath);
+        AssetInfo dataInfo = assetManager.locateAsset(new AssetKey<>(base + DATA_EXTENSION));
+        if (dataInfo == null || ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN) {
+            return assetManager.loadModel(modelPath);
+        }
+        Spatial model = assetManager.loadModel(base + MODEL_SUFFIX);
+
+        List<Geometry> unbound = new ArrayList<>();
+        collectUnbound(model, unbound);
+        if (unbound.isEmpty()) {
+            return model; // meshes are shared with the cached original, already mapped
+        }
+
+        try {
+            ByteBuffer data = map(dataInfo).order(ByteOrder.LITTLE_ENDIAN);
+            Long stamp = model.getUserData(STAMP_KEY);
+            if (data.getLong(0) != MAGIC || data.getInt(8) != VERSION || stamp == null || data.getLong(16) != stamp) {
+                System.err.println("Mapped meshes of " + modelPath + " are stale, rebake them. Loading the original.");
+                assetManager.deleteFromCache(new ModelKey(base + MODEL_SUFFIX));
+                return assetManager.loadModel(modelPath);
+            }
+            bind(unbound, data);
+        } catch (IOException e) {
+            System.err.println("Could not map meshes of " + modelPath + ": " + e + ". Loading the original.");
+            assetManager.deleteFromCache(new ModelKey(base + MODEL_SUFFIX));
+            return assetManager.loadModel(modelPath);
+        }
+        return model;
+    }
+
+    /**
+     * Bakes the mapped variant of a model next to it.
+     *
+     * @param assetManager The asset manager to load the original with.
+     * @param modelPath    Path of the original .j3o model.
+     * @param assetsDir    The baked assets folder to write into.
+     */
+    public static void bake(AssetManager assetManager, String modelPath, File assetsDir) throws IOException {
+        Spatial model = assetManager.loadModel(modelPath);
+        long stamp = System.currentTimeMillis();
+
+        // Shared meshes are stored once and keep sharing one placeholder
+        Map<Mesh, Mesh> placeholders = new IdentityHashMap<>();
+        List<Mesh> meshes = new ArrayList<>();
+        List<Geometry> geometries = new ArrayList<>();
+        collectGeometries(model, geometries);
+        for (Geometry geometry : geometries) {
+            Mesh mesh = geometry.getMesh();
+            // Terrain patches rebuild their meshes from the heightmap when read
+            if (geometry instanceof TerrainPatch || !isMappable(mesh)) {
+                continue; // stays inline in the .j3o
+            }
+            Mesh placeholder = placeholders.get(mesh);
+            if (placeholder == null) {
+                placeholder = placeholder(mesh);
+                placeholders.put(mesh, placeholder);
+                meshes.add(mesh);
+            }
+            geometry.setMesh(placeholder);
+            geometry.setUserData(INDEX_KEY, meshes.indexOf(mesh));
+        }
+        if (meshes.isEmpty()) {
+            System.out.println("Nothing to map in " + modelPath + ", it keeps loading through loadModel");
+            return;
+        }
+        model.setUserData(STAMP_KEY, stamp);
+
+        String base = baseName(modelPath);
+        File dataFile = new File(assetsDir, base + DATA_EXTENSION);
+        dataFile.getParentFile().mkdirs();
+        long bytes = writeData(meshes, stamp, dataFile);
+        BinaryExporter.getInstance().save(model, new File(assetsDir, base + MODEL_SUFFIX));
+        System.out.println("Baked " + modelPath + ": " + meshes.size() + " meshes, " + bytes / 1024 + " KB mapped");
+    }
+
+    /*
+    * Helper functions
+    */
+
+    private static boolean isUpToDate(File assetsDir, String modelPath) {
+        File source = new File(assetsDir, modelPath);
+        File data = new File(assetsDir, baseName(modelPath) + DATA_EXTENSION);
+        File model = new File(assetsDir, baseName(modelPath) + MODEL_SUFFIX);
+        return data.exists() && model.exists()
+                && data.lastModified() >= source.lastModified() && model.lastModified() >= source.lastModified()
+                && isCurrentVersion(data);
+    }
+
+    /**
+     * Checks the header of a data file, so files baked by an older version of
+     * the loader are baked again.
+     */
+    private static boolean isCurrentVersion(File dataFile) {
+        try (FileInputStream in = new FileInputStream(dataFile)) {
+            ByteBuffer header = le(12);
+            if (in.read(header.array()) != header.capacity()) {
+                return false;
+            }
+            return header.getLong(0) == MAGIC && header.getInt(8) == VERSION;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static String baseName(String modelPath) {
+        int dot = modelPath.lastIndexOf('.');
+        return dot < 0 ? modelPath : modelPath.substring(0, dot);
+    }
+
+    private static boolean isMappable(Mesh mesh) {
+        if (mesh == null || mesh.getMode() == Mesh.Mode.Hybrid || mesh.getBuffer(VertexBuffer.Type.Position) == null) {
+            return false;
+        }
+        for (VertexBuffer vb : mesh.getBufferList()) {
+            // Interleaved and instanced buffers are rare in our models, keep them as they are
+            if (vb.getData() == null || vb.getStride() != 0 || vb.getOffset() != 0 || vb.isInstanced()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Mesh placeholder(Mesh mesh) {
+        Mesh placeholder = new Mesh();
+        // The importer cannot read a mesh without buffers, so carry a single vertex
+        placeholder.setBuffer(VertexBuffer.Type.Position, 3, new float[3]);
+        placeholder.setMode(mesh.getMode());
+        placeholder.setBound(mesh.getBound().clone());
+        placeholder.setMaxNumWeights(mesh.getMaxNumWeights());
+        return placeholder;
+    }
+
+    private static long writeData(List<Mesh> meshes, long stamp, File dataFile) throws IOException {
+        // Offsets in the table are relative to the start of the data region
+        ByteArrayOutputStream table = new ByteArrayOutputStream();
+        List<Buffer> contents = new ArrayList<>();
+        long offset = 0;
+        for (Mesh mesh : meshes) {
+            List<VertexBuffer> buffers = mesh.getBufferList();
+            table.write(le(4).putInt(buffers.size()).array());
+            for (VertexBuffer vb : buffers) {
+                offset = writeRecord(table, vb, offset);
+                contents.add(vb.getData());
+            }
+            table.write(le(4).putInt(mesh.getNumLodLevels()).array());
+            for (int i = 0; i < mesh.getNumLodLevels(); i++) {
+                VertexBuffer lod = mesh.getLodLevel(i);
+                offset = writeRecord(table, lod, offset);
+                contents.add(lod.getData());
+            }
+        }
+        long dataOffset = align(HEADER_SIZE + table.size());
+
+        File parent = dataFile.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(dataFile), 1 << 16)) {
+            ByteBuffer header = le(HEADER_SIZE);
+            header.putLong(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(meshes.size());
+            header.putLong(stamp);
+            header.putLong(dataOffset);
+            out.write(header.array());
+            out.write(table.toByteArray());
+            out.write(new byte[(int) (dataOffset - HEADER_SIZE - table.size())]);
+
+            long written = 0;
+            for (Buffer content : contents) {
+                byte[] bytes = toBytes(content);
+                out.write(bytes);
+                written += bytes.length;
+                out.write(new byte[(int) (align(written) - written)]);
+                written = align(written);
+            }
+        }
+        return offset;
+    }
+
+    private static long writeRecord(ByteArrayOutputStream table, VertexBuffer vb, long offset) throws IOException {
+        byte[] type = vb.getBufferType().name().getBytes(StandardCharsets.UTF_8);
+        byte[] format = vb.getFormat().name().getBytes(StandardCharsets.UTF_8);
+        byte[] usage = vb.getUsage().name().getBytes(StandardCharsets.UTF_8);
+        int length = vb.getData().limit() * vb.getFormat().getComponentSize();
+
+        ByteBuffer record = le(2 + type.length + 2 + format.length + 2 + usage.length + 4 + 1 + 8 + 4);
+        record.putShort((short) type.length).put(type);
+        record.putShort((short) format.length).put(format);
+        record.putShort((short) usage.length).put(usage);
+        record.putInt(vb.getNumComponents());
+        record.put((byte) (vb.isNormalized() ? 1 : 0));
+        record.putLong(offset);
+        record.putInt(length);
+        table.write(record.array());
+        return align(offset + length);
+    }
+
+    private static byte[] toBytes(Buffer data) {
+        ByteBuffer out;
+        if (data instanceof FloatBuffer) {
+            FloatBuffer source = ((FloatBuffer) data).duplicate();
+            source.position(0);
+            out = le(source.limit() * 4);
+            out.asFloatBuffer().put(source);
+        } else if (data instanceof IntBuffer) {
+            IntBuffer source = ((IntBuffer) data).duplicate();
+            source.position(0);
+            out = le(source.limit() * 4);
+            out.asIntBuffer().put(source);
+        } else if (data instanceof ShortBuffer) {
+            ShortBuffer source = ((ShortBuffer) data).duplicate();
+            source.position(0);
+            out = le(source.limit() * 2);
+            out.asShortBuffer().put(source);
+        } else if (data instanceof DoubleBuffer) {
+            DoubleBuffer source = ((DoubleBuffer) data).duplicate();
+            source.position(0);
+            out = le(source.limit() * 8);
+            out.asDoubleBuffer().put(source);
+        } else {
+            ByteBuffer source = ((ByteBuffer) data).duplicate();
+            source.position(0);
+            out = le(source.limit());
+            out.put(source);
+        }
+        return out.array();
+    }
+
+    private static ByteBuffer le(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static long align(long offset) {
+        return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    private static void collectGeometries(Spatial spatial, List<Geometry> geometries) {
+        if (spatial instanceof Geometry) {
+            geometries.add((Geometry) spatial);
+        } else if (spatial instanceof Node) {
+            for (Spatial child : ((Node) spatial).getChildren()) {
+                collectGeometries(child, geometries);
+            }
+        }
+    }
+
+    private static void collectUnbound(Spatial spatial, List<Geometry> unbound) {
+        List<Geometry> geometries = new ArrayList<>();
+        collectGeometries(spatial, geometries);
+        for (Geometry geometry : geometries) {
+            if (geometry.getUserData(INDEX_KEY) != null && !mappedMeshes.containsKey(geometry.getMesh())) {
+                unbound.add(geometry);
+            }
+        }
+    }
+
+    /**
+     * Gets the bytes of the data file with as few copies as the source allows:
+     * a view of the asset pack, a mapping of the file on disk, or, for assets
+     * inside a jar or read-only files, one read into a single direct buffer.
+     */
+    private static ByteBuffer map(AssetInfo info) throws IOException {
+        ByteBuffer data = null;
+        if (info instanceof AssetPackLocator.MappedAssetInfo) {
+            data = ((AssetPackLocator.MappedAssetInfo) info).getBuffer();
+        } else {
+            URL url = MappedMeshLoader.class.getResource("/" + info.getKey().getName());
+            if (url != null && "file".equals(url.getProtocol())) {
+                try {
+                    data = AssetPackLocator.map(new File(url.toURI()));
+                } catch (URISyntaxException e) {
+                    // Fall through to reading the stream
+                }
+            }
+        }
+        // jME refuses read-only vertex buffers
+        if (data != null && !data.isReadOnly()) {
+            return data;
+        }
+        try (InputStream in = info.openStream()) {
+            byte[] bytes = in.readAllBytes();
+            ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+            direct.put(bytes).flip();
+            return direct;
+        }
+    }
+
+    private static synchronized void bind(List<Geometry> geometries, ByteBuffer data) {
+        int meshCount = data.getInt(12);
+        long dataOffset = data.getLong(24);
+        ByteBuffer table = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        table.position(HEADER_SIZE);
+
+        List<VertexBuffer[]> buffers = new ArrayList<>(meshCount);
+        List<VertexBuffer[]> lods = new ArrayList<>(meshCount);
+        for (int i = 0; i < meshCount; i++) {
+            VertexBuffer[] meshBuffers = new VertexBuffer[table.getInt()];
+            for (int j = 0; j < meshBuffers.length; j++) {
+                meshBuffers[j] = readRecord(table, data, dataOffset);
+            }
+            VertexBuffer[] meshLods = new VertexBuffer[table.getInt()];
+            for (int j = 0; j < meshLods.length; j++) {
+                meshLods[j] = readRecord(table, data, dataOffset);
+            }
+            buffers.add(meshBuffers);
+            lods.add(meshLods);
+        }
+
+        for (Geometry geometry : geometries) {
+            Mesh mesh = geometry.getMesh();
+            if (mappedMeshes.containsKey(mesh)) {
+                continue; // bound by an earlier geometry sharing the mesh
+            }
+            int index = geometry.getUserData(INDEX_KEY);
+            mesh.clearBuffer(VertexBuffer.Type.Position);
+            for (VertexBuffer vb : buffers.get(index)) {
+                mesh.setBuffer(vb);
+            }
+            if (lods.get(index).length > 0) {
+                mesh.setLodLevels(lods.get(index));
+            }
+            mesh.updateCounts();
+            mappedMeshes.put(mesh, Boolean.TRUE);
+        }
+    }
+
+    private static VertexBuffer readRecord(ByteBuffer table, ByteBuffer data, long dataOffset) {
+        VertexBuffer.Type type = VertexBuffer.Type.valueOf(readString(table));
+        VertexBuffer.Format format = VertexBuffer.Format.valueOf(readString(table));
+        VertexBuffer.Usage usage = VertexBuffer.Usage.valueOf(readString(table));
+        int components = table.getInt();
+        boolean normalized = table.get() != 0;
+        long offset = table.getLong();
+        int length = table.getInt();
+
+        ByteBuffer slice = data.duplicate();
+        slice.position((int) (dataOffset + offset));
+        slice.limit((int) (dataOffset + offset + length));
+        slice = slice.slice().order(ByteOrder.LITTLE_ENDIAN);
+
+        VertexBuffer vb = new VertexBuffer(type);
+        vb.setupData(usage, components, format, view(slice, format));
+        vb.setNormalized(normalized);
+        return vb;
+    }
+
+    private static Buffer view(ByteBuffer slice, VertexBuffer.Format format) {
+        switch (format) {
+            case Float:
+                return slice.asFloatBuffer();
+            case Int:
+            case UnsignedInt:
+                return slice.asIntBuffer();
+            case Short:
+            case UnsignedShort:
+                return slice.asShortBuffer();
+            case Double:
+                return slice.asDoubleBuffer();
+            default:
+                return slice;
+        }
+    }
+
+    private static String readString(ByteBuffer table) {
+        byte[] bytes = new byte[table.getShort() & 0xFFFF];
+        table.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,434 @@
+package mygame;
+
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.mesh.IndexBuffer;
+import com.jme3.util.BufferUtils;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Offline optimizations for triangle meshes, run by ModelBaker:
+ *   - welds vertices whose attributes are identical and drops degenerate triangles
+ *   - reorders triangles for the post-transform vertex cache (Forsyth's algorithm)
+ *   - reorders vertices in the order the triangles first use them
+ *   - stores indices as 16 bit when the vertex count allows it
+ * The mesh looks the same afterwards, it is just smaller and cheaper to draw.
+ */
+public class MeshOptimizer {
+
+    // Cache size the triangle order is tuned for, a common size on current GPUs
+    public static final int CACHE_SIZE = 32;
+
+    private static final float LAST_TRIANGLE_SCORE = 0.75f;
+    private static final float CACHE_DECAY_POWER = 1.5f;
+    private static final float VALENCE_BOOST_SCALE = 2.0f;
+    private static final float VALENCE_BOOST_POWER = 0.5f;
+
+    /**
+     * Result of optimizing one mesh, for the bake report.
+     */
+    public static class Stats {
+        public int verticesBefore;
+        public int verticesAfter;
+        public int trianglesBefore;
+        public int trianglesAfter;
+        public float acmrBefore;
+        public float acmrAfter;
+        public boolean shortIndices;
+    }
+
+    /**
+     * Optimizes a mesh in place. Meshes that are not plain triangle lists,
+     * or that carry LOD levels, morph targets or interleaved data, are left alone.
+     *
+     * @param mesh The mesh to optimize.
+     * @return What changed, or null if the mesh was skipped.
+     */
+    public static Stats optimize(Mesh mesh) {
+        if (!isOptimizable(mesh)) {
+            return null;
+        }
+        int vertexCount = mesh.getVertexCount();
+        int[] indices = readIndices(mesh, vertexCount);
+
+        Stats stats = new Stats();
+        stats.verticesBefore = vertexCount;
+        stats.trianglesBefore = indices.length / 3;
+        stats.acmrBefore = acmr(indices, vertexCount);
+
+        // Weld, then drop the triangles welding collapsed
+        int[] weldRemap = new int[vertexCount];
+        int weldedCount = weld(mesh, vertexCount, weldRemap);
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = weldRemap[indices[i]];
+        }
+        indices = removeDegenerates(indices);
+
+        indices = optimizeVertexCache(indices, weldedCount);
+
+        // Vertex order follows first use, so fetches walk the buffers forwards
+        int[] fetchRemap = new int[weldedCount];
+        Arrays.fill(fetchRemap, -1);
+        int newCount = 0;
+        for (int i = 0; i < indices.length; i++) {
+            int v = indices[i];
+            if (fetchRemap[v] < 0) {
+                fetchRemap[v] = newCount++;
+            }
+            indices[i] = fetchRemap[v];
+        }
+
+        // Source vertex of every output vertex
+        int[] source = new int[newCount];
+        for (int v = 0; v < vertexCount; v++) {
+            int welded = fetchRemap[weldRemap[v]];
+            if (welded >= 0) {
+                source[welded] = v;
+            }
+        }
+        for (VertexBuffer vb : new ArrayList<>(mesh.getBufferList())) {
+            if (vb.getBufferType() != VertexBuffer.Type.Index && vb.getData() != null) {
+                vb.updateData(gather(vb.getData(), vb.getNumComponents(), source));
+            }
+        }
+        writeIndices(mesh, indices, newCount);
+        mesh.updateCounts();
+        mesh.updateBound();
+
+        stats.verticesAfter = newCount;
+        stats.trianglesAfter = indices.length / 3;
+        stats.acmrAfter = acmr(indices, newCount);
+        stats.shortIndices = newCount <= 65536;
+        return stats;
+    }
+
+    /**
+     * Computes the average cache miss ratio, the number of vertex shader runs
+     * per triangle for a FIFO cache of CACHE_SIZE entries. 3 is the worst case,
+     * around 0.7 is typical for well ordered meshes.
+     *
+     * @param indices     Triangle list indices.
+     * @param vertexCount Number of vertices.
+     * @return Cache misses per triangle.
+     */
+    public static float acmr(int[] indices, int vertexCount) {
+        if (indices.length == 0) {
+            return 0;
+        }
+        int[] insertedAt = new int[vertexCount];
+        Arrays.fill(insertedAt, -CACHE_SIZE - 1);
+        int misses = 0;
+        for (int index : indices) {
+            if (misses - insertedAt[index] > CACHE_SIZE) {
+                insertedAt[index] = misses++;
+            }
+        }
+        return (float) misses / (indices.length / 3);
+    }
+
+    /**
+     * Reorders triangles so that consecutive ones share vertices, following
+     * Tom Forsyth's "Linear-Speed Vertex Cache Optimisation".
+     *
+     * @param indices     Triangle list indices.
+     * @param vertexCount Number of vertices.
+     * @return The reordered indices.
+     */
+    public static int[] optimizeVertexCache(int[] indices, int vertexCount) {
+        int triangleCount = indices.length / 3;
+        int[] remaining = new int[vertexCount];
+        for (int index : indices) {
+            remaining[index]++;
+        }
+
+        // Triangles of each vertex, the first remaining[v] of them are not emitted yet
+        int[] offsets = new int[vertexCount + 1];
+        for (int v = 0; v < vertexCount; v++) {
+            offsets[v + 1] = offsets[v] + remaining[v];
+        }
+        int[] triangles = new int[indices.length];
+        int[] fill = Arrays.copyOf(offsets, vertexCount);
+        for (int i = 0; i < indices.length; i++) {
+            triangles[fill[indices[i]]++] = i / 3;
+        }
+
+        int[] cachePosition = new int[vertexCount];
+        Arrays.fill(cachePosition, -1);
+        float[] vertexScore = new float[vertexCount];
+        for (int v = 0; v < vertexCount; v++) {
+            vertexScore[v] = vertexScore(-1, remaining[v]);
+        }
+        float[] triangleScore = new float[triangleCount];
+        int best = -1;
+        for (int t = 0; t < triangleCount; t++) {
+            triangleScore[t] = vertexScore[indices[t * 3]] + vertexScore[indices[t * 3 + 1]] + vertexScore[indices[t * 3 + 2]];
+            if (best < 0 || triangleScore[t] > triangleScore[best]) {
+                best = t;
+            }
+        }
+
+        boolean[] emitted = new boolean[triangleCount];
+        int[] cache = new int[CACHE_SIZE + 3];
+        int[] nextCache = new int[CACHE_SIZE + 3];
+        int cacheCount = 0;
+        int[] output = new int[indices.length];
+        int written = 0;
+        int cursor = 0;
+
+        while (written < output.length) {
+            if (best < 0) {
+                // Nothing in the cache touches a remaining triangle, start anew
+                while (emitted[cursor]) {
+                    cursor++;
+                }
+                best = cursor;
+            }
+            emitted[best] = true;
+
+            int nextCount = 0;
+            for (int k = 0; k < 3; k++) {
+                int v = indices[best * 3 + k];
+                output[written++] = v;
+                nextCache[nextCount++] = v;
+                // Move the emitted triangle out of the vertex's remaining range
+                int start = offsets[v];
+                int last = start + remaining[v] - 1;
+                for (int j = start; j <= last; j++) {
+                    if (triangles[j] == best) {
+                        triangles[j] = triangles[last];
+                        triangles[last] = best;
+                        break;
+                    }
+                }
+                remaining[v]--;
+            }
+            for (int i = 0; i < cacheCount; i++) {
+                int v = cache[i];
+                if (v != nextCache[0] && v != nextCache[1] && v != nextCache[2]) {
+                    nextCache[nextCount++] = v;
+                }
+            }
+            for (int i = 0; i < nextCount; i++) {
+                cachePosition[nextCache[i]] = i < CACHE_SIZE ? i : -1;
+            }
+
+            // Rescore the cached vertices and the ones that just fell out
+            for (int i = 0; i < nextCount; i++) {
+                int v = nextCache[i];
+                float score = vertexScore(cachePosition[v], remaining[v]);
+                float delta = score - vertexScore[v];
+                vertexScore[v] = score;
+                for (int j = offsets[v]; j < offsets[v] + remaining[v]; j++) {
+                    triangleScore[triangles[j]] += delta;
+                }
+            }
+            best = -1;
+            float bestScore = -1;
+            cacheCount = Math.min(nextCount, CACHE_SIZE);
+            for (int i = 0; i < cacheCount; i++) {
+                int v = nextCache[i];
+                for (int j = offsets[v]; j < offsets[v] + remaining[v]; j++) {
+                    int t = triangles[j];
+                    if (triangleScore[t] > bestScore) {
+                        best = t;
+                        bestScore = triangleScore[t];
+                    }
+                }
+            }
+
+            int[] swap = cache;
+            cache = nextCache;
+            nextCache = swap;
+        }
+        return output;
+    }
+
+    /*
+    * Helper functions
+    */
+
+    private static float vertexScore(int cachePosition, int remaining) {
+        if (remaining == 0) {
+            return -1f; // no triangles left to emit
+        }
+        float score = 0;
+        if (cachePosition >= 0) {
+            if (cachePosition < 3) {
+                // Part of the last triangle, reusing it right away barely helps
+                score = LAST_TRIANGLE_SCORE;
+            } else {
+                float scale = 1f / (CACHE_SIZE - 3);
+                score = (float) Math.pow(1f - (cachePosition - 3) * scale, CACHE_DECAY_POWER);
+            }
+        }
+        // Prefer vertices with few triangles left, so they leave the working set
+        score += VALENCE_BOOST_SCALE * (float) Math.pow(remaining, -VALENCE_BOOST_POWER);
+        return score;
+    }
+
+    private static boolean isOptimizable(Mesh mesh) {
+        if (mesh.getMode() != Mesh.Mode.Triangles || mesh.getNumLodLevels() > 0 || mesh.hasMorphTargets()
+                || mesh.getBuffer(VertexBuffer.Type.Position) == null || mesh.getVertexCount() < 3) {
+            return false;
+        }
+        int vertexCount = mesh.getVertexCount();
+        for (VertexBuffer vb : mesh.getBufferList()) {
+            if (vb.getBufferType() == VertexBuffer.Type.Index || vb.getData() == null) {
+                continue;
+            }
+            if (vb.getStride() != 0 || vb.getOffset() != 0 || vb.isInstanced()
+                    || vb.getData().limit() != vertexCount * vb.getNumComponents()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int[] readIndices(Mesh mesh, int vertexCount) {
+        IndexBuffer buffer = mesh.getIndexBuffer();
+        if (buffer == null) {
+            int[] indices = new int[vertexCount - vertexCount % 3];
+            for (int i = 0; i < indices.length; i++) {
+                indices[i] = i;
+            }
+            return indices;
+        }
+        int[] indices = new int[buffer.size() - buffer.size() % 3];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = buffer.get(i);
+        }
+        return indices;
+    }
+
+    private static void writeIndices(Mesh mesh, int[] indices, int vertexCount) {
+        mesh.clearBuffer(VertexBuffer.Type.Index);
+        if (vertexCount <= 65536) {
+            short[] shorts = new short[indices.length];
+            for (int i = 0; i < indices.length; i++) {
+                shorts[i] = (short) indices[i];
+            }
+            mesh.setBuffer(VertexBuffer.Type.Index, 3, VertexBuffer.Format.UnsignedShort, BufferUtils.createShortBuffer(shorts));
+        } else {
+            mesh.setBuffer(VertexBuffer.Type.Index, 3, VertexBuffer.Format.UnsignedInt, BufferUtils.createIntBuffer(indices));
+        }
+    }
+
+    private static int[] removeDegenerates(int[] indices) {
+        int[] kept = new int[indices.length];
+        int count = 0;
+        for (int i = 0; i < indices.length; i += 3) {
+            int a = indices[i];
+            int b = indices[i + 1];
+            int c = indices[i + 2];
+            if (a != b && b != c && a != c) {
+                kept[count++] = a;
+                kept[count++] = b;
+                kept[count++] = c;
+            }
+        }
+        return Arrays.copyOf(kept, count);
+    }
+
+    /**
+     * Maps every vertex to the first vertex with bit-identical attributes.
+     *
+     * @return The number of unique vertices, remap holds their new indices.
+     */
+    private static int weld(Mesh mesh, int vertexCount, int[] remap) {
+        List<VertexBuffer> attributes = new ArrayList<>();
+        int stride = 0;
+        for (VertexBuffer vb : mesh.getBufferList()) {
+            if (vb.getBufferType() != VertexBuffer.Type.Index && vb.getData() != null) {
+                attributes.add(vb);
+                stride += vb.getNumComponents() * 8;
+            }
+        }
+        Map<ByteBuffer, Integer> unique = new HashMap<>(vertexCount * 2);
+        for (int v = 0; v < vertexCount; v++) {
+            ByteBuffer key = ByteBuffer.allocate(stride);
+            for (VertexBuffer vb : attributes) {
+                int components = vb.getNumComponents();
+                Buffer data = vb.getData();
+                for (int c = 0; c < components; c++) {
+                    key.putLong(bits(data, v * components + c));
+                }
+            }
+            key.flip();
+            Integer existing = unique.putIfAbsent(key, unique.size());
+            remap[v] = existing != null ? existing : unique.size() - 1;
+        }
+        return unique.size();
+    }
+
+    private static long bits(Buffer data, int index) {
+        if (data instanceof FloatBuffer) {
+            return Float.floatToIntBits(((FloatBuffer) data).get(index));
+        } else if (data instanceof ShortBuffer) {
+            return ((ShortBuffer) data).get(index);
+        } else if (data instanceof IntBuffer) {
+            return ((IntBuffer) data).get(index);
+        } else if (data instanceof DoubleBuffer) {
+            return Double.doubleToLongBits(((DoubleBuffer) data).get(index));
+        }
+        return ((ByteBuffer) data).get(index);
+    }
+
+    private static Buffer gather(Buffer data, int components, int[] source) {
+        int size = source.length * components;
+        if (data instanceof FloatBuffer) {
+            FloatBuffer from = (FloatBuffer) data;
+            FloatBuffer to = BufferUtils.createFloatBuffer(size);
+            for (int v : source) {
+                for (int c = 0; c < components; c++) {
+                    to.put(from.get(v * components + c));
+                }
+            }
+            return to.flip();
+        } else if (data instanceof ShortBuffer) {
+            ShortBuffer from = (ShortBuffer) data;
+            ShortBuffer to = BufferUtils.createShortBuffer(size);
+            for (int v : source) {
+                for (int c = 0; c < components; c++) {
+                    to.put(from.get(v * components + c));
+                }
+            }
+            return to.flip();
+        } else if (data instanceof IntBuffer) {
+            IntBuffer from = (IntBuffer) data;
+            IntBuffer to = BufferUtils.createIntBuffer(size);
+            for (int v : source) {
+                for (int c = 0; c < components; c++) {
+                    to.put(from.get(v * components + c));
+                }
+            }
+            return to.flip();
+        } else if (data instanceof DoubleBuffer) {
+            DoubleBuffer from = (DoubleBuffer) data;
+            DoubleBuffer to = BufferUtils.createDoubleBuffer(size);
+            for (int v : source) {
+                for (int c = 0; c < components; c++) {
+                    to.put(from.get(v * components + c));
+                }
+            }
+            return to.flip();
+        }
+        ByteBuffer from = (ByteBuffer) data;
+        ByteBuffer to = BufferUtils.createByteBuffer(size);
+        for (int v : source) {
+            for (int c = 0; c < components; c++) {
+                to.put(from.get(v * components + c));
+            }
+        }
+        return to.flip();
+    }
+}
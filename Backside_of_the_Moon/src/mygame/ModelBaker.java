@@ -0,0 +1,354 @@
+package mygame;
+
+import com.jme3.asset.AssetLoadException;
+import com.jme3.asset.AssetManager;
+import com.jme3.asset.ModelKey;
+import com.jme3.asset.plugins.FileLocator;
+import com.jme3.export.binary.BinaryExporter;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.system.JmeSystem;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Build step that converts the source models (glTF, GLB and Ogre XML) in the assets
+ * folder to j3o, running MeshOptimizer over every mesh on the way.
+ *
+ * A model is only converted again when the content hash of its source folder
+ * changed, so an unchanged tree bakes in the time it takes to hash it. Models are
+ * converted in parallel.
+ *
+ * The targets file maps a source to the j3o it replaces; sources it does not
+ * list are baked next to themselves, and sources mapped to nothing are skipped.
+ * Targets in the batched list are then flattened by StaticBatcher, for room
+ * models that are imported as many small parts.
+ *
+ * Usage: ModelBaker assetsDir targetsFile hashFile ["batched targets"] [threads]
+ */
+public class ModelBaker {
+
+    // Bump when the conversion changes, so every model is baked again
+    private static final String BAKE_VERSION = "1";
+
+    private static final String[] SOURCE_EXTENSIONS = {".gltf", ".glb", ".mesh.xml"};
+
+    /**
+     * Result of baking one model.
+     */
+    private static class BakeResult {
+        private final String source;
+        private final String target;
+        private final String hash;
+        private final long previousBytes;
+        private final long targetBytes;
+        private final List<MeshOptimizer.Stats> meshes;
+        // Null when the model is not batched
+        private final StaticBatcher.Stats batch;
+
+        BakeResult(String source, String target, String hash, long previousBytes, long targetBytes,
+                   List<MeshOptimizer.Stats> meshes, StaticBatcher.Stats batch) {
+            this.source = source;
+            this.target = target;
+            this.hash = hash;
+            this.previousBytes = previousBytes;
+            this.targetBytes = targetBytes;
+            this.meshes = meshes;
+            this.batch = batch;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 3) {
+            System.err.println("Usage: ModelBaker assetsDir targetsFile hashFile [\"batched targets\"] [threads]");
+            System.exit(1);
+        }
+        File assetsDir = new File(args[0]);
+        Properties targets = load(new File(args[1]));
+        File hashFile = new File(args[2]);
+        Properties hashes = load(hashFile);
+        Set<String> batched = new HashSet<>();
+        if (args.length > 3 && !args[3].trim().isEmpty()) {
+            batched.addAll(Arrays.asList(args[3].trim().split("\\s+")));
+        }
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+
+        AssetManager assetManager = JmeSystem.newAssetManager(JmeSystem.getPlatformAssetConfigURL());
+        assetManager.registerLocator(assetsDir.getPath(), FileLocator.class);
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        List<Future<BakeResult>> jobs = new ArrayList<>();
+        int upToDate = 0;
+        for (String source : listSources(assetsDir.toPath())) {
+            String target = targets.getProperty(source, defaultTarget(source)).trim();
+            if (target.isEmpty()) {
+                continue; // duplicate of another source
+            }
+            boolean batch = batched.contains(target);
+            String hash = hashSource(assetsDir, source, batch);
+            if (hash.equals(hashes.getProperty(target)) && new File(assetsDir, target).exists()) {
+                upToDate++;
+                continue;
+            }
+            jobs.add(pool.submit(() -> bake(assetManager, assetsDir, source, target, hash, batch)));
+        }
+        pool.shutdown();
+
+        int failed = 0;
+        int kept = 0;
+        for (Future<BakeResult> job : jobs) {
+            try {
+                BakeResult result = job.get();
+                if (result != null) {
+                    hashes.setProperty(result.target, result.hash);
+                    report(result);
+                } else {
+                    kept++;
+                }
+            } catch (ExecutionException e) {
+                System.err.println("Model bake failed: " + e.getCause());
+                failed++;
+            }
+        }
+        store(hashes, hashFile);
+        System.out.println("Baked " + (jobs.size() - kept - failed) + " models, " + upToDate + " up to date, "
+                + kept + " kept, " + failed + " failed");
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    /*
+    * Helper functions
+    */
+
+    /**
+     * Converts one model. A source that cannot be loaded, usually because its
+     * buffers or textures were never checked in, keeps its existing j3o.
+     *
+     * @return The result, or null if the existing j3o was kept.
+     */
+    private static BakeResult bake(AssetManager assetManager, File assetsDir, String source, String target, String hash,
+                                   boolean batch) throws IOException {
+        File targetFile = new File(assetsDir, target);
+        long previousBytes = targetFile.length();
+        Spatial model;
+        try {
+            model = assetManager.loadModel(new ModelKey(source));
+        } catch (AssetLoadException e) {
+            if (!targetFile.exists()) {
+                throw e;
+            }
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            System.err.println("Kept " + target + ", could not load " + source + ": " + cause.getMessage());
+            return null;
+        }
+        List<MeshOptimizer.Stats> stats = new ArrayList<>();
+        Set<Mesh> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        optimize(model, seen, stats);
+        StaticBatcher.Stats batchStats = null;
+        if (batch && model instanceof Node) {
+            batchStats = StaticBatcher.batch((Node) model);
+        }
+
+        File parent = targetFile.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        BinaryExporter.getInstance().save(model, targetFile);
+        return new BakeResult(source, target, hash, previousBytes, targetFile.length(), stats, batchStats);
+    }
+
+    private static void optimize(Spatial spatial, Set<Mesh> seen, List<MeshOptimizer.Stats> stats) {
+        if (spatial instanceof Geometry) {
+            Geometry geometry = (Geometry) spatial;
+            Mesh mesh = geometry.getMesh();
+            // Shared meshes are optimized once
+            if (mesh != null && seen.add(mesh)) {
+                MeshOptimizer.Stats result = MeshOptimizer.optimize(mesh);
+                if (result != null) {
+                    stats.add(result);
+                }
+                geometry.updateModelBound();
+            }
+        } else if (spatial instanceof Node) {
+            for (Spatial child : ((Node) spatial).getChildren()) {
+                optimize(child, seen, stats);
+            }
+        }
+    }
+
+    private static void report(BakeResult result) {
+        int verticesBefore = 0;
+        int verticesAfter = 0;
+        int trianglesBefore = 0;
+        int trianglesAfter = 0;
+        float missesBefore = 0;
+        float missesAfter = 0;
+        int shortIndexed = 0;
+        for (MeshOptimizer.Stats mesh : result.meshes) {
+            verticesBefore += mesh.verticesBefore;
+            verticesAfter += mesh.verticesAfter;
+            trianglesBefore += mesh.trianglesBefore;
+            trianglesAfter += mesh.trianglesAfter;
+            missesBefore += mesh.acmrBefore * mesh.trianglesBefore;
+            missesAfter += mesh.acmrAfter * mesh.trianglesAfter;
+            shortIndexed += mesh.shortIndices ? 1 : 0;
+        }
+        System.out.println(String.format("%s -> %s: %d KB -> %d KB, %d meshes (%d with 16-bit indices), "
+                + "vertices %d -> %d, ACMR %.2f -> %.2f",
+                result.source, result.target, result.previousBytes / 1024, result.targetBytes / 1024,
+                result.meshes.size(), shortIndexed, verticesBefore, verticesAfter,
+                missesBefore / Math.max(1, trianglesBefore), missesAfter / Math.max(1, trianglesAfter)));
+        if (result.batch != null) {
+            System.out.println(String.format("%s batched: draw calls %d -> %d, scene graph nodes %d -> %d",
+                    result.target, result.batch.geometriesBefore, result.batch.geometriesAfter,
+                    result.batch.spatialsBefore, result.batch.spatialsAfter));
+        }
+    }
+
+    private static List<String> listSources(Path assetsDir) throws IOException {
+        List<String> sources = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(assetsDir)) {
+            walk.filter(Files::isRegularFile).sorted().forEach(file -> {
+                String name = assetsDir.relativize(file).toString().replace(File.separatorChar, '/');
+                if (sourceExtension(name) != null) {
+                    sources.add(name);
+                }
+            });
+        }
+        return sources;
+    }
+
+    private static String sourceExtension(String name) {
+        String lower = name.toLowerCase();
+        for (String extension : SOURCE_EXTENSIONS) {
+            if (lower.endsWith(extension)) {
+                return extension;
+            }
+        }
+        return null;
+    }
+
+    private static String defaultTarget(String source) {
+        return source.substring(0, source.length() - sourceExtension(source).length()) + ".j3o";
+    }
+
+    /**
+     * Hashes the source and, unless it is a self-contained GLB, everything next
+     * to it a loader may read: buffers, textures, Ogre materials and skeletons.
+     * Baked j3o files are left out. Batching is hashed too, so turning it on
+     * or off bakes the model again.
+     */
+    /**
+     * Whether a file was written by a later bake step into the folder of a
+     * source: an impostor atlas, or the DDS baked from a png or jpg next to it.
+     */
+    private static boolean isBakedTexture(Path file) {
+        String name = file.getFileName().toString();
+        if (name.endsWith(ImpostorBaker.IMPOSTOR_SUFFIX)) {
+            return true;
+        }
+        if (!name.toLowerCase().endsWith(".dds")) {
+            return false;
+        }
+        String base = name.substring(0, name.length() - 4);
+        for (String extension : new String[] {".png", ".jpg", ".jpeg"}) {
+            if (Files.exists(file.resolveSibling(base + extension))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String hashSource(File assetsDir, String source, boolean batch) throws IOException {
+        MessageDigest sha;
+        try {
+            sha = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        sha.update(BAKE_VERSION.getBytes(StandardCharsets.UTF_8));
+        sha.update(source.getBytes(StandardCharsets.UTF_8));
+        if (batch) {
+            sha.update(StaticBatcher.class.getSimpleName().getBytes(StandardCharsets.UTF_8));
+        }
+        Path sourceFile = new File(assetsDir, source).toPath();
+        Path folder = sourceFile.getParent();
+        Map<String, Path> files = new TreeMap<>();
+        if (source.toLowerCase().endsWith(".glb")) {
+            files.put(sourceFile.getFileName().toString(), sourceFile);
+        } else {
+            try (Stream<Path> walk = Files.walk(folder)) {
+                walk.filter(Files::isRegularFile).forEach(file -> {
+                    String name = folder.relativize(file).toString().replace(File.separatorChar, '/');
+                    if (!name.endsWith(".j3o") && !name.endsWith(MappedMeshLoader.DATA_EXTENSION)
+                            && !file.getFileName().toString().startsWith(".") && !isBakedTexture(file)) {
+                        files.put(name, file);
+                    }
+                });
+            }
+        }
+        byte[] buffer = new byte[1 << 16];
+        for (Map.Entry<String, Path> file : files.entrySet()) {
+            sha.update(file.getKey().getBytes(StandardCharsets.UTF_8));
+            try (InputStream in = Files.newInputStream(file.getValue())) {
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    sha.update(buffer, 0, read);
+                }
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : sha.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static Properties load(File file) throws IOException {
+        Properties properties = new Properties();
+        if (file.exists()) {
+            try (InputStream in = new FileInputStream(file)) {
+                properties.load(in);
+            }
+        }
+        return properties;
+    }
+
+    private static void store(Properties properties, File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        try (OutputStream out = new FileOutputStream(file)) {
+            properties.store(out, "Content hashes of baked models, written by ModelBaker");
+        }
+    }
+}
@@ -1,30 +1,39 @@
 package mygame;
 
-import com.jme3.animation.AnimChannel;
-import com.jme3.animation.AnimControl;
 import com.jme3.asset.AssetManager;
 import com.jme3.asset.TextureKey;
 import com.jme3.asset.plugins.FileLocator;
 import com.jme3.bullet.BulletAppState;
-import com.jme3.bullet.control.BetterCharacterControl;
 import com.jme3.bullet.control.RigidBodyControl;
+import com.jme3.effect.ParticleEmitter;
 import com.jme3.light.AmbientLight;
 import com.jme3.light.DirectionalLight;
-import com.jme3.light.PointLight;
 import com.jme3.material.Material;
 import com.jme3.math.ColorRGBA;
-import com.jme3.math.FastMath;
 import com.jme3.math.Vector3f;
 import com.jme3.scene.Node;
 import com.jme3.scene.Spatial;
+import com.jme3.system.JmeSystem;
 import com.jme3.texture.Texture;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 
 public class ModelLoader {
+    // Level descriptors of the rooms
+    private static final String CLASSROOM_LEVEL = "Levels/classroom.json";
+    private static final String BLACKHOLE_LEVEL = "Levels/blackhole.json";
+    private static final String TERRAIN_LEVEL = "Levels/terrain.json";
+
     private final AssetManager assetManager;
     private final Node rootNode;
     private final SceneSwitchingManager sceneManager;
     private final BulletAppState bulletAppState;
+    private final TextureStreamer textureStreamer;
+    private final RoomSnapshotCache snapshotCache;
+    private final LevelLoader levelLoader;
+    private ParticleEmitter blackholeDust;
     
 
     /**
@@ -34,12 +43,17 @@ public class ModelLoader {
      * @param rootNode        The root node of the scene graph.
      * @param bulletAppState  The Bullet physics state for handling physics.
      * @param sceneManager    The manager for switching between scenes.
+     * @param textureStreamer Streams in the large textures of the characters.
      */
-    public ModelLoader(AssetManager assetManager, Node rootNode, BulletAppState bulletAppState, SceneSwitchingManager sceneManager) {
+    public ModelLoader(AssetManager assetManager, Node rootNode, BulletAppState bulletAppState, SceneSwitchingManager sceneManager,
+                       TextureStreamer textureStreamer) {
         this.assetManager = assetManager;
         this.rootNode = rootNode;
         this.bulletAppState = bulletAppState;
         this.sceneManager = sceneManager;
+        this.textureStreamer = textureStreamer;
+        this.snapshotCache = new RoomSnapshotCache(assetManager, new File(JmeSystem.getStorageFolder(), "snapshots"));
+        this.levelLoader = new LevelLoader(assetManager, Math.max(2, Runtime.getRuntime().availableProcessors()));
         
         assetManager.registerLocator("assets/", FileLocator.class);
         
@@ -65,10 +79,10 @@ public class ModelLoader {
          * Transition Teleport gate
          */
         Node teleportGateNode = new Node("TeleportGate");
-        Spatial teleportGate = assetManager.loadModel("Models/TeleportGate/scene.j3o");
+        Spatial teleportGate = MappedMeshLoader.load(assetManager, "Models/TeleportGate/scene.j3o");
         teleportGate.setLocalScale(15f);
         teleportGate.setLocalTranslation(-12,12f,-1);
-        teleportGateNode.setCullHint(Spatial.CullHint.Never);
+        ScreenLodControl.addTo(teleportGate);
 
         // Gate lights
         DirectionalLight gateLight = new DirectionalLight();
@@ -92,101 +106,112 @@ public class ModelLoader {
     }
     
     /**
-     * Loads and configures the classroom scene.
+     * Loads and configures the classroom scene with its cakes and the monkey.
+     * The assembled room is restored from its snapshot when one is up to date.
      *
      * @return The node representing the classroom scene.
      */
-    public Node loadClassroom() {        
-        /*
-        * Scene 1: Classroom
-        */
-        
-        // Load the classroom scene
-        Node classroomScene = new Node("ClassroomScene");
-        Spatial classroom = assetManager.loadModel("Models/NoDeskClassroom/noDeskClassroom.j3o");
-        classroom.setLocalScale(2.0f);
-        classroom.setLocalTranslation(0,8f,0);
-        classroomScene.attachChild(classroom);
-        sceneManager.addScene(classroomScene);
-        
-        // Classroom Lights
-        DirectionalLight classroomLight = new DirectionalLight();
-        classroomLight.setDirection(new Vector3f(1, -1, 0));
-        classroomLight.setColor(ColorRGBA.White.mult(1.5f));
-        classroom.addLight(classroomLight);
-
-        DirectionalLight classroomLight2 = new DirectionalLight();
-        classroomLight2.setDirection(new Vector3f(-1, -1, 0));
-        classroomLight2.setColor(ColorRGBA.White.mult(1.5f));
-        classroom.addLight(classroomLight2);
+    public Node loadClassroom() {
+        LevelDescriptor level = levelLoader.getLevel(CLASSROOM_LEVEL);
+        // The descriptor is a source too, editing it rebuilds the snapshot
+        List<String> sources = new ArrayList<>();
+        sources.add(CLASSROOM_LEVEL);
+        sources.addAll(level.getModels());
+        Node classroomScene = snapshotCache.load("ClassroomScene", sources.toArray(new String[0]), this::buildClassroom);
+        activatePhysics(classroomScene);
 
-        DirectionalLight classroomLight3 = new DirectionalLight();
-        classroomLight3.setDirection(new Vector3f(0, -1, 1));
-        classroomLight3.setColor(ColorRGBA.White.mult(1.5f));
-        classroom.addLight(classroomLight3);
-        
-        DirectionalLight mainLightClassroom = new DirectionalLight();
-        mainLightClassroom.setDirection(new Vector3f(-1, -1, -1).normalizeLocal());
-        mainLightClassroom.setColor(ColorRGBA.White.mult(2.0f)); 
-        classroom.addLight(mainLightClassroom);
-
-        AmbientLight ambientLightClassroom = new AmbientLight();
-        ambientLightClassroom.setColor(ColorRGBA.White.mult(1.0f));
-        classroom.addLight(ambientLightClassroom);
-        
-        // Classroom Physics
-        RigidBodyControl classroomPhy = new RigidBodyControl(0f);
-        classroomScene.addControl(classroomPhy);
-        bulletAppState.getPhysicsSpace().add(classroomPhy);
-       
         // Load Claassroom into scene manager
         sceneManager.addScene(classroomScene);
-        
+        sceneManager.addScene(classroomScene);
         
         return classroomScene;
     }
- 
+
     /**
-     * Loads and configures the blackhole scene.
+     * Assembles the classroom scene without touching the live scene graph or
+     * the physics space, so the result can be written to a room snapshot.
      *
-     * @return The node representing the blackhole scene.
+     * @return The detached node representing the classroom scene.
      */
-    public Node loadBlackhole() {
-        /*
-        * Scene 2: Blackhole
-        */
-        // Load the blackhole scene
-        Node blackholeScene = new Node("BlackholeScene");
-        Spatial blackhole = assetManager.loadModel("Models/Blackhole/scene.j3o");
-        blackhole.setLocalScale(12.0f);
-        blackhole.setLocalTranslation(0,18f,-40.0f);
-        blackholeScene.attachChild(blackhole);
-        sceneManager.addScene(blackholeScene);
-        
-        // Blackhole lights
-        AmbientLight ambient = new AmbientLight();
-        ambient.setColor(ColorRGBA.White.mult(1.2f)); 
-        blackholeScene.addLight(ambient);
+    public Node buildClassroom() {
+        return levelLoader.build(levelLoader.getLevel(CLASSROOM_LEVEL));
+    }
 
-        DirectionalLight glow = new DirectionalLight();
-        glow.setDirection(new Vector3f(-0.5f, -1, -0.5f));
-        glow.setColor(new ColorRGBA(0.5f, 0.4f, 0.3f, 1.0f).mult(0.2f)); 
-        blackholeScene.addLight(glow);
+    /**
+     * Builds the blackhole scene with its stars without touching the live
+     * scene graph, so it can run on a scene loader thread.
+     *
+     * @return The detached node representing the blackhole scene.
+     */
+    public Node buildBlackhole() {
+        return levelLoader.build(levelLoader.getLevel(BLACKHOLE_LEVEL));
+    }
 
-        PointLight glowEffect = new PointLight();
-        glowEffect.setPosition(new Vector3f(0, 0, -5));
-        glowEffect.setColor(new ColorRGBA(0.7f, 0.5f, 0.3f, 1.0f).mult(0.3f)); 
-        glowEffect.setRadius(10f); 
-        blackholeScene.addLight(glowEffect);
-        
+    /**
+     * Builds the terrain scene with Oto without touching the live scene
+     * graph, the viewport or the physics space, so it can run on a scene
+     * loader thread.
+     *
+     * @return The detached node representing the terrain scene.
+     */
+    public Node buildTerrain() {
+        return levelLoader.build(levelLoader.getLevel(TERRAIN_LEVEL));
+    }
+
+    /**
+     * Attaches the blackhole particle effects once, even if the blackhole
+     * scene is streamed in again. Must run on the render thread.
+     */
+    public void loadBlackholeEffects() {
+        if (blackholeDust != null) {
+            return;
+        }
         //Particle Effects
         ParticleEffects particle = new ParticleEffects(assetManager, rootNode);
-        particle.dust();
+        blackholeDust = particle.dust();
         //particle.sparks();
         //particle.burst();
         //particle.fire();
-        
-        return blackholeScene;
+    }
+
+    /**
+     * Adds every physics control found under the given scene to the physics
+     * space. Used to finish scenes that were built on a loader thread.
+     *
+     * @param scene The scene whose physics controls should be activated.
+     */
+    public void activatePhysics(Node scene) {
+        bulletAppState.getPhysicsSpace().addAll(scene);
+    }
+
+    /**
+     * Finishes a loaded room: picks its key item, registers its pickable
+     * items and starts its character animations. Must run on the render
+     * thread.
+     *
+     * @param scene     A room built from a level descriptor.
+     * @param gameState The game state to track pickable items.
+     */
+    public void activateLevel(Node scene, GameState gameState) {
+        LevelDescriptor level = findLevel(scene);
+        if (level != null) {
+            levelLoader.activate(scene, level, gameState);
+        }
+    }
+
+    /**
+     * Builds the filters of a loaded room into its render profile. Must run
+     * on the render thread.
+     *
+     * @param scene A room built from a level descriptor.
+     * @return The render profile of the room.
+     */
+    public RenderProfile buildRenderProfile(Node scene) {
+        LevelDescriptor level = findLevel(scene);
+        if (level == null) {
+            throw new IllegalArgumentException("No level describes the scene " + scene.getName());
+        }
+        return new RenderProfile(assetManager, scene, level);
     }
     
     
@@ -195,185 +220,37 @@ public class ModelLoader {
     */
     
     /**
-     * Loads and configures the "Bloody Monkey" character in the classroom scene.
+     * Finishes the "Bloody Monkey" character of a loaded classroom scene
+     * by giving it its material.
      *
-     * @param classroomScene The scene to which the monkey should be added.
+     * @param classroomScene The classroom scene holding the monkey.
      * @return The node representing the "Bloody Monkey".
      */
     public Node loadMonkey(Node classroomScene) {
-        // Load and scale the BloodyMonkey model
-        Node bloodyMonkey = (Node) assetManager.loadModel("Models/Monkey/Jaime.j3o");
-        bloodyMonkey.rotate(0, FastMath.DEG_TO_RAD * 180, 0);
-        bloodyMonkey.setLocalScale(4.0f);
-        bloodyMonkey.setLocalTranslation(-7.0f, 11.0f, 18.0f);
-        classroomScene.attachChild(bloodyMonkey);
+        Node bloodyMonkey = (Node) classroomScene.getChild("BloodyMonkey");
 
-        //Load materials onto BloodyMonkey model
+        // Load materials onto BloodyMonkey model. Not part of the room snapshot,
+        // it would load the full texture instead of streaming it in.
         Material bloodyMonkeyMaterial = new Material(assetManager, "Common/MatDefs/Light/Lighting.j3md");
+        // Shows a low mip until the full texture has streamed in
         TextureKey bloodyMonkeyTextureKey = new TextureKey("Textures/blood.png", true); 
-        Texture bloodyMonkeyTexture = assetManager.loadTexture(bloodyMonkeyTextureKey);
+        Texture bloodyMonkeyTexture = textureStreamer.request(bloodyMonkeyTextureKey);
         bloodyMonkeyMaterial.setTexture("DiffuseMap", bloodyMonkeyTexture);
         bloodyMonkey.setMaterial(bloodyMonkeyMaterial);
-
-        // Monkey Physics using BetterCharacterControl for proper movement
-        BetterCharacterControl monkeyControl = new BetterCharacterControl(1.5f, 4, 30f);
-        bloodyMonkey.addControl(monkeyControl);
-        bulletAppState.getPhysicsSpace().add(monkeyControl);
-
-        // Set up the AnimControl for animations
-        AnimControl animControl = bloodyMonkey.getControl(AnimControl.class);
-        if (animControl != null) {
-            AnimChannel animChannel = animControl.createChannel();
-            // Set the default animation to Idle
-            animChannel.setAnim("Walk"); 
-        }
         return bloodyMonkey;
     }
-       
-    /**
-     * Loads and configures the "Oto" character in the blackhole scene.
-     *
-     * @param blackholeScene The scene to which Oto should be added.
-     * @return The node representing Oto.
-     */
-    public Node loadOto(Node blackholeScene) {
-        // Create a parent node for Oto to deal with offset
-        Node otoNode = new Node("OtoNode");
-        blackholeScene.attachChild(otoNode);
-
-        Spatial otoModel = assetManager.loadModel("Models/Oto/Oto.j3o");
-        // Offset Oto by 5 units above its parent node
-        otoModel.setLocalTranslation(0, 5f, 0); 
-        
-        otoNode.attachChild(otoModel);
-
-        otoNode.setLocalTranslation(-50, 20.0f, -50);
-
-        BetterCharacterControl otoControl = new BetterCharacterControl(0.5f, 1.8f, 80f);
-        otoNode.addControl(otoControl);
-        bulletAppState.getPhysicsSpace().add(otoControl);
-        AnimControl animControl = otoModel.getControl(AnimControl.class);
-        if (animControl != null) {
-            AnimChannel animChannel = animControl.createChannel();
-            animChannel.setAnim("Walk");
-        }
 
-        return otoNode;
-    }
-
-    
     /*
-    * Pickable Items
+    * Helper functions
     */
-    
-     /**
-     * Loads a specified number of cake items into the given scene.
-     * One of the cakes is randomly designated as the "Key."
-     *
-     * @param num       The number of cakes to generate.
-     * @param scene     The scene where the cakes will be placed.
-     * @param gameState The game state to track pickable items.
-     */
-    public void loadCakes(int num, Node scene, GameState gameState) {
-        // Randomly select one cake to be the "Key"
-        int keyInd = (int) (Math.random() * num);
-        if (keyInd == num){
-            keyInd = num - 1;
-        }
-
-        // Load the cake model once and create a reusable material
-        Spatial cakeModel = assetManager.loadModel("Models/Items/CAFETERIAcake.j3o");
-
-        for (int i = 0; i < num; i++) {
-            // Clone the cake model to create a new instance for each cake
-            Spatial cake = cakeModel.clone();
-            cake.setLocalScale(5.0f);
-
-            int row = i / 3;
-            int col = i % 3;
-            // Spread out
-            float xPos = -12.0f + col * 10.0f;  
-            float yPos = 8.0f;
-            float zPos = 2.0f + row * 15.0f;
 
-            cake.setLocalTranslation(xPos, yPos, zPos);
-
-            // Set unique name for the key cake
-            if (i == keyInd) {
-                cake.setName("Key");
-            } else {
-                cake.setName("Cake");
-            }
-
-            // Add RigidBodyControl to the cake
-            RigidBodyControl cakeControl = new RigidBodyControl(0.5f);
-            cake.addControl(cakeControl);
-            bulletAppState.getPhysicsSpace().add(cakeControl);
-
-            // Add the cake to the game state as a pickable item
-            gameState.addPickableItem(cake);
-            scene.attachChild(cake);
-        }
-    }
-
-    /**
-     * Loads a specified number of star items into the given scene.
-     * One of the stars is randomly designated as the "Key."
-     *
-     * @param num       The number of stars to generate.
-     * @param scene     The scene where the stars will be placed.
-     * @param gameState The game state to track pickable items.
-     */
-    public void loadStars(int num, Node scene, GameState gameState) {
-        // Randomly select one star to be the "Key"
-        int keyInd = (int) (Math.random() * num);
-
-        // Load the star model and create a reusable material
-        Spatial starModel = assetManager.loadModel("Models/Star/scene.j3o");
-        Material starMat = new Material(assetManager, "Common/MatDefs/Light/Lighting.j3md");
-        
-        // Set a moon-like color (soft grayish white)
-        starMat.setColor("Diffuse", new ColorRGBA(0.3f, 0.3f, 0.3f, 1.0f)); 
-        starMat.setColor("Ambient", new ColorRGBA(0.2f, 0.2f, 0.2f, 1.0f));
-        starMat.setBoolean("UseMaterialColors", true);
-        
-        // Remove or reduce shininess
-        starMat.setFloat("Shininess", 8f);
-
-
-        for (int i = 0; i < num; i++) {
-            // Clone the star model to create a new instance for each star
-            Spatial star = starModel.clone();
-            star.setMaterial(starMat);
-            star.setLocalScale(0.05f);
-
-            int row = i / 3;
-            int col = i % 3;
-            
-            // Spread out
-            float xPos = -12.0f + col * 10.0f;  
-            float yPos = 7.0f;
-            float zPos = 2.0f + row * 15.0f;
-            star.setLocalTranslation(xPos, yPos, zPos);
-
-            // Set unique name for the key star
-            if (i == keyInd) {
-                star.setName("Key");
-            } else {
-                star.setName("Star");
+    private LevelDescriptor findLevel(Node scene) {
+        for (String path : new String[] {CLASSROOM_LEVEL, BLACKHOLE_LEVEL, TERRAIN_LEVEL}) {
+            LevelDescriptor level = levelLoader.getLevel(path);
+            if (level.getName().equals(scene.getName())) {
+                return level;
             }
-
-            // Add RigidBodyControl to the star
-            RigidBodyControl starControl = new RigidBodyControl(0.5f);
-            star.addControl(starControl);
-            bulletAppState.getPhysicsSpace().add(starControl);
-
-            // Add the star to the game state as a pickable item
-            gameState.addPickableItem(star);
-            scene.attachChild(star);
         }
+        return null;
     }
-
-    
- 
 }
@@ -0,0 +1,276 @@
+package mygame;
+
+import com.jme3.math.Matrix4f;
+import java.util.Arrays;
+
+/**
+ * A small depth buffer that occluders are rasterized into on the CPU, and
+ * that bounding boxes are tested against to find out whether anything in
+ * them can be seen.
+ *
+ * The buffer holds 1 / w, the inverse view depth, which is linear across a
+ * triangle on screen: larger is nearer and 0 is empty. Each pixel stores the
+ * farthest depth its occluder reaches within it rather than the one at its
+ * center, and boxes are tested over the pixels they touch plus one more on
+ * every side, so the low resolution only ever lets through more than is
+ * hidden, never less. Occluders are drawn from both sides.
+ *
+ * Vertices are transformed into plain float arrays in one pass, before
+ * rasterizing, so the loops stay simple enough for the JIT to vectorize. Not
+ * safe to use from several threads at once, but needs no renderer or
+ * context, so it can be driven from a worker thread or a test.
+ */
+public class OcclusionBuffer {
+
+    private final int width;
+    private final int height;
+    private final float[] depth;
+    private final float[] viewProjection = new float[16];
+
+    // Clip space of the vertices of the occluder being rasterized
+    private float[] clipX = new float[0];
+    private float[] clipY = new float[0];
+    private float[] clipZ = new float[0];
+    private float[] clipW = new float[0];
+
+    // A triangle clipped against the near plane has up to 4 vertices
+    private final float[] polyX = new float[4];
+    private final float[] polyY = new float[4];
+    private final float[] polyZ = new float[4];
+    private final float[] polyW = new float[4];
+
+    /**
+     * Constructs a new OcclusionBuffer.
+     *
+     * @param width  Pixels across.
+     * @param height Pixels down.
+     */
+    public OcclusionBuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.depth = new float[width * height];
+    }
+
+    /**
+     * Empties the buffer and sets the view occluders are drawn and boxes are
+     * tested from.
+     *
+     * @param viewProjection The view projection matrix of the camera.
+     */
+    public void clear(Matrix4f viewProjection) {
+        Arrays.fill(depth, 0);
+        viewProjection.get(this.viewProjection, true);
+    }
+
+    /**
+     * Draws an occluder.
+     *
+     * @param positions World x, y and z of each vertex.
+     * @param indices   Three vertex indices per triangle.
+     */
+    public void rasterize(float[] positions, int[] indices) {
+        int count = positions.length / 3;
+        if (clipX.length < count) {
+            clipX = new float[count];
+            clipY = new float[count];
+            clipZ = new float[count];
+            clipW = new float[count];
+        }
+        float[] m = viewProjection;
+        for (int i = 0; i < count; i++) {
+            float x = positions[i * 3];
+            float y = positions[i * 3 + 1];
+            float z = positions[i * 3 + 2];
+            clipX[i] = m[0] * x + m[1] * y + m[2] * z + m[3];
+            clipY[i] = m[4] * x + m[5] * y + m[6] * z + m[7];
+            clipZ[i] = m[8] * x + m[9] * y + m[10] * z + m[11];
+            clipW[i] = m[12] * x + m[13] * y + m[14] * z + m[15];
+        }
+
+        for (int t = 0; t + 2 < indices.length; t += 3) {
+            int vertices = clipNear(indices[t], indices[t + 1], indices[t + 2]);
+            for (int v = 1; v + 1 < vertices; v++) {
+                drawTriangle(0, v, v + 1);
+            }
+        }
+    }
+
+    /**
+     * Tests whether a box is hidden behind what has been drawn. Boxes that
+     * reach in front of the near plane or beyond the edges of the screen are
+     * never hidden.
+     *
+     * @return True if every pixel the box covers has an occluder in front of it.
+     */
+    public boolean isOccluded(float centerX, float centerY, float centerZ,
+                              float extentX, float extentY, float extentZ) {
+        float[] m = viewProjection;
+        float minX = Float.POSITIVE_INFINITY;
+        float minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+        float nearest = 0;
+        for (int corner = 0; corner < 8; corner++) {
+            float x = centerX + ((corner & 1) == 0 ? -extentX : extentX);
+            float y = centerY + ((corner & 2) == 0 ? -extentY : extentY);
+            float z = centerZ + ((corner & 4) == 0 ? -extentZ : extentZ);
+            float cz = m[8] * x + m[9] * y + m[10] * z + m[11];
+            float cw = m[12] * x + m[13] * y + m[14] * z + m[15];
+            if (cz < -cw) {
+                return false;
+            }
+            float inverseW = 1 / cw;
+            float sx = ((m[0] * x + m[1] * y + m[2] * z + m[3]) * inverseW * 0.5f + 0.5f) * width;
+            float sy = ((m[4] * x + m[5] * y + m[6] * z + m[7]) * inverseW * 0.5f + 0.5f) * height;
+            minX = Math.min(minX, sx);
+            minY = Math.min(minY, sy);
+            maxX = Math.max(maxX, sx);
+            maxY = Math.max(maxY, sy);
+            nearest = Math.max(nearest, inverseW);
+        }
+
+        int x0 = (int) Math.floor(minX) - 1;
+        int y0 = (int) Math.floor(minY) - 1;
+        int x1 = (int) Math.floor(maxX) + 1;
+        int y1 = (int) Math.floor(maxY) + 1;
+        if (x0 < 0 || y0 < 0 || x1 >= width || y1 >= height) {
+            return false;
+        }
+        for (int y = y0; y <= y1; y++) {
+            int row = y * width;
+            for (int x = x0; x <= x1; x++) {
+                if (depth[row + x] <= nearest) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the share of the pixels an occluder has been drawn to.
+     *
+     * @return The share, 0 to 1.
+     */
+    public float getCoverage() {
+        int covered = 0;
+        for (float value : depth) {
+            if (value > 0) {
+                covered++;
+            }
+        }
+        return covered / (float) depth.length;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /*
+    * Helper functions
+    */
+
+    /**
+     * Clips a triangle against the near plane, z >= -w in clip space.
+     *
+     * @return The number of vertices of the clipped polygon, 0, 3 or 4.
+     */
+    private int clipNear(int a, int b, int c) {
+        int[] corners = {a, b, c};
+        int count = 0;
+        for (int i = 0; i < 3; i++) {
+            int from = corners[i];
+            int to = corners[(i + 1) % 3];
+            float fromDistance = clipZ[from] + clipW[from];
+            float toDistance = clipZ[to] + clipW[to];
+            if (fromDistance >= 0) {
+                polyX[count] = clipX[from];
+                polyY[count] = clipY[from];
+                polyZ[count] = clipZ[from];
+                polyW[count] = clipW[from];
+                count++;
+            }
+            if ((fromDistance >= 0) != (toDistance >= 0)) {
+                float t = fromDistance / (fromDistance - toDistance);
+                polyX[count] = clipX[from] + (clipX[to] - clipX[from]) * t;
+                polyY[count] = clipY[from] + (clipY[to] - clipY[from]) * t;
+                polyZ[count] = clipZ[from] + (clipZ[to] - clipZ[from]) * t;
+                polyW[count] = clipW[from] + (clipW[to] - clipW[from]) * t;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Rasterizes a triangle of the clipped polygon, keeping the nearest depth
+     * of each pixel whose center it covers.
+     */
+    private void drawTriangle(int a, int b, int c) {
+        if (polyW[a] <= 0 || polyW[b] <= 0 || polyW[c] <= 0) {
+            return;
+        }
+        float wa = 1 / polyW[a];
+        float wb = 1 / polyW[b];
+        float wc = 1 / polyW[c];
+        float xa = (polyX[a] * wa * 0.5f + 0.5f) * width;
+        float ya = (polyY[a] * wa * 0.5f + 0.5f) * height;
+        float xb = (polyX[b] * wb * 0.5f + 0.5f) * width;
+        float yb = (polyY[b] * wb * 0.5f + 0.5f) * height;
+        float xc = (polyX[c] * wc * 0.5f + 0.5f) * width;
+        float yc = (polyY[c] * wc * 0.5f + 0.5f) * height;
+
+        float area = (xb - xa) * (yc - ya) - (yb - ya) * (xc - xa);
+        if (area == 0 || Float.isNaN(area)) {
+            return;
+        }
+        if (area < 0) {
+            // Clockwise on screen, seen from behind
+            float swap = xb; xb = xc; xc = swap;
+            swap = yb; yb = yc; yc = swap;
+            swap = wb; wb = wc; wc = swap;
+            area = -area;
+        }
+
+        int x0 = Math.max(0, (int) Math.floor(Math.min(xa, Math.min(xb, xc))));
+        int y0 = Math.max(0, (int) Math.floor(Math.min(ya, Math.min(yb, yc))));
+        int x1 = Math.min(width - 1, (int) Math.ceil(Math.max(xa, Math.max(xb, xc))));
+        int y1 = Math.min(height - 1, (int) Math.ceil(Math.max(ya, Math.max(yb, yc))));
+        if (x0 > x1 || y0 > y1) {
+            return;
+        }
+
+        // Edge functions, positive inside, and the plane of 1 / w over the screen
+        float e0x = ya - yb, e0y = xb - xa, e0 = xa * yb - ya * xb;
+        float e1x = yb - yc, e1y = xc - xb, e1 = xb * yc - yb * xc;
+        float e2x = yc - ya, e2y = xa - xc, e2 = xc * ya - yc * xa;
+        float depthX = (e1x * wa + e2x * wb + e0x * wc) / area;
+        float depthY = (e1y * wa + e2y * wb + e0y * wc) / area;
+        float depth0 = (e1 * wa + e2 * wb + e0 * wc) / area;
+        // Farthest the triangle gets within a pixel around its center
+        float spread = 0.5f * (Math.abs(depthX) + Math.abs(depthY));
+
+        for (int y = y0; y <= y1; y++) {
+            float py = y + 0.5f;
+            float px = x0 + 0.5f;
+            float edge0 = e0x * px + e0y * py + e0;
+            float edge1 = e1x * px + e1y * py + e1;
+            float edge2 = e2x * px + e2y * py + e2;
+            float value = depthX * px + depthY * py + depth0 - spread;
+            int row = y * width;
+            for (int x = x0; x <= x1; x++) {
+                if (edge0 >= 0 && edge1 >= 0 && edge2 >= 0 && value > depth[row + x]) {
+                    depth[row + x] = value;
+                }
+                edge0 += e0x;
+                edge1 += e1x;
+                edge2 += e2x;
+                value += depthX;
+            }
+        }
+    }
+}
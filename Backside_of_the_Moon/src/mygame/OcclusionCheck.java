@@ -0,0 +1,173 @@
+package mygame;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.bounding.BoundingBox;
+import com.jme3.bounding.BoundingVolume;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.system.JmeSystem;
+import com.jme3.system.NullRenderer;
+import com.jme3.terrain.geomipmap.TerrainGrid;
+
+/**
+ * Checks that occlusion culling never hides what is visible. First the
+ * OcclusionBuffer is checked against a single quad: a box behind it must be
+ * occluded, boxes in front of it, through it, beside it or peeking past its
+ * edge must not, and a slanted quad crossing the near plane must still
+ * occlude. Then the terrain room is culled by an OcclusionCuller from a few
+ * eyes and headings, and every object it hides is checked against the
+ * heightmap: 27 points of its bound, the corners, edge and face centers and
+ * the center, are each traced from the eye, and an object is hidden wrongly
+ * if any of them can be seen. Exits with 1 on any failure. Runs headless, no
+ * window or GL context is created.
+ *
+ * Run with the assets folder on the classpath, like the game in the IDE:
+ *   java -cp "dist/lib/*:build/classes:build/baked-assets:assets" mygame.OcclusionCheck
+ */
+public class OcclusionCheck {
+
+    private static final int BUFFER_WIDTH = 256;
+    private static final int BUFFER_HEIGHT = 128;
+    private static final float[][] EYES = {{0, 20, -20}, {100, 30, 100}, {-200, 40, 50}, {300, 60, -300}};
+    private static final int HEADINGS = 8;
+    private static final int FRAMES = 3;
+    private static final int RAY_STEPS = 200;
+
+    private static int failures;
+
+    public static void main(String[] args) throws InterruptedException {
+        checkBuffer();
+        checkTerrain();
+        System.out.println(failures == 0 ? "No failures" : failures + " failures");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void checkBuffer() {
+        Camera cam = new Camera(1280, 720);
+        cam.setFrustumPerspective(45f, 1280f / 720f, 1f, 1000f);
+        cam.lookAtDirection(new Vector3f(0, 0, -1), Vector3f.UNIT_Y);
+        cam.update();
+        OcclusionBuffer buffer = new OcclusionBuffer(BUFFER_WIDTH, BUFFER_HEIGHT);
+        int[] indices = {0, 1, 2, 0, 2, 3};
+
+        buffer.clear(cam.getViewProjectionMatrix());
+        buffer.rasterize(new float[]{-5, -5, -10, 5, -5, -10, 5, 5, -10, -5, 5, -10}, indices);
+        expect("Box behind the quad", buffer.isOccluded(0, 0, -20, 1, 1, 1), true);
+        expect("Box in front of the quad", buffer.isOccluded(0, 0, -5, 1, 1, 1), false);
+        expect("Box through the quad", buffer.isOccluded(0, 0, -10, 1, 1, 1), false);
+        expect("Box past the edge of the quad", buffer.isOccluded(9.8f, 0, -20, 0.5f, 0.5f, 0.5f), false);
+        expect("Box beside the quad", buffer.isOccluded(12, 0, -20, 1, 1, 1), false);
+
+        buffer.clear(cam.getViewProjectionMatrix());
+        buffer.rasterize(new float[]{-50, -50, 5, 50, -50, 5, 50, 50, -30, -50, 50, -30}, indices);
+        expect("Box behind a quad crossing the near plane", buffer.isOccluded(0, 0, -40, 1, 1, 1), true);
+    }
+
+    private static void checkTerrain() throws InterruptedException {
+        AssetManager assetManager = JmeSystem.newAssetManager(JmeSystem.getPlatformAssetConfigURL());
+        assetManager.registerLoader(BakedTextureLoader.class, "png", "jpg", "jpeg");
+        LevelLoader loader = new LevelLoader(assetManager, 2);
+        Node root = new Node("Root");
+        Node room = loader.build(loader.getLevel("Levels/terrain.json"));
+        root.attachChild(room);
+        TerrainGrid grid = (TerrainGrid) room.getChild("Terrain");
+        TerrainTileLoader heights = (TerrainTileLoader) grid.getGridTileLoader();
+
+        Camera cam = new Camera(1280, 720);
+        cam.setFrustumPerspective(45f, 1280f / 720f, 1f, 1000f);
+        ViewPort viewPort = new ViewPort("Check", cam);
+        viewPort.attachScene(root);
+        RenderManager renderManager = new RenderManager(new NullRenderer());
+        OcclusionCuller culler = new OcclusionCuller(viewPort, BUFFER_WIDTH, BUFFER_HEIGHT);
+
+        boolean first = true;
+        for (float[] e : EYES) {
+            Vector3f eye = new Vector3f(e[0], e[1], e[2]);
+            for (int heading = 0; heading < HEADINGS; heading++) {
+                float yaw = FastMath.TWO_PI * heading / HEADINGS;
+                cam.setLocation(eye);
+                cam.lookAtDirection(new Vector3f(FastMath.sin(yaw), -0.1f, -FastMath.cos(yaw)).normalizeLocal(),
+                        Vector3f.UNIT_Y);
+                cam.update();
+                root.updateGeometricState();
+
+                // The terrain occluder is built on a worker, give it time on the first view
+                for (int frame = 0; frame < FRAMES - 1; frame++) {
+                    culler.render(renderManager);
+                    culler.postRender();
+                    Thread.sleep(first ? 1500 : 5);
+                    first = false;
+                }
+                // The culled objects keep their cull hint until postRender
+                culler.render(renderManager);
+                String view = "Eye " + eye + " heading " + heading;
+                int[] culled = {0};
+                root.depthFirstTraversal(spatial -> {
+                    if (spatial.getLocalCullHint() != Spatial.CullHint.Always) {
+                        return;
+                    }
+                    culled[0]++;
+                    int visible = visiblePoints(spatial.getWorldBound(), eye, grid, heights);
+                    if (visible > 0) {
+                        System.err.println(view + ": visible object culled, " + spatial.getName()
+                                + ", " + visible + " points visible");
+                        failures++;
+                    }
+                });
+                System.out.printf("%s: %d culled, %.2f of the objects%n",
+                        view, culled[0], culler.getCulledFraction());
+                culler.postRender();
+            }
+        }
+        culler.cleanup();
+        loader.cleanup();
+    }
+
+    /*
+    * Helper functions
+    */
+
+    /**
+     * Counts the points of a bound that the terrain does not hide from the eye.
+     */
+    private static int visiblePoints(BoundingVolume bound, Vector3f eye, TerrainGrid grid, TerrainTileLoader heights) {
+        BoundingBox box = (BoundingBox) bound;
+        Vector3f center = box.getCenter();
+        int visible = 0;
+        for (int i = 0; i < 27; i++) {
+            Vector3f point = new Vector3f(center.x + (i % 3 - 1) * box.getXExtent(),
+                    center.y + (i / 3 % 3 - 1) * box.getYExtent(),
+                    center.z + (i / 9 - 1) * box.getZExtent());
+            if (!blocked(eye, point, grid, heights)) {
+                visible++;
+            }
+        }
+        return visible;
+    }
+
+    private static boolean blocked(Vector3f eye, Vector3f point, TerrainGrid grid, TerrainTileLoader heights) {
+        Vector3f step = new Vector3f();
+        Vector3f local = new Vector3f();
+        for (int k = 1; k < RAY_STEPS; k++) {
+            step.interpolateLocal(eye, point, (float) k / RAY_STEPS);
+            grid.worldToLocal(step, local);
+            if (local.y < heights.getHeight(local.x, local.z)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void expect(String label, boolean occluded, boolean expected) {
+        System.out.println(label + ": " + (occluded ? "occluded" : "not occluded"));
+        if (occluded != expected) {
+            System.err.println("  expected " + (expected ? "occluded" : "not occluded"));
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,532 @@
+package mygame;
+
+import com.jme3.app.state.AbstractAppState;
+import com.jme3.bounding.BoundingBox;
+import com.jme3.bounding.BoundingSphere;
+import com.jme3.bounding.BoundingVolume;
+import com.jme3.math.Matrix4f;
+import com.jme3.math.Transform;
+import com.jme3.math.Vector3f;
+import com.jme3.post.Filter;
+import com.jme3.post.FilterPostProcessor;
+import com.jme3.post.SceneProcessor;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.renderer.queue.RenderQueue;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.mesh.IndexBuffer;
+import com.jme3.shadow.AbstractShadowFilter;
+import com.jme3.shadow.AbstractShadowRenderer;
+import com.jme3.terrain.geomipmap.TerrainGrid;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Hides what the occluders of the scenes of a viewport hide, before the
+ * viewport queues it.
+ *
+ * Spatials with the OCCLUDER_KEY user data are occluders: their triangles, or
+ * for a paged terrain a coarse copy of its surface around the camera that
+ * never rises above the real one, are drawn into an OcclusionBuffer on a
+ * worker thread while the frame renders. The next frame the bounds of
+ * everything else in view are tested against it from the top of the scene
+ * down, and what is hidden is culled for that frame only. The bounds are
+ * grown by how far the camera moved since the buffer was drawn, and what the
+ * buffer did not see is kept, so the frame of latency does not let things
+ * pop in late.
+ *
+ * While the viewport casts shadows, shadow casters are left alone, hidden
+ * ones can still cast a shadow into view.
+ */
+public class OcclusionCuller extends AbstractAppState {
+
+    // User data marking a spatial whose geometry hides what is behind it
+    public static final String OCCLUDER_KEY = "Occluder";
+
+    // Spacing of the coarse terrain, how far it reaches from the camera and
+    // how far the camera moves before it is built again
+    private static final float TERRAIN_SPACING = 8f;
+    private static final float TERRAIN_RADIUS = 256f;
+    private static final float TERRAIN_REBUILD = 64f;
+    // Heights sampled along a side of a coarse cell, the lowest is kept
+    private static final int TERRAIN_SAMPLES = 4;
+    // Lowered below the lowest sample, for the dips between samples and the detail lost to LOD
+    private static final float TERRAIN_BIAS = 1f;
+
+    private final ViewPort viewPort;
+    private final OcclusionBuffer buffer;
+    private final ExecutorService pool;
+    private final List<Spatial> scanned = new ArrayList<>();
+    private final Set<Spatial> occluderSpatials = Collections.newSetFromMap(new IdentityHashMap<>());
+    private List<Occluder> occluders = new ArrayList<>();
+    private List<TerrainOccluder> terrains = new ArrayList<>();
+    private Future<?> pending;
+    private final Vector3f bufferEye = new Vector3f();
+
+    // Spatials culled this frame and the cull hints they had
+    private final List<Spatial> culled = new ArrayList<>();
+    private final List<Spatial.CullHint> culledHints = new ArrayList<>();
+    private boolean shadows;
+    private int tested;
+    private int hidden;
+    private long totalTested;
+    private long totalHidden;
+    private int frames;
+
+    /**
+     * The triangles of an occluder, in world space.
+     */
+    private static class Occluder {
+        private final float[] positions;
+        private final int[] indices;
+
+        Occluder(float[] positions, int[] indices) {
+            this.positions = positions;
+            this.indices = indices;
+        }
+    }
+
+    /**
+     * A paged terrain, whose coarse copy is built again on a worker thread
+     * whenever the camera has moved far enough.
+     */
+    private static class TerrainOccluder {
+        private final TerrainTileLoader loader;
+        private final Transform transform;
+        private volatile Occluder occluder;
+        private Future<?> building;
+        private float centerX = Float.NaN;
+        private float centerZ = Float.NaN;
+
+        TerrainOccluder(TerrainGrid grid) {
+            this.loader = (TerrainTileLoader) grid.getGridTileLoader();
+            this.transform = grid.getWorldTransform().clone();
+        }
+    }
+
+    /**
+     * Constructs a new OcclusionCuller.
+     *
+     * @param viewPort The viewport whose scenes are culled.
+     * @param width    Width of the occlusion buffer, in pixels.
+     * @param height   Height of the occlusion buffer, in pixels.
+     */
+    public OcclusionCuller(ViewPort viewPort, int width, int height) {
+        this.viewPort = viewPort;
+        this.buffer = new OcclusionBuffer(width, height);
+        // One thread draws the buffer, the other builds terrain copies
+        this.pool = Executors.newFixedThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "Occlusion Culling");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Culls what the last buffer shows hidden, then starts drawing the
+     * buffer for the next frame.
+     *
+     * @param rm The render manager.
+     */
+    @Override
+    public void render(RenderManager rm) {
+        boolean drawn = finishDrawing();
+        if (scenesChanged()) {
+            // The buffer may hold the occluders of a scene that is gone
+            scan();
+        } else if (drawn) {
+            cullHidden();
+        }
+        startDrawing();
+    }
+
+    /**
+     * Gives back the cull hints of what was culled this frame.
+     */
+    @Override
+    public void postRender() {
+        restore();
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        super.setEnabled(enabled);
+        if (!enabled) {
+            finishDrawing();
+            restore();
+        }
+    }
+
+    @Override
+    public void cleanup() {
+        super.cleanup();
+        restore();
+        report();
+        pool.shutdownNow();
+    }
+
+    /**
+     * Gets the share of the geometry in view that was culled this frame.
+     *
+     * @return The share, 0 to 1.
+     */
+    public float getCulledFraction() {
+        return tested == 0 ? 0 : hidden / (float) tested;
+    }
+
+    /**
+     * Gets the share of the geometry in view that was culled, over all frames
+     * since the scenes last changed.
+     *
+     * @return The share, 0 to 1.
+     */
+    public float getAverageCulledFraction() {
+        return totalTested == 0 ? 0 : totalHidden / (float) totalTested;
+    }
+
+    /*
+    * Helper functions
+    */
+
+    /**
+     * Waits for the buffer started last frame.
+     *
+     * @return True if it was drawn.
+     */
+    private boolean finishDrawing() {
+        if (pending == null) {
+            return false;
+        }
+        Future<?> drawing = pending;
+        pending = null;
+        try {
+            drawing.get();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.err.println("Failed to draw the occlusion buffer: " + e.getCause());
+        }
+        return false;
+    }
+
+    private void startDrawing() {
+        Camera cam = viewPort.getCamera();
+        for (TerrainOccluder terrain : terrains) {
+            rebuildTerrain(terrain, cam.getLocation());
+        }
+        List<Occluder> drawn = new ArrayList<>(occluders);
+        for (TerrainOccluder terrain : terrains) {
+            if (terrain.occluder != null) {
+                drawn.add(terrain.occluder);
+            }
+        }
+        if (drawn.isEmpty()) {
+            return;
+        }
+        Matrix4f viewProjection = cam.getViewProjectionMatrix().clone();
+        bufferEye.set(cam.getLocation());
+        pending = pool.submit(() -> {
+            buffer.clear(viewProjection);
+            for (Occluder occluder : drawn) {
+                buffer.rasterize(occluder.positions, occluder.indices);
+            }
+        });
+    }
+
+    /**
+     * Culls what is hidden, from the scenes down.
+     */
+    private void cullHidden() {
+        shadows = castsShadows();
+        tested = 0;
+        hidden = 0;
+        float margin = bufferEye.distance(viewPort.getCamera().getLocation());
+        for (Spatial scene : viewPort.getScenes()) {
+            test(scene, margin);
+        }
+        totalTested += tested;
+        totalHidden += hidden;
+        frames++;
+    }
+
+    private void test(Spatial spatial, float margin) {
+        Spatial.CullHint hint = spatial.getLocalCullHint();
+        if (hint == Spatial.CullHint.Always || occluderSpatials.contains(spatial)) {
+            return;
+        }
+        RenderQueue.ShadowMode shadowMode = spatial.getShadowMode();
+        if (shadows && (shadowMode == RenderQueue.ShadowMode.Cast
+                || shadowMode == RenderQueue.ShadowMode.CastAndReceive)) {
+            return;
+        }
+        BoundingVolume bound = spatial.getWorldBound();
+        Camera cam = viewPort.getCamera();
+        cam.setPlaneState(0);
+        if (bound == null || cam.contains(bound) == Camera.FrustumIntersect.Outside) {
+            return;
+        }
+        if (hint != Spatial.CullHint.Never && isOccluded(bound, margin)) {
+            int geometries = countGeometries(spatial);
+            tested += geometries;
+            hidden += geometries;
+            culled.add(spatial);
+            culledHints.add(hint);
+            spatial.setCullHint(Spatial.CullHint.Always);
+        } else if (spatial instanceof Node) {
+            for (Spatial child : ((Node) spatial).getChildren()) {
+                test(child, margin);
+            }
+        } else if (hint != Spatial.CullHint.Never) {
+            tested++;
+        }
+    }
+
+    private boolean isOccluded(BoundingVolume bound, float margin) {
+        Vector3f center = bound.getCenter();
+        if (bound instanceof BoundingBox) {
+            BoundingBox box = (BoundingBox) bound;
+            return buffer.isOccluded(center.x, center.y, center.z, box.getXExtent() + margin,
+                    box.getYExtent() + margin, box.getZExtent() + margin);
+        }
+        if (bound instanceof BoundingSphere) {
+            float radius = ((BoundingSphere) bound).getRadius() + margin;
+            return buffer.isOccluded(center.x, center.y, center.z, radius, radius, radius);
+        }
+        return false;
+    }
+
+    private void restore() {
+        for (int i = 0; i < culled.size(); i++) {
+            culled.get(i).setCullHint(culledHints.get(i));
+        }
+        culled.clear();
+        culledHints.clear();
+    }
+
+    /**
+     * Checks if the children of the scenes are still the ones last scanned.
+     */
+    private boolean scenesChanged() {
+        int index = 0;
+        for (Spatial scene : viewPort.getScenes()) {
+            List<Spatial> children = scene instanceof Node ? ((Node) scene).getChildren() : List.of(scene);
+            for (Spatial child : children) {
+                if (index >= scanned.size() || scanned.get(index) != child) {
+                    return true;
+                }
+                index++;
+            }
+        }
+        return index != scanned.size();
+    }
+
+    /**
+     * Collects the occluders of the scenes.
+     */
+    private void scan() {
+        report();
+        scanned.clear();
+        occluderSpatials.clear();
+        List<Occluder> found = new ArrayList<>();
+        List<TerrainOccluder> foundTerrains = new ArrayList<>();
+        for (Spatial scene : viewPort.getScenes()) {
+            scanned.addAll(scene instanceof Node ? ((Node) scene).getChildren() : List.of(scene));
+            scene.depthFirstTraversal(spatial -> {
+                if (!Boolean.TRUE.equals(spatial.getUserData(OCCLUDER_KEY))) {
+                    return;
+                }
+                occluderSpatials.add(spatial);
+                if (spatial instanceof TerrainGrid
+                        && ((TerrainGrid) spatial).getGridTileLoader() instanceof TerrainTileLoader) {
+                    foundTerrains.add(new TerrainOccluder((TerrainGrid) spatial));
+                    return;
+                }
+                spatial.depthFirstTraversal(child -> {
+                    if (child instanceof Geometry) {
+                        Occluder occluder = toOccluder((Geometry) child);
+                        if (occluder != null) {
+                            found.add(occluder);
+                        }
+                    }
+                });
+            });
+        }
+        for (TerrainOccluder terrain : terrains) {
+            if (terrain.building != null) {
+                terrain.building.cancel(true);
+            }
+        }
+        occluders = found;
+        terrains = foundTerrains;
+        totalTested = 0;
+        totalHidden = 0;
+        frames = 0;
+    }
+
+    private void report() {
+        if (frames > 0) {
+            System.out.println("Occlusion culled " + Math.round(getAverageCulledFraction() * 100)
+                    + "% of the geometry in view over " + frames + " frames");
+        }
+    }
+
+    private static Occluder toOccluder(Geometry geometry) {
+        Mesh mesh = geometry.getMesh();
+        VertexBuffer position = mesh.getBuffer(VertexBuffer.Type.Position);
+        if (mesh.getMode() != Mesh.Mode.Triangles || position == null) {
+            return null;
+        }
+        FloatBuffer data = (FloatBuffer) position.getDataReadOnly();
+        float[] positions = new float[mesh.getVertexCount() * 3];
+        Transform transform = geometry.getWorldTransform();
+        Vector3f vertex = new Vector3f();
+        for (int i = 0; i < mesh.getVertexCount(); i++) {
+            vertex.set(data.get(i * 3), data.get(i * 3 + 1), data.get(i * 3 + 2));
+            transform.transformVector(vertex, vertex);
+            positions[i * 3] = vertex.x;
+            positions[i * 3 + 1] = vertex.y;
+            positions[i * 3 + 2] = vertex.z;
+        }
+        IndexBuffer indexBuffer = mesh.getIndicesAsList();
+        int[] indices = new int[indexBuffer.size()];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = indexBuffer.get(i);
+        }
+        return new Occluder(positions, indices);
+    }
+
+    /**
+     * Starts building the coarse copy of a paged terrain around the camera,
+     * if it moved far enough from where the last one was built.
+     */
+    private void rebuildTerrain(TerrainOccluder terrain, Vector3f eye) {
+        if (terrain.building != null && !terrain.building.isDone()) {
+            return;
+        }
+        Vector3f local = terrain.transform.transformInverseVector(eye, null);
+        float x = Math.round(local.x / TERRAIN_REBUILD) * TERRAIN_REBUILD;
+        float z = Math.round(local.z / TERRAIN_REBUILD) * TERRAIN_REBUILD;
+        if (x == terrain.centerX && z == terrain.centerZ) {
+            return;
+        }
+        terrain.centerX = x;
+        terrain.centerZ = z;
+        terrain.building = pool.submit(() -> {
+            terrain.occluder = buildTerrain(terrain, x, z);
+        });
+    }
+
+    /**
+     * Builds a grid of TERRAIN_SPACING cells around a point of the terrain,
+     * each corner as high as the lowest sample of the cells around it.
+     */
+    private static Occluder buildTerrain(TerrainOccluder terrain, float centerX, float centerZ) {
+        int cells = (int) (2 * TERRAIN_RADIUS / TERRAIN_SPACING);
+        float step = TERRAIN_SPACING / TERRAIN_SAMPLES;
+        int samples = cells * TERRAIN_SAMPLES + 1;
+        float originX = centerX - TERRAIN_RADIUS;
+        float originZ = centerZ - TERRAIN_RADIUS;
+
+        // Lowest sample of each cell
+        float[] lowest = new float[cells * cells];
+        Arrays.fill(lowest, Float.POSITIVE_INFINITY);
+        for (int sz = 0; sz < samples; sz++) {
+            for (int sx = 0; sx < samples; sx++) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return null;
+                }
+                float height = terrain.loader.getHeight(originX + sx * step, originZ + sz * step);
+                // A sample on a cell edge belongs to the cells on both sides
+                for (int cz = Math.max(0, (sz - 1) / TERRAIN_SAMPLES); cz <= Math.min(cells - 1, sz / TERRAIN_SAMPLES); cz++) {
+                    for (int cx = Math.max(0, (sx - 1) / TERRAIN_SAMPLES); cx <= Math.min(cells - 1, sx / TERRAIN_SAMPLES); cx++) {
+                        lowest[cz * cells + cx] = Math.min(lowest[cz * cells + cx], height);
+                    }
+                }
+            }
+        }
+
+        int corners = cells + 1;
+        float[] positions = new float[corners * corners * 3];
+        Vector3f vertex = new Vector3f();
+        for (int z = 0; z < corners; z++) {
+            for (int x = 0; x < corners; x++) {
+                float height = Float.POSITIVE_INFINITY;
+                for (int cz = Math.max(0, z - 1); cz <= Math.min(cells - 1, z); cz++) {
+                    for (int cx = Math.max(0, x - 1); cx <= Math.min(cells - 1, x); cx++) {
+                        height = Math.min(height, lowest[cz * cells + cx]);
+                    }
+                }
+                vertex.set(originX + x * TERRAIN_SPACING, height - TERRAIN_BIAS, originZ + z * TERRAIN_SPACING);
+                terrain.transform.transformVector(vertex, vertex);
+                int i = (z * corners + x) * 3;
+                positions[i] = vertex.x;
+                positions[i + 1] = vertex.y;
+                positions[i + 2] = vertex.z;
+            }
+        }
+        int[] indices = new int[cells * cells * 6];
+        int i = 0;
+        for (int z = 0; z < cells; z++) {
+            for (int x = 0; x < cells; x++) {
+                int corner = z * corners + x;
+                indices[i++] = corner;
+                indices[i++] = corner + corners;
+                indices[i++] = corner + 1;
+                indices[i++] = corner + 1;
+                indices[i++] = corner + corners;
+                indices[i++] = corner + corners + 1;
+            }
+        }
+        return new Occluder(positions, indices);
+    }
+
+    /**
+     * Checks if the viewport renders shadows, with a shadow renderer or an
+     * enabled shadow filter. The filters of the rooms that are not current
+     * stay in the post processor, disabled.
+     */
+    private boolean castsShadows() {
+        for (SceneProcessor processor : viewPort.getProcessors()) {
+            if (processor instanceof AbstractShadowRenderer) {
+                return true;
+            }
+            if (processor instanceof FilterPostProcessor) {
+                Iterator<Filter> filters = ((FilterPostProcessor) processor).getFilterIterator();
+                while (filters.hasNext()) {
+                    Filter filter = filters.next();
+                    if (filter instanceof AbstractShadowFilter && filter.isEnabled()) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static int countGeometries(Spatial spatial) {
+        if (spatial instanceof Geometry) {
+            return 1;
+        }
+        int count = 0;
+        for (Spatial child : ((Node) spatial).getChildren()) {
+            count += countGeometries(child);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,206 @@
+package mygame;
+
+import com.jme3.bounding.BoundingBox;
+import com.jme3.bounding.BoundingSphere;
+import com.jme3.bounding.BoundingVolume;
+import com.jme3.bullet.control.RigidBodyControl;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.control.Control;
+import com.jme3.scene.control.LodControl;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A node that sorts its static children into the cells of an octree, so
+ * frustum culling rejects whole regions of a room with one test instead of
+ * testing every child.
+ *
+ * Cells are plain nodes, so their bounds are the merged bounds of what they
+ * hold, tighter than the octants they come from. A child goes to the octant
+ * holding the center of its bounds, or stays in the cell above when it is
+ * too large for an octant, so a few large children do not stretch the small
+ * cells. Cells are split until they hold few enough children.
+ *
+ * Only static children are sorted. Children with controls that move or
+ * reshape them, such as characters, particle emitters, paged terrain and
+ * vegetation, stay direct children of this node, as do children attached
+ * after partition is called. Static rigid bodies and LOD controls do not
+ * count, the cells have no transform of their own.
+ */
+public class OctreeNode extends Node {
+
+    private final int cellCapacity;
+    private final int maxDepth;
+
+    /**
+     * A cell of the octree.
+     */
+    private static class Cell extends Node {
+        private Cell(String name) {
+            super(name);
+        }
+    }
+
+    /**
+     * Constructs a new OctreeNode whose cells hold up to 8 children and are
+     * at most 8 levels deep.
+     *
+     * @param name The name of the node.
+     */
+    public OctreeNode(String name) {
+        this(name, 8, 8);
+    }
+
+    /**
+     * Constructs a new OctreeNode.
+     *
+     * @param name         The name of the node.
+     * @param cellCapacity Cells holding more children than this are split.
+     * @param maxDepth     Levels of cells below the node at most.
+     */
+    public OctreeNode(String name, int cellCapacity, int maxDepth) {
+        super(name);
+        this.cellCapacity = cellCapacity;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Sorts the static children into cells, undoing an earlier partition
+     * first. Call again after attaching or moving static children.
+     */
+    public void partition() {
+        // Back to a flat node
+        for (Spatial child : new ArrayList<>(getChildren())) {
+            if (child instanceof Cell) {
+                detachChild(child);
+                for (Spatial leaf : leaves((Cell) child, new ArrayList<>())) {
+                    attachChild(leaf);
+                }
+            }
+        }
+
+        updateGeometricState();
+        List<Spatial> statics = new ArrayList<>();
+        BoundingBox box = null;
+        for (Spatial child : getChildren()) {
+            if (!isStatic(child) || child.getWorldBound() == null) {
+                continue;
+            }
+            statics.add(child);
+            BoundingBox bound = box(child.getWorldBound());
+            box = box == null ? bound : (BoundingBox) box.mergeLocal(bound);
+        }
+        if (statics.size() <= cellCapacity) {
+            return;
+        }
+        for (Spatial child : statics) {
+            detachChild(child);
+        }
+        for (Spatial cell : split(box, statics, 0)) {
+            attachChild(cell);
+        }
+    }
+
+    /*
+    * Helper functions
+    */
+
+    /**
+     * Sorts children into the octants of a box, splitting octants that hold
+     * too many further.
+     *
+     * @return The children left at this level and the cells of the octants.
+     */
+    private List<Spatial> split(BoundingBox box, List<Spatial> children, int depth) {
+        if (children.size() <= cellCapacity || depth >= maxDepth) {
+            return children;
+        }
+        // Flat boxes, like a stretch of terrain, are only split along their long axes
+        Vector3f center = box.getCenter();
+        Vector3f extent = box.getExtent(null);
+        float longest = Math.max(extent.x, Math.max(extent.y, extent.z));
+        Vector3f half = new Vector3f(extent.x * (extent.x < longest / 2 ? 1 : 0.5f),
+                extent.y * (extent.y < longest / 2 ? 1 : 0.5f), extent.z * (extent.z < longest / 2 ? 1 : 0.5f));
+        Vector3f[] offsets = new Vector3f[8];
+        for (int i = 0; i < 8; i++) {
+            offsets[i] = new Vector3f(half.x == extent.x ? 0 : (i & 1) == 0 ? -half.x : half.x,
+                    half.y == extent.y ? 0 : (i & 2) == 0 ? -half.y : half.y,
+                    half.z == extent.z ? 0 : (i & 4) == 0 ? -half.z : half.z);
+        }
+        List<Spatial> result = new ArrayList<>();
+        List<List<Spatial>> octants = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            octants.add(new ArrayList<>());
+        }
+        for (Spatial child : children) {
+            BoundingBox bound = box(child.getWorldBound());
+            Vector3f size = bound.getExtent(null);
+            if (size.x > half.x || size.y > half.y || size.z > half.z) {
+                result.add(child);
+                continue;
+            }
+            Vector3f at = bound.getCenter();
+            int octant = (at.x < center.x || half.x == extent.x ? 0 : 1) | (at.y < center.y || half.y == extent.y ? 0 : 2)
+                    | (at.z < center.z || half.z == extent.z ? 0 : 4);
+            octants.get(octant).add(child);
+        }
+
+        for (int i = 0; i < 8; i++) {
+            List<Spatial> octant = octants.get(i);
+            if (octant.size() == children.size()) {
+                // All in one place, splitting further would not separate them
+                return children;
+            }
+            if (octant.size() == 1) {
+                result.add(octant.get(0));
+            } else if (!octant.isEmpty()) {
+                BoundingBox octantBox = new BoundingBox(center.add(offsets[i]), half.x, half.y, half.z);
+                Cell cell = new Cell(getName() + " cell " + depth + "." + i);
+                for (Spatial child : split(octantBox, octant, depth + 1)) {
+                    cell.attachChild(child);
+                }
+                result.add(cell);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Whether a child can be sorted into a cell: neither it nor anything
+     * under it has a control other than static rigid bodies and LOD.
+     */
+    private static boolean isStatic(Spatial spatial) {
+        boolean[] moving = {false};
+        spatial.depthFirstTraversal(child -> {
+            for (int i = 0; i < child.getNumControls(); i++) {
+                Control control = child.getControl(i);
+                if (!(control instanceof ScreenLodControl || control instanceof LodControl
+                        || (control instanceof RigidBodyControl && ((RigidBodyControl) control).getMass() == 0))) {
+                    moving[0] = true;
+                }
+            }
+        });
+        return !moving[0];
+    }
+
+    private static List<Spatial> leaves(Cell cell, List<Spatial> leaves) {
+        for (Spatial child : new ArrayList<>(cell.getChildren())) {
+            if (child instanceof Cell) {
+                leaves((Cell) child, leaves);
+            } else {
+                leaves.add(child);
+            }
+        }
+        return leaves;
+    }
+
+    private static BoundingBox box(BoundingVolume bound) {
+        if (bound instanceof BoundingSphere) {
+            float radius = ((BoundingSphere) bound).getRadius();
+            return new BoundingBox(bound.getCenter(), radius, radius, radius);
+        }
+        return (BoundingBox) bound.clone();
+    }
+}
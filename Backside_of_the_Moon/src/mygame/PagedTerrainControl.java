@@ -0,0 +1,155 @@
+package mygame;
+
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.collision.shapes.HeightfieldCollisionShape;
+import com.jme3.bullet.control.RigidBodyControl;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.control.AbstractControl;
+import com.jme3.terrain.geomipmap.TerrainGridListener;
+import com.jme3.terrain.geomipmap.TerrainGridLodControl;
+import com.jme3.terrain.geomipmap.TerrainQuad;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pages the tiles of a TerrainGrid around the player and gives them collision
+ * only when it is needed.
+ *
+ * The grid itself attaches the tiles around the camera. This control moves the
+ * focus of its TerrainTileLoader with the player, so tiles ahead are built
+ * and cached before the grid asks for them and those left behind are dropped.
+ * A tile gets its rigid body the first time the player or another followed
+ * character comes near it, and loses it when the grid detaches the tile.
+ *
+ * The grid only detaches tiles of the 4 x 4 cells around its new center, so
+ * after a jump further than that, through a teleport gate, the tiles left far
+ * behind are detached here.
+ */
+public class PagedTerrainControl extends AbstractControl implements TerrainGridListener {
+
+    // Distance from a tile at which a character needs its collision
+    private static final float PHYSICS_MARGIN = 32f;
+
+    private final TerrainTileLoader loader;
+    private final Map<TerrainQuad, Vector3f> attached = new HashMap<>();
+    private PhysicsSpace physicsSpace;
+    private Spatial[] focus = new Spatial[0];
+    private int focusX = Integer.MIN_VALUE;
+    private int focusZ = Integer.MIN_VALUE;
+
+    /**
+     * Constructs a new PagedTerrainControl.
+     *
+     * @param loader The tile loader of the grid.
+     */
+    public PagedTerrainControl(TerrainTileLoader loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Starts paging around the camera and following characters. Until then
+     * no tile is attached. Must run on the render thread.
+     *
+     * @param camera       The camera the grid attaches tiles around.
+     * @param physicsSpace The physics space to add the tile bodies to.
+     * @param focus        The player first, then the characters that need to stand on the terrain.
+     */
+    public void activate(Camera camera, PhysicsSpace physicsSpace, Spatial... focus) {
+        this.physicsSpace = physicsSpace;
+        this.focus = focus;
+        TerrainGridLodControl lodControl = spatial.getControl(TerrainGridLodControl.class);
+        if (lodControl != null) {
+            lodControl.setCamera(camera);
+        }
+    }
+
+    /**
+     * Moves the loader focus to the tile of the player and builds the
+     * collision of the tiles the characters are near.
+     *
+     * @param tpf Time per frame.
+     */
+    @Override
+    protected void controlUpdate(float tpf) {
+        if (focus.length == 0) {
+            return;
+        }
+        Vector3f player = spatial.worldToLocal(focus[0].getWorldTranslation(), null);
+        int[] tile = loader.getTile(player.x, player.z);
+        if (tile[0] != focusX || tile[1] != focusZ) {
+            focusX = tile[0];
+            focusZ = tile[1];
+            loader.setFocus(focusX, focusZ);
+        }
+
+        if (physicsSpace == null) {
+            return;
+        }
+        for (TerrainQuad quad : attached.keySet()) {
+            if (quad.getControl(RigidBodyControl.class) == null && isNear(quad)) {
+                RigidBodyControl body = new RigidBodyControl(
+                        new HeightfieldCollisionShape(quad.getHeightMap(), quad.getWorldScale()), 0);
+                quad.addControl(body);
+                physicsSpace.add(body);
+            }
+        }
+    }
+
+    @Override
+    protected void controlRender(RenderManager rm, ViewPort vp) {
+    }
+
+    @Override
+    public void gridMoved(Vector3f newCenter) {
+        List<TerrainQuad> behind = new ArrayList<>();
+        attached.forEach((quad, cell) -> {
+            // The grid keeps the cells from one before to two after its center
+            if (cell.x < newCenter.x - 1 || cell.x > newCenter.x + 2
+                    || cell.z < newCenter.z - 1 || cell.z > newCenter.z + 2) {
+                behind.add(quad);
+            }
+        });
+        for (TerrainQuad quad : behind) {
+            tileDetached(attached.get(quad), quad);
+            quad.setQuadrant((short) 0);
+            quad.removeFromParent();
+        }
+    }
+
+    @Override
+    public void tileAttached(Vector3f cell, TerrainQuad quad) {
+        attached.put(quad, cell.clone());
+    }
+
+    @Override
+    public void tileDetached(Vector3f cell, TerrainQuad quad) {
+        attached.remove(quad);
+        RigidBodyControl body = quad.getControl(RigidBodyControl.class);
+        if (body != null) {
+            if (physicsSpace != null) {
+                physicsSpace.remove(body);
+            }
+            quad.removeControl(body);
+        }
+    }
+
+    /*
+    * Helper functions
+    */
+
+    private boolean isNear(TerrainQuad quad) {
+        for (Spatial character : focus) {
+            if (character != null && character.getParent() != null
+                    && quad.getWorldBound().distanceToEdge(character.getWorldTranslation()) <= PHYSICS_MARGIN) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -40,7 +40,7 @@ public class ParticleEffects extends SimpleApplication {
     public void simpleInitApp() {
     }
     
-    public void dust() {
+    public ParticleEmitter dust() {
         dustEmitter = new ParticleEmitter("dust emitter", Type.Triangle, 100);
         Material dustMat = new Material(assetManager, "Common/MatDefs/Misc/Particle.j3md");
         dustEmitter.setMaterial(dustMat);
@@ -52,6 +52,7 @@ public class ParticleEffects extends SimpleApplication {
         dustEmitter.getParticleInfluencer().setVelocityVariation(1f);
         dustEmitter.setLocalTranslation(new Vector3f(-5, 2, 5));
         rootNode.attachChild(dustEmitter);
+        return dustEmitter;
     }
     
     public void sparks(){
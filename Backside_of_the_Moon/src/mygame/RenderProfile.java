@@ -0,0 +1,123 @@
+package mygame;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.light.DirectionalLight;
+import com.jme3.light.Light;
+import com.jme3.math.ColorRGBA;
+import com.jme3.post.Filter;
+import com.jme3.post.filters.BloomFilter;
+import com.jme3.post.filters.LightScatteringFilter;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.shadow.DirectionalLightShadowFilter;
+import com.jme3.water.WaterFilter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The post processing of one room: its fog and the filters its level
+ * descriptor lists, in that order. The filters are built once, when the room
+ * is ready, and are only enabled and disabled by the RenderProfileManager as
+ * the room becomes current and stops being so.
+ *
+ * The lights of a room are on its node, so they come and go with the room,
+ * and the filters find the ones they need there by name. Shadows are drawn by
+ * a DirectionalLightShadowFilter, which wraps the shadow renderer and renders
+ * no shadow maps while it is disabled.
+ */
+public class RenderProfile {
+
+    private final Node scene;
+    private final ColorRGBA fogColor;
+    private final Float fogDistance;
+    private final List<Filter> filters = new ArrayList<>();
+
+    /**
+     * Constructs a new RenderProfile, building the filters of a room.
+     *
+     * @param assetManager The asset manager to load the filter materials with.
+     * @param scene        The room, built from the level descriptor.
+     * @param level        The level descriptor of the room.
+     */
+    public RenderProfile(AssetManager assetManager, Node scene, LevelDescriptor level) {
+        this.scene = scene;
+        this.fogColor = scene.getUserData(FogCuller.FOG_COLOR_KEY);
+        this.fogDistance = scene.getUserData(FogCuller.FOG_DISTANCE_KEY);
+        if (fogDistance != null) {
+            filters.add(FogCuller.createFilter(fogColor, fogDistance));
+        }
+        for (LevelDescriptor.FilterDescriptor descriptor : level.filters) {
+            filters.add(buildFilter(assetManager, descriptor));
+        }
+        for (Filter filter : filters) {
+            filter.setEnabled(false);
+        }
+    }
+
+    public Node getScene() {
+        return scene;
+    }
+
+    public String getName() {
+        return scene.getName();
+    }
+
+    /**
+     * Gets the filters, fog first, in the order they are drawn.
+     *
+     * @return The filters.
+     */
+    public List<Filter> getFilters() {
+        return Collections.unmodifiableList(filters);
+    }
+
+    public boolean hasFog() {
+        return fogDistance != null;
+    }
+
+    public ColorRGBA getFogColor() {
+        return fogColor;
+    }
+
+    public float getFogDistance() {
+        return fogDistance;
+    }
+
+    /*
+    * Helper functions
+    */
+
+    private Filter buildFilter(AssetManager assetManager, LevelDescriptor.FilterDescriptor descriptor) {
+        switch (descriptor.type) {
+            case "water":
+                Spatial reflected = scene.getChild(descriptor.reflect);
+                if (!(reflected instanceof Node)) {
+                    throw new IllegalStateException("Water reflects no group named " + descriptor.reflect);
+                }
+                WaterFilter water = new WaterFilter((Node) reflected, findLight(descriptor.light).getDirection());
+                water.setWaterHeight(descriptor.height);
+                return water;
+            case "lightScattering":
+                return new LightScatteringFilter(findLight(descriptor.light).getDirection().mult(-3000));
+            case "bloom":
+                return new BloomFilter();
+            case "shadow":
+                DirectionalLightShadowFilter shadow = new DirectionalLightShadowFilter(assetManager,
+                        descriptor.mapSize, descriptor.splits);
+                shadow.setLight(findLight(descriptor.light));
+                return shadow;
+            default:
+                throw new IllegalStateException("Unknown filter type: " + descriptor.type);
+        }
+    }
+
+    private DirectionalLight findLight(String name) {
+        for (Light light : scene.getLocalLightList()) {
+            if (light instanceof DirectionalLight && light.getName() != null && light.getName().equals(name)) {
+                return (DirectionalLight) light;
+            }
+        }
+        throw new IllegalStateException("Room " + scene.getName() + " has no directional light named " + name);
+    }
+}
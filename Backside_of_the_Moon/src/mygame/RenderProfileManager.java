@@ -0,0 +1,154 @@
+package mygame;
+
+import com.jme3.app.Application;
+import com.jme3.app.state.AbstractAppState;
+import com.jme3.app.state.AppStateManager;
+import com.jme3.asset.AssetManager;
+import com.jme3.post.Filter;
+import com.jme3.post.FilterPostProcessor;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.Node;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Swaps in the RenderProfile of the current scene whenever the
+ * SceneSwitchingManager switches. All profiles share one FilterPostProcessor
+ * on the main viewport: their filters are added to it once, disabled, and
+ * only the filters of the current scene are enabled. A scene without a
+ * profile, or without filters, is drawn straight to the screen, since the
+ * post processor skips itself when no filter is enabled. The fog of the
+ * current profile is handed to the FogCuller, which the manager adds to the
+ * viewport after the post processor, so the water reflection is rendered
+ * before the FogCuller culls the sky.
+ *
+ * The swap happens in render, after every update of the frame, so a scene
+ * switched to during the frame is drawn with its own filters right away.
+ * Disabling the manager clears the filters until it is enabled again.
+ */
+public class RenderProfileManager extends AbstractAppState {
+
+    private final ViewPort viewPort;
+    private final SceneSwitchingManager sceneManager;
+    private final FogCuller fogCuller;
+    private final FilterPostProcessor fpp;
+    private final Map<String, RenderProfile> profiles = new HashMap<>();
+    private RenderProfile current;
+
+    /**
+     * Constructs a new RenderProfileManager.
+     *
+     * @param assetManager The asset manager of the post processor.
+     * @param viewPort     The viewport to post process.
+     * @param sceneManager The scene manager whose current scene is followed.
+     * @param fogCuller    The FogCuller of the viewport.
+     */
+    public RenderProfileManager(AssetManager assetManager, ViewPort viewPort,
+                                SceneSwitchingManager sceneManager, FogCuller fogCuller) {
+        this.viewPort = viewPort;
+        this.sceneManager = sceneManager;
+        this.fogCuller = fogCuller;
+        this.fpp = new FilterPostProcessor(assetManager);
+    }
+
+    @Override
+    public void initialize(AppStateManager stateManager, Application app) {
+        super.initialize(stateManager, app);
+        viewPort.addProcessor(fpp);
+        viewPort.addProcessor(fogCuller);
+    }
+
+    /**
+     * Adds the profile of a scene, replacing an earlier one of the same name.
+     * Its filters are added to the post processor now, so switching to the
+     * scene only enables them. Must run on the render thread.
+     *
+     * @param profile The profile.
+     */
+    public void addProfile(RenderProfile profile) {
+        removeProfile(profile.getName());
+        for (Filter filter : profile.getFilters()) {
+            fpp.addFilter(filter);
+        }
+        profiles.put(profile.getName(), profile);
+        System.out.println("Render profile: " + profile.getName() + ", " + profile.getFilters().size() + " filters");
+    }
+
+    /**
+     * Removes the profile of a scene and frees its filters, for a scene that
+     * is evicted. Must run on the render thread.
+     *
+     * @param scene The scene.
+     */
+    public void removeProfile(Node scene) {
+        removeProfile(scene.getName());
+    }
+
+    /**
+     * Switches to the profile of the current scene if the scene has changed.
+     *
+     * @param rm The render manager.
+     */
+    @Override
+    public void render(RenderManager rm) {
+        String name = sceneManager.getCurrentSceneName();
+        RenderProfile profile = name != null ? profiles.get(name) : null;
+        if (profile != current) {
+            apply(profile);
+        }
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        super.setEnabled(enabled);
+        if (!enabled) {
+            apply(null);
+        }
+    }
+
+    @Override
+    public void cleanup() {
+        super.cleanup();
+        apply(null);
+        viewPort.removeProcessor(fogCuller);
+        viewPort.removeProcessor(fpp);
+    }
+
+    /*
+    * Helper functions
+    */
+
+    private void removeProfile(String name) {
+        RenderProfile profile = profiles.remove(name);
+        if (profile == null) {
+            return;
+        }
+        if (profile == current) {
+            apply(null);
+        }
+        for (Filter filter : profile.getFilters()) {
+            fpp.removeFilter(filter);
+        }
+    }
+
+    private void apply(RenderProfile profile) {
+        if (current != null) {
+            for (Filter filter : current.getFilters()) {
+                filter.setEnabled(false);
+            }
+            fogCuller.clearFog();
+        }
+        current = profile;
+        if (profile == null) {
+            return;
+        }
+        if (profile.hasFog()) {
+            fogCuller.setFog(profile.getScene(), profile.getFogColor(), profile.getFogDistance());
+        }
+        for (Filter filter : profile.getFilters()) {
+            filter.setEnabled(true);
+        }
+        System.out.println("Render profile switched to " + profile.getName());
+    }
+}
@@ -0,0 +1,126 @@
+package mygame;
+
+import com.jme3.asset.AssetInfo;
+import com.jme3.asset.AssetKey;
+import com.jme3.asset.AssetManager;
+import com.jme3.export.binary.BinaryExporter;
+import com.jme3.export.binary.BinaryImporter;
+import com.jme3.scene.Node;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Caches fully assembled rooms as one binary file each, so later launches
+ * restore a room with a single read instead of loading its models, cloning
+ * its props and building its collision shapes again.
+ *
+ * A snapshot holds the scene graph with its lights, materials and physics
+ * controls. Static mesh shapes are swapped for BakedMeshCollisionShape, so
+ * their bounding volume hierarchies are saved too. It is stamped with a checksum of
+ * the source models and the jbullet hierarchy version, and rebuilt when one
+ * of them changes. Anything that depends on the session, such as picking the
+ * key item or adding the room to the physics space, has to be done on the
+ * returned node.
+ */
+public class RoomSnapshotCache {
+
+    // Bump when the way a room is assembled changes, so every snapshot is rebuilt
+    private static final int SNAPSHOT_VERSION = 2;
+    private static final String STAMP_KEY = "SnapshotStamp";
+
+    private final AssetManager assetManager;
+    private final File folder;
+
+    /**
+     * Constructs a new RoomSnapshotCache.
+     *
+     * @param assetManager The asset manager that loads the source models and textures.
+     * @param folder       Folder the snapshots are written to.
+     */
+    public RoomSnapshotCache(AssetManager assetManager, File folder) {
+        this.assetManager = assetManager;
+        this.folder = folder;
+    }
+
+    /**
+     * Restores a room from its snapshot, or builds it and writes the snapshot.
+     *
+     * @param name    Name of the room, used as the file name.
+     * @param sources Asset paths of the models the room is built from.
+     * @param builder Assembles the room. It must not touch the live scene
+     *                graph or the physics space.
+     * @return The room, detached.
+     */
+    public Node load(String name, String[] sources, Supplier<Node> builder) {
+        long stamp = stamp(sources);
+        File file = new File(folder, name + ".j3o");
+        if (file.exists()) {
+            long start = System.nanoTime();
+            try {
+                BinaryImporter importer = BinaryImporter.getInstance();
+                importer.setAssetManager(assetManager);
+                Node room = (Node) importer.load(file);
+                Long snapshotStamp = room.getUserData(STAMP_KEY);
+                if (snapshotStamp != null && snapshotStamp == stamp) {
+                    System.out.println("Restored room snapshot: " + name + " ("
+                            + (System.nanoTime() - start) / 1_000_000 + " ms)");
+                    return room;
+                }
+                System.out.println("Room snapshot is out of date: " + name);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Failed to restore room snapshot '" + name + "': " + e);
+            }
+        }
+
+        long start = System.nanoTime();
+        Node room = builder.get();
+        BakedMeshCollisionShape.bakeShapes(room);
+        System.out.println("Built room: " + name + " (" + (System.nanoTime() - start) / 1_000_000 + " ms)");
+        room.setUserData(STAMP_KEY, stamp);
+        try {
+            folder.mkdirs();
+            BinaryExporter.getInstance().save(room, file);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed to write room snapshot '" + name + "': " + e);
+            file.delete();
+        }
+        return room;
+    }
+
+    /*
+    * Helper functions
+    */
+
+    /**
+     * Checksums the source models. Textures are referenced by key in the
+     * snapshot and load on their own, so they are left out.
+     */
+    private long stamp(String[] sources) {
+        CRC32 crc = new CRC32();
+        crc.update(SNAPSHOT_VERSION);
+        // The collision hierarchies are saved in the serialized form of the jbullet classes
+        crc.update(ByteBuffer.allocate(Long.BYTES).putLong(BakedMeshCollisionShape.getBvhVersion()).array());
+        byte[] buffer = new byte[1 << 16];
+        for (String source : sources) {
+            crc.update(source.getBytes(StandardCharsets.UTF_8));
+            AssetInfo info = assetManager.locateAsset(new AssetKey<>(source));
+            if (info == null) {
+                continue;
+            }
+            try (InputStream in = info.openStream()) {
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    crc.update(buffer, 0, read);
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to read '" + source + "' for the room snapshot: " + e);
+            }
+        }
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,245 @@
+package mygame;
+
+import com.jme3.asset.AssetKey;
+import com.jme3.asset.AssetManager;
+import com.jme3.material.MatParam;
+import com.jme3.material.MatParamTexture;
+import com.jme3.material.Material;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.texture.Image;
+import com.jme3.texture.Texture;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of which meshes, textures and materials each resident scene uses,
+ * so that a scene can be evicted without breaking the scenes that share its assets.
+ * Resources are reference-counted per scene; when the last resident scene using a
+ * resource is released, its asset cache entry is dropped so the next load reads
+ * it again from disk.
+ *
+ * The GL objects and direct buffers of a released resource are left to the
+ * NativeObjectManager and the garbage collector. The counts only cover the
+ * registered scenes, while clones from the asset cache share their meshes and
+ * images with code outside them, such as the particle effects attached to the
+ * root node or a scene still being built on a loader thread, so a resource is
+ * only freed once nothing can reach it anymore.
+ */
+public class SceneResidencyManager {
+
+    private final AssetManager assetManager;
+    private final long budgetBytes;
+
+    // Scene -> resources it uses (meshes, images and materials, by identity)
+    private final Map<Node, Set<Object>> sceneResources = new IdentityHashMap<>();
+    // Resource -> number of resident scenes using it
+    private final Map<Object, Integer> refCounts = new IdentityHashMap<>();
+    // Resource -> estimated native size in bytes
+    private final Map<Object, Long> resourceBytes = new IdentityHashMap<>();
+    // Resource -> asset keys to drop from the cache once no resident scene uses it
+    private final Map<Object, List<Object>> resourceKeys = new IdentityHashMap<>();
+    private long residentBytes;
+
+    /**
+     * Constructs a new SceneResidencyManager.
+     *
+     * @param assetManager The asset manager whose cache holds the scene assets.
+     * @param budgetBytes  How many bytes of meshes and textures may stay resident.
+     */
+    public SceneResidencyManager(AssetManager assetManager, long budgetBytes) {
+        this.assetManager = assetManager;
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Starts tracking the resources of a scene. Registering the same scene twice
+     * has no effect.
+     *
+     * @param scene The scene that became resident.
+     * @return The estimated size of the scene in bytes, shared resources included.
+     */
+    public long register(Node scene) {
+        if (sceneResources.containsKey(scene)) {
+            return sizeOf(scene);
+        }
+        Set<Object> resources = Collections.newSetFromMap(new IdentityHashMap<>());
+        collect(scene, resources);
+        sceneResources.put(scene, resources);
+
+        for (Object resource : resources) {
+            int count = refCounts.getOrDefault(resource, 0);
+            if (count == 0) {
+                residentBytes += resourceBytes.getOrDefault(resource, 0L);
+            }
+            refCounts.put(resource, count + 1);
+        }
+        return sizeOf(scene);
+    }
+
+    /**
+     * Stops tracking a scene and drops every resource no other resident scene
+     * still needs from the asset cache. Must be called on the render thread.
+     *
+     * @param scene The scene that was evicted.
+     * @return The number of bytes no longer resident.
+     */
+    public long release(Node scene) {
+        Set<Object> resources = sceneResources.remove(scene);
+        if (resources == null) {
+            return 0;
+        }
+        long freed = 0;
+        for (Object resource : resources) {
+            int count = refCounts.getOrDefault(resource, 0) - 1;
+            if (count > 0) {
+                refCounts.put(resource, count);
+                continue;
+            }
+            refCounts.remove(resource);
+            long bytes = resourceBytes.getOrDefault(resource, 0L);
+            residentBytes -= bytes;
+            freed += bytes;
+            drop(resource);
+        }
+        return freed;
+    }
+
+    /**
+     * Gets the estimated size of a registered scene, shared resources included.
+     *
+     * @param scene A registered scene.
+     * @return The size in bytes, or 0 if the scene is not registered.
+     */
+    public long sizeOf(Node scene) {
+        Set<Object> resources = sceneResources.get(scene);
+        if (resources == null) {
+            return 0;
+        }
+        long bytes = 0;
+        for (Object resource : resources) {
+            bytes += resourceBytes.getOrDefault(resource, 0L);
+        }
+        return bytes;
+    }
+
+    public boolean isOverBudget() {
+        return residentBytes > budgetBytes;
+    }
+
+    /**
+     * Checks whether a scene of the given size fits next to the resident ones.
+     *
+     * @param bytes The estimated size of the scene.
+     * @return true if loading it keeps the residency within budget.
+     */
+    public boolean fits(long bytes) {
+        return residentBytes + bytes <= budgetBytes;
+    }
+
+    /*
+    * Helper functions
+    */
+
+    private void collect(Spatial spatial, Set<Object> resources) {
+        if (spatial instanceof Geometry) {
+            Geometry geometry = (Geometry) spatial;
+            Mesh mesh = geometry.getMesh();
+            if (mesh != null && resources.add(mesh)) {
+                resourceBytes.computeIfAbsent(mesh, m -> meshBytes(mesh));
+            }
+            Material material = geometry.getMaterial();
+            if (material != null && resources.add(material)) {
+                addKey(material, material.getKey());
+                for (MatParam param : material.getParams()) {
+                    if (param instanceof MatParamTexture) {
+                        collectTexture(((MatParamTexture) param).getTextureValue(), resources);
+                    }
+                }
+            }
+        } else if (spatial instanceof Node) {
+            for (Spatial child : ((Node) spatial).getChildren()) {
+                collect(child, resources);
+            }
+        }
+        if (spatial.getKey() != null) {
+            // Loaded models share meshes with the cached original, drop it with
+            // whichever of them is released first
+            addModelKey(spatial, spatial.getKey());
+        }
+    }
+
+    private void collectTexture(Texture texture, Set<Object> resources) {
+        // Streamed textures swap their images, the streamer frees them itself
+        if (texture == null || texture.getImage() == null || TextureStreamer.isStreamed(texture)) {
+            return;
+        }
+        Image image = texture.getImage();
+        if (resources.add(image)) {
+            resourceBytes.computeIfAbsent(image, i -> imageBytes(image));
+        }
+        addKey(image, texture.getKey());
+    }
+
+    private void addModelKey(Spatial spatial, Object key) {
+        if (spatial instanceof Geometry) {
+            Mesh mesh = ((Geometry) spatial).getMesh();
+            if (mesh != null) {
+                addKey(mesh, key);
+            }
+        } else if (spatial instanceof Node) {
+            for (Spatial child : ((Node) spatial).getChildren()) {
+                addModelKey(child, key);
+            }
+        }
+    }
+
+    private void addKey(Object resource, Object key) {
+        if (key == null) {
+            return;
+        }
+        List<Object> keys = resourceKeys.computeIfAbsent(resource, r -> new ArrayList<>());
+        if (!keys.contains(key)) {
+            keys.add(key);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void drop(Object resource) {
+        List<Object> keys = resourceKeys.remove(resource);
+        if (keys != null) {
+            for (Object key : keys) {
+                assetManager.deleteFromCache((AssetKey<Object>) key);
+            }
+        }
+        resourceBytes.remove(resource);
+    }
+
+    private static long meshBytes(Mesh mesh) {
+        long bytes = 0;
+        for (VertexBuffer vb : mesh.getBufferList()) {
+            if (vb.getData() != null) {
+                bytes += (long) vb.getData().capacity() * vb.getFormat().getComponentSize();
+            }
+        }
+        return bytes;
+    }
+
+    private static long imageBytes(Image image) {
+        long bytes = 0;
+        for (ByteBuffer data : image.getData()) {
+            if (data != null) {
+                bytes += data.capacity();
+            }
+        }
+        return bytes;
+    }
+}
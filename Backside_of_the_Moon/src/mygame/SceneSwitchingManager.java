@@ -4,18 +4,71 @@ import com.jme3.app.Application;
 import com.jme3.app.SimpleApplication;
 import com.jme3.app.state.AbstractAppState;
 import com.jme3.app.state.AppStateManager;
+import com.jme3.bullet.BulletAppState;
 import com.jme3.scene.Node;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 public class SceneSwitchingManager extends AbstractAppState {
 
     private final SimpleApplication app;
     private Node currentScene;
-    private List<Node> scenes;
+    private List<SceneSlot> scenes;
     private int currentSceneIndex;
     private int lastSceneIndex;
 
+    // Streaming
+    private ExecutorService loaderPool;
+    private int preloadDepth = 1;
+
+    // Residency
+    private SceneResidencyManager residencyManager;
+    private BulletAppState bulletAppState;
+    private long useCounter;
+
+    /**
+     * One entry of the scene cycle. Prebuilt scenes only carry a node,
+     * streamed scenes also carry the loader that builds them on a worker
+     * thread and the callbacks that finish and tear them down on the render
+     * thread. Only streamed scenes can be evicted, since only they can be
+     * loaded again.
+     */
+    private static class SceneSlot {
+        private Node node;
+        private final String name;
+        private final Callable<Node> loader;
+        private final Consumer<Node> onReady;
+        private final Consumer<Node> onEvict;
+        private Future<Node> pending;
+        private long lastUsed;
+        private long lastBytes;
+
+        SceneSlot(Node node) {
+            this.node = node;
+            this.name = node.getName();
+            this.loader = null;
+            this.onReady = null;
+            this.onEvict = null;
+        }
+
+        SceneSlot(String name, Callable<Node> loader, Consumer<Node> onReady, Consumer<Node> onEvict) {
+            this.name = name;
+            this.loader = loader;
+            this.onReady = onReady;
+            this.onEvict = onEvict;
+        }
+
+        boolean isReady() {
+            return node != null;
+        }
+    }
+
     public SceneSwitchingManager(SimpleApplication app) {
         this.app = app;
         this.scenes = new ArrayList<>();
@@ -26,6 +79,23 @@ public class SceneSwitchingManager extends AbstractAppState {
     @Override
     public void initialize(AppStateManager stateManager, Application app) {
         super.initialize(stateManager, app);
+        bulletAppState = stateManager.getState(BulletAppState.class);
+    }
+
+    /**
+     * Hands finished background loads back to the render thread and keeps
+     * the resident scenes within budget.
+     *
+     * @param tpf Time per frame.
+     */
+    @Override
+    public void update(float tpf) {
+        for (SceneSlot slot : scenes) {
+            if (!slot.isReady() && slot.pending != null && slot.pending.isDone()) {
+                finishStreamedScene(slot);
+            }
+        }
+        enforceBudget();
     }
 
     @Override
@@ -35,6 +105,10 @@ public class SceneSwitchingManager extends AbstractAppState {
         if (currentScene != null) {
             currentScene.removeFromParent();
         }
+        if (loaderPool != null) {
+            loaderPool.shutdownNow();
+            loaderPool = null;
+        }
     }
 
     // Method to destruct the current scene
@@ -60,7 +134,74 @@ public class SceneSwitchingManager extends AbstractAppState {
 
     // Method to add a scene to the list of scenes
     public void addScene(Node scene) {
-        scenes.add(scene);
+        SceneSlot slot = new SceneSlot(scene);
+        scenes.add(slot);
+        track(slot);
+    }
+
+    /**
+     * Adds a scene that is built in the background instead of up front.
+     * The loader runs on a worker thread and must only build a detached
+     * node (models, lights, controls). Anything that touches live state,
+     * such as the physics space, the viewport or the root node, belongs in
+     * onReady, which always runs on the render thread.
+     *
+     * @param name    Name of the scene, used for logging until it is built.
+     * @param loader  Builds the scene node on a worker thread.
+     * @param onReady Finishes the scene on the render thread, may be null.
+     */
+    public void addStreamedScene(String name, Callable<Node> loader, Consumer<Node> onReady) {
+        addStreamedScene(name, loader, onReady, null);
+    }
+
+    /**
+     * Adds a streamed scene that may be evicted when the residency budget is
+     * exceeded. onEvict runs on the render thread before the scene's assets are
+     * freed and must undo whatever onReady registered outside the scene node.
+     *
+     * @param name    Name of the scene, used for logging until it is built.
+     * @param loader  Builds the scene node on a worker thread.
+     * @param onReady Finishes the scene on the render thread, may be null.
+     * @param onEvict Tears the scene down on the render thread, may be null.
+     */
+    public void addStreamedScene(String name, Callable<Node> loader, Consumer<Node> onReady, Consumer<Node> onEvict) {
+        scenes.add(new SceneSlot(name, loader, onReady, onEvict));
+    }
+
+    /**
+     * Enables residency management. Scenes that are not needed are evicted,
+     * least recently used first, whenever the resident meshes and textures
+     * exceed the manager's budget, and are streamed in again on demand.
+     *
+     * @param residencyManager The residency manager, or null to keep every scene resident.
+     */
+    public void setResidencyManager(SceneResidencyManager residencyManager) {
+        this.residencyManager = residencyManager;
+        for (SceneSlot slot : scenes) {
+            track(slot);
+        }
+    }
+
+    /**
+     * Sets how many scenes ahead of the current one are preloaded.
+     *
+     * @param depth Number of upcoming scenes to keep loading in the background.
+     */
+    public void setPreloadDepth(int depth) {
+        this.preloadDepth = Math.max(0, depth);
+    }
+
+    /**
+     * Starts loading the scenes that follow the current one.
+     */
+    public void preloadUpcomingScenes() {
+        if (scenes.isEmpty()) {
+            return;
+        }
+        for (int i = 1; i <= preloadDepth; i++) {
+            int index = (currentSceneIndex + i) % scenes.size();
+            startLoading(scenes.get(index), false);
+        }
     }
 
     // Method to switch to the next scene in a cyclic manner
@@ -68,16 +209,127 @@ public class SceneSwitchingManager extends AbstractAppState {
         if (scenes.isEmpty()) {
             return;
         }
-        
-        
+
+        int nextIndex = (currentSceneIndex + 1) % scenes.size();
+        Node nextScene = awaitScene(scenes.get(nextIndex));
+        if (nextScene == null) {
+            return;
+        }
+
         // Destruct the current scene completely before loading the next one
         destructScene();
         lastSceneIndex = currentSceneIndex;
-        
-        currentSceneIndex = (currentSceneIndex + 1) % scenes.size();
-        loadScene(scenes.get(currentSceneIndex));
+
+        currentSceneIndex = nextIndex;
+        loadScene(nextScene);
+        scenes.get(currentSceneIndex).lastUsed = ++useCounter;
+        enforceBudget();
+        preloadUpcomingScenes();
+    }
+
+    /**
+     * Evicts least recently used scenes until the residency fits the budget.
+     * The current scene and scenes that cannot be reloaded are never evicted.
+     */
+    private void enforceBudget() {
+        if (residencyManager == null) {
+            return;
+        }
+        while (residencyManager.isOverBudget()) {
+            SceneSlot victim = null;
+            for (SceneSlot slot : scenes) {
+                if (!slot.isReady() || slot.loader == null || slot.node == currentScene) {
+                    continue;
+                }
+                if (victim == null || slot.lastUsed < victim.lastUsed) {
+                    victim = slot;
+                }
+            }
+            if (victim == null) {
+                return;
+            }
+            evict(victim);
+        }
+    }
+
+    private void evict(SceneSlot slot) {
+        Node node = slot.node;
+        if (slot.onEvict != null) {
+            slot.onEvict.accept(node);
+        }
+        if (bulletAppState != null) {
+            bulletAppState.getPhysicsSpace().removeAll(node);
+        }
+        node.removeFromParent();
+        long released = residencyManager.release(node);
+        slot.node = null;
+        System.out.println("Evicted scene: " + slot.name + " (" + (released / 1024) + " KB released)");
+    }
+
+    private void track(SceneSlot slot) {
+        if (residencyManager != null && slot.isReady()) {
+            slot.lastBytes = residencyManager.register(slot.node);
+            slot.lastUsed = ++useCounter;
+        }
+    }
+
+    private void startLoading(SceneSlot slot, boolean force) {
+        if (slot.isReady() || slot.pending != null || slot.loader == null) {
+            return;
+        }
+        // Reloading an evicted scene ahead of time must not push others out
+        if (!force && residencyManager != null && slot.lastBytes > 0 && !residencyManager.fits(slot.lastBytes)) {
+            return;
+        }
+        if (loaderPool == null) {
+            int workers = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+            loaderPool = Executors.newFixedThreadPool(workers, runnable -> {
+                Thread thread = new Thread(runnable, "Scene Loader");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        System.out.println("Streaming scene: " + slot.name);
+        slot.pending = loaderPool.submit(slot.loader);
+    }
+
+    /**
+     * Returns the node of a slot, blocking on its load if it is not finished.
+     * Only reached when the player outruns the preloader.
+     */
+    private Node awaitScene(SceneSlot slot) {
+        if (slot.isReady()) {
+            return slot.node;
+        }
+        // The player needs it now, so load it even if that exceeds the budget
+        startLoading(slot, true);
+        if (slot.pending == null) {
+            return null;
+        }
+        System.err.println("Scene '" + slot.name + "' was not preloaded in time, waiting for it.");
+        finishStreamedScene(slot);
+        return slot.node;
     }
-    
+
+    private void finishStreamedScene(SceneSlot slot) {
+        try {
+            slot.node = slot.pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            System.err.println("Failed to load scene '" + slot.name + "': " + e.getCause());
+            slot.pending = null;
+            return;
+        }
+        slot.pending = null;
+        if (slot.onReady != null) {
+            slot.onReady.accept(slot.node);
+        }
+        track(slot);
+        System.out.println("Scene ready: " + slot.name);
+    }
+
     /**
      * Checks if the scene has changed since the last frame.
      *
@@ -91,7 +343,7 @@ public class SceneSwitchingManager extends AbstractAppState {
         return false;
     }
 
-    
+
     /**
      * Gets the name of the current scene.
      *
@@ -103,4 +355,4 @@ public class SceneSwitchingManager extends AbstractAppState {
         }
         return null;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,97 @@
+package mygame;
+
+import com.jme3.bounding.BoundingBox;
+import com.jme3.bounding.BoundingSphere;
+import com.jme3.bounding.BoundingVolume;
+import com.jme3.math.FastMath;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.control.AbstractControl;
+
+/**
+ * Selects the LOD level of a geometry from how large it is on screen, as the
+ * radius of its bounds over half the height of the view.
+ *
+ * Each level halves the size at which the next one takes over, and the mesh
+ * only steps to a coarser level once it is clearly below the threshold, so a
+ * model at a threshold distance does not switch back and forth. The levels
+ * baked by LodBaker remove a quarter of the triangles each, small enough steps
+ * to pass unnoticed at the size they are used.
+ *
+ * Like LodControl, the level is chosen for the camera rendering the geometry.
+ */
+public class ScreenLodControl extends AbstractControl {
+
+    // Screen size below which level 1 is used, each further level halves it
+    private static final float FIRST_THRESHOLD = 0.3f;
+    // How far below a threshold the mesh has to be to step down
+    private static final float HYSTERESIS = 0.85f;
+
+    /**
+     * Adds a ScreenLodControl to every geometry of a spatial with LOD levels.
+     *
+     * @param spatial The model.
+     */
+    public static void addTo(Spatial spatial) {
+        spatial.depthFirstTraversal(child -> {
+            if (child instanceof Geometry && ((Geometry) child).getMesh().getNumLodLevels() > 1
+                    && child.getControl(ScreenLodControl.class) == null) {
+                child.addControl(new ScreenLodControl());
+            }
+        });
+    }
+
+    @Override
+    protected void controlUpdate(float tpf) {
+    }
+
+    /**
+     * Picks the level for the camera about to render the geometry.
+     *
+     * @param rm The render manager.
+     * @param vp The viewport rendering the geometry.
+     */
+    @Override
+    protected void controlRender(RenderManager rm, ViewPort vp) {
+        if (!(spatial instanceof Geometry)) {
+            return;
+        }
+        Geometry geometry = (Geometry) spatial;
+        int levels = geometry.getMesh().getNumLodLevels();
+        Camera camera = vp.getCamera();
+        if (levels < 2 || camera.isParallelProjection()) {
+            return;
+        }
+
+        BoundingVolume bound = geometry.getWorldBound();
+        float distance = Math.max(bound.distanceTo(camera.getLocation()), camera.getFrustumNear());
+        float size = radius(bound) / (distance * camera.getFrustumTop() / camera.getFrustumNear());
+
+        int level = geometry.getLodLevel();
+        int target = 0;
+        float threshold = FIRST_THRESHOLD;
+        while (target < levels - 1 && size < threshold * (target >= level ? HYSTERESIS : 1)) {
+            target++;
+            threshold *= 0.5f;
+        }
+        if (target != level) {
+            geometry.setLodLevel(target);
+        }
+    }
+
+    /*
+    * Helper functions
+    */
+
+    private static float radius(BoundingVolume bound) {
+        if (bound instanceof BoundingSphere) {
+            return ((BoundingSphere) bound).getRadius();
+        }
+        BoundingBox box = (BoundingBox) bound;
+        return FastMath.sqrt(box.getXExtent() * box.getXExtent() + box.getYExtent() * box.getYExtent()
+                + box.getZExtent() * box.getZExtent());
+    }
+}
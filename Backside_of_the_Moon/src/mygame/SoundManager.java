@@ -1,11 +1,20 @@
 package mygame;
 
+import com.jme3.audio.AudioKey;
 import com.jme3.audio.AudioNode;
 import com.jme3.asset.AssetManager;
 import com.jme3.math.Vector3f;
 
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class SoundManager {
 
@@ -14,11 +23,38 @@ public class SoundManager {
     private final Map<String, Boolean> sfxStateMap; // Tracks the play state of looping SFX
     private AudioNode currentBGM; // Keeps track of the currently playing BGM
 
+    // Background loading
+    private final BootLoader bootLoader;
+    private final Set<String> pendingSounds; // Sounds still decoding on the boot loader
+    private String requestedBGM; // BGM to start as soon as it has been decoded
+
+    // On-demand BGMs, decoded when prefetched or played and dropped when released
+    private final AssetManager assetManager;
+    private final Map<String, String> onDemandPaths = new HashMap<>();
+    private final Map<String, Future<AudioNode>> decoding = new HashMap<>();
+    private final Set<String> failedSounds = new HashSet<>();
+    private ExecutorService onDemandPool;
+
     public SoundManager(AssetManager assetManager) {
+        this(assetManager, null);
+    }
+
+    /**
+     * Creates the sound manager and decodes the sound bank. With a boot loader,
+     * the clips are decoded in parallel on its pool and become playable one by one;
+     * a BGM requested before it is ready starts once it has been decoded.
+     *
+     * @param assetManager The asset manager to load the sound files.
+     * @param bootLoader   The boot loader to decode on, or null to decode synchronously.
+     */
+    public SoundManager(AssetManager assetManager, BootLoader bootLoader) {
         bgmMap = new HashMap<>();
         sfxMap = new HashMap<>();
         sfxStateMap = new HashMap<>();
+        pendingSounds = new HashSet<>();
         currentBGM = null;
+        this.bootLoader = bootLoader;
+        this.assetManager = assetManager;
 
         loadBGMs(assetManager);
         loadSFX(assetManager);
@@ -28,28 +64,133 @@ public class SoundManager {
      * Loads all background music into the bgmMap.
      */
     private void loadBGMs(AssetManager assetManager) {
-        bgmMap.put("quiet_bgm", createAudioNode(assetManager, "Sounds/bgm/quiet_bgm.ogg", true, 0.3f));
-        bgmMap.put("mystery_bgm", createAudioNode(assetManager, "Sounds/bgm/quite_unsettled_bgm.ogg", true, 0.3f));
-        bgmMap.put("movement_bgm", createAudioNode(assetManager, "Sounds/bgm/Movement_bgm.ogg", true, 0.3f));
+        // The start screen music goes first so it is ready soonest
+        loadSound(bgmMap, "starting", "Sounds/bgm/starting.wav", () -> createAudioNode(assetManager, "Sounds/bgm/starting.wav", true, 0.3f));
+        loadSound(bgmMap, "quiet_bgm", "Sounds/bgm/quiet_bgm.ogg", () -> createAudioNode(assetManager, "Sounds/bgm/quiet_bgm.ogg", true, 0.3f));
+        loadSound(bgmMap, "mystery_bgm", "Sounds/bgm/quite_unsettled_bgm.ogg", () -> createAudioNode(assetManager, "Sounds/bgm/quite_unsettled_bgm.ogg", true, 0.3f));
+        loadSound(bgmMap, "movement_bgm", "Sounds/bgm/Movement_bgm.ogg", () -> createAudioNode(assetManager, "Sounds/bgm/Movement_bgm.ogg", true, 0.3f));
         
-        bgmMap.put("classroom_ending", createAudioNode(assetManager, "Sounds/bgm/classroom_ending.wav", true, 0.3f));
-        bgmMap.put("terrin_ending", createAudioNode(assetManager, "Sounds/bgm/terrin_ending.wav", true, 0.3f));
-        bgmMap.put("moon_ending", createAudioNode(assetManager, "Sounds/bgm/moon_ending.wav", true, 0.3f));
-        bgmMap.put("starting", createAudioNode(assetManager, "Sounds/bgm/starting.wav", true, 0.3f));
+        // The endings are large WAVs that most runs never play, EndingPrefetcher warms them
+        onDemandPaths.put("classroom_ending", "Sounds/bgm/classroom_ending.wav");
+        onDemandPaths.put("terrin_ending", "Sounds/bgm/terrin_ending.wav");
+        onDemandPaths.put("moon_ending", "Sounds/bgm/moon_ending.wav");
     }
 
     /**
      * Loads all sound effects into the sfxMap.
      */
     private void loadSFX(AssetManager assetManager) {
-        sfxMap.put("pickup", createAudioNode(assetManager, "Sounds/click.wav", false, 1.0f));
-        sfxMap.put("step", createAudioNode(assetManager, "Sounds/wood_step.ogg", true, 1.0f));
-        sfxMap.put("elevator_step", createAudioNode(assetManager, "Sounds/elevator_steps.ogg", false, 1.0f));
-        sfxMap.put("game_over", createAudioNode(assetManager, "Sounds/game-over.ogg", false, 0.3f));
-        sfxMap.put("bang", createAudioNode(assetManager, "Sounds/Bang.wav", false, 0.3f));
+        loadSound(sfxMap, "pickup", "Sounds/click.wav", () -> createAudioNode(assetManager, "Sounds/click.wav", false, 1.0f));
+        loadSound(sfxMap, "step", "Sounds/wood_step.ogg", () -> createAudioNode(assetManager, "Sounds/wood_step.ogg", true, 1.0f));
+        loadSound(sfxMap, "elevator_step", "Sounds/elevator_steps.ogg", () -> createAudioNode(assetManager, "Sounds/elevator_steps.ogg", false, 1.0f));
+        loadSound(sfxMap, "game_over", "Sounds/game-over.ogg", () -> createAudioNode(assetManager, "Sounds/game-over.ogg", false, 0.3f));
+        loadSound(sfxMap, "bang", "Sounds/Bang.wav", () -> createAudioNode(assetManager, "Sounds/Bang.wav", false, 0.3f));
+
+        loadSound(sfxMap, "monster", "Sounds/Bang.wav", () -> createAudioNode_pos(assetManager, "Sounds/Bang.wav", false, 0.5f));
+        loadSound(sfxMap, "getkey", "Sounds/positive.wav", () -> createAudioNode(assetManager, "Sounds/positive.wav", false, 1.0f));
+    }
 
-        sfxMap.put("monster", createAudioNode_pos(assetManager, "Sounds/Bang.wav", false, 0.5f));
-        sfxMap.put("getkey", createAudioNode(assetManager, "Sounds/positive.wav", false, 1.0f));
+    /**
+     * Decodes a sound into the given map, either right away or on the boot loader.
+     *
+     * @param map      The map the sound belongs to (bgmMap or sfxMap).
+     * @param name     The name the sound is played by.
+     * @param filePath The file path, shown in the boot report.
+     * @param creator  Creates the preconfigured AudioNode.
+     */
+    private void loadSound(Map<String, AudioNode> map, String name, String filePath, Callable<AudioNode> creator) {
+        if (bootLoader == null) {
+            try {
+                map.put(name, creator.call());
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException("Could not load sound " + filePath, e);
+            }
+            return;
+        }
+        pendingSounds.add(name);
+        bootLoader.submit(filePath, false, creator, audio -> {
+            pendingSounds.remove(name);
+            map.put(name, audio);
+            if (name.equals(requestedBGM)) {
+                playBGM(name);
+            }
+        });
+    }
+
+    /**
+     * Starts decoding an on-demand BGM in the background, so playing it later
+     * does not wait for it. Does nothing for BGMs that are decoded at boot or
+     * are already decoded.
+     *
+     * @param name Name of the background music.
+     */
+    public void prefetchBGM(String name) {
+        String filePath = onDemandPaths.get(name);
+        if (filePath == null || bgmMap.containsKey(name) || decoding.containsKey(name) || failedSounds.contains(name)) {
+            return;
+        }
+        if (onDemandPool == null) {
+            onDemandPool = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "Sound Loader");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        decoding.put(name, onDemandPool.submit(() -> createAudioNode(assetManager, filePath, true, 0.3f)));
+    }
+
+    /**
+     * Drops a decoded on-demand BGM, unless it is playing. It is decoded again
+     * when it is prefetched or played next time.
+     *
+     * @param name Name of the background music.
+     */
+    public void releaseBGM(String name) {
+        String filePath = onDemandPaths.get(name);
+        if (filePath == null || (currentBGM != null && currentBGM == bgmMap.get(name)) || name.equals(requestedBGM)) {
+            return;
+        }
+        Future<AudioNode> pending = decoding.remove(name);
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        if (bgmMap.remove(name) != null || pending != null) {
+            // The key AudioNode caches a buffered clip under, stream cache included
+            assetManager.deleteFromCache(new AudioKey(filePath, false, true));
+        }
+    }
+
+    /**
+     * Hands finished on-demand decodes over to the BGM map and starts a
+     * requested BGM once it is ready. Must be called every frame on the render thread.
+     */
+    public void update() {
+        for (Iterator<Map.Entry<String, Future<AudioNode>>> it = decoding.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Future<AudioNode>> entry = it.next();
+            if (!entry.getValue().isDone()) {
+                continue;
+            }
+            it.remove();
+            String name = entry.getKey();
+            try {
+                bgmMap.put(name, entry.getValue().get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                System.err.println("Could not load BGM '" + name + "': " + e.getCause());
+                failedSounds.add(name); // not retried
+            }
+            if (name.equals(requestedBGM)) {
+                if (bgmMap.containsKey(name)) {
+                    playBGM(name);
+                } else {
+                    requestedBGM = null;
+                }
+            }
+        }
     }
 
     /**
@@ -99,8 +240,14 @@ public class SoundManager {
             currentBGM.stop();
         }
         currentBGM = bgmMap.get(name);
+        requestedBGM = null;
         if (currentBGM != null) {
             currentBGM.play();
+        } else if (pendingSounds.contains(name)) {
+            requestedBGM = name; // Starts once decoded
+        } else if (onDemandPaths.containsKey(name) && !failedSounds.contains(name)) {
+            prefetchBGM(name);
+            requestedBGM = name; // Starts once decoded, in update
         } else {
             System.err.println("BGM with name '" + name + "' not found!");
         }
@@ -114,6 +261,7 @@ public class SoundManager {
             currentBGM.stop();
             currentBGM = null;
         }
+        requestedBGM = null;
     }
 
     /**
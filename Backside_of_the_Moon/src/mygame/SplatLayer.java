@@ -0,0 +1,115 @@
+package mygame;
+
+import com.jme3.material.MatParam;
+import com.jme3.material.Material;
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.FastMath;
+import com.jme3.texture.Image;
+import com.jme3.texture.Texture;
+import com.jme3.texture.image.ImageRaster;
+
+/**
+ * One layer of a SplatTerrain material, its weight worked out on the CPU the
+ * way the fragment shader does, so what is scattered over the terrain matches
+ * the layer drawn under it.
+ *
+ * Inside the alpha map the weight is the channel of the layer, bilinear
+ * filtered and clamped at the edges. Beyond it the weight blends into the
+ * slope and height rules of the material, if it has them. Safe to use from
+ * several threads.
+ */
+public class SplatLayer {
+
+    private final int layer;
+    private final byte[] alpha;
+    private final int width;
+    private final int height;
+    private final boolean rules;
+    private final float rockSlope0;
+    private final float rockSlope1;
+    private final float dirtHeight0;
+    private final float dirtHeight1;
+    private final float ruleBlend;
+
+    /**
+     * Constructs a new SplatLayer, copying its channel of the alpha map.
+     *
+     * @param material A material of MatDefs/Terrain/SplatTerrain.j3md.
+     * @param layer    Index of the layer, 0 to 3 for red to alpha.
+     */
+    public SplatLayer(Material material, int layer) {
+        this.layer = layer;
+        Image image = ((Texture) material.getParam("AlphaMap").getValue()).getImage();
+        ImageRaster raster = ImageRaster.create(image);
+        width = raster.getWidth();
+        height = raster.getHeight();
+        alpha = new byte[width * height];
+        ColorRGBA color = new ColorRGBA();
+        float[] channels = new float[4];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                raster.getPixel(x, y, color).toArray(channels);
+                alpha[y * width + x] = (byte) Math.round(channels[layer] * 255);
+            }
+        }
+
+        MatParam slopeRules = material.getParam("SlopeRules");
+        rules = slopeRules != null;
+        ColorRGBA rule = rules ? (ColorRGBA) slopeRules.getValue() : ColorRGBA.BlackNoAlpha;
+        rockSlope0 = rule.r;
+        rockSlope1 = rule.g;
+        dirtHeight0 = rule.b;
+        dirtHeight1 = rule.a;
+        ruleBlend = (Float) material.getParamValue("RuleBlend");
+    }
+
+    /**
+     * Gets the weight of the layer at a point of the terrain.
+     *
+     * @param u           Alpha map x.
+     * @param v           Alpha map y.
+     * @param slope       Height change per unit along the steepest direction.
+     * @param localHeight Height in the space of the terrain.
+     * @return The weight, 0 to 1, before the shader leaves out faint layers.
+     */
+    public float getWeight(float u, float v, float slope, float localHeight) {
+        float weight = sample(u, v);
+        if (!rules) {
+            return weight;
+        }
+        float outside = Math.max(Math.max(-u, u - 1), Math.max(-v, v - 1));
+        float rule = smoothstep(0, ruleBlend, outside);
+        if (rule <= 0) {
+            return weight;
+        }
+        float rock = smoothstep(rockSlope0, rockSlope1, slope);
+        float dirt = (1 - rock) * (1 - smoothstep(dirtHeight0, dirtHeight1, localHeight));
+        float[] ruled = {dirt, 1 - rock - dirt, 0, rock};
+        return FastMath.interpolateLinear(rule, weight, ruled[layer]);
+    }
+
+    /*
+    * Helper functions
+    */
+
+    private float sample(float u, float v) {
+        float x = FastMath.clamp(u * width - 0.5f, 0, width - 1);
+        float y = FastMath.clamp(v * height - 0.5f, 0, height - 1);
+        int x0 = Math.min((int) x, width - 2);
+        int y0 = Math.min((int) y, height - 2);
+        float fx = x - x0;
+        float fy = y - y0;
+        float top = FastMath.interpolateLinear(fx, texel(x0, y0), texel(x0 + 1, y0));
+        float bottom = FastMath.interpolateLinear(fx, texel(x0, y0 + 1), texel(x0 + 1, y0 + 1));
+        return FastMath.interpolateLinear(fy, top, bottom);
+    }
+
+    private float texel(int x, int y) {
+        return (alpha[y * width + x] & 0xFF) / 255f;
+    }
+
+    private static float smoothstep(float edge0, float edge1, float x) {
+        float t = FastMath.clamp((x - edge0) / (edge1 - edge0), 0, 1);
+        return t * t * (3 - 2 * t);
+    }
+}
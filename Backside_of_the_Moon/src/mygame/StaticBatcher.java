@@ -0,0 +1,171 @@
+package mygame;
+
+import com.jme3.material.Material;
+import com.jme3.math.Transform;
+import com.jme3.renderer.queue.RenderQueue;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import jme3tools.optimize.GeometryBatchFactory;
+
+/**
+ * Merges the static geometries of an imported model by material, so a scene
+ * made of many small parts draws with one call per material and keeps no
+ * intermediate nodes to update every frame.
+ *
+ * Static transforms are baked into the merged meshes. What has to stay
+ * separate is left as it is: subtrees with controls (animations, terrain
+ * LOD, physics) or local lights, and meshes that are skinned, have morph
+ * targets or LOD levels. Geometries are merged when their materials have the
+ * same content, their render bucket and shadow mode match and their meshes
+ * have the same mode and vertex buffers.
+ */
+public class StaticBatcher {
+
+    /**
+     * Scene graph size of one model before and after batching.
+     */
+    public static class Stats {
+        public int geometriesBefore;
+        public int geometriesAfter;
+        public int spatialsBefore;
+        public int spatialsAfter;
+    }
+
+    /**
+     * Geometries that can be merged into one.
+     */
+    private static class Batch {
+        private final Geometry first;
+        private final Set<VertexBuffer.Type> buffers;
+        private final List<Geometry> geometries = new ArrayList<>();
+
+        Batch(Geometry first, Set<VertexBuffer.Type> buffers) {
+            this.first = first;
+            this.buffers = buffers;
+        }
+
+        boolean accepts(Geometry geometry, Set<VertexBuffer.Type> buffers) {
+            return first.getMaterial().contentEquals(geometry.getMaterial())
+                    && first.getQueueBucket() == geometry.getQueueBucket()
+                    && first.getShadowMode() == geometry.getShadowMode()
+                    && first.getMesh().getMode() == geometry.getMesh().getMode()
+                    && this.buffers.equals(buffers);
+        }
+    }
+
+    /**
+     * Batches a model in place. The merged geometries are attached to the
+     * model root, in its local space.
+     *
+     * @param model The model to batch.
+     * @return The scene graph size before and after.
+     */
+    public static Stats batch(Node model) {
+        Stats stats = new Stats();
+        stats.geometriesBefore = count(model, true);
+        stats.spatialsBefore = count(model, false);
+
+        // Merged meshes are built in world space, relative to the root
+        Transform rootTransform = model.getLocalTransform().clone();
+        model.setLocalTransform(Transform.IDENTITY);
+        model.updateGeometricState();
+
+        List<Batch> batches = new ArrayList<>();
+        for (Spatial child : model.getChildren()) {
+            gather(child, batches);
+        }
+        int index = 0;
+        for (Batch batch : batches) {
+            Mesh mesh = new Mesh();
+            GeometryBatchFactory.mergeGeometries(batch.geometries, mesh);
+            mesh.updateCounts();
+            mesh.updateBound();
+            Geometry merged = new Geometry(model.getName() + "-batch" + index++, mesh);
+            merged.setMaterial(batch.first.getMaterial());
+            // Explicit, the nodes these were inherited from may be gone
+            RenderQueue.Bucket bucket = batch.first.getQueueBucket();
+            RenderQueue.ShadowMode shadowMode = batch.first.getShadowMode();
+            merged.setQueueBucket(bucket);
+            merged.setShadowMode(shadowMode);
+            for (Geometry geometry : batch.geometries) {
+                geometry.removeFromParent();
+            }
+            model.attachChild(merged);
+        }
+        prune(model);
+
+        model.setLocalTransform(rootTransform);
+        model.updateGeometricState();
+        stats.geometriesAfter = count(model, true);
+        stats.spatialsAfter = count(model, false);
+        return stats;
+    }
+
+    /*
+    * Helper functions
+    */
+
+    private static void gather(Spatial spatial, List<Batch> batches) {
+        if (spatial.getNumControls() > 0 || spatial.getLocalLightList().size() > 0) {
+            return;
+        }
+        if (spatial instanceof Node) {
+            for (Spatial child : ((Node) spatial).getChildren()) {
+                gather(child, batches);
+            }
+            return;
+        }
+        Geometry geometry = (Geometry) spatial;
+        Mesh mesh = geometry.getMesh();
+        if (geometry.getMaterial() == null || mesh == null || mesh.isAnimated()
+                || mesh.hasMorphTargets() || mesh.getNumLodLevels() > 0) {
+            return;
+        }
+        Set<VertexBuffer.Type> buffers = EnumSet.noneOf(VertexBuffer.Type.class);
+        for (VertexBuffer buffer : mesh.getBufferList()) {
+            buffers.add(buffer.getBufferType());
+        }
+        for (Batch batch : batches) {
+            if (batch.accepts(geometry, buffers)) {
+                batch.geometries.add(geometry);
+                return;
+            }
+        }
+        Batch batch = new Batch(geometry, buffers);
+        batch.geometries.add(geometry);
+        batches.add(batch);
+    }
+
+    /**
+     * Removes the nodes left empty by batching.
+     */
+    private static void prune(Node node) {
+        for (Spatial child : new ArrayList<>(node.getChildren())) {
+            if (child instanceof Node) {
+                Node childNode = (Node) child;
+                prune(childNode);
+                if (childNode.getQuantity() == 0 && childNode.getNumControls() == 0
+                        && childNode.getLocalLightList().size() == 0) {
+                    childNode.removeFromParent();
+                }
+            }
+        }
+    }
+
+    private static int count(Spatial spatial, boolean geometriesOnly) {
+        int[] count = {0};
+        spatial.depthFirstTraversal(child -> {
+            if (!geometriesOnly || child instanceof Geometry) {
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+}
@@ -0,0 +1,373 @@
+package mygame;
+
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector2f;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.terrain.geomipmap.TerrainGridTileLoader;
+import com.jme3.terrain.geomipmap.TerrainQuad;
+import com.jme3.terrain.noise.basis.ImprovedNoise;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Supplies the tiles of a TerrainGrid: a heightmap in the middle of an endless
+ * terrain of fractal noise, blended into it over a band around its edge.
+ *
+ * Tiles are built on worker threads, as TerrainQuads ready to attach, and
+ * those around the focus are built before the grid asks for them. Their
+ * heights are cached on disk, one deflated file of 16-bit heights per tile,
+ * stamped with the settings they were made with. Built tiles are kept while
+ * they are within the cache radius of the focus and dropped beyond it, so
+ * memory does not grow with the distance travelled.
+ *
+ * Tile (x, z) covers local x from (x - 1) * (tileSize - 1) to x * (tileSize - 1),
+ * and the same along z, as TerrainGrid places it. Texture coordinates run
+ * from 0 to 1 over the heightmap and on beyond it.
+ */
+public class TerrainTileLoader implements TerrainGridTileLoader {
+
+    private static final int MAGIC = 0x54494C45; // "TILE"
+    private static final int VERSION = 1;
+    private static final int MAX_VALUE = 0xFFFF;
+    private static final int OCTAVES = 5;
+
+    private final float[] base;
+    private final int baseSize;
+    private final long seed;
+    private final float noiseHeight;
+    private final float wavelength;
+    private final float blend;
+    private final int cacheRadius;
+    private final File cacheDir;
+    private final float offsetX;
+    private final float offsetZ;
+    private final long stamp;
+    private final ExecutorService pool;
+    private final Map<Long, Future<TerrainQuad>> tiles = new ConcurrentHashMap<>();
+    private int patchSize;
+    private int tileSize;
+
+    /**
+     * Constructs a new TerrainTileLoader.
+     *
+     * @param base        Heights of the middle of the terrain, a square of 2^n + 1, centered on the origin.
+     * @param patchSize   Vertices along a side of one patch.
+     * @param tileSize    Vertices along a side of one tile, 2^n + 1.
+     * @param seed        Seed of the noise.
+     * @param noiseHeight Largest height of the noise above or below zero.
+     * @param wavelength  Size of the largest hills.
+     * @param blend       Width of the band over which the heightmap turns into noise.
+     * @param cacheRadius Tiles further than this many tiles from the focus are dropped.
+     * @param cacheDir    Folder of the tile cache.
+     */
+    public TerrainTileLoader(float[] base, int patchSize, int tileSize, long seed, float noiseHeight,
+                             float wavelength, float blend, int cacheRadius, File cacheDir) {
+        this.base = base;
+        this.baseSize = (int) FastMath.sqrt(base.length);
+        this.patchSize = patchSize;
+        this.tileSize = tileSize;
+        this.seed = seed;
+        this.noiseHeight = noiseHeight;
+        this.wavelength = wavelength;
+        this.blend = blend;
+        this.cacheRadius = cacheRadius;
+        this.cacheDir = cacheDir;
+
+        Random random = new Random(seed);
+        offsetX = random.nextFloat() * 1000;
+        offsetZ = random.nextFloat() * 1000;
+        stamp = Arrays.hashCode(base) * 31L + Objects.hash(seed, noiseHeight, wavelength, blend, tileSize);
+
+        // Idle workers stop, the room can be built again without leaking threads
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 5, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "Terrain Tiles");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        pool = executor;
+    }
+
+    /**
+     * Gets a tile, waiting for it if it is still being built. Called by the
+     * TerrainGrid on its own loading thread.
+     *
+     * @param location The cell of the tile.
+     * @return The tile.
+     */
+    @Override
+    public TerrainQuad getTerrainQuadAt(Vector3f location) {
+        int x = (int) location.x;
+        int z = (int) location.z;
+        try {
+            return tile(x, z).get();
+        } catch (CancellationException e) {
+            // Dropped by a focus change while waited for
+            return getTerrainQuadAt(location);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading terrain tile " + x + "," + z, e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to load terrain tile " + x + "," + z, e.getCause());
+        }
+    }
+
+    /**
+     * Moves the focus: drops the tiles beyond the cache radius and starts
+     * building the tiles the grid will need around it.
+     *
+     * @param x Tile x of the focus.
+     * @param z Tile z of the focus.
+     */
+    public void setFocus(int x, int z) {
+        tiles.entrySet().removeIf(entry -> {
+            long key = entry.getKey();
+            if (Math.max(Math.abs((int) (key >> 32) - x), Math.abs((int) key - z)) <= cacheRadius) {
+                return false;
+            }
+            entry.getValue().cancel(false);
+            return true;
+        });
+        // TerrainGrid keeps the tiles from one before to two after the cell of the camera
+        for (int dz = -2; dz <= 2; dz++) {
+            for (int dx = -2; dx <= 2; dx++) {
+                tile(x + dx, z + dz);
+            }
+        }
+    }
+
+    /**
+     * Gets the tile holding a point.
+     *
+     * @param x Local x.
+     * @param z Local z.
+     * @return The tile x and z.
+     */
+    public int[] getTile(float x, float z) {
+        return new int[] {
+            (int) FastMath.floor(x / (tileSize - 1)) + 1,
+            (int) FastMath.floor(z / (tileSize - 1)) + 1
+        };
+    }
+
+    /**
+     * Gets the height of the terrain anywhere, whether its tile is built or not.
+     *
+     * @param x Local x.
+     * @param z Local z.
+     * @return The local height.
+     */
+    public float getHeight(float x, float z) {
+        float half = (baseSize - 1) * 0.5f;
+        float outside = Math.max(Math.abs(x), Math.abs(z)) - half;
+        if (outside <= 0) {
+            return baseHeight(x + half, z + half);
+        }
+        float t = FastMath.clamp(outside / blend, 0, 1);
+        float weight = t * t * (3 - 2 * t);
+        float edge = baseHeight(FastMath.clamp(x + half, 0, baseSize - 1), FastMath.clamp(z + half, 0, baseSize - 1));
+        return edge + (noise(x, z) - edge) * weight;
+    }
+
+    /**
+     * Gets the texture coordinates of a point, as the tiles have them.
+     *
+     * @param x Local x.
+     * @param z Local z.
+     * @return The u and v, 0 to 1 over the heightmap.
+     */
+    public Vector2f getTexCoord(float x, float z) {
+        float half = (baseSize - 1) * 0.5f;
+        return new Vector2f((x + half) / (baseSize - 1), 1 - (z + half) / (baseSize - 1));
+    }
+
+    @Override
+    public void setPatchSize(int patchSize) {
+        this.patchSize = patchSize;
+    }
+
+    @Override
+    public void setQuadSize(int quadSize) {
+        this.tileSize = quadSize;
+    }
+
+    /**
+     * Tiles are built again from the settings, nothing is saved.
+     */
+    @Override
+    public void write(JmeExporter ex) throws IOException {
+    }
+
+    @Override
+    public void read(JmeImporter im) throws IOException {
+    }
+
+    /*
+    * Helper functions
+    */
+
+    private Future<TerrainQuad> tile(int x, int z) {
+        long key = ((long) x << 32) | (z & 0xFFFFFFFFL);
+        return tiles.computeIfAbsent(key, k -> pool.submit(() -> {
+            float[] heights = heights(x, z);
+            TerrainQuad quad = new TerrainQuad("Tile " + x + "," + z, patchSize, tileSize, heights);
+            mapTexCoords(quad, x, z);
+            return quad;
+        }));
+    }
+
+    /**
+     * Moves the texture coordinates of a tile from 0 to 1 over the tile to
+     * those of the heightmap in the middle, as on a single TerrainQuad of it,
+     * so alpha maps and layers line up across tiles and carry on past it.
+     */
+    private void mapTexCoords(TerrainQuad quad, int x, int z) {
+        float scale = (tileSize - 1) / (float) (baseSize - 1);
+        float half = (baseSize - 1) * 0.5f;
+        float offsetU = ((x - 1) * (tileSize - 1) + half) / (baseSize - 1);
+        // v runs from 1 at the first row of heights to 0 at the last
+        float offsetV = 1 - (z * (tileSize - 1) + half) / (baseSize - 1);
+        quad.depthFirstTraversal(spatial -> {
+            if (!(spatial instanceof Geometry)) {
+                return;
+            }
+            VertexBuffer buffer = ((Geometry) spatial).getMesh().getBuffer(VertexBuffer.Type.TexCoord);
+            FloatBuffer texCoords = (FloatBuffer) buffer.getData();
+            for (int i = 0; i < texCoords.limit(); i += 2) {
+                texCoords.put(i, texCoords.get(i) * scale + offsetU);
+                texCoords.put(i + 1, texCoords.get(i + 1) * scale + offsetV);
+            }
+            buffer.setUpdateNeeded();
+        });
+    }
+
+    /**
+     * Reads the heights of a tile from the cache, or generates and caches them.
+     */
+    private float[] heights(int x, int z) throws IOException {
+        File file = new File(cacheDir, x + "_" + z + ".tile");
+        float[] heights = read(file);
+        if (heights != null) {
+            return heights;
+        }
+        heights = new float[tileSize * tileSize];
+        float left = (x - 1) * (tileSize - 1);
+        float top = (z - 1) * (tileSize - 1);
+        for (int row = 0; row < tileSize; row++) {
+            for (int column = 0; column < tileSize; column++) {
+                heights[row * tileSize + column] = getHeight(left + column, top + row);
+            }
+        }
+        write(file, heights);
+        return heights;
+    }
+
+    private float[] read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new InflaterInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != stamp
+                    || in.readInt() != tileSize) {
+                return null;
+            }
+            float min = in.readFloat();
+            float scale = (in.readFloat() - min) / MAX_VALUE;
+            float[] heights = new float[tileSize * tileSize];
+            for (int i = 0; i < heights.length; i++) {
+                heights[i] = min + in.readUnsignedShort() * scale;
+            }
+            return heights;
+        } catch (IOException e) {
+            System.err.println("Could not read terrain tile " + file + ": " + e + ". Generating it again.");
+            return null;
+        }
+    }
+
+    private void write(File file, float[] heights) throws IOException {
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for (float height : heights) {
+            min = Math.min(min, height);
+            max = Math.max(max, height);
+        }
+        float scale = max > min ? MAX_VALUE / (max - min) : 0;
+
+        // Written next to the tile and renamed, a tile is never read half written
+        cacheDir.mkdirs();
+        File temp = new File(cacheDir, file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new DeflaterOutputStream(new FileOutputStream(temp))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(stamp);
+            out.writeInt(tileSize);
+            out.writeFloat(min);
+            out.writeFloat(max);
+            for (float height : heights) {
+                out.writeShort(Math.round((height - min) * scale));
+            }
+        }
+        if (!temp.renameTo(file)) {
+            file.delete();
+            temp.renameTo(file);
+        }
+    }
+
+    /**
+     * Samples the heightmap between its vertices.
+     */
+    private float baseHeight(float x, float z) {
+        int x0 = Math.min((int) x, baseSize - 2);
+        int z0 = Math.min((int) z, baseSize - 2);
+        float fx = x - x0;
+        float fz = z - z0;
+        float top = FastMath.interpolateLinear(fx, base[z0 * baseSize + x0], base[z0 * baseSize + x0 + 1]);
+        float bottom = FastMath.interpolateLinear(fx, base[(z0 + 1) * baseSize + x0], base[(z0 + 1) * baseSize + x0 + 1]);
+        return FastMath.interpolateLinear(fz, top, bottom);
+    }
+
+    /**
+     * Fractal noise, each octave half the size and height of the one before.
+     */
+    private float noise(float x, float z) {
+        float sum = 0;
+        float amplitude = 1;
+        float frequency = 1 / wavelength;
+        for (int octave = 0; octave < OCTAVES; octave++) {
+            sum += ImprovedNoise.noise(x * frequency + offsetX, 0.5f, z * frequency + offsetZ) * amplitude;
+            amplitude *= 0.5f;
+            frequency *= 2;
+        }
+        return sum * noiseHeight;
+    }
+}
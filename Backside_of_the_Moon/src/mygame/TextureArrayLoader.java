@@ -0,0 +1,111 @@
+package mygame;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.math.ColorRGBA;
+import com.jme3.texture.Image;
+import com.jme3.texture.Texture;
+import com.jme3.texture.TextureArray;
+import com.jme3.texture.image.ImageRaster;
+import com.jme3.util.BufferUtils;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads textures as the layers of one TextureArray, so a shader samples any
+ * of them through a single sampler.
+ *
+ * Every layer of an array must have the same size and format. TextureBaker
+ * bakes the layers to one size, listed in its config, and their DDS images
+ * are stacked as they are. Without a bake the decoded images usually differ,
+ * so they are converted to RGBA8 at the size of the largest one.
+ */
+public class TextureArrayLoader {
+
+    /**
+     * Loads a texture array.
+     *
+     * @param assetManager The asset manager to load the layers with.
+     * @param paths        Asset paths of the layers, in order.
+     * @return The array, repeating and trilinear filtered.
+     */
+    public static TextureArray load(AssetManager assetManager, List<String> paths) {
+        List<Image> images = new ArrayList<>();
+        for (String path : paths) {
+            images.add(assetManager.loadTexture(path).getImage());
+        }
+        if (!isUniform(images)) {
+            for (int i = 0; i < images.size(); i++) {
+                if (images.get(i).getFormat().isCompressed()) {
+                    throw new IllegalStateException("Layers of a texture array differ in size or format, "
+                            + paths.get(i) + " needs to be baked to the size of the others");
+                }
+            }
+            images = conform(images);
+        }
+        TextureArray array = new TextureArray(images);
+        array.setWrap(Texture.WrapMode.Repeat);
+        array.setMinFilter(Texture.MinFilter.Trilinear);
+        return array;
+    }
+
+    /*
+    * Helper functions
+    */
+
+    private static boolean isUniform(List<Image> images) {
+        Image first = images.get(0);
+        for (Image image : images) {
+            if (image.getWidth() != first.getWidth() || image.getHeight() != first.getHeight()
+                    || image.getFormat() != first.getFormat() || image.hasMipmaps() != first.hasMipmaps()
+                    || (image.hasMipmaps() && image.getMipMapSizes().length != first.getMipMapSizes().length)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Converts decoded images to RGBA8 at the largest size among them, scaled
+     * bilinearly. Mipmaps are then generated when the array is uploaded.
+     */
+    private static List<Image> conform(List<Image> images) {
+        int width = 0;
+        int height = 0;
+        for (Image image : images) {
+            width = Math.max(width, image.getWidth());
+            height = Math.max(height, image.getHeight());
+        }
+        List<Image> result = new ArrayList<>();
+        ColorRGBA[] corners = {new ColorRGBA(), new ColorRGBA(), new ColorRGBA(), new ColorRGBA()};
+        ColorRGBA color = new ColorRGBA();
+        for (Image image : images) {
+            ImageRaster source = ImageRaster.create(image);
+            Image target = new Image(Image.Format.RGBA8, width, height,
+                    BufferUtils.createByteBuffer(width * height * 4), image.getColorSpace());
+            ImageRaster raster = ImageRaster.create(target);
+            float scaleX = source.getWidth() / (float) width;
+            float scaleY = source.getHeight() / (float) height;
+            for (int y = 0; y < height; y++) {
+                float sy = Math.max(0, (y + 0.5f) * scaleY - 0.5f);
+                int y0 = Math.min((int) sy, source.getHeight() - 1);
+                int y1 = Math.min(y0 + 1, source.getHeight() - 1);
+                float fy = sy - y0;
+                for (int x = 0; x < width; x++) {
+                    float sx = Math.max(0, (x + 0.5f) * scaleX - 0.5f);
+                    int x0 = Math.min((int) sx, source.getWidth() - 1);
+                    int x1 = Math.min(x0 + 1, source.getWidth() - 1);
+                    float fx = sx - x0;
+                    source.getPixel(x0, y0, corners[0]);
+                    source.getPixel(x1, y0, corners[1]);
+                    source.getPixel(x0, y1, corners[2]);
+                    source.getPixel(x1, y1, corners[3]);
+                    corners[0].interpolateLocal(corners[1], fx);
+                    corners[2].interpolateLocal(corners[3], fx);
+                    raster.setPixel(x, y, color.set(corners[0]).interpolateLocal(corners[2], fy));
+                }
+            }
+            result.add(target);
+        }
+        return result;
+    }
+}
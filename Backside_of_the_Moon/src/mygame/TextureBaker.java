@@ -0,0 +1,458 @@
+package mygame;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import javax.imageio.ImageIO;
+
+/**
+ * Build step that converts the shipped textures to DDS with a full, precomputed
+ * mip chain, so loading them is a copy into VRAM instead of an image decode
+ * followed by mipmap generation.
+ *
+ * Color textures become BC1, or BC3 when they use alpha, and are downsampled in
+ * linear light. Normal maps are renormalized on every mip level. Textures listed
+ * as uncompressed, such as terrain blend weights, are stored as RGBA8.
+ * Textures larger than their size cap are scaled down to fit, and textures
+ * given an exact size, such as the layers of a texture array, are scaled to it.
+ *
+ * Every baked texture is written next to its source and listed in a manifest,
+ * which BakedTextureLoader reads to serve the DDS in place of the source.
+ * Only needs the JDK.
+ *
+ * Usage: TextureBaker assetsDir configFile [threads]
+ */
+public class TextureBaker {
+
+    public static final String MANIFEST = "baked-textures.properties";
+
+    private static final String[] SOURCE_EXTENSIONS = {".png", ".jpg", ".jpeg"};
+    private static final int DEFAULT_MAX_SIZE = 2048;
+
+    // DDS header flags
+    private static final int DDS_MAGIC = 0x20534444; // "DDS "
+    private static final int DDSD_CAPS = 0x1;
+    private static final int DDSD_HEIGHT = 0x2;
+    private static final int DDSD_WIDTH = 0x4;
+    private static final int DDSD_PITCH = 0x8;
+    private static final int DDSD_PIXELFORMAT = 0x1000;
+    private static final int DDSD_MIPMAPCOUNT = 0x20000;
+    private static final int DDSD_LINEARSIZE = 0x80000;
+    private static final int DDPF_ALPHAPIXELS = 0x1;
+    private static final int DDPF_FOURCC = 0x4;
+    private static final int DDPF_RGB = 0x40;
+    private static final int DDSCAPS_COMPLEX = 0x8;
+    private static final int DDSCAPS_TEXTURE = 0x1000;
+    private static final int DDSCAPS_MIPMAP = 0x400000;
+    private static final int FOURCC_DXT1 = 0x31545844;
+    private static final int FOURCC_DXT5 = 0x35545844;
+
+    private enum Kind { COLOR, LINEAR, NORMAL }
+
+    /**
+     * Result of baking one texture.
+     */
+    private static class BakeResult {
+        private final String report;
+        private final long sourceBytes;
+        private final long bakedBytes;
+
+        BakeResult(String report, long sourceBytes, long bakedBytes) {
+            this.report = report;
+            this.sourceBytes = sourceBytes;
+            this.bakedBytes = bakedBytes;
+        }
+    }
+
+    /**
+     * How one texture is baked, from the config file.
+     */
+    private static class Settings {
+        private Kind kind = Kind.COLOR;
+        private boolean compressed = true;
+        private int maxSize = DEFAULT_MAX_SIZE;
+        // Exact width and height, 0 to keep the source size within maxSize
+        private int size;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.err.println("Usage: TextureBaker assetsDir configFile [threads]");
+            System.exit(1);
+        }
+        Path assetsDir = new File(args[0]).toPath();
+        File configFile = new File(args[1]);
+        Properties config = new Properties();
+        try (InputStream in = new FileInputStream(configFile)) {
+            config.load(in);
+        }
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Math.min(4, Runtime.getRuntime().availableProcessors());
+
+        List<PathMatcher> includes = AssetPackBuilder.matchers(config.getProperty("include", "**"));
+        List<PathMatcher> excludes = AssetPackBuilder.matchers(config.getProperty("exclude", ""));
+        List<PathMatcher> linear = AssetPackBuilder.matchers(config.getProperty("linear", ""));
+        List<PathMatcher> normal = AssetPackBuilder.matchers(config.getProperty("normal", ""));
+        List<PathMatcher> uncompressed = AssetPackBuilder.matchers(config.getProperty("uncompressed", ""));
+        int defaultMaxSize = Integer.parseInt(config.getProperty("maxSize", String.valueOf(DEFAULT_MAX_SIZE)));
+
+        Properties previous = new Properties();
+        File manifestFile = assetsDir.resolve(MANIFEST).toFile();
+        if (manifestFile.exists()) {
+            try (InputStream in = new FileInputStream(manifestFile)) {
+                previous.load(in);
+            }
+        }
+
+        List<Path> sources = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(assetsDir)) {
+            walk.filter(Files::isRegularFile).sorted().forEach(file -> {
+                Path relative = assetsDir.relativize(file);
+                if (isSource(relative) && AssetPackBuilder.matches(includes, relative)
+                        && !AssetPackBuilder.matches(excludes, relative)) {
+                    sources.add(relative);
+                }
+            });
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        Map<String, String> manifest = new TreeMap<>();
+        Map<String, Future<BakeResult>> jobs = new TreeMap<>();
+        int upToDate = 0;
+        for (Path relative : sources) {
+            String name = relative.toString().replace(File.separatorChar, '/');
+            String target = name.substring(0, name.lastIndexOf('.')) + ".dds";
+            File sourceFile = assetsDir.resolve(relative).toFile();
+            File targetFile = assetsDir.resolve(target).toFile();
+            if (targetFile.exists() && !target.equals(previous.getProperty(name))) {
+                System.out.println("Skipped " + name + ", " + target + " was not written by the bake");
+                continue;
+            }
+            if (targetFile.exists() && targetFile.lastModified() >= sourceFile.lastModified()
+                    && targetFile.lastModified() >= configFile.lastModified()) {
+                manifest.put(name, target);
+                upToDate++;
+                continue;
+            }
+
+            Settings settings = new Settings();
+            if (AssetPackBuilder.matches(normal, relative)) {
+                settings.kind = Kind.NORMAL;
+            } else if (AssetPackBuilder.matches(linear, relative)) {
+                settings.kind = Kind.LINEAR;
+            }
+            settings.compressed = !AssetPackBuilder.matches(uncompressed, relative);
+            settings.maxSize = Integer.parseInt(config.getProperty("maxSize." + name, String.valueOf(defaultMaxSize)));
+            settings.size = Integer.parseInt(config.getProperty("size." + name, "0"));
+            jobs.put(name, pool.submit(() -> bake(sourceFile, targetFile, settings)));
+        }
+        pool.shutdown();
+
+        int failed = 0;
+        long sourceBytes = 0;
+        long bakedBytes = 0;
+        for (Map.Entry<String, Future<BakeResult>> job : jobs.entrySet()) {
+            String name = job.getKey();
+            try {
+                BakeResult result = job.getValue().get();
+                System.out.println(name + ": " + result.report);
+                sourceBytes += result.sourceBytes;
+                bakedBytes += result.bakedBytes;
+                manifest.put(name, name.substring(0, name.lastIndexOf('.')) + ".dds");
+            } catch (ExecutionException e) {
+                System.err.println("Texture bake failed for " + name + ": " + e.getCause());
+                failed++;
+            }
+        }
+
+        // Written by hand rather than with Properties.store, so unchanged bakes leave it byte for byte the same
+        try (OutputStream out = new FileOutputStream(manifestFile)) {
+            StringBuilder text = new StringBuilder("# Baked textures, written by TextureBaker\n");
+            for (Map.Entry<String, String> entry : manifest.entrySet()) {
+                text.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+            }
+            out.write(text.toString().getBytes("UTF-8"));
+        }
+        System.out.println("Baked " + (jobs.size() - failed) + " textures, " + upToDate + " up to date, " + failed + " failed");
+        if (bakedBytes > 0) {
+            System.out.println("VRAM for the baked textures: " + sourceBytes / 1024 + " KB as RGBA8 with generated mips -> "
+                    + bakedBytes / 1024 + " KB");
+        }
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    /*
+    * Helper functions
+    */
+
+    private static boolean isSource(Path relative) {
+        String name = relative.getFileName().toString().toLowerCase();
+        if (name.startsWith(".")) {
+            return false;
+        }
+        for (String extension : SOURCE_EXTENSIONS) {
+            if (name.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static BakeResult bake(File sourceFile, File targetFile, Settings settings) throws IOException {
+        BufferedImage image = ImageIO.read(sourceFile);
+        if (image == null) {
+            throw new IOException("Unsupported image format");
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+
+        boolean alpha = false;
+        if (image.getColorModel().hasAlpha()) {
+            for (int pixel : argb) {
+                if (pixel >>> 24 != 0xFF) {
+                    alpha = true;
+                    break;
+                }
+            }
+        }
+
+        // Mip chain in linear floats, RGBA per pixel
+        List<float[]> levels = new ArrayList<>();
+        List<int[]> sizes = new ArrayList<>();
+        float[] level = toLinear(argb, settings.kind);
+        int limit = settings.size > 0 ? settings.size : settings.maxSize;
+        while (width > limit * 2 || height > limit * 2) {
+            level = downsample(level, width, height, settings.kind);
+            width = Math.max(1, width / 2);
+            height = Math.max(1, height / 2);
+        }
+        if (settings.size > 0 && (width != settings.size || height != settings.size)) {
+            level = resize(level, width, height, settings.size, settings.size, settings.kind);
+            width = settings.size;
+            height = settings.size;
+        } else if (width > settings.maxSize || height > settings.maxSize) {
+            float scale = settings.maxSize / (float) Math.max(width, height);
+            int newWidth = Math.max(1, Math.round(width * scale));
+            int newHeight = Math.max(1, Math.round(height * scale));
+            level = resize(level, width, height, newWidth, newHeight, settings.kind);
+            width = newWidth;
+            height = newHeight;
+        }
+        levels.add(level);
+        sizes.add(new int[] {width, height});
+        while (width > 1 || height > 1) {
+            level = downsample(level, width, height, settings.kind);
+            width = Math.max(1, width / 2);
+            height = Math.max(1, height / 2);
+            levels.add(level);
+            sizes.add(new int[] {width, height});
+        }
+
+        boolean bc3 = settings.compressed && alpha;
+        long bytes = 0;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(targetFile), 1 << 16)) {
+            int baseWidth = sizes.get(0)[0];
+            int baseHeight = sizes.get(0)[1];
+            out.write(header(baseWidth, baseHeight, levels.size(), settings.compressed, bc3));
+            for (int i = 0; i < levels.size(); i++) {
+                int w = sizes.get(i)[0];
+                int h = sizes.get(i)[1];
+                int[] pixels = toArgb(levels.get(i), settings.kind);
+                byte[] data;
+                if (!settings.compressed) {
+                    data = toBgra(pixels);
+                } else if (bc3) {
+                    data = BlockCompressor.compressBC3(pixels, w, h);
+                } else {
+                    data = BlockCompressor.compressBC1(pixels, w, h);
+                }
+                out.write(data);
+                bytes += data.length;
+            }
+        }
+        String format = !settings.compressed ? "RGBA8" : bc3 ? "BC3" : "BC1";
+        String report = image.getWidth() + "x" + image.getHeight() + " -> " + sizes.get(0)[0] + "x" + sizes.get(0)[1]
+                + " " + format + ", " + levels.size() + " mips, " + (bytes / 1024) + " KB in VRAM";
+        // Decoded at runtime the texture is RGBA8 and its generated mips add a third
+        return new BakeResult(report, (long) image.getWidth() * image.getHeight() * 4 * 4 / 3, bytes);
+    }
+
+    private static byte[] header(int width, int height, int mipCount, boolean compressed, boolean bc3) {
+        ByteBuffer header = ByteBuffer.allocate(128).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(DDS_MAGIC);
+        header.putInt(124);
+        header.putInt(DDSD_CAPS | DDSD_HEIGHT | DDSD_WIDTH | DDSD_PIXELFORMAT | DDSD_MIPMAPCOUNT
+                | (compressed ? DDSD_LINEARSIZE : DDSD_PITCH));
+        header.putInt(height);
+        header.putInt(width);
+        header.putInt(compressed
+                ? BlockCompressor.compressedSize(width, height, bc3 ? BlockCompressor.BC3_BLOCK_BYTES : BlockCompressor.BC1_BLOCK_BYTES)
+                : width * 4);
+        header.putInt(0); // depth
+        header.putInt(mipCount);
+        header.position(header.position() + 11 * 4); // reserved
+
+        // Pixel format
+        header.putInt(32);
+        if (compressed) {
+            header.putInt(DDPF_FOURCC);
+            header.putInt(bc3 ? FOURCC_DXT5 : FOURCC_DXT1);
+            header.position(header.position() + 5 * 4);
+        } else {
+            header.putInt(DDPF_RGB | DDPF_ALPHAPIXELS);
+            header.putInt(0);
+            header.putInt(32);
+            header.putInt(0x00FF0000);
+            header.putInt(0x0000FF00);
+            header.putInt(0x000000FF);
+            header.putInt(0xFF000000);
+        }
+
+        header.putInt(DDSCAPS_TEXTURE | DDSCAPS_MIPMAP | DDSCAPS_COMPLEX);
+        return header.array();
+    }
+
+    private static float[] toLinear(int[] argb, Kind kind) {
+        float[] rgba = new float[argb.length * 4];
+        for (int i = 0; i < argb.length; i++) {
+            int pixel = argb[i];
+            for (int c = 0; c < 3; c++) {
+                int value = (pixel >> (16 - c * 8)) & 0xFF;
+                if (kind == Kind.COLOR) {
+                    rgba[i * 4 + c] = srgbToLinear(value / 255f);
+                } else if (kind == Kind.NORMAL) {
+                    rgba[i * 4 + c] = value / 127.5f - 1f;
+                } else {
+                    rgba[i * 4 + c] = value / 255f;
+                }
+            }
+            rgba[i * 4 + 3] = (pixel >>> 24) / 255f;
+        }
+        return rgba;
+    }
+
+    private static int[] toArgb(float[] rgba, Kind kind) {
+        int[] argb = new int[rgba.length / 4];
+        for (int i = 0; i < argb.length; i++) {
+            int pixel = Math.round(clamp(rgba[i * 4 + 3]) * 255) << 24;
+            for (int c = 0; c < 3; c++) {
+                float value = rgba[i * 4 + c];
+                if (kind == Kind.COLOR) {
+                    value = linearToSrgb(clamp(value));
+                } else if (kind == Kind.NORMAL) {
+                    value = (value + 1f) * 0.5f;
+                }
+                pixel |= Math.round(clamp(value) * 255) << (16 - c * 8);
+            }
+            argb[i] = pixel;
+        }
+        return argb;
+    }
+
+    private static float[] downsample(float[] rgba, int width, int height, Kind kind) {
+        int newWidth = Math.max(1, width / 2);
+        int newHeight = Math.max(1, height / 2);
+        float[] result = new float[newWidth * newHeight * 4];
+        for (int y = 0; y < newHeight; y++) {
+            int y0 = Math.min(y * 2, height - 1);
+            int y1 = Math.min(y * 2 + 1, height - 1);
+            for (int x = 0; x < newWidth; x++) {
+                int x0 = Math.min(x * 2, width - 1);
+                int x1 = Math.min(x * 2 + 1, width - 1);
+                int target = (y * newWidth + x) * 4;
+                for (int c = 0; c < 4; c++) {
+                    result[target + c] = (rgba[(y0 * width + x0) * 4 + c] + rgba[(y0 * width + x1) * 4 + c]
+                            + rgba[(y1 * width + x0) * 4 + c] + rgba[(y1 * width + x1) * 4 + c]) * 0.25f;
+                }
+                if (kind == Kind.NORMAL) {
+                    normalize(result, target);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Bilinear resize, only used for the last step down to the size cap, where
+     * the image shrinks by less than half, or up to an exact size.
+     */
+    private static float[] resize(float[] rgba, int width, int height, int newWidth, int newHeight, Kind kind) {
+        float[] result = new float[newWidth * newHeight * 4];
+        float scaleX = width / (float) newWidth;
+        float scaleY = height / (float) newHeight;
+        for (int y = 0; y < newHeight; y++) {
+            float sy = Math.max(0, (y + 0.5f) * scaleY - 0.5f);
+            int y0 = Math.min((int) sy, height - 1);
+            int y1 = Math.min(y0 + 1, height - 1);
+            float fy = sy - y0;
+            for (int x = 0; x < newWidth; x++) {
+                float sx = Math.max(0, (x + 0.5f) * scaleX - 0.5f);
+                int x0 = Math.min((int) sx, width - 1);
+                int x1 = Math.min(x0 + 1, width - 1);
+                float fx = sx - x0;
+                int target = (y * newWidth + x) * 4;
+                for (int c = 0; c < 4; c++) {
+                    float top = rgba[(y0 * width + x0) * 4 + c] * (1 - fx) + rgba[(y0 * width + x1) * 4 + c] * fx;
+                    float bottom = rgba[(y1 * width + x0) * 4 + c] * (1 - fx) + rgba[(y1 * width + x1) * 4 + c] * fx;
+                    result[target + c] = top * (1 - fy) + bottom * fy;
+                }
+                if (kind == Kind.NORMAL) {
+                    normalize(result, target);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void normalize(float[] rgba, int offset) {
+        float length = (float) Math.sqrt(rgba[offset] * rgba[offset]
+                + rgba[offset + 1] * rgba[offset + 1] + rgba[offset + 2] * rgba[offset + 2]);
+        if (length > 1e-6f) {
+            rgba[offset] /= length;
+            rgba[offset + 1] /= length;
+            rgba[offset + 2] /= length;
+        }
+    }
+
+    private static byte[] toBgra(int[] argb) {
+        ByteBuffer bytes = ByteBuffer.allocate(argb.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int pixel : argb) {
+            bytes.putInt(pixel); // 0xAARRGGBB little endian is B, G, R, A
+        }
+        return bytes.array();
+    }
+
+    private static float srgbToLinear(float value) {
+        return value <= 0.04045f ? value / 12.92f : (float) Math.pow((value + 0.055f) / 1.055f, 2.4f);
+    }
+
+    private static float linearToSrgb(float value) {
+        return value <= 0.0031308f ? value * 12.92f : 1.055f * (float) Math.pow(value, 1 / 2.4f) - 0.055f;
+    }
+
+    private static float clamp(float value) {
+        return Math.max(0f, Math.min(1f, value));
+    }
+}
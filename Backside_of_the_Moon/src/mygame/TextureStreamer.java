@@ -0,0 +1,342 @@
+package mygame;
+
+import com.jme3.app.SimpleApplication;
+import com.jme3.app.state.AbstractAppState;
+import com.jme3.asset.AssetInfo;
+import com.jme3.asset.AssetKey;
+import com.jme3.asset.AssetManager;
+import com.jme3.asset.TextureKey;
+import com.jme3.material.MatParam;
+import com.jme3.material.MatParamTexture;
+import com.jme3.material.Material;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.texture.Image;
+import com.jme3.texture.Texture;
+import com.jme3.texture.Texture2D;
+import com.jme3.texture.image.ColorSpace;
+import com.jme3.texture.plugins.DDSLoader;
+import com.jme3.util.BufferUtils;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Streams textures in two steps, so that requesting one never waits for an
+ * image decode on the render thread.
+ *
+ * A request returns a texture right away that shows the smallest mips of the
+ * baked DDS, read from the end of the file, or a single gray pixel when the
+ * texture was not baked. The full image is decoded on a worker thread and
+ * swapped into the same texture once it is ready.
+ *
+ * Every second the streamer checks which streamed textures the root and GUI
+ * nodes use. Textures that have not been used for a while drop back to their
+ * placeholder and free their full image, textures that are used again are
+ * streamed in again.
+ */
+public class TextureStreamer extends AbstractAppState {
+
+    // Largest placeholder mip, in pixels
+    private static final int PLACEHOLDER_SIZE = 64;
+    private static final float SCAN_INTERVAL = 1f;
+    // Seconds a texture has to go unused before its full image is dropped
+    private static final float EVICT_DELAY = 10f;
+
+    private static final Set<Texture> streamedTextures =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    private final SimpleApplication app;
+    private final ExecutorService pool;
+    private final DDSLoader ddsLoader = new DDSLoader();
+    private final Map<TextureKey, StreamedTexture> textures = new HashMap<>();
+    private float scanTimer;
+    private float time;
+
+    /**
+     * A texture handed out by the streamer. The texture object stays the same,
+     * only its image changes between the placeholder and the full image.
+     */
+    private static class StreamedTexture {
+        private final TextureKey key;
+        private final Texture2D texture;
+        private final Image placeholder;
+        private Future<Texture> pending;
+        private Image full;
+        private boolean failed;
+        private float lastUsed;
+        private long requestTime;
+
+        StreamedTexture(TextureKey key, Texture2D texture, Image placeholder) {
+            this.key = key;
+            this.texture = texture;
+            this.placeholder = placeholder;
+        }
+    }
+
+    /**
+     * Constructs a new TextureStreamer.
+     *
+     * @param app     The application whose scenes use the textures.
+     * @param threads Number of decode threads.
+     */
+    public TextureStreamer(SimpleApplication app, int threads) {
+        this.app = app;
+        this.pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "Texture Streamer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Swaps in finished full images and drops the ones that went unused.
+     *
+     * @param tpf Time per frame.
+     */
+    @Override
+    public void update(float tpf) {
+        time += tpf;
+        for (StreamedTexture streamed : textures.values()) {
+            if (streamed.pending != null && streamed.pending.isDone()) {
+                upgrade(streamed);
+            }
+        }
+        scanTimer += tpf;
+        if (scanTimer >= SCAN_INTERVAL) {
+            scanTimer = 0;
+            scanUsage();
+        }
+    }
+
+    @Override
+    public void cleanup() {
+        super.cleanup();
+        pool.shutdownNow();
+    }
+
+    /**
+     * Gets a streamed texture. It shows a low resolution placeholder until the
+     * full image has been decoded in the background. Requesting the same key
+     * again returns the same texture. Must be called on the render thread.
+     *
+     * @param key Key of the texture, flipping included.
+     * @return The texture.
+     */
+    public Texture2D request(TextureKey key) {
+        StreamedTexture streamed = textures.get(key);
+        if (streamed == null) {
+            Image placeholder = loadPlaceholder(key);
+            Texture2D texture = new Texture2D(placeholder);
+            texture.setKey(key);
+            texture.setAnisotropicFilter(key.getAnisotropy());
+            streamed = new StreamedTexture(key, texture, placeholder);
+            textures.put(key, streamed);
+            streamedTextures.add(texture);
+        }
+        streamed.lastUsed = time;
+        stream(streamed);
+        return streamed.texture;
+    }
+
+    /**
+     * Checks if a texture is managed by a streamer, which then owns its images.
+     *
+     * @param texture A texture.
+     * @return true if the texture came from a TextureStreamer.
+     */
+    public static boolean isStreamed(Texture texture) {
+        return streamedTextures.contains(texture);
+    }
+
+    /*
+    * Helper functions
+    */
+
+    private void stream(StreamedTexture streamed) {
+        if (streamed.full != null || streamed.pending != null || streamed.failed) {
+            return;
+        }
+        AssetManager assetManager = app.getAssetManager();
+        streamed.requestTime = System.nanoTime();
+        streamed.pending = pool.submit(() -> {
+            // The streamer owns the full image, the cache must not keep a second copy alive
+            Texture loaded = assetManager.loadTexture(streamed.key);
+            assetManager.deleteFromCache(streamed.key);
+            return loaded;
+        });
+    }
+
+    private void upgrade(StreamedTexture streamed) {
+        Future<Texture> pending = streamed.pending;
+        streamed.pending = null;
+        try {
+            streamed.full = pending.get().getImage();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            System.err.println("Failed to stream texture '" + streamed.key.getName() + "': " + e.getCause());
+            streamed.failed = true; // keeps the placeholder
+            return;
+        }
+        streamed.texture.setImage(streamed.full);
+        System.out.println("Streamed texture: " + streamed.key.getName() + " ("
+                + (System.nanoTime() - streamed.requestTime) / 1_000_000 + " ms)");
+    }
+
+    private void scanUsage() {
+        Set<Texture> used = Collections.newSetFromMap(new IdentityHashMap<>());
+        collectTextures(app.getRootNode(), used);
+        collectTextures(app.getGuiNode(), used);
+        for (StreamedTexture streamed : textures.values()) {
+            if (used.contains(streamed.texture)) {
+                streamed.lastUsed = time;
+                stream(streamed);
+            } else if (streamed.full != null && time - streamed.lastUsed > EVICT_DELAY) {
+                evict(streamed);
+            }
+        }
+    }
+
+    private void evict(StreamedTexture streamed) {
+        Image full = streamed.full;
+        streamed.full = null;
+        streamed.texture.setImage(streamed.placeholder);
+        app.getRenderer().deleteImage(full);
+        for (ByteBuffer data : new ArrayList<>(full.getData())) {
+            if (data != null && data.isDirect()) {
+                BufferUtils.destroyDirectBuffer(data);
+            }
+        }
+        full.getData().clear();
+        System.out.println("Evicted texture: " + streamed.key.getName());
+    }
+
+    private void collectTextures(Spatial spatial, Set<Texture> used) {
+        if (spatial instanceof Geometry) {
+            Material material = ((Geometry) spatial).getMaterial();
+            if (material != null) {
+                for (MatParam param : material.getParams()) {
+                    if (param instanceof MatParamTexture) {
+                        Texture texture = ((MatParamTexture) param).getTextureValue();
+                        if (texture != null) {
+                            used.add(texture);
+                        }
+                    }
+                }
+            }
+        } else if (spatial instanceof Node) {
+            for (Spatial child : ((Node) spatial).getChildren()) {
+                collectTextures(child, used);
+            }
+        }
+    }
+
+    /**
+     * Reads the smallest mips of the baked DDS of a texture. Only the tail of
+     * the file is read, it is handed to DDSLoader with a rewritten header so
+     * flipping and formats are handled as for the full image.
+     */
+    private Image loadPlaceholder(TextureKey key) {
+        AssetManager assetManager = app.getAssetManager();
+        try {
+            String baked = BakedTextureLoader.getBakedName(assetManager, key.getName());
+            AssetInfo info = baked != null ? assetManager.locateAsset(new AssetKey<>(baked)) : null;
+            Image image = info != null ? readTail(info, key) : null;
+            if (image != null) {
+                return image;
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to read placeholder of '" + key.getName() + "': " + e);
+        }
+        ByteBuffer gray = BufferUtils.createByteBuffer(4);
+        gray.put((byte) 0x80).put((byte) 0x80).put((byte) 0x80).put((byte) 0xFF).flip();
+        return new Image(Image.Format.RGBA8, 1, 1, gray, ColorSpace.sRGB);
+    }
+
+    private Image readTail(AssetInfo info, TextureKey key) throws IOException {
+        try (InputStream in = info.openStream()) {
+            DataInputStream data = new DataInputStream(in);
+            byte[] headerBytes = new byte[128];
+            data.readFully(headerBytes);
+            ByteBuffer header = ByteBuffer.wrap(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+            int height = header.getInt(12);
+            int width = header.getInt(16);
+            int mipCount = Math.max(1, header.getInt(28));
+            int pixelFlags = header.getInt(80);
+            int fourCC = header.getInt(84);
+
+            // Only the formats TextureBaker writes: DXT1, DXT5 and 32 bit RGBA
+            int blockBytes;
+            if ((pixelFlags & 0x4) != 0 && fourCC == 0x31545844) {
+                blockBytes = BlockCompressor.BC1_BLOCK_BYTES;
+            } else if ((pixelFlags & 0x4) != 0 && fourCC == 0x35545844) {
+                blockBytes = BlockCompressor.BC3_BLOCK_BYTES;
+            } else if ((pixelFlags & 0x40) != 0 && header.getInt(88) == 32) {
+                blockBytes = 0;
+            } else {
+                return null;
+            }
+
+            int level = 0;
+            long skip = 0;
+            while (level < mipCount - 1 && Math.max(width, height) > PLACEHOLDER_SIZE) {
+                skip += levelSize(width, height, blockBytes);
+                width = Math.max(1, width / 2);
+                height = Math.max(1, height / 2);
+                level++;
+            }
+            if (Math.max(width, height) > PLACEHOLDER_SIZE) {
+                return null; // no mips small enough
+            }
+            long skipped = 0;
+            while (skipped < skip) {
+                long n = data.skip(skip - skipped);
+                if (n <= 0) {
+                    throw new IOException("Truncated DDS file");
+                }
+                skipped += n;
+            }
+            int tailBytes = 0;
+            for (int w = width, h = height, i = level; i < mipCount; i++) {
+                tailBytes += levelSize(w, h, blockBytes);
+                w = Math.max(1, w / 2);
+                h = Math.max(1, h / 2);
+            }
+            byte[] tail = new byte[128 + tailBytes];
+            header.putInt(12, height);
+            header.putInt(16, width);
+            header.putInt(20, blockBytes > 0 ? levelSize(width, height, blockBytes) : width * 4);
+            header.putInt(28, mipCount - level);
+            System.arraycopy(headerBytes, 0, tail, 0, 128);
+            data.readFully(tail, 128, tailBytes);
+
+            return (Image) ddsLoader.load(new AssetInfo(app.getAssetManager(), key) {
+                @Override
+                public InputStream openStream() {
+                    return new ByteArrayInputStream(tail);
+                }
+            });
+        }
+    }
+
+    private static int levelSize(int width, int height, int blockBytes) {
+        return blockBytes > 0 ? BlockCompressor.compressedSize(width, height, blockBytes) : width * height * 4;
+    }
+}
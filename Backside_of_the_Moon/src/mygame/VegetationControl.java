@@ -0,0 +1,332 @@
+package mygame;
+
+import com.jme3.bounding.BoundingBox;
+import com.jme3.bounding.BoundingSphere;
+import com.jme3.bounding.BoundingVolume;
+import com.jme3.material.Material;
+import com.jme3.math.FastMath;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.renderer.queue.RenderQueue;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.control.AbstractControl;
+import com.jme3.util.BufferUtils;
+import java.nio.FloatBuffer;
+import java.util.List;
+
+/**
+ * Draws many copies of a plant model, as meshes near the camera and as
+ * impostors beyond the impostor distance.
+ *
+ * Near plants are clones of the model sharing its meshes and materials, each
+ * with ScreenLodControls that step down its LOD levels as it gets smaller on
+ * screen. Far plants are crossed quads textured with the views of an
+ * ImpostorBaker atlas. All impostors are one mesh, a plant that comes near
+ * only collapses its quads to a point, so the forest beyond the cutoff is a
+ * single draw call.
+ *
+ * Like TerrainLodControl, the camera is the first one that renders the plants.
+ * Plants are swapped a few times per second, with some slack so a plant on the
+ * cutoff does not flicker.
+ */
+public class VegetationControl extends AbstractControl {
+
+    private static final float CHECK_INTERVAL = 0.25f;
+    // Near plants turn back into impostors this much past the cutoff
+    private static final float HYSTERESIS = 1.1f;
+
+    private final Spatial model;
+    private final ImpostorFrame frame;
+    private final List<Plant> plants;
+    private final float impostorDistance;
+    private final int views;
+    private final Node nearNode = new Node("NearPlants");
+    private final Geometry impostors;
+    // Position buffer of the impostor mesh, null without impostors
+    private FloatBuffer impostorPositions;
+    private Camera camera;
+    private float checkTimer = CHECK_INTERVAL;
+
+    /**
+     * The part of a model its impostor covers: a vertical cylinder around the
+     * center of its bounds, wide enough for any view.
+     */
+    public static class ImpostorFrame {
+        public final float centerX;
+        public final float centerZ;
+        public final float radius;
+        public final float bottom;
+        public final float top;
+
+        private ImpostorFrame(float centerX, float centerZ, float radius, float bottom, float top) {
+            this.centerX = centerX;
+            this.centerZ = centerZ;
+            this.radius = radius;
+            this.bottom = bottom;
+            this.top = top;
+        }
+
+        /**
+         * Measures a model as loaded, in its own space.
+         *
+         * @param model The model.
+         * @return Its frame.
+         */
+        public static ImpostorFrame of(Spatial model) {
+            model.updateGeometricState();
+            BoundingVolume bound = model.getWorldBound();
+            Vector3f center = bound.getCenter();
+            Vector3f extent;
+            if (bound instanceof BoundingSphere) {
+                float r = ((BoundingSphere) bound).getRadius();
+                extent = new Vector3f(r, r, r);
+            } else {
+                extent = ((BoundingBox) bound).getExtent(null);
+            }
+            float radius = FastMath.sqrt(extent.x * extent.x + extent.z * extent.z);
+            return new ImpostorFrame(center.x, center.z, radius, center.y - extent.y, center.y + extent.y);
+        }
+    }
+
+    /**
+     * One plant.
+     */
+    public static class Plant {
+        private final Vector3f position;
+        private final float scale;
+        private final float yaw;
+        private Spatial mesh;
+        private boolean near;
+
+        /**
+         * Constructs a new Plant.
+         *
+         * @param position Position relative to the vegetation node.
+         * @param scale    Scale of the model.
+         * @param yaw      Rotation around the vertical axis in radians.
+         */
+        public Plant(Vector3f position, float scale, float yaw) {
+            this.position = position;
+            this.scale = scale;
+            this.yaw = yaw;
+        }
+    }
+
+    /**
+     * Constructs a new VegetationControl.
+     *
+     * @param model            The plant model, near plants share its meshes and materials.
+     * @param impostorMaterial Material with the impostor atlas, or null to draw every plant as a mesh.
+     * @param views            Number of views in the atlas.
+     * @param plants           The plants.
+     * @param impostorDistance Distance beyond which plants are drawn as impostors.
+     */
+    public VegetationControl(Spatial model, Material impostorMaterial, int views, List<Plant> plants,
+                             float impostorDistance) {
+        this.model = model;
+        this.frame = ImpostorFrame.of(model);
+        this.plants = plants;
+        this.views = views;
+        this.impostorDistance = impostorMaterial != null ? impostorDistance : Float.POSITIVE_INFINITY;
+
+        if (impostorMaterial != null) {
+            impostors = new Geometry("Impostors", buildImpostorMesh());
+            impostors.setMaterial(impostorMaterial);
+            impostors.setShadowMode(RenderQueue.ShadowMode.Off);
+        } else {
+            impostors = null;
+            for (Plant plant : plants) {
+                plant.near = true;
+                nearNode.attachChild(mesh(plant));
+            }
+        }
+    }
+
+    /**
+     * Gets the direction an atlas view is seen from, as an angle around the
+     * vertical axis. The views cover half a turn, each quad shows its view
+     * from both sides.
+     *
+     * @param view  Index of the view.
+     * @param views Number of views.
+     * @return The angle in radians.
+     */
+    public static float viewAngle(int view, int views) {
+        return view * FastMath.PI / views;
+    }
+
+    /**
+     * Attaches the near plants and the impostors to the controlled node.
+     *
+     * @param spatial The vegetation node.
+     */
+    @Override
+    public void setSpatial(Spatial spatial) {
+        super.setSpatial(spatial);
+        if (spatial instanceof Node) {
+            ((Node) spatial).attachChild(nearNode);
+            if (impostors != null) {
+                ((Node) spatial).attachChild(impostors);
+            }
+        }
+    }
+
+    /**
+     * Swaps plants between meshes and impostors as the camera moves.
+     *
+     * @param tpf Time per frame.
+     */
+    @Override
+    protected void controlUpdate(float tpf) {
+        if (camera == null) {
+            return;
+        }
+        checkTimer += tpf;
+        if (checkTimer < CHECK_INTERVAL) {
+            return;
+        }
+        checkTimer = 0;
+
+        Vector3f eye = spatial.worldToLocal(camera.getLocation(), new Vector3f());
+        boolean changed = false;
+        for (int i = 0; i < plants.size(); i++) {
+            Plant plant = plants.get(i);
+            float distance = plant.position.distance(eye);
+            if (!plant.near && distance < impostorDistance) {
+                plant.near = true;
+                nearNode.attachChild(mesh(plant));
+                writeImpostor(i, false);
+                changed = true;
+            } else if (plant.near && distance > impostorDistance * HYSTERESIS) {
+                plant.near = false;
+                plant.mesh.removeFromParent();
+                writeImpostor(i, true);
+                changed = true;
+            }
+        }
+        if (changed && impostors != null) {
+            Mesh mesh = impostors.getMesh();
+            mesh.getBuffer(VertexBuffer.Type.Position).setUpdateNeeded();
+            mesh.updateBound();
+            impostors.updateModelBound();
+        }
+    }
+
+    /**
+     * Remembers the camera the plants are drawn for.
+     *
+     * @param rm The render manager.
+     * @param vp The viewport rendering the plants.
+     */
+    @Override
+    protected void controlRender(RenderManager rm, ViewPort vp) {
+        if (camera == null) {
+            camera = vp.getCamera();
+        }
+    }
+
+    /*
+    * Helper functions
+    */
+
+    private Spatial mesh(Plant plant) {
+        if (plant.mesh == null) {
+            plant.mesh = model.clone(false);
+            plant.mesh.setLocalTranslation(plant.position);
+            plant.mesh.setLocalRotation(new Quaternion().fromAngles(0, plant.yaw, 0));
+            plant.mesh.setLocalScale(plant.scale);
+            ScreenLodControl.addTo(plant.mesh);
+        }
+        return plant.mesh;
+    }
+
+    private Mesh buildImpostorMesh() {
+        int quads = plants.size() * views;
+        Mesh mesh = new Mesh();
+        mesh.setBuffer(VertexBuffer.Type.Position, 3, BufferUtils.createFloatBuffer(quads * 4 * 3));
+        FloatBuffer texCoords = BufferUtils.createFloatBuffer(quads * 4 * 2);
+        int[] indices = new int[quads * 6];
+        for (int quad = 0; quad < quads; quad++) {
+            int view = quad % views;
+            float u0 = view / (float) views;
+            float u1 = (view + 1) / (float) views;
+            texCoords.put(u0).put(0).put(u1).put(0).put(u1).put(1).put(u0).put(1);
+            int vertex = quad * 4;
+            int index = quad * 6;
+            indices[index] = vertex;
+            indices[index + 1] = vertex + 1;
+            indices[index + 2] = vertex + 2;
+            indices[index + 3] = vertex;
+            indices[index + 4] = vertex + 2;
+            indices[index + 5] = vertex + 3;
+        }
+        texCoords.flip();
+        mesh.setBuffer(VertexBuffer.Type.TexCoord, 2, texCoords);
+        if (quads * 4 > 65535) {
+            mesh.setBuffer(VertexBuffer.Type.Index, 3, indices);
+        } else {
+            short[] shortIndices = new short[indices.length];
+            for (int i = 0; i < indices.length; i++) {
+                shortIndices[i] = (short) indices[i];
+            }
+            mesh.setBuffer(VertexBuffer.Type.Index, 3, shortIndices);
+        }
+        impostorPositions = (FloatBuffer) mesh.getBuffer(VertexBuffer.Type.Position).getData();
+        for (int i = 0; i < plants.size(); i++) {
+            writeImpostor(i, true);
+        }
+        mesh.updateCounts();
+        mesh.updateBound();
+        return mesh;
+    }
+
+    /**
+     * Writes the quads of one plant, or collapses them to its position when
+     * the plant is drawn as a mesh.
+     */
+    private void writeImpostor(int index, boolean visible) {
+        if (impostorPositions == null) {
+            return;
+        }
+        Plant plant = plants.get(index);
+        float cos = FastMath.cos(plant.yaw);
+        float sin = FastMath.sin(plant.yaw);
+        // The frame center, turned with the plant
+        float centerX = plant.position.x + (frame.centerX * cos + frame.centerZ * sin) * plant.scale;
+        float centerZ = plant.position.z + (-frame.centerX * sin + frame.centerZ * cos) * plant.scale;
+        float bottom = plant.position.y + frame.bottom * plant.scale;
+        float top = plant.position.y + frame.top * plant.scale;
+        float radius = frame.radius * plant.scale;
+
+        int offset = index * views * 4 * 3;
+        for (int view = 0; view < views; view++) {
+            float angle = viewAngle(view, views) + plant.yaw;
+            float rightX = FastMath.cos(angle) * radius;
+            float rightZ = -FastMath.sin(angle) * radius;
+            if (!visible) {
+                rightX = 0;
+                rightZ = 0;
+                bottom = plant.position.y;
+                top = plant.position.y;
+                centerX = plant.position.x;
+                centerZ = plant.position.z;
+            }
+            int base = offset + view * 4 * 3;
+            put(base, centerX - rightX, bottom, centerZ - rightZ);
+            put(base + 3, centerX + rightX, bottom, centerZ + rightZ);
+            put(base + 6, centerX + rightX, top, centerZ + rightZ);
+            put(base + 9, centerX - rightX, top, centerZ - rightZ);
+        }
+    }
+
+    private void put(int index, float x, float y, float z) {
+        impostorPositions.put(index, x).put(index + 1, y).put(index + 2, z);
+    }
+}